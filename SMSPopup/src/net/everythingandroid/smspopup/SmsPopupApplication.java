@@ -0,0 +1,18 @@
+package net.everythingandroid.smspopup;
+
+import net.everythingandroid.smspopup.util.Log;
+import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
+import android.app.Application;
+import android.preference.PreferenceManager;
+
+public class SmsPopupApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Release builds only log warnings and errors unless verbose logging is turned on
+        Log.applyLevel(PreferenceManager.getDefaultSharedPreferences(this).getBoolean(
+                getString(R.string.pref_verbose_logging_key), Defaults.PREFS_VERBOSE_LOGGING));
+    }
+}
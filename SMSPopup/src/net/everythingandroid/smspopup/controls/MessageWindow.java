@@ -0,0 +1,173 @@
+package net.everythingandroid.smspopup.controls;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+/*
+ * The messages behind the popup pager with only those near the current position held in memory.
+ * Messages added as reloadable (the pages of unread messages read from the system database) are
+ * dropped once the user pages more than radius away from them and only their id is kept, so they
+ * can be read back by id as the user pages towards them again. Other messages (the one that
+ * opened the popup and new arrivals) are always kept. All calls must be made on the UI thread.
+ */
+public class MessageWindow {
+
+    private final int mRadius;
+    private final ArrayList<SmsMmsMessage> mMessages = new ArrayList<SmsMmsMessage>(5);
+    // The id to reload each message by, 0 for messages that are always kept
+    private final ArrayList<Long> mIds = new ArrayList<Long>(5);
+    private int mLoaded = 0;
+
+    public MessageWindow(int radius) {
+        mRadius = radius;
+    }
+
+    public int size() {
+        return mMessages.size();
+    }
+
+    /**
+     * The message at position, null if it was dropped and not reloaded yet.
+     */
+    public SmsMmsMessage get(int position) {
+        return mMessages.get(position);
+    }
+
+    /**
+     * The loaded message nearest to position, null if none are loaded.
+     */
+    public SmsMmsMessage getNearest(int position) {
+        final int size = mMessages.size();
+        for (int d = 0; d < size; d++) {
+            if (position - d >= 0 && mMessages.get(position - d) != null) {
+                return mMessages.get(position - d);
+            }
+            if (position + d < size && mMessages.get(position + d) != null) {
+                return mMessages.get(position + d);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The number of messages held in memory.
+     */
+    public int getLoadedCount() {
+        return mLoaded;
+    }
+
+    /**
+     * The messages held in memory, in pager order.
+     */
+    public ArrayList<SmsMmsMessage> getLoaded() {
+        final ArrayList<SmsMmsMessage> loaded = new ArrayList<SmsMmsMessage>(mLoaded);
+        for (int i = 0; i < mMessages.size(); i++) {
+            if (mMessages.get(i) != null) {
+                loaded.add(mMessages.get(i));
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Add a message that is always kept to the end.
+     */
+    public void add(SmsMmsMessage message) {
+        mMessages.add(message);
+        mIds.add(0L);
+        mLoaded++;
+    }
+
+    /**
+     * Insert messages at position, reloadable messages may be dropped and read back by their id.
+     */
+    public void addAll(int position, List<SmsMmsMessage> messages, boolean reloadable) {
+        final ArrayList<Long> ids = new ArrayList<Long>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            final long id = messages.get(i).getMessageId();
+            ids.add(reloadable && id > 0 ? id : 0L);
+        }
+        mMessages.addAll(position, messages);
+        mIds.addAll(position, ids);
+        mLoaded += messages.size();
+    }
+
+    public void remove(int position) {
+        if (mMessages.remove(position) != null) {
+            mLoaded--;
+        }
+        mIds.remove(position);
+    }
+
+    /**
+     * Drop the reloadable messages more than radius away from position.
+     *
+     * @return The number of messages dropped.
+     */
+    public int trim(int position) {
+        int dropped = 0;
+        for (int i = 0; i < mMessages.size(); i++) {
+            if (Math.abs(i - position) > mRadius && mIds.get(i) != 0
+                    && mMessages.get(i) != null) {
+                mMessages.set(i, null);
+                dropped++;
+            }
+        }
+        mLoaded -= dropped;
+        return dropped;
+    }
+
+    /**
+     * The ids of dropped messages within distance of position.
+     *
+     * @return The ids, empty if there are none to reload.
+     */
+    public long[] getMissing(int position, int distance) {
+        final int from = Math.max(position - distance, 0);
+        final int to = Math.min(position + distance, mMessages.size() - 1);
+        int count = 0;
+        for (int i = from; i <= to; i++) {
+            if (mMessages.get(i) == null) {
+                count++;
+            }
+        }
+        final long[] ids = new long[count];
+        count = 0;
+        for (int i = from; i <= to; i++) {
+            if (mMessages.get(i) == null) {
+                ids[count++] = mIds.get(i);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Put a reloaded message back in its place.
+     *
+     * @return The position of the message, -1 if it is no longer in the window.
+     */
+    public int fill(SmsMmsMessage message) {
+        if (message.getMessageId() == 0) {
+            return -1;
+        }
+        final int position = mIds.indexOf(message.getMessageId());
+        if (position >= 0 && mMessages.get(position) == null) {
+            mMessages.set(position, message);
+            mLoaded++;
+        }
+        return position;
+    }
+
+    /**
+     * The position of the dropped message with this id, -1 if there is none.
+     */
+    public int indexOfMissing(long messageId) {
+        if (messageId == 0) {
+            return -1;
+        }
+        final int position = mIds.indexOf(messageId);
+        return position >= 0 && mMessages.get(position) == null ? position : -1;
+    }
+}
@@ -0,0 +1,116 @@
+package net.everythingandroid.smspopup.controls;
+
+import java.util.ArrayList;
+
+import android.support.v4.view.PagerAdapter;
+
+/*
+ * The pages of a PagerAdapter, with a small pool of detached views so paging rebinds an existing
+ * view rather than inflating a new one. Each page remembers the position it is bound to, kept up
+ * to date as items are inserted and removed, so getItemPosition() is a field read rather than a
+ * search. All calls must be made on the UI thread.
+ */
+public class PageRecycler<V> {
+
+    public interface Binder<V> {
+        /**
+         * Create (inflate) a new view bound to the item at position.
+         */
+        public V create(int position);
+
+        /**
+         * Rebind a recycled view to the item at position.
+         */
+        public void bind(V view, int position);
+    }
+
+    public static final class Page<V> {
+        public final V view;
+        private int position;
+
+        private Page(V view, int position) {
+            this.view = view;
+            this.position = position;
+        }
+
+        /**
+         * The position of the bound item, or PagerAdapter.POSITION_NONE once it was removed.
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    private final Binder<V> mBinder;
+    private final int mMaxRecycled;
+    private final ArrayList<Page<V>> mActive = new ArrayList<Page<V>>(3);
+    private final ArrayList<Page<V>> mRecycled;
+    private int mCreated = 0;
+
+    public PageRecycler(Binder<V> binder, int maxRecycled) {
+        mBinder = binder;
+        mMaxRecycled = maxRecycled;
+        mRecycled = new ArrayList<Page<V>>(maxRecycled);
+    }
+
+    /**
+     * A page for instantiateItem(), reusing a recycled view if there is one.
+     */
+    public Page<V> obtain(int position) {
+        final Page<V> page;
+        final int recycled = mRecycled.size();
+        if (recycled > 0) {
+            page = mRecycled.remove(recycled - 1);
+            page.position = position;
+            mBinder.bind(page.view, position);
+        } else {
+            page = new Page<V>(mBinder.create(position), position);
+            mCreated++;
+        }
+        mActive.add(page);
+        return page;
+    }
+
+    /**
+     * A page from destroyItem(), kept for reuse if the pool isn't full.
+     */
+    public void recycle(Page<V> page) {
+        mActive.remove(page);
+        if (mRecycled.size() < mMaxRecycled) {
+            mRecycled.add(page);
+        }
+    }
+
+    /**
+     * Items at or after start moved by delta (positive for inserts, negative for removals).
+     */
+    public void shift(int start, int delta) {
+        for (int i = 0; i < mActive.size(); i++) {
+            final Page<V> page = mActive.get(i);
+            if (page.position >= start) {
+                page.position += delta;
+            }
+        }
+    }
+
+    /**
+     * The item at position was removed, its page (if attached) is dropped by the pager on the
+     * next notifyDataSetChanged() and the pages after it move down.
+     */
+    public void remove(int position) {
+        for (int i = 0; i < mActive.size(); i++) {
+            final Page<V> page = mActive.get(i);
+            if (page.position == position) {
+                page.position = PagerAdapter.POSITION_NONE;
+            }
+        }
+        shift(position + 1, -1);
+    }
+
+    /**
+     * Number of views created (rather than rebound) so far.
+     */
+    public int getCreatedCount() {
+        return mCreated;
+    }
+}
@@ -22,7 +22,7 @@ import com.viewpagerindicator.CirclePageIndicator;
 
 public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
 
-    private ArrayList<SmsMmsMessage> messages;
+    private MessageWindow messages;
     private int currentPage;
     private MessageCountChanged messageCountChanged;
     private Context mContext;
@@ -31,6 +31,20 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
     private int privacyMode;
     private OnReactToMessage mOnReactToMessage;
     private volatile boolean removingMessage = false;
+
+    // Pages attached to the pager and detached views kept for reuse
+    private PageRecycler<SmsPopupView> mPages;
+    private static final int MAX_RECYCLED_VIEWS = 3;
+
+    // Ask for older messages once the user pages this close to the first message
+    private static final int LOAD_OLDER_DISTANCE = 2;
+    private OnNeedOlderMessages mOnNeedOlderMessages;
+
+    // Only messages within this many pages of the current one are held in memory, dropped ones
+    // are reloaded once the user pages this close to them
+    private static final int WINDOW_RADIUS = 30;
+    private static final int RELOAD_DISTANCE = 10;
+    private MessageLoader mMessageLoader;
     
     public static int STATUS_MESSAGES_REMAINING = 0;
     public static int STATUS_NO_MESSAGES_REMAINING = 1;
@@ -48,7 +62,8 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
 
     private void init(Context context) {
         mContext = context;
-        messages = new ArrayList<SmsMmsMessage>(5);
+        messages = new MessageWindow(WINDOW_RADIUS);
+        mPages = new PageRecycler<SmsPopupView>(new PageBinder(), MAX_RECYCLED_VIEWS);
         mAdapter = new SmsPopupPagerAdapter();
         setAdapter(mAdapter);
         currentPage = 0;
@@ -58,6 +73,32 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
         mOnReactToMessage = r;
     }
 
+    public void setOnNeedOlderMessages(OnNeedOlderMessages n) {
+        mOnNeedOlderMessages = n;
+    }
+
+    public static interface OnNeedOlderMessages {
+        abstract void onNeedOlderMessages();
+    }
+
+    public void setMessageLoader(MessageLoader l) {
+        mMessageLoader = l;
+    }
+
+    public static interface MessageLoader {
+        /**
+         * Read back messages dropped from memory in the background and hand them to
+         * fillMessages().
+         */
+        abstract void loadMessages(long[] messageIds);
+
+        /**
+         * Read back one message straight away, for a page shown before the background load
+         * finished. Returns null if the message no longer exists.
+         */
+        abstract SmsMmsMessage loadMessage(long messageId);
+    }
+
     public int getPageCount() {
         return messages.size();
     }
@@ -74,14 +115,19 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
     }
 
     /**
-     * Add a list of new messages to the end of the current message list.
+     * Add a list of (older) messages to the start of the current message list, the currently
+     * displayed message stays in view. These may be dropped from memory once the user pages far
+     * enough away and are then read back through the MessageLoader.
      * 
      * @param newMessages
      *            The list of new messages to add.
      */
     public synchronized void addMessages(ArrayList<SmsMmsMessage> newMessages) {
-        if (newMessages != null) {
-            messages.addAll(0, newMessages);
+        if (newMessages != null && newMessages.size() > 0) {
+            messages.addAll(0, newMessages, mMessageLoader != null);
+            mPages.shift(0, newMessages.size());
+            mAdapter.notifyDataSetChanged();
+            currentPage = getCurrentItem();
             UpdateMessageCount();
         }
     }
@@ -121,6 +167,7 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
                 }
                 
                 messages.remove(numMessage);
+                mPages.remove(numMessage);
                 mAdapter.notifyDataSetChanged();
                 UpdateMessageCount();
                 removingMessage = false;
@@ -152,7 +199,7 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
      * @return The currently visible message.
      */
     public synchronized SmsMmsMessage getActiveMessage() {
-        return messages.get(currentPage);
+        return getMessage(currentPage);
     }
     
     public synchronized int getActiveMessageNum() {
@@ -180,16 +227,18 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
         if (currentPage < (getPageCount() - 1)) {
             setCurrentItem(currentPage + 1);
         }
-        if (Log.DEBUG)
-            Log.v("showNext() - " + currentPage + ", " + getActiveMessage().getContactName());
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "showNext() - %s, %s", currentPage,
+                    getActiveMessage().getContactName());
     }
 
     public void showPrevious() {
         if (currentPage > 0) {
             setCurrentItem(currentPage - 1);
         }
-        if (Log.DEBUG)
-            Log.v("showPrevious() - " + currentPage + ", " + getActiveMessage().getContactName());
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "showPrevious() - %s, %s", currentPage,
+                    getActiveMessage().getContactName());
     }
 
     @Override
@@ -213,6 +262,86 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
     @Override
     public void onPageSelected(int position) {
         currentPage = position;
+        if (position < LOAD_OLDER_DISTANCE && mOnNeedOlderMessages != null) {
+            mOnNeedOlderMessages.onNeedOlderMessages();
+        }
+        if (mMessageLoader != null) {
+            messages.trim(position);
+            final long[] missing = messages.getMissing(position, RELOAD_DISTANCE);
+            if (missing.length > 0) {
+                mMessageLoader.loadMessages(missing);
+            }
+        }
+    }
+
+    /**
+     * Put messages read back by the MessageLoader in place, any that were asked for but not found
+     * have been deleted since and are removed.
+     * 
+     * @param messageIds
+     *            The ids passed to loadMessages().
+     * @param loaded
+     *            The messages that were found.
+     */
+    public synchronized void fillMessages(long[] messageIds, ArrayList<SmsMmsMessage> loaded) {
+        if (loaded != null) {
+            for (int i = 0; i < loaded.size(); i++) {
+                messages.fill(loaded.get(i));
+            }
+        }
+        boolean removed = false;
+        for (int i = 0; i < messageIds.length; i++) {
+            final int position = messages.indexOfMissing(messageIds[i]);
+            if (position >= 0 && messages.size() > 1) {
+                messages.remove(position);
+                mPages.remove(position);
+                removed = true;
+            }
+        }
+        if (removed) {
+            mAdapter.notifyDataSetChanged();
+            currentPage = getCurrentItem();
+            UpdateMessageCount();
+        }
+    }
+
+    /*
+     * The message at position, read back straight away if it was dropped from memory. A message
+     * deleted since it was dropped is removed, its nearest neighbour stands in until then.
+     */
+    private SmsMmsMessage loadNow(int position) {
+        SmsMmsMessage message = messages.get(position);
+        if (message == null && mMessageLoader != null) {
+            final long messageId = messages.getMissing(position, 0)[0];
+            message = mMessageLoader.loadMessage(messageId);
+            if (message != null) {
+                messages.fill(message);
+            } else {
+                post(new Runnable() {
+                    @Override
+                    public void run() {
+                        fillMessages(new long[] { messageId }, null);
+                    }
+                });
+                message = messages.getNearest(position);
+            }
+        }
+        return message;
+    }
+
+    private class PageBinder implements PageRecycler.Binder<SmsPopupView> {
+
+        @Override
+        public SmsPopupView create(int position) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "SmsPopupPager: inflating new SmsPopupView");
+            return new SmsPopupView(mContext, loadNow(position), privacyMode);
+        }
+
+        @Override
+        public void bind(SmsPopupView view, int position) {
+            view.bind(loadNow(position), privacyMode);
+        }
     }
 
     private class SmsPopupPagerAdapter extends PagerAdapter {
@@ -233,22 +362,24 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
         }
         
         @Override
-        public Object instantiateItem(ViewGroup container, int position) {            
-            final SmsPopupView mView = 
-                    new SmsPopupView(mContext, messages.get(position), privacyMode);
-            mView.setOnReactToMessage(mOnReactToMessage);
-            ((ViewPager) container).addView(mView);            
-            return mView;
+        public Object instantiateItem(ViewGroup container, int position) {
+            final PageRecycler.Page<SmsPopupView> page = mPages.obtain(position);
+            page.view.setOnReactToMessage(mOnReactToMessage);
+            ((ViewPager) container).addView(page.view);
+            return page;
         }
         
+        @SuppressWarnings("unchecked")
         @Override
         public void destroyItem(ViewGroup container, int position, Object object) {
-            ((ViewPager) container).removeView((SmsPopupView) object);
+            final PageRecycler.Page<SmsPopupView> page = (PageRecycler.Page<SmsPopupView>) object;
+            ((ViewPager) container).removeView(page.view);
+            mPages.recycle(page);
         }
 
         @Override
         public boolean isViewFromObject(View view, Object object) {
-            return view == ((SmsPopupView) object);
+            return view == ((PageRecycler.Page<?>) object).view;
         }
 
         @Override
@@ -261,11 +392,8 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
 
         @Override
         public int getItemPosition(Object object) {
-            int idx = messages.indexOf(object);
-            if (idx == -1) {
-                return PagerAdapter.POSITION_NONE;
-            }
-            return idx;
+            // Kept up to date as messages are added and removed
+            return ((PageRecycler.Page<?>) object).getPosition();
         }
 
     }
@@ -293,7 +421,7 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
         SmsMmsMessage message;
         for (int i = 0; i < messages.size(); i++) {
             message = messages.get(i);
-            if (message.shouldNotify()) {
+            if (message != null && message.shouldNotify()) {
                 return message;
             }
         }
@@ -301,11 +429,14 @@ public class SmsPopupPager extends ViewPager implements OnPageChangeListener {
         return null;
     }
     
+    /**
+     * The messages currently held in memory.
+     */
     public ArrayList<SmsMmsMessage> getMessages() {
-        return messages;
+        return messages.getLoaded();
     }
     
-    public SmsMmsMessage getMessage(int i) {
-        return messages.get(i);
+    public synchronized SmsMmsMessage getMessage(int i) {
+        return loadNow(i);
     }
 }
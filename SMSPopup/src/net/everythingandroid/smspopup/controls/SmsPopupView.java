@@ -34,6 +34,7 @@ public class SmsPopupView extends LinearLayout {
 
     private QuickContactBadge contactBadge = null;
     private boolean fetchedContactPhoto = false;
+    private FetchContactPhotoTask fetchContactPhotoTask = null;
 
     public static final int PRIVACY_MODE_OFF = 0;
     public static final int PRIVACY_MODE_HIDE_MESSAGE = 1;
@@ -76,6 +77,27 @@ public class SmsPopupView extends LinearLayout {
         mOnReactToMessage = r;
     }
 
+    /**
+     * Rebind this (recycled) view to a different message.
+     */
+    public void bind(SmsMmsMessage newMessage, int newPrivacyMode) {
+        if (fetchContactPhotoTask != null) {
+            fetchContactPhotoTask.cancel(false);
+            fetchContactPhotoTask = null;
+        }
+        fetchedContactPhoto = false;
+        messageViewed = false;
+        contactBadge.setImageResource(R.drawable.ic_contact_picture);
+
+        privacyMode = newPrivacyMode;
+        message = newMessage;
+        populateViews(message);
+    }
+
+    public SmsMmsMessage getMessage() {
+        return message;
+    }
+
     private void setupLayout(Context context) {
         View.inflate(context, R.layout.message, this);
 
@@ -189,7 +211,16 @@ public class SmsPopupView extends LinearLayout {
         // Fetch contact photo in background
         // if (contactPhoto == null || contactPhoto.get() == null) {
         if (!fetchedContactPhoto) {
-            new FetchContactPhotoTask().execute(message.getContactLookupUri());
+            // Use the photo straight away if it's already cached, otherwise decode in background
+            final Bitmap cachedPhoto =
+                    SmsPopupUtils.getCachedPersonPhoto(mContext, message.getContactLookupUri());
+            if (cachedPhoto != null) {
+                fetchedContactPhoto = true;
+                contactBadge.setImageBitmap(cachedPhoto);
+            } else if (fetchContactPhotoTask == null) {
+                fetchContactPhotoTask = new FetchContactPhotoTask();
+                fetchContactPhotoTask.execute(message.getContactLookupUri());
+            }
             
             contactBadge.setClickable(true);
             final Uri contactUri = message.getContactLookupUri();
@@ -207,15 +238,22 @@ public class SmsPopupView extends LinearLayout {
     private class FetchContactPhotoTask extends AsyncTask<Uri, Integer, Bitmap> {
         @Override
         protected Bitmap doInBackground(Uri... params) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("Loading contact photo in background...");
             return SmsPopupUtils.getPersonPhoto(mContext, params[0]);
         }
 
         @Override
         protected void onPostExecute(Bitmap photo) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("Done loading contact photo");
+
+            // The view may have been rebound to another message in the meantime
+            if (fetchContactPhotoTask != this) {
+                return;
+            }
+            fetchContactPhotoTask = null;
+
             if (photo != null) {
                 fetchedContactPhoto = true;
                 TransitionDrawable mTd =
@@ -105,7 +105,7 @@ public class CustomVibrateListPreference extends ListPreference {
                             mPrefs = new ManagePreferences(context, mRowId);
                         }
 
-                        if (ManageNotification.parseVibratePattern(et.getText().toString()) != null) {
+                        if (ManageNotification.parseVibratePattern(new_pattern) != null) {
 
                             if (mRowId == 0) { // Default notifications
                                 mPrefs.putString(
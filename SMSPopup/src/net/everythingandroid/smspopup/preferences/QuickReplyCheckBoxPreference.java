@@ -25,11 +25,13 @@ public class QuickReplyCheckBoxPreference extends CheckBoxPreference {
     }
 
     public void refresh(String val1, String val2, String val3) {
-        Log.v(val1 + ", " + val2 + ", " + val3);
+        if (Log.isVerbose())
+            Log.v(Log.TAG_PREFS, "%s, %s, %s", val1, val2, val3);
         if (Integer.valueOf(val1) == ButtonListPreference.BUTTON_QUICKREPLY
                 || Integer.valueOf(val2) == ButtonListPreference.BUTTON_QUICKREPLY
                 || Integer.valueOf(val3) == ButtonListPreference.BUTTON_QUICKREPLY) {
-            Log.v("Quick Reply enabled");
+            if (Log.isVerbose())
+                Log.v(Log.TAG_PREFS, "Quick Reply enabled");
             setChecked(true);
         }
         setChecked(false);
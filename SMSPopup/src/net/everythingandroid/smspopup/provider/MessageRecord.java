@@ -0,0 +1,39 @@
+package net.everythingandroid.smspopup.provider;
+
+/*
+ * Immutable description of a message as it was received (or read from the system database). This
+ * has no dependency on a Context or the Android framework so it is cheap to build and can be used
+ * off device. Contact and unread count resolution happens separately when a SmsMmsMessage is
+ * created from it (see SmsMmsMessage.enrich()).
+ */
+public final class MessageRecord {
+    public final String fromAddress;
+    public final String messageBody;
+    public final long timestamp;
+    public final int messageType;
+    public final boolean fromEmailGateway;
+    public final long threadId;
+    public final long messageId;
+
+    public MessageRecord(String fromAddress, String messageBody, long timestamp, int messageType,
+            boolean fromEmailGateway, long threadId, long messageId) {
+        this.fromAddress = fromAddress;
+        this.messageBody = messageBody;
+        this.timestamp = timestamp;
+        this.messageType = messageType;
+        this.fromEmailGateway = fromEmailGateway;
+        this.threadId = threadId;
+        this.messageId = messageId;
+    }
+
+    public MessageRecord(String fromAddress, String messageBody, long timestamp, int messageType,
+            boolean fromEmailGateway) {
+        this(fromAddress, messageBody, timestamp, messageType, fromEmailGateway, 0, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "MessageRecord[from=" + fromAddress + ", timestamp=" + timestamp + ", type="
+                + messageType + ", threadId=" + threadId + ", messageId=" + messageId + "]";
+    }
+}
@@ -1,5 +1,9 @@
 package net.everythingandroid.smspopup.provider;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
 import net.everythingandroid.smspopup.ui.SmsPopupActivity;
 import net.everythingandroid.smspopup.util.Log;
 import net.everythingandroid.smspopup.util.SmsMessageSender;
@@ -8,17 +12,23 @@ import net.everythingandroid.smspopup.util.SmsPopupUtils.ContactIdentification;
 import android.content.Context;
 import android.content.Intent;
 import android.net.Uri;
+import android.os.BadParcelableException;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
 import android.provider.ContactsContract.Contacts;
 import android.telephony.PhoneNumberUtils;
 import android.telephony.SmsMessage;
 import android.telephony.SmsMessage.MessageClass;
 import android.text.format.DateUtils;
 
-public class SmsMmsMessage {
+public class SmsMmsMessage implements Parcelable {
     // Private EXTRAS strings
     private static final String PREFIX = "net.everythingandroid.smspopup.";
+    private static final String EXTRAS_MESSAGE = PREFIX + "EXTRAS_MESSAGE";
+
+    // Legacy EXTRAS strings, only read (from bundles written before EXTRAS_MESSAGE)
     private static final String EXTRAS_FROM_ADDRESS = PREFIX + "EXTRAS_FROM_ADDRESS";
     private static final String EXTRAS_MESSAGE_BODY = PREFIX + "EXTRAS_MESSAGE_BODY";
     private static final String EXTRAS_TIMESTAMP = PREFIX + "EXTRAS_TIMESTAMP";
@@ -45,6 +55,14 @@ public class SmsMmsMessage {
     // Timestamp compare buffer for incoming messages
     public static final int MESSAGE_COMPARE_TIME_BUFFER = 5000; // 5 seconds
 
+    /*
+     * Version of the parcel layout written by writeToParcel(), increment this when fields are
+     * added. New fields only ever go on the end, readers skip the ones they don't know about.
+     */
+    private static final int PARCEL_VERSION = 2;
+    private static final int PARCEL_FLAG_NOTIFY = 1;
+    private static final int PARCEL_FLAG_EMAIL_GATEWAY = 2;
+
     // Main message object private vars
     private Context context;
     private String fromAddress = null;
@@ -71,18 +89,16 @@ public class SmsMmsMessage {
      * when a message is initially received via the network.
      */
     public SmsMmsMessage(Context _context, SmsMessage[] messages, long _timestamp) {
-        SmsMessage sms = messages[0];
-
-        context = _context;
-        timestamp = _timestamp;
-        messageType = MESSAGE_TYPE_SMS;
+        this(_context, enrich(_context, createRecord(messages, _timestamp)));
+        messageClass = messages[0].getMessageClass();
+    }
 
-        /*
-         * Fetch data from raw SMS
-         */
-        fromAddress = sms.getDisplayOriginatingAddress();
-        fromEmailGateway = sms.isEmail();
-        messageClass = sms.getMessageClass();
+    /**
+     * Build the MessageRecord for a raw message (created from pdu), this only reads the pdus and
+     * does not touch any database.
+     */
+    public static MessageRecord createRecord(SmsMessage[] messages, long timestamp) {
+        SmsMessage sms = messages[0];
 
         String body = "";
 
@@ -97,39 +113,77 @@ public class SmsMmsMessage {
                 body = bodyText.toString();
             }
         } catch (Exception e) {
-            if (Log.DEBUG) Log.v("SmsMmsMessage<init> exception: " + e.toString());
+            if (Log.isVerbose()) Log.v(Log.TAG_RECEIVE, "SmsMmsMessage<init> exception: %s", e);
         }
-        messageBody = body;
 
-        /*
-         * Lookup the rest of the info from the system db
-         */
+        return new MessageRecord(sms.getDisplayOriginatingAddress(), body, timestamp,
+                MESSAGE_TYPE_SMS, sms.isEmail());
+    }
 
+    /**
+     * Resolve the contact and current unread count for a newly received message record.
+     */
+    public static SmsMmsMessage enrich(Context context, MessageRecord record) {
         ContactIdentification contactIdentify = null;
 
         // If this SMS is from an email gateway then lookup contactId by email
         // address
-        if (fromEmailGateway) {
-            if (Log.DEBUG) Log.v("Sms came from email gateway");
-            contactIdentify = SmsPopupUtils.getPersonIdFromEmail(context, fromAddress);
-            contactName = fromAddress;
+        if (record.fromEmailGateway) {
+            if (Log.isVerbose()) Log.v(Log.TAG_RECEIVE, "Sms came from email gateway");
+            contactIdentify = SmsPopupUtils.getPersonIdFromEmail(context, record.fromAddress);
         } else { // Else lookup contactId by phone number
-            if (Log.DEBUG) Log.v("Sms did NOT come from email gateway");
-            contactIdentify = SmsPopupUtils.getPersonIdFromPhoneNumber(context, fromAddress);
-            contactName = PhoneNumberUtils.formatNumber(fromAddress);
+            if (Log.isVerbose()) Log.v(Log.TAG_RECEIVE, "Sms did NOT come from email gateway");
+            contactIdentify = SmsPopupUtils.getPersonIdFromPhoneNumber(context, record.fromAddress);
         }
 
-        if (contactIdentify != null) {
-            contactId = contactIdentify.contactId;
-            contactLookupKey = contactIdentify.contactLookup;
-            contactName = contactIdentify.contactName;
+        final int unreadCount = SmsPopupUtils.getUnreadMessagesCount(
+                context, record.timestamp, record.messageBody);
+
+        return new SmsMmsMessage(context, record, contactIdentify, unreadCount);
+    }
+
+    /**
+     * Resolve contacts for a group of message records read from the system database, each
+     * distinct address is only looked up once (see SmsPopupUtils.resolveContacts()).
+     */
+    public static ArrayList<SmsMmsMessage> enrich(Context context, List<MessageRecord> records,
+            int unreadCount) {
+        final ArrayList<String> addresses = new ArrayList<String>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            addresses.add(records.get(i).fromAddress);
         }
 
-        unreadCount = SmsPopupUtils.getUnreadMessagesCount(context, timestamp, messageBody);
+        final HashMap<String, ContactIdentification> contacts =
+                SmsPopupUtils.resolveContacts(context, addresses);
 
-        if (contactName == null) {
-            contactName = context.getString(android.R.string.unknownName);
+        final ArrayList<SmsMmsMessage> messages = new ArrayList<SmsMmsMessage>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            final MessageRecord record = records.get(i);
+            messages.add(new SmsMmsMessage(
+                    context, record, contacts.get(record.fromAddress), unreadCount));
         }
+        return messages;
+    }
+
+    /**
+     * Copy a message and attach it to a context (messages read from a Parcel don't have one).
+     */
+    public SmsMmsMessage(Context _context, SmsMmsMessage message) {
+        context = _context;
+        fromAddress = message.fromAddress;
+        messageBody = message.messageBody;
+        timestamp = message.timestamp;
+        unreadCount = message.unreadCount;
+        threadId = message.threadId;
+        contactId = message.contactId;
+        contactLookupKey = message.contactLookupKey;
+        contactName = message.contactName;
+        messageType = message.messageType;
+        notify = message.notify;
+        reminderCount = message.reminderCount;
+        messageId = message.messageId;
+        fromEmailGateway = message.fromEmailGateway;
+        messageClass = message.messageClass;
     }
 
     /**
@@ -179,23 +233,44 @@ public class SmsMmsMessage {
      */
     public SmsMmsMessage(Context _context, String _fromAddress, String _messageBody,
             long _timestamp, long _threadId, int _unreadCount, long _messageId, int _messageType) {
+        this(_context, _fromAddress, _messageBody, _timestamp, _threadId, _unreadCount,
+                _messageId, _messageType,
+                SmsPopupUtils.getPersonIdFromAddress(_context, _fromAddress));
+    }
 
-        context = _context;
-        fromAddress = _fromAddress;
-        messageBody = _messageBody;
-        timestamp = _timestamp;
-        messageType = _messageType;
+    /**
+     * Construct SmsMmsMessage from the SMS database table where the contact has already been
+     * resolved (see SmsPopupUtils.resolveContacts()), no contact lookup is done here.
+     */
+    public SmsMmsMessage(Context _context, String _fromAddress, String _messageBody,
+            long _timestamp, long _threadId, int _unreadCount, long _messageId, int _messageType,
+            ContactIdentification contactIdentify) {
+        this(_context, new MessageRecord(_fromAddress, _messageBody, _timestamp, _messageType,
+                !PhoneNumberUtils.isWellFormedSmsAddress(_fromAddress), _threadId, _messageId),
+                contactIdentify, _unreadCount);
+    }
 
-        ContactIdentification contactIdentify = null;
+    /**
+     * Construct SmsMmsMessage from a message record where the contact and unread count have
+     * already been resolved, no lookups are done here.
+     */
+    public SmsMmsMessage(Context _context, MessageRecord record,
+            ContactIdentification contactIdentify, int _unreadCount) {
 
-        if (PhoneNumberUtils.isWellFormedSmsAddress(fromAddress)) {
-            contactIdentify = SmsPopupUtils.getPersonIdFromPhoneNumber(context, fromAddress);
-            contactName = PhoneNumberUtils.formatNumber(fromAddress);
-            fromEmailGateway = false;
-        } else {
-            contactIdentify = SmsPopupUtils.getPersonIdFromEmail(context, fromAddress);
+        context = _context;
+        fromAddress = record.fromAddress;
+        messageBody = record.messageBody;
+        timestamp = record.timestamp;
+        messageType = record.messageType;
+        fromEmailGateway = record.fromEmailGateway;
+        threadId = record.threadId;
+        messageId = record.messageId;
+        unreadCount = _unreadCount;
+
+        if (fromEmailGateway) {
             contactName = fromAddress;
-            fromEmailGateway = true;
+        } else {
+            contactName = PhoneNumberUtils.formatNumber(fromAddress);
         }
 
         if (contactIdentify != null) {
@@ -204,20 +279,38 @@ public class SmsMmsMessage {
             contactName = contactIdentify.contactName;
         }
 
-        unreadCount = _unreadCount;
-        threadId = _threadId;
-        messageId = _messageId;
-
         if (contactName == null) {
             contactName = context.getString(android.R.string.unknownName);
         }
     }
 
     /**
-     * Construct SmsMmsMessage from an extras bundle
+     * Fetch the context free record of this message.
+     */
+    public MessageRecord getRecord() {
+        return new MessageRecord(fromAddress, messageBody, timestamp, messageType,
+                fromEmailGateway, threadId, messageId);
+    }
+
+    /**
+     * Construct SmsMmsMessage from an extras bundle written by toBundle(), or by older versions
+     * of the app (one extra per field).
      */
     public SmsMmsMessage(Context _context, Bundle b) {
         context = _context;
+        final byte[] data = b.getByteArray(EXTRAS_MESSAGE);
+        if (data != null) {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                parcel.unmarshall(data, 0, data.length);
+                parcel.setDataPosition(0);
+                readFromParcel(parcel);
+            } finally {
+                parcel.recycle();
+            }
+            return;
+        }
+
         fromAddress = b.getString(EXTRAS_FROM_ADDRESS);
         messageBody = b.getString(EXTRAS_MESSAGE_BODY);
         timestamp = b.getLong(EXTRAS_TIMESTAMP);
@@ -252,27 +345,134 @@ public class SmsMmsMessage {
         messageType = _messageType;
     }
 
+    /*
+     * Construct SmsMmsMessage from a Parcel, the message has no context until it is attached to
+     * one with SmsMmsMessage(Context, SmsMmsMessage).
+     */
+    private SmsMmsMessage(Parcel in) {
+        readFromParcel(in);
+    }
+
     /**
-     * Convert all SmsMmsMessage data to an extras bundle to send via an intent
+     * Convert all SmsMmsMessage data to an extras bundle to send via an intent. The message is
+     * one byte array extra holding its parcel (rather than the Parcelable itself) as these
+     * bundles end up in reminder PendingIntents which the system process may need to unparcel
+     * without our classes, and which may outlive an app update.
      */
     public Bundle toBundle() {
-        Bundle b = new Bundle();
-        b.putString(EXTRAS_FROM_ADDRESS, fromAddress);
-        b.putString(EXTRAS_MESSAGE_BODY, messageBody);
-        b.putLong(EXTRAS_TIMESTAMP, timestamp);
-        b.putString(EXTRAS_CONTACT_ID, contactId);
-        b.putString(EXTRAS_CONTACT_LOOKUP, contactLookupKey);
-        b.putString(EXTRAS_CONTACT_NAME, contactName);
-        b.putInt(EXTRAS_UNREAD_COUNT, unreadCount);
-        b.putLong(EXTRAS_THREAD_ID, threadId);
-        b.putInt(EXTRAS_MESSAGE_TYPE, messageType);
-        b.putBoolean(EXTRAS_NOTIFY, notify);
-        b.putInt(EXTRAS_REMINDER_COUNT, reminderCount);
-        b.putLong(EXTRAS_MESSAGE_ID, messageId);
-        b.putBoolean(EXTRAS_EMAIL_GATEWAY, fromEmailGateway);
-        return b;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            writeToParcel(parcel, 0);
+            final Bundle b = new Bundle();
+            b.putByteArray(EXTRAS_MESSAGE, parcel.marshall());
+            return b;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
     }
 
+    /*
+     * Layout: version, length of the fields in bytes, then the fields in the order they were
+     * added to the layout.
+     */
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(PARCEL_VERSION);
+        final int lengthPosition = dest.dataPosition();
+        dest.writeInt(0);
+        final int start = dest.dataPosition();
+
+        dest.writeString(fromAddress);
+        dest.writeString(messageBody);
+        dest.writeLong(timestamp);
+        dest.writeString(contactId);
+        dest.writeString(contactLookupKey);
+        dest.writeString(contactName);
+        dest.writeInt(unreadCount);
+        dest.writeLong(threadId);
+        dest.writeInt(messageType);
+        dest.writeInt(reminderCount);
+        dest.writeLong(messageId);
+        dest.writeInt((notify ? PARCEL_FLAG_NOTIFY : 0)
+                | (fromEmailGateway ? PARCEL_FLAG_EMAIL_GATEWAY : 0));
+        // Version 2
+        dest.writeString(messageClass == null ? null : messageClass.name());
+
+        final int end = dest.dataPosition();
+        dest.setDataPosition(lengthPosition);
+        dest.writeInt(end - start);
+        dest.setDataPosition(end);
+    }
+
+    /*
+     * Read the fields written by writeToParcel() of this or any other version of the app. Fields
+     * added by newer versions are skipped, fields older versions didn't write keep their
+     * defaults. Version 1 had no length.
+     */
+    private void readFromParcel(Parcel in) {
+        final int version = in.readInt();
+        if (version < 1) {
+            throw new BadParcelableException("Unknown SmsMmsMessage parcel version " + version);
+        }
+        int end = -1;
+        if (version >= 2) {
+            final int length = in.readInt();
+            end = in.dataPosition() + length;
+            if (length < 0 || end > in.dataSize()) {
+                throw new BadParcelableException("Bad SmsMmsMessage parcel length " + length);
+            }
+        }
+
+        fromAddress = in.readString();
+        messageBody = in.readString();
+        timestamp = in.readLong();
+        contactId = in.readString();
+        contactLookupKey = in.readString();
+        contactName = in.readString();
+        unreadCount = in.readInt();
+        threadId = in.readLong();
+        messageType = in.readInt();
+        reminderCount = in.readInt();
+        messageId = in.readLong();
+        final int parcelFlags = in.readInt();
+        notify = (parcelFlags & PARCEL_FLAG_NOTIFY) != 0;
+        fromEmailGateway = (parcelFlags & PARCEL_FLAG_EMAIL_GATEWAY) != 0;
+
+        if (version >= 2) {
+            messageClass = readMessageClass(in.readString());
+            in.setDataPosition(end);
+        }
+    }
+
+    private static MessageClass readMessageClass(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return MessageClass.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return MessageClass.UNKNOWN;
+        }
+    }
+
+    public static final Parcelable.Creator<SmsMmsMessage> CREATOR =
+            new Parcelable.Creator<SmsMmsMessage>() {
+                @Override
+                public SmsMmsMessage createFromParcel(Parcel in) {
+                    return new SmsMmsMessage(in);
+                }
+
+                @Override
+                public SmsMmsMessage[] newArray(int size) {
+                    return new SmsMmsMessage[size];
+                }
+            };
+
     public Intent getPopupIntent() {
         Intent popup = new Intent(context, SmsPopupActivity.class);
         popup.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS);
@@ -303,10 +503,11 @@ public class SmsMmsMessage {
              * the threadId).
              */
             if (replyToThread && threadId > 0) {
-                if (Log.DEBUG) Log.v("Replying by threadId: " + threadId);
+                if (Log.isVerbose()) Log.v(Log.TAG_MESSAGES, "Replying by threadId: %s", threadId);
                 return SmsPopupUtils.getSmsToIntent(context, threadId);
             } else {
-                if (Log.DEBUG) Log.v("Replying by address: " + fromAddress);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_MESSAGES, "Replying by address: %s", fromAddress);
                 return SmsPopupUtils.getSmsToIntent(context, fromAddress);
             }
         }
@@ -348,7 +549,8 @@ public class SmsMmsMessage {
         try {
             formattedTime = DateUtils.formatDateTime(context, timestamp, DateUtils.FORMAT_SHOW_TIME);
         } catch (Exception e) {
-            if (Log.DEBUG) Log.v("Error formatting timestamp + " + timestamp);
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Error formatting timestamp %s", timestamp);
             formattedTime = "";
         }
         return formattedTime;
@@ -385,7 +587,7 @@ public class SmsMmsMessage {
     }
     
     public boolean shouldNotify() {
-        if (Log.DEBUG) Log.v("shouldNotify() - notify is " + notify);
+        if (Log.isVerbose()) Log.v(Log.TAG_NOTIFY, "shouldNotify() - notify is %s", notify);
         return notify;
     }
 
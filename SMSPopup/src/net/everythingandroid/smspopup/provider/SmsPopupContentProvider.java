@@ -1,16 +1,29 @@
 package net.everythingandroid.smspopup.provider;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+
 import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.Logs;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.QueuedActions;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.QuickMessages;
 import net.everythingandroid.smspopup.util.Log;
+import net.everythingandroid.smspopup.util.LogCollector;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.provider.OpenableColumns;
 
 public class SmsPopupContentProvider extends ContentProvider {
 
@@ -19,6 +32,9 @@ public class SmsPopupContentProvider extends ContentProvider {
     private static final int CONTACTS_LOOKUP = 102;
     private static final int QUICKMESSAGES = 200;
     private static final int QUICKMESSAGES_ID = 201;
+    private static final int LOGS_ID = 301;
+    private static final int QUEUEDACTIONS = 400;
+    private static final int QUEUEDACTIONS_ID = 401;
 
     private static final UriMatcher uriMatcher = buildUriMatcher();
 
@@ -35,10 +51,34 @@ public class SmsPopupContentProvider extends ContentProvider {
         matcher.addURI(authority, contactsLookupPath + "/*", CONTACTS_LOOKUP);
         matcher.addURI(authority, quickMessagesPath, QUICKMESSAGES);
         matcher.addURI(authority, quickMessagesPath + "/*", QUICKMESSAGES_ID);
+        matcher.addURI(authority, SmsPopupContract.PATH_LOGS + "/*", LOGS_ID);
+        matcher.addURI(authority, SmsPopupContract.PATH_QUEUEDACTIONS, QUEUEDACTIONS);
+        matcher.addURI(authority, SmsPopupContract.PATH_QUEUEDACTIONS + "/*", QUEUEDACTIONS_ID);
 
         return matcher;
     }
 
+    /**
+     * Apply the batch of operations inside a single database transaction.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            final int numOperations = operations.size();
+            final ContentProviderResult[] results = new ContentProviderResult[numOperations];
+            for (int i = 0; i < numOperations; i++) {
+                results[i] = operations.get(i).apply(this, results, i);
+            }
+            db.setTransactionSuccessful();
+            return results;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -63,6 +103,15 @@ public class SmsPopupContentProvider extends ContentProvider {
             count = db.delete(
                     SmsPopupDatabase.QUICKMESSAGES_DB_TABLE, qmSelection, qmSelectionArgs);
             break;
+        case QUEUEDACTIONS:
+            count = db.delete(SmsPopupDatabase.QUEUEDACTIONS_DB_TABLE, selection, selectionArgs);
+            break;
+        case QUEUEDACTIONS_ID:
+            final String qaSelection = QueuedActions._ID + " = ?";
+            final String[] qaSelectionArgs = { QueuedActions.getQueuedActionId(uri) };
+            count = db.delete(
+                    SmsPopupDatabase.QUEUEDACTIONS_DB_TABLE, qaSelection, qaSelectionArgs);
+            break;
         default:
             throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -84,6 +133,12 @@ public class SmsPopupContentProvider extends ContentProvider {
             return QuickMessages.CONTENT_TYPE;
         case QUICKMESSAGES_ID:
             return QuickMessages.CONTENT_ITEM_TYPE;
+        case LOGS_ID:
+            return Logs.CONTENT_ITEM_TYPE;
+        case QUEUEDACTIONS:
+            return QueuedActions.CONTENT_TYPE;
+        case QUEUEDACTIONS_ID:
+            return QueuedActions.CONTENT_ITEM_TYPE;
         default:
             throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -105,6 +160,10 @@ public class SmsPopupContentProvider extends ContentProvider {
             id = db.insertOrThrow(SmsPopupDatabase.QUICKMESSAGES_DB_TABLE, null, values);
             newUri = QuickMessages.buildQuickMessageUri(String.valueOf(id));
             break;
+        case QUEUEDACTIONS:
+            id = db.insertOrThrow(SmsPopupDatabase.QUEUEDACTIONS_DB_TABLE, null, values);
+            newUri = QueuedActions.buildQueuedActionUri(id);
+            break;
         default:
             throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -157,6 +216,14 @@ public class SmsPopupContentProvider extends ContentProvider {
             sqlBuilder.appendWhere(
                     QuickMessages._ID + " = " + QuickMessages.getQuickMessageId(uri));
             break;
+        case QUEUEDACTIONS:
+            sqlBuilder.setTables(SmsPopupDatabase.QUEUEDACTIONS_DB_TABLE);
+            if (sortOrder == null) {
+                sortOrder = QueuedActions._ID;
+            }
+            break;
+        case LOGS_ID:
+            return queryLog(uri, projection);
         default:
             throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -166,6 +233,54 @@ public class SmsPopupContentProvider extends ContentProvider {
         return c;
     }
 
+    /*
+     * Returns the display name and size of a collected log file, mail apps use these when
+     * attaching it.
+     */
+    private Cursor queryLog(Uri uri, String[] projection) {
+        if (projection == null) {
+            projection = new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE };
+        }
+
+        final MatrixCursor c = new MatrixCursor(projection, 1);
+        final File logFile;
+        try {
+            logFile = getLogFile(uri);
+        } catch (FileNotFoundException e) {
+            return c;
+        }
+
+        final Object[] row = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (OpenableColumns.DISPLAY_NAME.equals(projection[i])) {
+                row[i] = logFile.getName();
+            } else if (OpenableColumns.SIZE.equals(projection[i])) {
+                row[i] = logFile.length();
+            }
+        }
+
+        if (logFile.exists()) {
+            c.addRow(row);
+        }
+        return c;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (uriMatcher.match(uri) != LOGS_ID) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        return ParcelFileDescriptor.open(getLogFile(uri), ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    private File getLogFile(Uri uri) throws FileNotFoundException {
+        final File logFile = LogCollector.getLogFile(getContext());
+        if (!logFile.getName().equals(Logs.getFilename(uri))) {
+            throw new FileNotFoundException("Unknown uri: " + uri);
+        }
+        return logFile;
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
@@ -196,6 +311,12 @@ public class SmsPopupContentProvider extends ContentProvider {
             count = db.update(SmsPopupDatabase.QUICKMESSAGES_DB_TABLE, values,
                     qmSelection, qmSelectionArgs);
             break;
+        case QUEUEDACTIONS_ID:
+            final String qaSelection = QueuedActions._ID + " = ?";
+            final String[] qaSelectionArgs = { QueuedActions.getQueuedActionId(uri) };
+            count = db.update(SmsPopupDatabase.QUEUEDACTIONS_DB_TABLE, values,
+                    qaSelection, qaSelectionArgs);
+            break;
         default:
             throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -244,7 +365,8 @@ public class SmsPopupContentProvider extends ContentProvider {
             if (one.equals(c.getString(c.getColumnIndexOrThrow(ContactNotifications.LED_ENABLED)))) {
                 String ledColor =
                         c.getString(c.getColumnIndexOrThrow(ContactNotifications.LED_COLOR));
-                Log.v("ledColor = " + ledColor);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_PREFS, "ledColor = %s", ledColor);
                 if ("custom".equals(ledColor)) {
                     ledColor = "Custom";
                 }
@@ -13,6 +13,8 @@ public class SmsPopupContract {
     public static final String PATH_CONTACTS = "contacts";
     public static final String PATH_CONTACTS_LOOKUP = "contactslookup";
     public static final String PATH_QUICKMESSAGES = "quickmessages";
+    public static final String PATH_LOGS = "logs";
+    public static final String PATH_QUEUEDACTIONS = "queuedactions";
 
     interface ContactNotificationsColumns {
         String CONTACT_LOOKUPKEY = "contact_lookupkey";
@@ -36,6 +38,17 @@ public class SmsPopupContract {
         String ORDER = "quickmessage_order";
     }
 
+    interface QueuedActionsColumns {
+        String ACTION = "queued_action";
+        String MESSAGE_ID = "queued_message_id";
+        String THREAD_ID = "queued_thread_id";
+        String MESSAGE_TYPE = "queued_message_type";
+        String ADDRESS = "queued_address";
+        String BODY = "queued_body";
+        String TIMESTAMP = "queued_timestamp";
+        String ATTEMPTS = "queued_attempts";
+    }
+
     public static class ContactNotifications implements ContactNotificationsColumns, BaseColumns {
         public static final Uri CONTENT_URI =
                 BASE_CONTENT_URI.buildUpon().appendPath(PATH_CONTACTS).build();
@@ -108,4 +121,43 @@ public class SmsPopupContract {
 
     }
 
+    /*
+     * Mark read/delete actions on system messages waiting to be written by
+     * MessageActionQueueService, applied in _ID order.
+     */
+    public static class QueuedActions implements QueuedActionsColumns, BaseColumns {
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_QUEUEDACTIONS).build();
+
+        public static final String CONTENT_TYPE =
+                "vnd.android.cursor.dir/vnd.everythingandroid.queuedaction";
+        public static final String CONTENT_ITEM_TYPE =
+                "vnd.android.cursor.item/vnd.everythingandroid.queuedaction";
+
+        public static Uri buildQueuedActionUri(long queuedActionId) {
+            return CONTENT_URI.buildUpon().appendPath(String.valueOf(queuedActionId)).build();
+        }
+
+        public static String getQueuedActionId(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+    }
+
+    public static class Logs {
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_LOGS).build();
+
+        public static final String CONTENT_ITEM_TYPE = "application/x-gzip";
+
+        public static Uri buildLogUri(String filename) {
+            return CONTENT_URI.buildUpon().appendPath(filename).build();
+        }
+
+        public static String getFilename(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+    }
+
 }
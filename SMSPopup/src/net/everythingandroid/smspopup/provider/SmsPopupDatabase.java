@@ -1,6 +1,7 @@
 package net.everythingandroid.smspopup.provider;
 
 import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.QueuedActions;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.QuickMessages;
 import net.everythingandroid.smspopup.util.Log;
 import android.content.Context;
@@ -12,10 +13,14 @@ import android.provider.Settings;
 public class SmsPopupDatabase extends SQLiteOpenHelper {
     public static final String CONTACTS_DB_TABLE = "contacts";
     public static final String QUICKMESSAGES_DB_TABLE = "quickmessages";
+    public static final String QUEUEDACTIONS_DB_TABLE = "queuedactions";
 
     private static final int QUICKMESSAGES_ORDERING_DEFAULT = 100;
     private static final String DATABASE_NAME = "data";
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
+
+    // Version that added the queued actions table (and nothing else)
+    private static final int DATABASE_VERSION_QUEUEDACTIONS = 3;
 
     // Table creation sql statement
     private static final String CONTACTS_DB_CREATE =
@@ -52,23 +57,46 @@ public class SmsPopupDatabase extends SQLiteOpenHelper {
         QuickMessages.ORDER        + " integer default " + QUICKMESSAGES_ORDERING_DEFAULT +
         ");";
 
+    // Table creation sql statement
+    private static final String QUEUEDACTIONS_DB_CREATE =
+        "create table " + QUEUEDACTIONS_DB_TABLE + " (" +
+        QueuedActions._ID          + " integer primary key autoincrement, " +
+        QueuedActions.ACTION       + " integer not null, " +
+        QueuedActions.MESSAGE_ID   + " integer default 0, " +
+        QueuedActions.THREAD_ID    + " integer default 0, " +
+        QueuedActions.MESSAGE_TYPE + " integer not null, " +
+        QueuedActions.ADDRESS      + " text, " +
+        QueuedActions.BODY         + " text, " +
+        QueuedActions.TIMESTAMP    + " integer default 0, " +
+        QueuedActions.ATTEMPTS     + " integer default 0" +
+        ");";
+
     public SmsPopupDatabase(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
     @Override
     public void onCreate(SQLiteDatabase db) {
-        if (Log.DEBUG) Log.v("SmsPopupDatabase: Creating Database");
+        if (Log.isVerbose()) Log.v("SmsPopupDatabase: Creating Database");
         db.execSQL(CONTACTS_DB_CREATE);
         db.execSQL(CONTACTS_DB_INDEX_CREATE);
         db.execSQL(QUICKMESSAGES_DB_CREATE);
+        db.execSQL(QUEUEDACTIONS_DB_CREATE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        if (Log.DEBUG) Log.v("SmsPopupDatabase: Upgrading Database");
+        if (Log.isVerbose()) Log.v("SmsPopupDatabase: Upgrading Database");
+
+        // Only a table was added, keep the user's contacts and quick messages
+        if (oldVersion == DATABASE_VERSION_QUEUEDACTIONS - 1) {
+            db.execSQL(QUEUEDACTIONS_DB_CREATE);
+            return;
+        }
+
         db.execSQL("DROP TABLE IF EXISTS " + CONTACTS_DB_TABLE);
         db.execSQL("DROP TABLE IF EXISTS " + QUICKMESSAGES_DB_TABLE);
+        db.execSQL("DROP TABLE IF EXISTS " + QUEUEDACTIONS_DB_TABLE);
         onCreate(db);
     }
 }
\ No newline at end of file
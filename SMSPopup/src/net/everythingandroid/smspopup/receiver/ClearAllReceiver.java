@@ -18,7 +18,7 @@ public class ClearAllReceiver extends BroadcastReceiver {
 
   @Override
   public void onReceive(Context context, Intent intent) {
-    if (Log.DEBUG) Log.v("ClearAllReceiver: onReceive()");
+    if (Log.isVerbose()) Log.v("ClearAllReceiver: onReceive()");
     clearAll();
 
     // goToSleep() is not supported by the API at this time, this means
@@ -34,7 +34,7 @@ public class ClearAllReceiver extends BroadcastReceiver {
    * like "Reply" or "Inbox".
    */
   public static synchronized void clearAll(boolean reenableKeyguard) {
-    if (Log.DEBUG) Log.v("ClearAllReceiver: clearAll(" + reenableKeyguard + ")");
+    if (Log.isVerbose()) Log.v(Log.TAG_NOTIFY, "ClearAllReceiver: clearAll(%s)", reenableKeyguard);
     if (reenableKeyguard) {
       ManageKeyguard.reenableKeyguard();
     }
@@ -63,7 +63,8 @@ public class ClearAllReceiver extends BroadcastReceiver {
    */
   public static synchronized void setCancel(Context context, int timeout) {
     removeCancel(context);
-    if (Log.DEBUG) Log.v("ClearAllReceiver: setCancel() for " + timeout + " seconds");
+    if (Log.isVerbose())
+      Log.v(Log.TAG_NOTIFY, "ClearAllReceiver: setCancel() for %s seconds", timeout);
     AlarmManager myAM = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
     myAM.set(AlarmManager.RTC_WAKEUP, System.currentTimeMillis() + (timeout * 1000),
         getPendingIntent(context));
@@ -74,7 +75,7 @@ public class ClearAllReceiver extends BroadcastReceiver {
    * so the Activity can now react to whatever they are doing).
    */
   public static synchronized void removeCancel(Context context) {
-    if (Log.DEBUG) Log.v("ClearAllReceiver: removeCancel()");
+    if (Log.isVerbose()) Log.v("ClearAllReceiver: removeCancel()");
     AlarmManager myAM = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
     myAM.cancel(getPendingIntent(context));
   }
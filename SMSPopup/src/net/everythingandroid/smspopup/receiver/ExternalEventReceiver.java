@@ -21,7 +21,7 @@ public class ExternalEventReceiver extends BroadcastReceiver {
 
   @Override
   public void onReceive(Context context, Intent intent) {
-    if (Log.DEBUG) Log.v("ExternalEventReceiver: onReceive()");
+    if (Log.isVerbose()) Log.v("ExternalEventReceiver: onReceive()");
 
     String action = intent.getAction();
 
@@ -45,15 +45,15 @@ public class ExternalEventReceiver extends BroadcastReceiver {
 
       //      switch (event) {
       //        case EXTRA_DOCK_STATE_UNDOCKED:
-      //          if (Log.DEBUG) Log.v("Phone was undocked!");
+      //          if (Log.isVerbose()) Log.v("Phone was undocked!");
       //          settings.putBoolean("docked", false);
       //
       //          break;
       //        case EXTRA_DOCK_STATE_DESK:
-      //          if (Log.DEBUG) Log.v("Phone was docked to desk!");
+      //          if (Log.isVerbose()) Log.v("Phone was docked to desk!");
       //          break;
       //        case EXTRA_DOCK_STATE_CAR:
-      //          if (Log.DEBUG) Log.v("Phone was docked to car!");
+      //          if (Log.isVerbose()) Log.v("Phone was docked to car!");
       //          break;
       //      }
 
@@ -0,0 +1,306 @@
+package net.everythingandroid.smspopup.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.everythingandroid.smspopup.provider.MessageRecord;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+import net.everythingandroid.smspopup.provider.SmsPopupContract;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.QueuedActions;
+import net.everythingandroid.smspopup.util.Log;
+import net.everythingandroid.smspopup.util.MessageActionBatch;
+import net.everythingandroid.smspopup.util.SmsPopupUtils;
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Parcelable;
+
+import com.commonsware.cwac.wakeful.WakefulIntentService;
+
+/*
+ * Write-behind queue for mark read and delete actions on system messages. Callers (the popup) save
+ * each action to the queued actions table as it is taken (see PendingActions) and later start the
+ * queue, which applies everything queued in order with MessageActionBatch. Anything still queued
+ * when the process dies is applied the next time the queue runs (see replay()).
+ */
+public class MessageActionQueueService extends WakefulIntentService {
+    private static final String TAG = MessageActionQueueService.class.getName();
+
+    public static final String ACTION_QUEUE =
+            "net.everythingandroid.smspopup.ACTION_QUEUE_MESSAGE_ACTIONS";
+
+    public static final String ACTION_REPLAY =
+            "net.everythingandroid.smspopup.ACTION_REPLAY_MESSAGE_ACTIONS";
+
+    private static final String EXTRAS_MESSAGES =
+            "net.everythingandroid.smspopup.EXTRAS_QUEUE_MESSAGES";
+
+    private static final String EXTRAS_ACTIONS =
+            "net.everythingandroid.smspopup.EXTRAS_QUEUE_ACTIONS";
+
+    // Intent sent to SmsPopupUtilsService once the queue has been applied
+    private static final String EXTRAS_FOLLOW_UP =
+            "net.everythingandroid.smspopup.EXTRAS_QUEUE_FOLLOW_UP";
+
+    // Actions that still fail after this many tries are dropped
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final String[] QUEUE_PROJECTION = new String[] {
+            QueuedActions._ID,
+            QueuedActions.ACTION,
+            QueuedActions.MESSAGE_ID,
+            QueuedActions.THREAD_ID,
+            QueuedActions.MESSAGE_TYPE,
+            QueuedActions.ADDRESS,
+            QueuedActions.BODY,
+            QueuedActions.TIMESTAMP,
+            QueuedActions.ATTEMPTS,
+    };
+
+    // Only accessed from the main thread
+    private static boolean replayed = false;
+
+    public MessageActionQueueService() {
+        super(TAG);
+    }
+
+    /**
+     * Mark read and delete actions taken (eg. by the popup as messages are dismissed). Each one is
+     * saved to the queued actions table straight away, so it is not lost if the process dies, and
+     * they are applied together once send() starts the queue.
+     */
+    public static class PendingActions {
+        // Actions that couldn't be saved, these are carried to the queue in the intent instead
+        private final ArrayList<Bundle> messages = new ArrayList<Bundle>();
+        private final ArrayList<Integer> actions = new ArrayList<Integer>();
+        private int queued = 0;
+
+        public void markRead(Context context, SmsMmsMessage message) {
+            add(context, message, MessageActionBatch.ACTION_MARK_READ);
+        }
+
+        public void delete(Context context, SmsMmsMessage message) {
+            add(context, message, MessageActionBatch.ACTION_DELETE);
+        }
+
+        private void add(Context context, SmsMmsMessage message, int action) {
+            try {
+                context.getContentResolver().insert(QueuedActions.CONTENT_URI,
+                        toValues(message.getRecord(), action));
+                queued++;
+            } catch (Exception e) {
+                Log.e(Log.TAG_MESSAGES, "MessageActionQueueService: error queueing action - %s", e);
+                messages.add(message.toBundle());
+                actions.add(action);
+            }
+        }
+
+        public boolean isEmpty() {
+            return queued == 0 && messages.isEmpty();
+        }
+
+        /**
+         * Start the queue to apply the pending actions and clear them.
+         */
+        public void send(Context context) {
+            send(context, null);
+        }
+
+        /**
+         * Start the queue to apply the pending actions and clear them, followUp (if not null) is
+         * sent to SmsPopupUtilsService after the actions have been applied.
+         */
+        public void send(Context context, Intent followUp) {
+            if (isEmpty()) {
+                if (followUp != null) {
+                    WakefulIntentService.sendWakefulWork(context, followUp);
+                }
+                return;
+            }
+
+            Intent i = new Intent(context, MessageActionQueueService.class);
+            i.setAction(ACTION_QUEUE);
+            if (!messages.isEmpty()) {
+                final int[] actionArray = new int[actions.size()];
+                for (int j = 0; j < actionArray.length; j++) {
+                    actionArray[j] = actions.get(j);
+                }
+                i.putExtra(EXTRAS_MESSAGES, messages.toArray(new Bundle[messages.size()]));
+                i.putExtra(EXTRAS_ACTIONS, actionArray);
+            }
+            if (followUp != null) {
+                i.putExtra(EXTRAS_FOLLOW_UP, followUp);
+            }
+            WakefulIntentService.sendWakefulWork(context, i);
+
+            messages.clear();
+            actions.clear();
+            queued = 0;
+        }
+    }
+
+    /*
+     * The queued actions row for an action on a message. The address, body and timestamp are kept
+     * so a message that had no id yet can be looked up when the queue is applied.
+     */
+    private static ContentValues toValues(MessageRecord record, int action) {
+        final ContentValues values = new ContentValues(7);
+        values.put(QueuedActions.ACTION, action);
+        values.put(QueuedActions.MESSAGE_ID, record.messageId);
+        values.put(QueuedActions.THREAD_ID, record.threadId);
+        values.put(QueuedActions.MESSAGE_TYPE, record.messageType);
+        values.put(QueuedActions.ADDRESS, record.fromAddress);
+        values.put(QueuedActions.BODY, record.messageBody);
+        values.put(QueuedActions.TIMESTAMP, record.timestamp);
+        return values;
+    }
+
+    /**
+     * Apply any actions left queued by an earlier process, only does anything the first time it
+     * is called in a process.
+     */
+    public static void replay(Context context) {
+        if (!replayed) {
+            replayed = true;
+            Intent i = new Intent(context, MessageActionQueueService.class);
+            i.setAction(ACTION_REPLAY);
+            WakefulIntentService.sendWakefulWork(context, i);
+        }
+    }
+
+    @Override
+    protected void doWakefulWork(Intent intent) {
+        if (Log.isVerbose()) Log.v("MessageActionQueueService: doWakefulWork()");
+
+        if (ACTION_QUEUE.equals(intent.getAction())) {
+            persist(intent);
+        }
+
+        applyQueue();
+
+        final Intent followUp = intent.getParcelableExtra(EXTRAS_FOLLOW_UP);
+        if (followUp != null) {
+            WakefulIntentService.sendWakefulWork(this, followUp);
+        }
+    }
+
+    /*
+     * Save the actions from the intent (those the caller couldn't save itself) to the queue. If
+     * the process dies after this the intent is redelivered and the actions are saved twice, which
+     * is harmless as they are idempotent.
+     */
+    private void persist(Intent intent) {
+        final Parcelable[] messages = intent.getParcelableArrayExtra(EXTRAS_MESSAGES);
+        final int[] actions = intent.getIntArrayExtra(EXTRAS_ACTIONS);
+        if (messages == null || actions == null || messages.length != actions.length) {
+            return;
+        }
+
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(messages.length);
+        for (int i = 0; i < messages.length; i++) {
+            final MessageRecord record =
+                    new SmsMmsMessage(this, (Bundle) messages[i]).getRecord();
+            operations.add(ContentProviderOperation.newInsert(QueuedActions.CONTENT_URI)
+                    .withValues(toValues(record, actions[i])).build());
+        }
+
+        try {
+            getContentResolver().applyBatch(SmsPopupContract.CONTENT_AUTHORITY, operations);
+        } catch (Exception e) {
+            // Can't queue them, apply them now instead
+            Log.e(Log.TAG_MESSAGES, "MessageActionQueueService: error queueing actions - %s", e);
+            final MessageActionBatch batch = new MessageActionBatch();
+            for (int i = 0; i < messages.length; i++) {
+                final SmsMmsMessage message = new SmsMmsMessage(this, (Bundle) messages[i]);
+                batch.add(message.getMessageId(), message.getMessageType(), actions[i]);
+            }
+            batch.apply(this);
+        }
+    }
+
+    /*
+     * Apply everything in the queue, oldest first. Actions that fail stay queued (to be retried
+     * the next time the queue runs) until they have been tried MAX_ATTEMPTS times.
+     */
+    private void applyQueue() {
+        final Cursor c = getContentResolver().query(
+                QueuedActions.CONTENT_URI, QUEUE_PROJECTION, null, null, QueuedActions._ID);
+        if (c == null) {
+            return;
+        }
+
+        final MessageActionBatch batch = new MessageActionBatch();
+        final long[] queueIds;
+        final int[] attempts;
+        try {
+            queueIds = new long[c.getCount()];
+            attempts = new int[c.getCount()];
+            int i = 0;
+            while (c.moveToNext()) {
+                queueIds[i] = c.getLong(0);
+                final int action = c.getInt(1);
+                long messageId = c.getLong(2);
+                long threadId = c.getLong(3);
+                final int messageType = c.getInt(4);
+                attempts[i] = c.getInt(8);
+
+                if (messageId == 0) {
+                    if (threadId == 0) {
+                        threadId = SmsPopupUtils.findThreadIdFromAddress(this, c.getString(5));
+                    }
+                    messageId = SmsPopupUtils.findMessageId(
+                            this, threadId, c.getLong(7), c.getString(6), messageType);
+                    if (messageId == 0) {
+                        // Not written to the system database yet (or gone), tried again later
+                        Log.w(Log.TAG_MESSAGES,
+                                "MessageActionQueueService: no message found for queued action %s",
+                                queueIds[i]);
+                    }
+                }
+                batch.add(messageId, messageType, action);
+                i++;
+            }
+        } finally {
+            c.close();
+        }
+
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        final List<MessageActionBatch.Result> results = batch.apply(this);
+
+        final ArrayList<ContentProviderOperation> operations =
+                new ArrayList<ContentProviderOperation>(results.size());
+        for (int i = 0; i < results.size(); i++) {
+            final int attempt = attempts[i] + 1;
+            if (results.get(i).success || attempt >= MAX_ATTEMPTS) {
+                if (!results.get(i).success) {
+                    Log.w(Log.TAG_MESSAGES,
+                            "MessageActionQueueService: giving up on queued action %s",
+                            queueIds[i]);
+                }
+                operations.add(ContentProviderOperation.newDelete(
+                        QueuedActions.buildQueuedActionUri(queueIds[i])).build());
+            } else {
+                operations.add(ContentProviderOperation.newUpdate(
+                        QueuedActions.buildQueuedActionUri(queueIds[i]))
+                        .withValue(QueuedActions.ATTEMPTS, attempt).build());
+            }
+        }
+
+        try {
+            getContentResolver().applyBatch(SmsPopupContract.CONTENT_AUTHORITY, operations);
+        } catch (Exception e) {
+            Log.e(Log.TAG_MESSAGES, "MessageActionQueueService: error updating queue - %s", e);
+        }
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "MessageActionQueueService: applied %s queued actions",
+                    results.size());
+    }
+}
@@ -0,0 +1,95 @@
+package net.everythingandroid.smspopup.service;
+
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.receiver.ExternalEventReceiver;
+import net.everythingandroid.smspopup.util.Log;
+import net.everythingandroid.smspopup.util.ManageKeyguard;
+import net.everythingandroid.smspopup.util.ManagePreferences;
+import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
+import net.everythingandroid.smspopup.util.SmsPopupUtils;
+import android.content.Context;
+import android.telephony.SmsMessage.MessageClass;
+import android.telephony.TelephonyManager;
+
+/*
+ * Works out how SmsReceiverService should announce a received message (the popup, a status bar
+ * notification or not at all) from the contact's preferences and the state of the phone.
+ */
+public class MessageNotifier {
+    public static final int NOTIFY_NONE = 0;
+    public static final int NOTIFY_POPUP = 1;
+    public static final int NOTIFY_NOTIFICATION = 2;
+
+    public static int decide(Context context, SmsMmsMessage message) {
+
+        // Class 0 SMS, let the system handle this
+        if (message.isSms() && message.getMessageClass() == MessageClass.CLASS_0) {
+            return NOTIFY_NONE;
+        }
+
+        if (message.isSprintVisualVoicemail()) {
+            return NOTIFY_NONE;
+        }
+
+        // Fetch preferences
+        ManagePreferences mPrefs = new ManagePreferences(context, message.getContactLookupKey());
+
+        // Whether or not the popup should only show when keyguard is on
+        boolean onlyShowOnKeyguard =
+                mPrefs.getBoolean(R.string.pref_onlyShowOnKeyguard_key,
+                        Defaults.PREFS_ONLY_SHOW_ON_KEYGUARD);
+
+        // check if popup is enabled for this contact
+        boolean showPopup =
+                mPrefs.getBoolean(R.string.pref_popup_enabled_key,
+                        Defaults.PREFS_SHOW_POPUP,
+                        ContactNotifications.POPUP_ENABLED);
+
+        // check if notifications are on for this contact
+        boolean notifEnabled =
+                mPrefs.getBoolean(R.string.pref_notif_enabled_key,
+                        Defaults.PREFS_NOTIF_ENABLED,
+                        ContactNotifications.ENABLED);
+
+        // get docked state of phone
+        boolean docked =
+                mPrefs.getInt(R.string.pref_docked_key, 0) ==
+                        ExternalEventReceiver.EXTRA_DOCK_STATE_DESK;
+
+        mPrefs.close();
+
+        // Fetch call state, if the user is in a call or the phone is ringing we don't want
+        // to show the popup
+        TelephonyManager mTM =
+                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        boolean callStateIdle = mTM.getCallState() == TelephonyManager.CALL_STATE_IDLE;
+
+        // Init keyguard manager
+        ManageKeyguard.initialize(context);
+
+        /*
+         * If popup is enabled for this user -AND- the user is not in a call --AND- phone is
+         * not docked -AND- (screen is locked -OR- (setting is OFF to only show on keyguard -AND-
+         * user is not in messaging app: then show the popup activity, otherwise check if
+         * notifications are on and just use the standard notification))
+         */
+        if (showPopup && callStateIdle && !docked
+                && (ManageKeyguard.inKeyguardRestrictedInputMode() ||
+                (!onlyShowOnKeyguard && !SmsPopupUtils.inMessagingApp(context)))) {
+
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "^^^^^^Showing SMS Popup");
+            return NOTIFY_POPUP;
+
+        } else if (notifEnabled) {
+
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "^^^^^^Not showing SMS Popup, using notifications");
+            return NOTIFY_NOTIFICATION;
+
+        }
+        return NOTIFY_NONE;
+    }
+}
@@ -0,0 +1,76 @@
+package net.everythingandroid.smspopup.service;
+
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+import net.everythingandroid.smspopup.util.Log;
+import android.os.Handler;
+
+/*
+ * Coalesces the notifications for a burst of messages (multipart floods, group chats). The first
+ * message alerts straight away, messages arriving within the window after it only refresh the
+ * notification text and count (once, when the window closes) and the reminder is scheduled once
+ * per burst. The window is counted on the handler's clock (SystemClock.uptimeMillis()) and all
+ * calls must be made on the handler's thread.
+ */
+public class NotificationCoalescer implements Runnable {
+
+    public interface Target {
+        /**
+         * Post the notification for the first message of a burst, with sound and vibration.
+         */
+        public void alert(SmsMmsMessage message);
+
+        /**
+         * Quietly bring the notification up to date with the latest message of a burst.
+         */
+        public void refresh(SmsMmsMessage message);
+
+        /**
+         * The burst is over, schedule the reminder for the latest message.
+         */
+        public void scheduleReminder(SmsMmsMessage message);
+    }
+
+    private final Handler mHandler;
+    private final int mWindow;
+    private final WorkLanes mLanes;
+    private final Target mTarget;
+    private SmsMmsMessage mLatest = null;
+    private boolean mUpdated = false;
+
+    public NotificationCoalescer(Handler handler, int window, WorkLanes lanes, Target target) {
+        mHandler = handler;
+        mWindow = window;
+        mLanes = lanes;
+        mTarget = target;
+    }
+
+    public void post(SmsMmsMessage message) {
+        if (mLatest == null) {
+            // Keep the service (and wake lock) around until the window closes
+            mLanes.begin();
+            mTarget.alert(message);
+            mHandler.postDelayed(this, mWindow);
+        } else {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_NOTIFY, "Coalescing notification for %s", message.getContactName());
+            mUpdated = true;
+        }
+        mLatest = message;
+    }
+
+    /*
+     * Window closed, bring the notification up to date and schedule the reminder
+     */
+    @Override
+    public void run() {
+        final SmsMmsMessage message = mLatest;
+        if (mUpdated) {
+            mTarget.refresh(message);
+        }
+        mTarget.scheduleReminder(message);
+
+        mLatest = null;
+        mUpdated = false;
+        mLanes.finish();
+    }
+}
@@ -7,11 +7,16 @@ import android.content.Intent;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
 import net.everythingandroid.smspopup.util.Log;
 import net.everythingandroid.smspopup.util.ManageNotification;
 import net.everythingandroid.smspopup.util.SmsPopupUtils;
+import net.everythingandroid.smspopup.util.UnreadStateTracker;
 
 public class SmsMonitorService extends Service {
     private static Uri uriSMS = Uri.parse("content://mms-sms/conversations/");
@@ -23,11 +28,32 @@ public class SmsMonitorService extends Service {
     private SmsContentObserver observerSMS = null;
     private Context context;
 
+    // Observer callbacks and unread state refreshes run on this thread
+    private HandlerThread mMonitorThread;
+    private Handler mMonitorHandler;
+    private int mRefreshDelay;
+
+    // Unread state, only accessed from the monitor thread
+    private UnreadStateTracker mUnreadTracker;
+
     @Override
     public void onCreate() {
         super.onCreate();
         context = this.getApplicationContext();
-        if (Log.DEBUG) Log.v("SmsMonitorService created");
+        if (Log.isVerbose()) Log.v("SmsMonitorService created");
+        mRefreshDelay = getResources().getInteger(R.integer.config_unreadRefreshDelay);
+        mMonitorThread = new HandlerThread("SmsMonitorService", Process.THREAD_PRIORITY_BACKGROUND);
+        mMonitorThread.start();
+        mMonitorHandler = new Handler(mMonitorThread.getLooper());
+        mUnreadTracker = new UnreadStateTracker(context);
+        mMonitorHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Just record the starting state, the message that started us may not have been
+                // written to the system db yet so don't act on it
+                refreshUnreadState(true);
+            }
+        });
         registerSMSObserver();
     }
 
@@ -39,6 +65,8 @@ public class SmsMonitorService extends Service {
     @Override
     public void onDestroy() {
         unregisterSMSObserver();
+        mMonitorHandler.removeCallbacks(mRefreshUnreadState);
+        mMonitorThread.quit();
         super.onDestroy();
     }
 
@@ -52,10 +80,10 @@ public class SmsMonitorService extends Service {
      */
     private void registerSMSObserver() {
         if (observerSMS == null) {
-            observerSMS = new SmsContentObserver(new Handler());
+            observerSMS = new SmsContentObserver(mMonitorHandler);
             crSMS = getContentResolver();
             crSMS.registerContentObserver(uriSMS, true, observerSMS);
-            if (Log.DEBUG) Log.v("SMS Observer registered.");
+            if (Log.isVerbose()) Log.v("SMS Observer registered.");
         }
     }
 
@@ -69,7 +97,7 @@ public class SmsMonitorService extends Service {
         if (observerSMS != null) {
             observerSMS = null;
         }
-        if (Log.DEBUG) Log.v("Unregistered SMS Observer");
+        if (Log.isVerbose()) Log.v("Unregistered SMS Observer");
     }
 
     private class SmsContentObserver extends ContentObserver {
@@ -80,17 +108,40 @@ public class SmsMonitorService extends Service {
         @Override
         public void onChange(boolean selfChange) {
             super.onChange(selfChange);
-            // Cursor c = context.getContentResolver().query(SMS_CONTENT_URI,
-            // null, "read = 0", null, null);
-            int count = SmsPopupUtils.getUnreadMessagesCount(context);
-            if (Log.DEBUG) Log.v("getUnreadCount = " + count);
-            if (count == 0) {
-                ManageNotification.clearAll(context);
-                finishStartingService(SmsMonitorService.this);
-            } else {
-                // TODO: do something with count>0, maybe refresh the
-                // notification
-            }
+            // Marking a thread read or a burst of messages fires many changes, coalesce them
+            // into a single refresh
+            mMonitorHandler.removeCallbacks(mRefreshUnreadState);
+            mMonitorHandler.postDelayed(mRefreshUnreadState, mRefreshDelay);
+        }
+    }
+
+    private final Runnable mRefreshUnreadState = new Runnable() {
+        @Override
+        public void run() {
+            refreshUnreadState(false);
+        }
+    };
+
+    /*
+     * Bring the unread state up to date, clearing the notification if there is nothing unread or
+     * updating it (without alerting) if messages were read or marked unread again elsewhere.
+     * Arrivals are left to SmsReceiverService, but the count is still corrected when messages were
+     * read in the same window.
+     */
+    private void refreshUnreadState(boolean initial) {
+        final UnreadStateTracker.Change change = mUnreadTracker.refresh();
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "SmsMonitorService: unread count = %s", change.unreadCount);
+
+        if (initial) {
+            // Nothing to compare against yet
+        } else if (change.unreadCount == 0) {
+            ManageNotification.clearAll(context);
+            finishStartingService(SmsMonitorService.this);
+        } else if (change.read > 0 || change.markedUnread > 0) {
+            // Messages were read (or marked unread) outside of SMS Popup, refresh the notification
+            final SmsMmsMessage recentMessage = SmsPopupUtils.getRecentMessage(context);
+            ManageNotification.update(context, recentMessage, change.unreadCount);
         }
     }
 
@@ -98,7 +149,7 @@ public class SmsMonitorService extends Service {
      * Start the service to process that will run the content observer
      */
     public static void beginStartingService(Context context) {
-        if (Log.DEBUG) Log.v("SmsMonitorService: beginStartingService()");
+        if (Log.isVerbose()) Log.v("SmsMonitorService: beginStartingService()");
         context.startService(new Intent(context, SmsMonitorService.class));
     }
 
@@ -107,7 +158,7 @@ public class SmsMonitorService extends Service {
      * releasing the wake lock if the service is now stopping.
      */
     public static void finishStartingService(Service service) {
-        if (Log.DEBUG) Log.v("SmsMonitorService: finishStartingService()");
+        if (Log.isVerbose()) Log.v("SmsMonitorService: finishStartingService()");
         service.stopSelf();
     }
 
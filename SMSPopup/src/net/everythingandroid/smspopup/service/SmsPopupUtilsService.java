@@ -39,29 +39,29 @@ public class SmsPopupUtilsService extends WakefulIntentService {
      */
     @Override
     protected void doWakefulWork(Intent intent) {
-        if (Log.DEBUG) Log.v("SMSPopupUtilsService: doWakefulWork()");
+        if (Log.isVerbose()) Log.v("SMSPopupUtilsService: doWakefulWork()");
 
         final String action = intent.getAction();
 
         if (ACTION_MARK_THREAD_READ.equals(action)) {
-            if (Log.DEBUG) Log.v("SMSPopupUtilsService: Marking thread read");
+            if (Log.isVerbose()) Log.v("SMSPopupUtilsService: Marking thread read");
             SmsMmsMessage message = new SmsMmsMessage(this, intent.getExtras());
             message.setThreadRead();
         } else if (ACTION_MARK_MESSAGE_READ.equals(action)) {
-            if (Log.DEBUG) Log.v("SMSPopupUtilsService: Marking message read");
+            if (Log.isVerbose()) Log.v("SMSPopupUtilsService: Marking message read");
             SmsMmsMessage message = new SmsMmsMessage(this, intent.getExtras());
             message.setMessageRead();
         } else if (ACTION_DELETE_MESSAGE.equals(action)) {
-            if (Log.DEBUG) Log.v("SMSPopupUtilsService: Deleting message");
+            if (Log.isVerbose()) Log.v("SMSPopupUtilsService: Deleting message");
             SmsMmsMessage message = new SmsMmsMessage(this, intent.getExtras());
             message.delete();
         } else if (ACTION_QUICKREPLY.equals(action)) {
-            if (Log.DEBUG) Log.v("SMSPopupUtilsService: Quick Reply to message");
+            if (Log.isVerbose()) Log.v("SMSPopupUtilsService: Quick Reply to message");
             SmsMmsMessage message = new SmsMmsMessage(this, intent.getExtras());
             // message.setThreadRead();
             message.replyToMessage(intent.getStringExtra(SmsMmsMessage.EXTRAS_QUICKREPLY));
         } else if (ACTION_UPDATE_NOTIFICATION.equals(action)) {
-            if (Log.DEBUG) Log.v("SMSPopupUtilsService: Updating notification");
+            if (Log.isVerbose()) Log.v("SMSPopupUtilsService: Updating notification");
             updateNotification(intent);
         }
     }    
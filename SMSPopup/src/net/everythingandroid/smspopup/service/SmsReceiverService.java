@@ -1,40 +1,34 @@
 package net.everythingandroid.smspopup.service;
 
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 
 import net.everythingandroid.smspopup.R;
 import net.everythingandroid.smspopup.provider.SmsMmsMessage;
-import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
-import net.everythingandroid.smspopup.receiver.ExternalEventReceiver;
+import net.everythingandroid.smspopup.ui.PopupChannel;
 import net.everythingandroid.smspopup.util.Log;
-import net.everythingandroid.smspopup.util.ManageKeyguard;
 import net.everythingandroid.smspopup.util.ManageNotification;
-import net.everythingandroid.smspopup.util.ManagePreferences;
-import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
-import net.everythingandroid.smspopup.util.ManageWakeLock;
 import net.everythingandroid.smspopup.util.SmsMessageSender;
 import net.everythingandroid.smspopup.util.SmsPopupUtils;
 import android.app.Activity;
 import android.app.PendingIntent;
 import android.app.PendingIntent.CanceledException;
 import android.app.Service;
+import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
+import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
-import android.os.Process;
 import android.telephony.SmsManager;
 import android.telephony.SmsMessage;
-import android.telephony.SmsMessage.MessageClass;
-import android.telephony.TelephonyManager;
 import android.widget.Toast;
 
 public class SmsReceiverService extends Service {
@@ -49,16 +43,32 @@ public class SmsReceiverService extends Service {
     public static final String MESSAGE_SENT_ACTION = "com.android.mms.transaction.MESSAGE_SENT";
 
     /*
-     * This is the number of retries and pause between retries that we will keep checking the system
-     * message database for the latest incoming message
+     * This is the max time we will wait for an incoming MMS to show up in the system message
+     * database (the system MMS transaction service stores it after we receive the broadcast)
      */
-    private static final int MESSAGE_RETRY = 8;
-    private static final int MESSAGE_RETRY_PAUSE = 1000;
+    private static final int MMS_ARRIVAL_TIMEOUT = 8000;
+
+    /*
+     * Ids of the MMS messages most recently matched to a WAP push, so two pushes close together
+     * (with two MmsArrivalWaiters) can't both pick the same message. Only used on the receive lane.
+     */
+    private static final int MAX_CLAIMED_MMS = 20;
+    private final LinkedHashSet<Long> mClaimedMms = new LinkedHashSet<Long>();
 
     private Context context;
-    private ServiceHandler mServiceHandler;
-    private Looper mServiceLooper;
-    private int mResultCode;
+
+    /*
+     * Incoming intents are dispatched to one of these lanes, each with its own background thread.
+     * Intents within a lane are processed in order (so messages received from a given thread are
+     * always handled in the order they arrived) while sent-status results are not held up behind
+     * slower message lookups. The service is only stopped (and the wake lock released) once every
+     * dispatched intent has been handled and no MMS waits or notification windows are pending.
+     */
+    private static final int LANE_RECEIVE = 0;
+    private static final int LANE_SENT = 1;
+    private WorkLanes mLanes;
+
+    private NotificationCoalescer mNotificationCoalescer;
 
     private static final Object mStartingServiceSync = new Object();
     private static PowerManager.WakeLock mStartingService;
@@ -69,33 +79,31 @@ public class SmsReceiverService extends Service {
 
     @Override
     public void onCreate() {
-        if (Log.DEBUG)
-            Log.v("SMSReceiverService: onCreate()");
-        HandlerThread thread = new HandlerThread(Log.LOGTAG, Process.THREAD_PRIORITY_BACKGROUND);
-        thread.start();
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiverService: onCreate()");
         context = getApplicationContext();
-        mServiceLooper = thread.getLooper();
-        mServiceHandler = new ServiceHandler(mServiceLooper);
+        mLanes = new WorkLanes(Log.LOGTAG, 2, new LaneCallback());
+        mNotificationCoalescer = new NotificationCoalescer(mLanes.getLane(LANE_RECEIVE),
+                getResources().getInteger(R.integer.config_notificationCoalesceWindow), mLanes,
+                new NotificationTarget());
     }
 
     @Override
     public void onStart(Intent intent, int startId) {
-        if (Log.DEBUG)
-            Log.v("SMSReceiverService: onStart()");
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiverService: onStart()");
 
-        mResultCode = intent != null ? intent.getIntExtra("result", 0) : 0;
-
-        Message msg = mServiceHandler.obtainMessage();
-        msg.arg1 = startId;
-        msg.obj = intent;
-        mServiceHandler.sendMessage(msg);
+        final int lane = intent != null && MESSAGE_SENT_ACTION.equals(intent.getAction())
+                ? LANE_SENT : LANE_RECEIVE;
+        mLanes.dispatch(lane, startId, intent != null ? intent.getIntExtra("result", 0) : 0,
+                intent);
     }
 
     @Override
     public void onDestroy() {
-        if (Log.DEBUG)
-            Log.v("SMSReceiverService: onDestroy()");
-        mServiceLooper.quit();
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiverService: onDestroy()");
+        mLanes.quit();
     }
 
     @Override
@@ -103,34 +111,36 @@ public class SmsReceiverService extends Service {
         return null;
     }
 
-    private final class ServiceHandler extends Handler {
-        public ServiceHandler(Looper looper) {
-            super(looper);
-        }
+    private final class LaneCallback implements WorkLanes.Callback {
 
         @Override
-        public void handleMessage(Message msg) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiverService: handleMessage()");
+        public void onWork(Message msg) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiverService: handleMessage()");
 
-            int serviceId = msg.arg1;
             Intent intent = (Intent) msg.obj;
-            String action = intent.getAction();
-            String dataType = intent.getType();
-
-            if (ACTION_SMS_RECEIVED.equals(action)) {
-                handleSmsReceived(intent);
-            } else if (ACTION_MMS_RECEIVED.equals(action) && MMS_DATA_TYPE.equals(dataType)) {
-                handleMmsReceived(intent);
-            } else if (MESSAGE_SENT_ACTION.equals(action)) {
-                handleSmsSent(intent);
-            } else if (ACTION_MESSAGE_RECEIVED.equals(action)) {
-                handleMessageReceived(intent);
+
+            if (intent != null) {
+                String action = intent.getAction();
+                String dataType = intent.getType();
+
+                if (ACTION_SMS_RECEIVED.equals(action)) {
+                    handleSmsReceived(intent);
+                } else if (ACTION_MMS_RECEIVED.equals(action) && MMS_DATA_TYPE.equals(dataType)) {
+                    handleMmsReceived(intent);
+                } else if (MESSAGE_SENT_ACTION.equals(action)) {
+                    handleSmsSent(intent, msg.arg1);
+                } else if (ACTION_MESSAGE_RECEIVED.equals(action)) {
+                    handleMessageReceived(intent);
+                }
             }
+        }
 
+        @Override
+        public void onIdle(int lastStartId) {
             // NOTE: We MUST not call stopSelf() directly, since we need to
             // make sure the wake lock acquired by AlertReceiver is released.
-            finishStartingService(SmsReceiverService.this, serviceId);
+            finishStartingService(SmsReceiverService.this, lastStartId);
         }
     }
 
@@ -138,8 +148,8 @@ public class SmsReceiverService extends Service {
      * Handle receiving a SMS message
      */
     private void handleSmsReceived(Intent intent) {
-        if (Log.DEBUG)
-            Log.v("SMSReceiver: Intercept SMS");
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiver: Intercept SMS");
 
         Bundle bundle = intent.getExtras();
         if (bundle != null) {
@@ -152,108 +162,140 @@ public class SmsReceiverService extends Service {
     }
 
     private void notifyMessageReceived(SmsMmsMessage message) {
-
-        // Class 0 SMS, let the system handle this
-        if (message.isSms() && message.getMessageClass() == MessageClass.CLASS_0) {
-            return;
+        switch (MessageNotifier.decide(context, message)) {
+        case MessageNotifier.NOTIFY_POPUP:
+            PopupChannel.show(context, message);
+            break;
+        case MessageNotifier.NOTIFY_NOTIFICATION:
+            mNotificationCoalescer.post(message);
+            break;
         }
+    }
 
-        if (message.isSprintVisualVoicemail()) {
-            return;
+    /**
+     * Handle receiving a MMS message
+     */
+    private void handleMmsReceived(Intent intent) {
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "MMS received!");
+
+        // Read first so a message stored between the two lookups is still found by the waiter
+        final long newestMmsId = SmsPopupUtils.getNewestMmsId(context);
+        SmsMmsMessage mmsMessage = SmsPopupUtils.getMmsDetails(context, 0, 0, mClaimedMms);
+
+        if (mmsMessage != null) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "MMS found in content provider");
+            claimMms(mmsMessage);
+            notifyMessageReceived(mmsMessage);
+        } else {
+            // This code often runs before the system MMS transaction service has stored the MMS
+            // details in the database, so wait for it to show up without blocking the handler
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "MMS not found, waiting for it to arrive");
+            new MmsArrivalWaiter(mLanes.getLane(LANE_RECEIVE), newestMmsId).start();
         }
+    }
 
-        // Fetch preferences
-        ManagePreferences mPrefs = new ManagePreferences(context, message.getContactLookupKey());
-
-        // Whether or not the popup should only show when keyguard is on
-        boolean onlyShowOnKeyguard =
-                mPrefs.getBoolean(R.string.pref_onlyShowOnKeyguard_key,
-                        Defaults.PREFS_ONLY_SHOW_ON_KEYGUARD);
-
-        // check if popup is enabled for this contact
-        boolean showPopup =
-                mPrefs.getBoolean(R.string.pref_popup_enabled_key,
-                        Defaults.PREFS_SHOW_POPUP,
-                        ContactNotifications.POPUP_ENABLED);
+    private void claimMms(SmsMmsMessage mmsMessage) {
+        mClaimedMms.add(mmsMessage.getMessageId());
+        if (mClaimedMms.size() > MAX_CLAIMED_MMS) {
+            final Iterator<Long> oldest = mClaimedMms.iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
 
-        // check if notifications are on for this contact
-        boolean notifEnabled =
-                mPrefs.getBoolean(R.string.pref_notif_enabled_key,
-                        Defaults.PREFS_NOTIF_ENABLED,
-                        ContactNotifications.ENABLED);
+    /**
+     * Waits (up to MMS_ARRIVAL_TIMEOUT) for a new MMS to be stored in the system database by
+     * observing the MMS content provider. Only messages newer than the push that are not claimed
+     * by another waiter are taken. All callbacks run on the receive lane thread so other intents
+     * continue to be processed while the wait is pending.
+     */
+    private class MmsArrivalWaiter extends ContentObserver implements Runnable {
+        private final Handler mHandler;
+        private final long mAfterMessageId;
+        private boolean mDone = false;
+
+        public MmsArrivalWaiter(Handler handler, long afterMessageId) {
+            super(handler);
+            mHandler = handler;
+            mAfterMessageId = afterMessageId;
+        }
 
-        // get docked state of phone
-        boolean docked = 
-                mPrefs.getInt(R.string.pref_docked_key, 0) == 
-                        ExternalEventReceiver.EXTRA_DOCK_STATE_DESK;
+        public void start() {
+            mLanes.begin();
 
-        mPrefs.close();
+            // The system MMS provider notifies on content://mms-sms/ rather than on the inbox uri
+            // itself so watch both trees
+            final ContentResolver cr = getContentResolver();
+            cr.registerContentObserver(SmsPopupUtils.MMS_CONTENT_URI, true, this);
+            cr.registerContentObserver(SmsPopupUtils.MMS_SMS_CONTENT_URI, true, this);
 
-        // Fetch call state, if the user is in a call or the phone is ringing we don't want 
-        // to show the popup
-        TelephonyManager mTM =
-                (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
-        boolean callStateIdle = mTM.getCallState() == TelephonyManager.CALL_STATE_IDLE;
+            mHandler.postDelayed(this, MMS_ARRIVAL_TIMEOUT);
+        }
 
-        // Init keyguard manager
-        ManageKeyguard.initialize(context);
+        @Override
+        public void onChange(boolean selfChange) {
+            if (!mDone) {
+                final SmsMmsMessage mmsMessage = getNewMms();
+                if (mmsMessage != null) {
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_RECEIVE, "MMS arrived in content provider");
+                    finish(mmsMessage);
+                }
+            }
+        }
 
         /*
-         * If popup is enabled for this user -AND- the user is not in a call --AND- phone is
-         * not docked -AND- (screen is locked -OR- (setting is OFF to only show on keyguard -AND-
-         * user is not in messaging app: then show the popup activity, otherwise check if
-         * notifications are on and just use the standard notification))
+         * Deadline reached, check one last time then give up
          */
-        if (showPopup && callStateIdle && !docked
-                && (ManageKeyguard.inKeyguardRestrictedInputMode() ||
-                (!onlyShowOnKeyguard && !SmsPopupUtils.inMessagingApp(context)))) {
+        @Override
+        public void run() {
+            if (!mDone) {
+                final SmsMmsMessage mmsMessage = getNewMms();
+                if (Log.isVerbose() && mmsMessage == null)
+                    Log.v(Log.TAG_RECEIVE, "MMS not found in content provider, giving up");
+                finish(mmsMessage);
+            }
+        }
 
-            if (Log.DEBUG)
-                Log.v("^^^^^^Showing SMS Popup");
-            ManageWakeLock.acquirePartial(context);
-            context.startActivity(message.getPopupIntent());
+        private SmsMmsMessage getNewMms() {
+            return SmsPopupUtils.getMmsDetails(context, 0, mAfterMessageId, mClaimedMms);
+        }
 
-        } else if (notifEnabled) {
+        private void finish(SmsMmsMessage mmsMessage) {
+            mDone = true;
+            getContentResolver().unregisterContentObserver(this);
+            mHandler.removeCallbacks(this);
 
-            if (Log.DEBUG)
-                Log.v("^^^^^^Not showing SMS Popup, using notifications");
-            ManageNotification.show(context, message, message == null ? 0 : message.getUnreadCount());
-            ReminderService.scheduleReminder(context, message);
+            if (mmsMessage != null) {
+                claimMms(mmsMessage);
+                notifyMessageReceived(mmsMessage);
+            }
 
+            mLanes.finish();
         }
     }
 
     /**
-     * Handle receiving a MMS message
+     * Posts the coalesced notifications, see NotificationCoalescer.
      */
-    private void handleMmsReceived(Intent intent) {
-        if (Log.DEBUG)
-            Log.v("MMS received!");
-        SmsMmsMessage mmsMessage = null;
-        int count = 0;
+    private class NotificationTarget implements NotificationCoalescer.Target {
 
-        // Ok this is super hacky, but fixes the case where this code
-        // runs before the system MMS transaction service (that stores
-        // the MMS details in the database). This should really be
-        // a content listener that waits for a while then gives up...
-        while (mmsMessage == null && count < MESSAGE_RETRY) {
+        @Override
+        public void alert(SmsMmsMessage message) {
+            ManageNotification.show(context, message, message.getUnreadCount());
+        }
 
-            mmsMessage = SmsPopupUtils.getMmsDetails(context);
+        @Override
+        public void refresh(SmsMmsMessage message) {
+            ManageNotification.update(context, message, message.getUnreadCount());
+        }
 
-            if (mmsMessage != null) {
-                if (Log.DEBUG)
-                    Log.v("MMS found in content provider");
-                notifyMessageReceived(mmsMessage);
-            } else {
-                if (Log.DEBUG)
-                    Log.v("MMS not found, sleeping (count is " + count + ")");
-                count++;
-                try {
-                    Thread.sleep(MESSAGE_RETRY_PAUSE);
-                } catch (InterruptedException e) {
-                    // e.printStackTrace();
-                }
-            }
+        @Override
+        public void scheduleReminder(SmsMmsMessage message) {
+            ReminderService.scheduleReminder(context, message);
         }
     }
 
@@ -261,8 +303,8 @@ public class SmsReceiverService extends Service {
      * Handle receiving an arbitrary message (potentially coming from a 3rd party app)
      */
     private void handleMessageReceived(Intent intent) {
-        if (Log.DEBUG)
-            Log.v("SMSReceiver: Intercept Message");
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiver: Intercept Message");
 
         Bundle bundle = intent.getExtras();
 
@@ -313,9 +355,9 @@ public class SmsReceiverService extends Service {
     /*
      * Handle the result of a sms being sent
      */
-    private void handleSmsSent(Intent intent) {
-        if (Log.DEBUG)
-            Log.v("SMSReceiver: Handle SMS sent");
+    private void handleSmsSent(Intent intent, int resultCode) {
+        if (Log.isVerbose())
+            Log.v(Log.TAG_RECEIVE, "SMSReceiver: Handle SMS sent");
 
         PackageManager pm = getPackageManager();
         Intent sysIntent = null;
@@ -333,8 +375,9 @@ public class SmsReceiverService extends Service {
         receiverList = pm.queryBroadcastReceivers(tempIntent, 0);
 
         if (receiverList.size() > 0) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiver: Found system messaging app - " + receiverList.get(0).toString());
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiver: Found system messaging app - %s",
+                        receiverList.get(0));
             sysIntent = tempIntent;
         }
 
@@ -345,15 +388,16 @@ public class SmsReceiverService extends Service {
          */
         if (sysIntent == null) {
             forwardToSystemApp = false;
-            if (Log.DEBUG)
-                Log.v("SMSReceiver: Did not find system messaging app, moving messages directly");
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE,
+                        "SMSReceiver: Did not find system messaging app, moving messages directly");
 
             Uri uri = intent.getData();
 
-            if (mResultCode == Activity.RESULT_OK) {
+            if (resultCode == Activity.RESULT_OK) {
                 SmsMessageSender.moveMessageToFolder(this, uri, SmsMessageSender.MESSAGE_TYPE_SENT);
-            } else if ((mResultCode == SmsManager.RESULT_ERROR_RADIO_OFF) ||
-                    (mResultCode == SmsManager.RESULT_ERROR_NO_SERVICE)) {
+            } else if ((resultCode == SmsManager.RESULT_ERROR_RADIO_OFF) ||
+                    (resultCode == SmsManager.RESULT_ERROR_NO_SERVICE)) {
                 SmsMessageSender.moveMessageToFolder(this, uri,
                         SmsMessageSender.MESSAGE_TYPE_QUEUED);
             } else {
@@ -363,21 +407,21 @@ public class SmsReceiverService extends Service {
         }
 
         // Check the result and notify the user using a toast
-        if (mResultCode == Activity.RESULT_OK) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiver: Message was sent");
+        if (resultCode == Activity.RESULT_OK) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiver: Message was sent");
             mToastHandler.sendEmptyMessage(TOAST_HANDLER_MESSAGE_SENT);
 
-        } else if ((mResultCode == SmsManager.RESULT_ERROR_RADIO_OFF) ||
-                (mResultCode == SmsManager.RESULT_ERROR_NO_SERVICE)) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiver: Error sending message (will send later)");
+        } else if ((resultCode == SmsManager.RESULT_ERROR_RADIO_OFF) ||
+                (resultCode == SmsManager.RESULT_ERROR_NO_SERVICE)) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiver: Error sending message (will send later)");
             // The system shows a Toast here so no need to show one
             // mToastHandler.sendEmptyMessage(TOAST_HANDLER_MESSAGE_SEND_LATER);
 
         } else {
-            if (Log.DEBUG)
-                Log.v("SMSReceiver: Error sending message");
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiver: Error sending message");
             // ManageNotification.notifySendFailed(this);
             mToastHandler.sendEmptyMessage(TOAST_HANDLER_MESSAGE_FAILED);
         }
@@ -398,8 +442,10 @@ public class SmsReceiverService extends Service {
          */
         if (forwardToSystemApp) {
             try {
-                Log.v("SMSReceiver: Broadcasting send complete to system messaging app");
-                PendingIntent.getBroadcast(this, 0, sysIntent, 0).send(mResultCode);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_RECEIVE,
+                            "SMSReceiver: Broadcasting send complete to system messaging app");
+                PendingIntent.getBroadcast(this, 0, sysIntent, 0).send(resultCode);
             } catch (CanceledException e) {
                 e.printStackTrace();
             }
@@ -412,8 +458,8 @@ public class SmsReceiverService extends Service {
      */
     public static void beginStartingService(Context context, Intent intent) {
         synchronized (mStartingServiceSync) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiverService: beginStartingService()");
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiverService: beginStartingService()");
             if (mStartingService == null) {
                 PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
                 mStartingService = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
@@ -431,8 +477,8 @@ public class SmsReceiverService extends Service {
      */
     public static void finishStartingService(Service service, int startId) {
         synchronized (mStartingServiceSync) {
-            if (Log.DEBUG)
-                Log.v("SMSReceiverService: finishStartingService()");
+            if (Log.isVerbose())
+                Log.v(Log.TAG_RECEIVE, "SMSReceiverService: finishStartingService()");
             if (mStartingService != null) {
                 if (service.stopSelfResult(startId)) {
                     mStartingService.release();
@@ -0,0 +1,114 @@
+package net.everythingandroid.smspopup.service;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+
+/*
+ * Background lanes for a started service (SmsReceiverService). Each lane has its own thread and
+ * handles the work dispatched to it in order, separate lanes run in parallel so slow work on one
+ * lane doesn't hold up the others. Work is counted from dispatch() (or begin()) until it finishes
+ * and the callback is told once nothing is outstanding, with the last start id the service was
+ * given, so the service can stop itself (and release its wake lock) only when it is really idle.
+ */
+public class WorkLanes {
+
+    public interface Callback {
+        /**
+         * Handle one dispatched unit of work, called on the lane's thread.
+         */
+        public void onWork(Message msg);
+
+        /**
+         * Nothing is outstanding any more, called with the work count locked so no new work can
+         * be dispatched until it returns.
+         */
+        public void onIdle(int lastStartId);
+    }
+
+    private final Callback mCallback;
+    private final LaneHandler[] mLanes;
+
+    // Guarded by mWorkSync
+    private final Object mWorkSync = new Object();
+    private int mLastStartId = 0;
+    private int mOutstandingWork = 0;
+
+    public WorkLanes(String name, int laneCount, Callback callback) {
+        mCallback = callback;
+        mLanes = new LaneHandler[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            HandlerThread thread =
+                    new HandlerThread(name + "-" + i, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mLanes[i] = new LaneHandler(thread.getLooper());
+        }
+    }
+
+    /**
+     * The handler for a lane, anything posted to it runs on the lane's thread (in order with the
+     * dispatched work).
+     */
+    public Handler getLane(int lane) {
+        return mLanes[lane];
+    }
+
+    /**
+     * Queue work from the service's onStart() on a lane.
+     */
+    public void dispatch(int lane, int startId, int arg1, Object obj) {
+        synchronized (mWorkSync) {
+            mLastStartId = startId;
+            mOutstandingWork++;
+        }
+        Message msg = mLanes[lane].obtainMessage();
+        msg.arg1 = arg1;
+        msg.obj = obj;
+        mLanes[lane].sendMessage(msg);
+    }
+
+    /**
+     * Count extra work (eg. a wait for a content change) that must finish before the service is
+     * idle, each call must be matched by a call to finish().
+     */
+    public void begin() {
+        synchronized (mWorkSync) {
+            mOutstandingWork++;
+        }
+    }
+
+    /**
+     * Mark one unit of work (dispatched or begun) as complete.
+     */
+    public void finish() {
+        synchronized (mWorkSync) {
+            mOutstandingWork--;
+            if (mOutstandingWork == 0) {
+                mCallback.onIdle(mLastStartId);
+            }
+        }
+    }
+
+    public void quit() {
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i].getLooper().quit();
+        }
+    }
+
+    private final class LaneHandler extends Handler {
+        public LaneHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            try {
+                mCallback.onWork(msg);
+            } finally {
+                finish();
+            }
+        }
+    }
+}
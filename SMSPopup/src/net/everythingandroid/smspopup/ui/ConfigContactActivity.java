@@ -312,7 +312,7 @@ public class ConfigContactActivity extends PreferenceActivity {
 
         final Cursor c = getContentResolver().query(contactUri, null, null, null, null);
         if (c == null || c.getCount() == 0) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("Error creating contact");
             finish();
         }
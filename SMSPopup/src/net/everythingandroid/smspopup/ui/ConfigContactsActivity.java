@@ -1,19 +1,24 @@
 package net.everythingandroid.smspopup.ui;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.SmsPopupContract;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.util.ContactNameSync;
 import net.everythingandroid.smspopup.util.Log;
 import net.everythingandroid.smspopup.util.SmsPopupUtils;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.provider.ContactsContract.Contacts;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentTransaction;
@@ -53,6 +58,12 @@ public class ConfigContactsActivity extends FragmentActivity {
     private static final int COLUMN_DISPLAY_NAME = 1;
     private static final int COLUMN_LOOKUP_KEY = 2;
 
+    private static final String[] SYNC_LOCAL_PROJECTION = new String[] {
+            ContactNotifications._ID,
+            ContactNotifications.CONTACT_LOOKUPKEY,
+            ContactNotifications.CONTACT_NAME
+    };
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -141,9 +152,11 @@ public class ConfigContactsActivity extends FragmentActivity {
 
     /**
      * AsyncTask to sync contact names from our database with those from the system database
+     * (removing contacts that no longer exist, see ContactNameSync). All the changes are written
+     * back in a single batch.
      */
     private class SynchronizeContactNames extends AsyncTask<Void, Integer, Void> {
-        private Cursor mCursor, sysContactCursor;
+        private Cursor mCursor;
         private ContentResolver mContentResolver;
         private int totalCount;
 
@@ -155,7 +168,7 @@ public class ConfigContactsActivity extends FragmentActivity {
         @Override
         protected Void doInBackground(Void... params) {
             mCursor = mContentResolver.query(
-                    ContactNotifications.CONTENT_URI, null, null, null, null);
+                    ContactNotifications.CONTENT_URI, SYNC_LOCAL_PROJECTION, null, null, null);
 
             totalCount = 0;
             if (mCursor != null) {
@@ -166,58 +179,59 @@ public class ConfigContactsActivity extends FragmentActivity {
                 return null;
             }
 
-            // ConfigContactsActivity.this.startManagingCursor(mCursor);
-
-            if (mCursor != null) {
-                int count = 0;
-                String contactId;
-                String contactName;
-                String sysContactName;
-                String rawSysContactName;
-
-                // loop through the local sms popup contacts table
-                while (mCursor.moveToNext()) {
-                    count++;
-
-                    contactName = mCursor.getString(
-                            mCursor.getColumnIndexOrThrow(ContactNotifications.CONTACT_NAME));
-                    contactId = mCursor.getString(
-                            mCursor.getColumnIndexOrThrow(ContactNotifications._ID));
-
-                    // fetch the system db contact name
-                    sysContactCursor = mContentResolver.query(
-                            Uri.withAppendedPath(Contacts.CONTENT_URI, contactId),
-                            new String[] { Contacts.DISPLAY_NAME }, null, null, null);
-
-                    if (sysContactCursor != null) {
-                        // ConfigContactsActivity.this.startManagingCursor(sysContactCursor);
-                        if (sysContactCursor.moveToFirst()) {
-                            rawSysContactName = sysContactCursor.getString(0);
-                            if (rawSysContactName != null) {
-                                sysContactName = rawSysContactName.trim();
-                                if (!contactName.equals(sysContactName)) {
-                                    ContentValues vals = new ContentValues();
-                                    vals.put(ContactNotifications.CONTACT_NAME, sysContactName);
-                                    mContentResolver.update(ContactNotifications
-                                            .buildContactUri(contactId), vals, null, null);
-                                }
-                            }
-                        } else {
-                            // if this contact has been removed from the system db then delete from
-                            // the local db
-                            mContentResolver.delete(
-                                    ContactNotifications.buildContactUri(contactId), null, null);
-                        }
-                        sysContactCursor.close();
-                    }
-
-                    // try { Thread.sleep(3000); } catch (InterruptedException e) {}
+            final long[] ids = new long[totalCount];
+            final String[] lookupKeys = new String[totalCount];
+            final String[] names = new String[totalCount];
+            for (int i = 0; i < totalCount && mCursor.moveToNext(); i++) {
+                ids[i] = mCursor.getLong(0);
+                lookupKeys[i] = mCursor.getString(1);
+                names[i] = mCursor.getString(2);
+            }
+            mCursor.close();
+            mCursor = null;
 
+            final ContactNameSync sync = new ContactNameSync(mContentResolver);
+            sync.sync(ids, lookupKeys, names, new ContactNameSync.ProgressListener() {
+                @Override
+                public void onProgress(int rows) {
                     // update progress dialog
-                    publishProgress(count);
+                    publishProgress(rows);
+                }
+            });
+
+            final ArrayList<Long> deletes = sync.getDeletes();
+            final ArrayList<Long> renameIds = sync.getRenameIds();
+            final ArrayList<String> renameNames = sync.getRenameNames();
+            final ArrayList<ContentProviderOperation> operations =
+                    new ArrayList<ContentProviderOperation>(deletes.size() + renameIds.size());
+            for (int i = 0; i < deletes.size(); i++) {
+                operations.add(ContentProviderOperation.newDelete(
+                        ContactNotifications.buildContactUri(deletes.get(i))).build());
+            }
+            for (int i = 0; i < renameIds.size(); i++) {
+                operations.add(ContentProviderOperation.newUpdate(
+                        ContactNotifications.buildContactUri(renameIds.get(i)))
+                        .withValue(ContactNotifications.CONTACT_NAME, renameNames.get(i))
+                        .build());
+            }
+
+            if (operations.size() > 0) {
+                try {
+                    mContentResolver.applyBatch(SmsPopupContract.CONTENT_AUTHORITY, operations);
+                } catch (RemoteException e) {
+                    Log.e(Log.TAG_CONTACTS, "SynchronizeContactNames: %s", e);
+                } catch (OperationApplicationException e) {
+                    Log.e(Log.TAG_CONTACTS, "SynchronizeContactNames: %s", e);
                 }
             }
 
+            if (sync.getFailedCount() > 0)
+                Log.w(Log.TAG_CONTACTS, "SynchronizeContactNames: %s lookups failed",
+                        sync.getFailedCount());
+            if (Log.isVerbose())
+                Log.v(Log.TAG_CONTACTS, "SynchronizeContactNames: %s rows, %s changes",
+                        totalCount, operations.size());
+
             return null;
         }
 
@@ -324,19 +338,19 @@ public class ConfigContactsActivity extends FragmentActivity {
         public boolean onContextItemSelected(MenuItem item) {
             AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
 
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("onContextItemSelected()");
 
             if (info.id != -1) {
                 switch (item.getItemId()) {
                 case CONTEXT_MENU_EDIT_ID:
-                    if (Log.DEBUG)
-                        Log.v("Editing contact " + info.id);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Editing contact %s", info.id);
                     startActivity(getConfigPerContactIntent(getActivity(), info.id));
                     return true;
                 case CONTEXT_MENU_DELETE_ID:
-                    if (Log.DEBUG)
-                        Log.v("Deleting contact " + info.id);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Deleting contact %s", info.id);
                     getActivity().getContentResolver().delete(
                             ContactNotifications.buildContactUri(info.id), null,
                             null);
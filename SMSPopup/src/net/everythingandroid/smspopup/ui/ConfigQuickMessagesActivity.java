@@ -134,7 +134,7 @@ public class ConfigQuickMessagesActivity extends ListActivity implements OnEdito
     @Override
     public void onCreateContextMenu(ContextMenu menu, View v, ContextMenuInfo menuInfo) {
         super.onCreateContextMenu(menu, v, menuInfo);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("onCreateContextMenu()");
 
         // Create menu if top item is not selected
@@ -151,25 +151,25 @@ public class ConfigQuickMessagesActivity extends ListActivity implements OnEdito
     @Override
     public boolean onContextItemSelected(MenuItem item) {
         final AdapterContextMenuInfo info = (AdapterContextMenuInfo) item.getMenuInfo();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("onContextItemSelected()");
         if (info.id != -1) {
             final String id = String.valueOf(info.id);
             switch (item.getItemId()) {
             case CONTEXT_MENU_EDIT_ID:
-                if (Log.DEBUG)
-                    Log.v("Editing quick message " + id);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_PREFS, "Editing quick message %s", id);
                 editId = id;
                 showDialog(EDIT_DIALOG);
                 return true;
             case CONTEXT_MENU_DELETE_ID:
-                if (Log.DEBUG)
-                    Log.v("Deleting quickmessage " + id);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_PREFS, "Deleting quickmessage %s", id);
                 deleteQuickMessage(id);
                 return true;
             case CONTEXT_MENU_REORDER_ID:
-                if (Log.DEBUG)
-                    Log.v("Reordering quickmessage " + id);
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_PREFS, "Reordering quickmessage %s", id);
                 reorderQuickMessage(id);
                 return true;
             default:
@@ -0,0 +1,82 @@
+package net.everythingandroid.smspopup.ui;
+
+import java.lang.ref.WeakReference;
+
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+import net.everythingandroid.smspopup.util.Log;
+import net.everythingandroid.smspopup.util.ManageWakeLock;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+/*
+ * In-process channel used to show a message in the popup. While SmsPopupActivity is in the
+ * foreground new messages are handed straight to it on the main thread, otherwise (or if the
+ * activity goes away before the message is delivered) the popup is started the usual way through
+ * startActivity() and onCreate()/onNewIntent().
+ */
+public class PopupChannel {
+
+    // Time (SystemClock.elapsedRealtime()) the popup intent was sent, used to log timings
+    static final String EXTRA_DISPATCH_TIME = "net.everythingandroid.smspopup.DISPATCH_TIME";
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only accessed from the main thread, weak so a missed detach() can't keep the activity alive
+    private static WeakReference<SmsPopupActivity> attachedActivity = null;
+
+    /**
+     * Show a message in the popup, adding it to the visible popup if there is one. May be called
+     * from any thread.
+     */
+    public static void show(final Context context, final SmsMmsMessage message) {
+        final long dispatchTime = SystemClock.elapsedRealtime();
+
+        // Held until the popup has the message (released in SmsPopupActivity.wakeApp() when the
+        // activity has to be started)
+        ManageWakeLock.acquirePartial(context);
+
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final SmsPopupActivity activity =
+                        attachedActivity == null ? null : attachedActivity.get();
+                if (activity != null && !activity.isFinishing()) {
+                    activity.addMessageInPlace(message);
+                    ManageWakeLock.releasePartial();
+                    logDeliveryTime("channel", dispatchTime);
+                } else {
+                    startPopup(context, message, dispatchTime);
+                }
+            }
+        });
+    }
+
+    /*
+     * Called by SmsPopupActivity from onResume()/onPause()
+     */
+    static void attach(SmsPopupActivity activity) {
+        attachedActivity = new WeakReference<SmsPopupActivity>(activity);
+    }
+
+    static void detach(SmsPopupActivity activity) {
+        if (attachedActivity != null && attachedActivity.get() == activity) {
+            attachedActivity = null;
+        }
+    }
+
+    static void logDeliveryTime(String path, long dispatchTime) {
+        if (Log.isVerbose()) {
+            Log.v(Log.TAG_RECEIVE, "Timing: popup delivered via %s in %sms",
+                    path, SystemClock.elapsedRealtime() - dispatchTime);
+        }
+    }
+
+    private static void startPopup(Context context, SmsMmsMessage message, long dispatchTime) {
+        final Intent popup = message.getPopupIntent();
+        popup.putExtra(EXTRA_DISPATCH_TIME, dispatchTime);
+        context.startActivity(popup);
+    }
+}
@@ -1,18 +1,22 @@
 package net.everythingandroid.smspopup.ui;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import net.everythingandroid.smspopup.R;
 import net.everythingandroid.smspopup.controls.QmTextWatcher;
 import net.everythingandroid.smspopup.controls.SmsPopupPager;
 import net.everythingandroid.smspopup.controls.SmsPopupPager.MessageCountChanged;
+import net.everythingandroid.smspopup.controls.SmsPopupPager.MessageLoader;
+import net.everythingandroid.smspopup.controls.SmsPopupPager.OnNeedOlderMessages;
 import net.everythingandroid.smspopup.controls.SmsPopupView;
 import net.everythingandroid.smspopup.controls.SmsPopupView.OnReactToMessage;
 import net.everythingandroid.smspopup.preferences.ButtonListPreference;
 import net.everythingandroid.smspopup.provider.SmsMmsMessage;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.QuickMessages;
 import net.everythingandroid.smspopup.receiver.ClearAllReceiver;
+import net.everythingandroid.smspopup.service.MessageActionQueueService;
 import net.everythingandroid.smspopup.service.ReminderService;
 import net.everythingandroid.smspopup.service.SmsPopupUtilsService;
 import net.everythingandroid.smspopup.util.Eula;
@@ -124,6 +128,23 @@ public class SmsPopupActivity extends Activity {
 
     private Cursor mCursor = null;
 
+    // Messages closed or deleted by the user, saved to the queue as they are taken and applied
+    // together by MessageActionQueueService when the popup goes away
+    private final MessageActionQueueService.PendingActions pendingActions =
+            new MessageActionQueueService.PendingActions();
+
+    // Unread messages are loaded into the pager a page at a time, newest first, and the pager
+    // drops those far from the current page which are read back by id as the user returns
+    private static final int UNREAD_PAGE_SIZE = 20;
+    private LoadUnreadMessagesAsyncTask loadUnreadTask = null;
+    private ReloadMessagesAsyncTask reloadTask = null;
+    private long ignoreMessageId = 0;
+    private long oldestLoadedDate = 0;
+    private long oldestLoadedId = 0;
+    private boolean moreUnreadMessages = false;
+    private int unreadNotLoaded = 0;
+    private int unreadTotal = 0;
+
     private TextToSpeech androidTts = null;
 
     /*
@@ -142,12 +163,16 @@ public class SmsPopupActivity extends Activity {
         setupViews();
 
         if (bundle == null) { // new activity
+            logDeliveryTime(getIntent());
             initializeMessagesAndWake(getIntent().getExtras());
         } else { // this activity was recreated after being destroyed
             initializeMessagesAndWake(bundle);
         }
 
         Eula.show(this);
+
+        // Apply any mark read/delete actions left over from a previous process
+        MessageActionQueueService.replay(getApplicationContext());
     }
 
     /*
@@ -248,11 +273,40 @@ public class SmsPopupActivity extends Activity {
                 
                 if (hasNotified) {
                     ManageNotification.update(SmsPopupActivity.this,
-                            smsPopupPager.getMessage(current), total);
+                            smsPopupPager.getMessage(current), total + unreadNotLoaded);
+                }
+            }
+        });
+
+        smsPopupPager.setOnNeedOlderMessages(new OnNeedOlderMessages() {
+
+            @Override
+            public void onNeedOlderMessages() {
+                if (moreUnreadMessages && loadUnreadTask == null) {
+                    loadUnreadTask = new LoadUnreadMessagesAsyncTask(false);
+                    loadUnreadTask.execute();
                 }
             }
         });
 
+        smsPopupPager.setMessageLoader(new MessageLoader() {
+
+            @Override
+            public void loadMessages(long[] messageIds) {
+                if (reloadTask == null) {
+                    reloadTask = new ReloadMessagesAsyncTask(messageIds);
+                    reloadTask.execute();
+                }
+            }
+
+            @Override
+            public SmsMmsMessage loadMessage(long messageId) {
+                final ArrayList<SmsMmsMessage> messages = SmsPopupUtils.getSmsMessages(
+                        SmsPopupActivity.this, new long[] { messageId }, unreadTotal);
+                return messages == null ? null : messages.get(0);
+            }
+        });
+
         // See if user wants to show buttons on the popup
         if (!mPrefs.getBoolean(getString(R.string.pref_show_buttons_key),
                 Defaults.PREFS_SHOW_BUTTONS)) {
@@ -344,47 +398,133 @@ public class SmsPopupActivity extends Activity {
             wakeApp();
         } else {
             if (message != null) {
-                new LoadUnreadMessagesAsyncTask().execute(message);
+                // Show this message straight away, the newest page of other unread messages is
+                // loaded in front of it and older pages as the user pages back
+                smsPopupPager.addMessage(message);
+                ignoreMessageId = message.getMessageId();
+                loadUnreadTask = new LoadUnreadMessagesAsyncTask(true);
+                loadUnreadTask.execute();
             }
         }        
     }
     
-    private class LoadUnreadMessagesAsyncTask extends AsyncTask<SmsMmsMessage, 
+    /**
+     * Loads the next (older) page of unread messages into the pager. Only one runs at a time.
+     */
+    private class LoadUnreadMessagesAsyncTask extends AsyncTask<Void, 
             Void, ArrayList<SmsMmsMessage>> {
         
+        private final boolean firstPage;
+        private final long beforeDate;
+        private final long beforeId;
+        private int remaining;
         ProgressBar mProgressBar;
+
+        public LoadUnreadMessagesAsyncTask(boolean firstPage) {
+            this.firstPage = firstPage;
+            beforeDate = oldestLoadedDate;
+            beforeId = oldestLoadedId;
+            remaining = unreadNotLoaded;
+        }
                 
         @Override
         protected void onPreExecute() {
-            mProgressBar = (ProgressBar) findViewById(R.id.progress);
-            mProgressBar.setVisibility(View.VISIBLE);
-            disablePopupButtons(false);
+            if (firstPage) {
+                mProgressBar = (ProgressBar) findViewById(R.id.progress);
+                mProgressBar.setVisibility(View.VISIBLE);
+                disablePopupButtons(false);
+            }
         }
 
         @Override
-        protected ArrayList<SmsMmsMessage> doInBackground(SmsMmsMessage... arg) {
+        protected ArrayList<SmsMmsMessage> doInBackground(Void... arg) {
+            if (firstPage) {
+                // Roughly how many are left to load once the first page is in (for the count
+                // shown in the notification)
+                remaining = SmsPopupUtils.getUnreadSmsCount(SmsPopupActivity.this) - 1;
+            }
+
             ArrayList<SmsMmsMessage> messages = SmsPopupUtils.getUnreadMessages(
-                    SmsPopupActivity.this, arg[0].getMessageId());
+                    SmsPopupActivity.this, ignoreMessageId, beforeDate, beforeId,
+                    UNREAD_PAGE_SIZE, firstPage ? remaining + 1 : unreadTotal);
             
             if (messages == null) {
-                messages = new ArrayList<SmsMmsMessage>(1);
+                messages = new ArrayList<SmsMmsMessage>(0);
             }
-            
-            messages.add(arg[0]);
-                        
+
+            // Pages come back newest first, the pager is in date order
+            Collections.reverse(messages);
             return messages;
         }
         
         @Override
         protected void onPostExecute(ArrayList<SmsMmsMessage> result) {
-            disablePopupButtons(true);
-            mProgressBar.setVisibility(View.GONE);
+            loadUnreadTask = null;
+
+            // Pre-Honeycomb this still runs (with a null result) if the task was cancelled
+            if (result == null || isCancelled()) {
+                return;
+            }
+
+            if (firstPage) {
+                unreadTotal = remaining + 1;
+            }
+
+            final int count = result.size();
+            moreUnreadMessages = count == UNREAD_PAGE_SIZE;
+            unreadNotLoaded = moreUnreadMessages ? Math.max(remaining - count, 0) : 0;
+            if (count > 0) {
+                final SmsMmsMessage oldest = result.get(0);
+                oldestLoadedDate = oldest.getTimestamp();
+                oldestLoadedId = oldest.getMessageId();
+            }
+
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Loaded %s unread messages, about %s more", count,
+                        unreadNotLoaded);
+
             smsPopupPager.addMessages(result);
-            smsPopupPager.showLast();
-            wakeApp();
+
+            if (firstPage) {
+                disablePopupButtons(true);
+                mProgressBar.setVisibility(View.GONE);
+                smsPopupPager.showLast();
+                wakeApp();
+            }
         }
     }
     
+    /**
+     * Reads back messages the pager dropped from memory. Only one runs at a time.
+     */
+    private class ReloadMessagesAsyncTask extends AsyncTask<Void, Void, ArrayList<SmsMmsMessage>> {
+
+        private final long[] messageIds;
+
+        public ReloadMessagesAsyncTask(long[] messageIds) {
+            this.messageIds = messageIds;
+        }
+
+        @Override
+        protected ArrayList<SmsMmsMessage> doInBackground(Void... arg) {
+            return SmsPopupUtils.getSmsMessages(SmsPopupActivity.this, messageIds, unreadTotal);
+        }
+
+        @Override
+        protected void onPostExecute(ArrayList<SmsMmsMessage> result) {
+            reloadTask = null;
+            if (isCancelled()) {
+                return;
+            }
+
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Reloaded %s of %s messages",
+                        result == null ? 0 : result.size(), messageIds.length);
+
+            smsPopupPager.fillMessages(messageIds, result);
+        }
+    }
+
     private void disablePopupButtons(boolean enabled) {
         findViewById(R.id.button1).setEnabled(enabled);
         findViewById(R.id.button2).setEnabled(enabled);
@@ -456,6 +596,33 @@ public class SmsPopupActivity extends Activity {
         replying = false;
         inbox = false;
 
+        notifyIfNeeded();
+    }
+
+    /**
+     * Add a message to the popup while it is in the foreground (called from PopupChannel on the
+     * main thread). The screen is already on so only the notification needs to be run.
+     */
+    void addMessageInPlace(SmsMmsMessage message) {
+        if (Log.isVerbose())
+            Log.v("SMSPopupActivity: addMessageInPlace()");
+
+        hasNotified = false;
+        smsPopupPager.addMessage(message);
+        notifyIfNeeded();
+    }
+
+    private void logDeliveryTime(Intent intent) {
+        final long dispatchTime = intent.getLongExtra(PopupChannel.EXTRA_DISPATCH_TIME, 0);
+        if (dispatchTime != 0) {
+            PopupChannel.logDeliveryTime("intent", dispatchTime);
+        }
+    }
+
+    /**
+     * Sound the notification and schedule a reminder if the current set of messages needs it.
+     */
+    private void notifyIfNeeded() {
         SmsMmsMessage notifyMessage = smsPopupPager.shouldNotify();
         
         // See if a notification is needed for this set of messages
@@ -465,7 +632,8 @@ public class SmsPopupActivity extends Activity {
             ReminderService.scheduleReminder(this, notifyMessage);
 
             // Run the notification
-            ManageNotification.show(this, notifyMessage, smsPopupPager.getPageCount());
+            ManageNotification.show(this, notifyMessage,
+                    smsPopupPager.getPageCount() + unreadNotLoaded);
             
             hasNotified = true;
         }
@@ -476,10 +644,11 @@ public class SmsPopupActivity extends Activity {
      * reminders (as the user has interrupted the app.
      */
     private void myFinish() {
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("myFinish()");
 
         if (inbox) {
+            pendingActions.send(getApplicationContext());
             ManageNotification.clearAll(getApplicationContext());
         } else {
 
@@ -499,8 +668,9 @@ public class SmsPopupActivity extends Activity {
                 i.putExtra(SmsMmsMessage.EXTRAS_REPLYING, replying);
             }
 
-            // Start the service
-            WakefulIntentService.sendWakefulWork(getApplicationContext(), i);
+            // Start the service, after any pending actions are applied so the unread counts
+            // include them
+            pendingActions.send(getApplicationContext(), i);
         }
 
         // Cancel any reminder notifications
@@ -519,7 +689,7 @@ public class SmsPopupActivity extends Activity {
     protected void onNewIntent(Intent intent) {
 
         super.onNewIntent(intent);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onNewIntent()");
         
         hasNotified = false;
@@ -527,6 +697,8 @@ public class SmsPopupActivity extends Activity {
         // Update intent held by activity
         setIntent(intent);
 
+        logDeliveryTime(intent);
+
         // Setup messages
         initializeMessagesAndWake(intent.getExtras(), true);
     }
@@ -534,7 +706,7 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onStart() {
         super.onStart();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onStart()");
         // ManageWakeLock.acquirePartial(getApplicationContext());
     }
@@ -542,19 +714,27 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onResume() {
         super.onResume();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onResume()");
         wasVisible = false;
         // Reset exitingKeyguardSecurely bool to false
         exitingKeyguardSecurely = false;
+
+        // New messages can now be added directly while we're in the foreground
+        PopupChannel.attach(this);
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onPause()");
 
+        PopupChannel.detach(this);
+
+        // Write out any messages the user closed or deleted
+        pendingActions.send(getApplicationContext());
+
         // Hide the soft keyboard in case it was shown via quick reply
         hideSoftKeyboard();
 
@@ -578,7 +758,7 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onStop() {
         super.onStop();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onStop()");
 
         // Cancel the receiver that will clear our locks
@@ -589,6 +769,13 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        PopupChannel.detach(this);
+        if (loadUnreadTask != null) {
+            loadUnreadTask.cancel(false);
+        }
+        if (reloadTask != null) {
+            reloadTask.cancel(false);
+        }
     }
 
     /**
@@ -596,7 +783,7 @@ public class SmsPopupActivity extends Activity {
      */
     @Override
     protected Dialog onCreateDialog(int id) {
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("onCreateDialog()");
 
         switch (id) {
@@ -755,7 +942,7 @@ public class SmsPopupActivity extends Activity {
             qrAlertDialog.setOnDismissListener(new OnDismissListener() {
                 @Override
                 public void onDismiss(DialogInterface dialog) {
-                    if (Log.DEBUG)
+                    if (Log.isVerbose())
                         Log.v("Quick Reply Dialog: onDissmiss()");
                 }
             });
@@ -794,8 +981,8 @@ public class SmsPopupActivity extends Activity {
                 mDialogBuilder.setCursor(mCursor, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int item) {
-                        if (Log.DEBUG)
-                            Log.v("Item clicked = " + item);
+                        if (Log.isVerbose())
+                            Log.v(Log.TAG_MESSAGES, "Item clicked = %s", item);
                         mCursor.moveToPosition(item);
                         quickReply(mCursor.getString(
                                 mCursor.getColumnIndexOrThrow(QuickMessages.QUICKMESSAGE)));
@@ -833,7 +1020,7 @@ public class SmsPopupActivity extends Activity {
     protected void onPrepareDialog(int id, Dialog dialog) {
         super.onPrepareDialog(id, dialog);
 
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("onPrepareDialog()");
         // User interacted so remove all locks and cancel reminders
         ClearAllReceiver.removeCancel(getApplicationContext());
@@ -863,13 +1050,13 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("onActivityResult");
         if (requestCode == VOICE_RECOGNITION_REQUEST_CODE && resultCode == RESULT_OK) {
             ArrayList<String> matches =
                     data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
-            if (Log.DEBUG)
-                Log.v("Voice recog text: " + matches.get(0));
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Voice recog text: %s", matches.get(0));
             quickReply(matches.get(0));
         }
     }
@@ -877,8 +1064,8 @@ public class SmsPopupActivity extends Activity {
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
-        if (Log.DEBUG)
-            Log.v("SMSPopupActivity: onWindowFocusChanged(" + hasFocus + ")");
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "SMSPopupActivity: onWindowFocusChanged(%s)", hasFocus);
         if (hasFocus) {
             // This is really hacky, basically a flag that is set if the message was at some
             // point visible. I tried using onResume() or other methods to prevent doing some
@@ -892,7 +1079,7 @@ public class SmsPopupActivity extends Activity {
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onSaveInstanceState()");
 
         // Save values from most recent bundle (ie. most recent message)
@@ -902,14 +1089,14 @@ public class SmsPopupActivity extends Activity {
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onRestoreInstanceState()");        
     }
 
     @Override
     public void onConfigurationChanged(Configuration newConfig) {
         super.onConfigurationChanged(newConfig);
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("SMSPopupActivity: onConfigurationChanged()");
         resizeLayout();
     }
@@ -1018,15 +1205,11 @@ public class SmsPopupActivity extends Activity {
      * Close the message window/popup, mark the message read if the user has this option on
      */
     private void closeMessage() {
-        Intent i = new Intent(getApplicationContext(), SmsPopupUtilsService.class);
         /*
          * Switched back to mark messageId as read for >v1.0.6 (marking thread as read is slow for
          * really large threads)
          */
-        i.setAction(SmsPopupUtilsService.ACTION_MARK_MESSAGE_READ);
-        i.putExtras(smsPopupPager.getActiveMessage().toBundle());
-        WakefulIntentService.sendWakefulWork(getApplicationContext(), i);
-
+        pendingActions.markRead(getApplicationContext(), smsPopupPager.getActiveMessage());
         removeActiveMessage();
     }
 
@@ -1096,11 +1279,7 @@ public class SmsPopupActivity extends Activity {
      * Delete the current message from the system database
      */
     private void deleteMessage() {
-        Intent i = new Intent(SmsPopupActivity.this.getApplicationContext(), 
-                SmsPopupUtilsService.class);
-        i.setAction(SmsPopupUtilsService.ACTION_DELETE_MESSAGE);
-        i.putExtras(smsPopupPager.getActiveMessage().toBundle());
-        WakefulIntentService.sendWakefulWork(getApplicationContext(), i);
+        pendingActions.delete(getApplicationContext(), smsPopupPager.getActiveMessage());
         removeActiveMessage();
     }
 
@@ -1116,8 +1295,9 @@ public class SmsPopupActivity extends Activity {
                 i.setAction(SmsPopupUtilsService.ACTION_QUICKREPLY);
                 i.putExtras(quickReplySmsMessage.toBundle());
                 i.putExtra(SmsMmsMessage.EXTRAS_QUICKREPLY, quickReplyMessage);
-                if (Log.DEBUG)
-                    Log.v("Sending message to " + quickReplySmsMessage.getContactName());
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_MESSAGES, "Sending message to %s",
+                            quickReplySmsMessage.getContactName());
                 WakefulIntentService.sendWakefulWork(getApplicationContext(), i);
                 Toast.makeText(this, R.string.quickreply_sending_toast, Toast.LENGTH_LONG).show();
                 dismissDialog(DIALOG_QUICKREPLY);                
@@ -1174,7 +1354,7 @@ public class SmsPopupActivity extends Activity {
      * Refresh the quick reply view - update the edittext and the counter
      */
     private void updateQuickReplyView(String editText) {
-        if (Log.DEBUG) Log.v("updateQuickReplyView - '" + editText + "'");
+        if (Log.isVerbose()) Log.v(Log.TAG_MESSAGES, "updateQuickReplyView - '%s'", editText);
         if (qrEditText != null && editText != null) {
             qrEditText.setText(editText + signatureText);
             qrEditText.setSelection(editText.length());
@@ -1210,7 +1390,7 @@ public class SmsPopupActivity extends Activity {
      * Show the soft keyboard and store the view that triggered it
      */
     private void showSoftKeyboard(View triggerView) {
-        if (Log.DEBUG) Log.v("showSoftKeyboard()");
+        if (Log.isVerbose()) Log.v("showSoftKeyboard()");
         if (inputManager == null) {
             inputManager = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
         }
@@ -1224,7 +1404,7 @@ public class SmsPopupActivity extends Activity {
     private void hideSoftKeyboard() {
         if (inputView == null)
             return;
-        if (Log.DEBUG) Log.v("hideSoftKeyboard()");
+        if (Log.isVerbose()) Log.v("hideSoftKeyboard()");
         if (inputManager == null) {
             inputManager = (InputMethodManager) getSystemService(Context.INPUT_METHOD_SERVICE);
         }
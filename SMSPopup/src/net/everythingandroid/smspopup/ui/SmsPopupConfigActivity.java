@@ -6,14 +6,18 @@ import net.everythingandroid.smspopup.preferences.ButtonListPreference;
 import net.everythingandroid.smspopup.preferences.DialogPreference;
 import net.everythingandroid.smspopup.preferences.QuickReplyCheckBoxPreference;
 import net.everythingandroid.smspopup.util.Eula;
+import net.everythingandroid.smspopup.util.Log;
 import net.everythingandroid.smspopup.util.SmsPopupUtils;
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.CheckBoxPreference;
 import android.preference.Preference;
@@ -200,6 +204,17 @@ public class SmsPopupConfigActivity extends PreferenceActivity {
             }
         });
 
+        // Verbose logging takes effect straight away rather than on the next process start
+        final Preference verboseLoggingPref =
+                findPreference(getString(R.string.pref_verbose_logging_key));
+        verboseLoggingPref.setOnPreferenceChangeListener(new OnPreferenceChangeListener() {
+            @Override
+            public boolean onPreferenceChange(Preference preference, Object newValue) {
+                Log.applyLevel(Boolean.TRUE.equals(newValue));
+                return true;
+            }
+        });
+
         // Donate dialog preference
         donateDialogPref = findPreference(getString(R.string.pref_donate_key));
         if (donateDialogPref != null) {
@@ -306,12 +321,10 @@ public class SmsPopupConfigActivity extends PreferenceActivity {
                 public void onClick(DialogInterface dialog, int which) {
                     switch (which) {
                     case Dialog.BUTTON_POSITIVE:
-                        SmsPopupUtils.launchEmailToIntent(SmsPopupConfigActivity.this, 
-                                getString(R.string.app_name) + version, true);                        
+                        new SendEmailTask(true).execute();
                         break;
                     case Dialog.BUTTON_NEGATIVE:
-                        SmsPopupUtils.launchEmailToIntent(SmsPopupConfigActivity.this, 
-                                getString(R.string.app_name) + version, false);
+                        new SendEmailTask(false).execute();
                         break;
                     }
                 }
@@ -346,6 +359,44 @@ public class SmsPopupConfigActivity extends PreferenceActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    /**
+     * Collects the logs (if debug info is to be included) off the UI thread and then launches the
+     * email to the developer.
+     */
+    private class SendEmailTask extends AsyncTask<Void, Void, Uri> {
+        private final boolean includeDebug;
+        private ProgressDialog mProgressDialog;
+
+        public SendEmailTask(boolean includeDebug) {
+            this.includeDebug = includeDebug;
+        }
+
+        @Override
+        protected void onPreExecute() {
+            if (includeDebug) {
+                mProgressDialog = ProgressDialog.show(SmsPopupConfigActivity.this, null,
+                        getString(R.string.pref_sendemail_collecting), true);
+            }
+        }
+
+        @Override
+        protected Uri doInBackground(Void... params) {
+            if (includeDebug) {
+                return SmsPopupUtils.collectLogs(getApplicationContext());
+            }
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Uri log) {
+            if (mProgressDialog != null && mProgressDialog.isShowing()) {
+                mProgressDialog.dismiss();
+            }
+            SmsPopupUtils.launchEmailToIntent(SmsPopupConfigActivity.this,
+                    getString(R.string.app_name) + version, includeDebug, log);
+        }
+    }
+
     /*
      * Quick method to work out if Quick Reply is active or not (to toggle the pref)
      */
@@ -369,10 +420,10 @@ public class SmsPopupConfigActivity extends PreferenceActivity {
                 || Integer.valueOf(val2) == ButtonListPreference.BUTTON_REPLY_BY_ADDRESS
                 || Integer.valueOf(val3) == ButtonListPreference.BUTTON_REPLY_BY_ADDRESS) {
             settings.putBoolean(getString(R.string.pref_reply_to_thread_key), false);
-            // if (Log.DEBUG) Log.v("Reply to address set");
+            // if (Log.isVerbose()) Log.v("Reply to address set");
         } else {
             settings.putBoolean(getString(R.string.pref_reply_to_thread_key), true);
-            // if (Log.DEBUG) Log.v("Reply to threadId set");
+            // if (Log.isVerbose()) Log.v("Reply to threadId set");
         }
 
         settings.commit();
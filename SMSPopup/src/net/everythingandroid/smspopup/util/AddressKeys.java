@@ -0,0 +1,47 @@
+package net.everythingandroid.smspopup.util;
+
+/*
+ * Normalizes message addresses into cache keys. Phone numbers are keyed on their dialable
+ * characters only so "555-1234" and "5551234" share a key, anything else (email addresses,
+ * alphanumeric senders like "Google") is keyed on its lower case form so different senders never
+ * collapse into the same key.
+ */
+public class AddressKeys {
+    private static final String PREFIX_PHONE = "tel:";
+    private static final String PREFIX_OTHER = "addr:";
+
+    /**
+     * Return the cache key for address, or null if address is null.
+     */
+    public static String key(String address) {
+        if (address == null) {
+            return null;
+        }
+
+        final int length = address.length();
+        final StringBuilder number = new StringBuilder(length);
+        boolean digits = false;
+        for (int i = 0; i < length; i++) {
+            final char c = address.charAt(i);
+            if (isDialable(c)) {
+                number.append(c);
+                digits |= c >= '0' && c <= '9';
+            } else if (!isSeparator(c)) {
+                return PREFIX_OTHER + address.trim().toLowerCase();
+            }
+        }
+
+        if (!digits) {
+            return PREFIX_OTHER + address.trim().toLowerCase();
+        }
+        return PREFIX_PHONE + number;
+    }
+
+    private static boolean isDialable(char c) {
+        return (c >= '0' && c <= '9') || c == '+' || c == '*' || c == '#';
+    }
+
+    private static boolean isSeparator(char c) {
+        return c == ' ' || c == '-' || c == '.' || c == '(' || c == ')' || c == '/';
+    }
+}
@@ -0,0 +1,164 @@
+package net.everythingandroid.smspopup.util;
+
+import net.everythingandroid.smspopup.util.SmsPopupUtils.ContactIdentification;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.provider.ContactsContract;
+import android.support.v4.util.LruCache;
+
+/*
+ * Process wide cache of contact lookups (address -> ContactIdentification). Resolving a contact
+ * from an address is the slowest part of building a SmsMmsMessage so this sits in front of
+ * SmsPopupUtils.getPersonIdFromPhoneNumber() and getPersonIdFromEmail(). The whole cache is
+ * dropped whenever the system contacts database changes, as is ContactPhotoCache.
+ */
+public class ContactIdentityCache {
+    private static final int CACHE_SIZE = 64;
+
+    private static final String PREFIX_EMAIL = "email:";
+
+    // Stored for addresses that don't match a contact (LruCache does not allow null values)
+    private static final ContactIdentification NOT_FOUND =
+            new ContactIdentification(null, null, null);
+
+    private static final LruCache<String, ContactIdentification> cache =
+            new LruCache<String, ContactIdentification>(CACHE_SIZE);
+
+    private static ContactsObserver contactsObserver = null;
+
+    // Bumped on every invalidate() so lookups that raced with it are not cached
+    private static int generation = 0;
+
+    private static int hitCount = 0;
+    private static int missCount = 0;
+
+    /**
+     * Result of a cache lookup, found is false if the address has not been looked up yet (or has
+     * since been evicted), otherwise contact holds the cached value (which may be null if the
+     * address did not match any contact).
+     */
+    public static class Entry {
+        public final boolean found;
+        public final ContactIdentification contact;
+
+        Entry(boolean found, ContactIdentification contact) {
+            this.found = found;
+            this.contact = contact;
+        }
+    }
+
+    private static final Entry MISS = new Entry(false, null);
+
+    public static Entry getPhone(Context context, String address) {
+        return get(context, phoneKey(address));
+    }
+
+    public static Entry getEmail(Context context, String email) {
+        return get(context, emailKey(email));
+    }
+
+    /**
+     * Cache the result of a phone number lookup, queryGeneration is the value of getGeneration()
+     * from before the lookup query ran. Only cache lookups that completed, not ones that failed.
+     */
+    public static void putPhone(String address, ContactIdentification contact,
+            int queryGeneration) {
+        put(phoneKey(address), contact, queryGeneration);
+    }
+
+    /**
+     * Cache the result of an email lookup, see putPhone().
+     */
+    public static void putEmail(String email, ContactIdentification contact,
+            int queryGeneration) {
+        put(emailKey(email), contact, queryGeneration);
+    }
+
+    /**
+     * Current generation, fetch before querying and pass to putPhone() or putEmail().
+     */
+    public static synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Drop all cached contacts.
+     */
+    public static synchronized void invalidate() {
+        if (Log.isVerbose()) Log.v(Log.TAG_CONTACTS, "ContactIdentityCache: invalidate()");
+        generation++;
+        cache.evictAll();
+    }
+
+    public static synchronized int getHitCount() {
+        return hitCount;
+    }
+
+    public static synchronized int getMissCount() {
+        return missCount;
+    }
+
+    private static synchronized Entry get(Context context, String key) {
+        registerObserver(context);
+
+        if (key == null) {
+            return MISS;
+        }
+
+        final ContactIdentification contact = cache.get(key);
+        if (contact == null) {
+            missCount++;
+            return MISS;
+        }
+
+        hitCount++;
+        return new Entry(true, contact == NOT_FOUND ? null : contact);
+    }
+
+    private static synchronized void put(String key, ContactIdentification contact,
+            int queryGeneration) {
+        // The contacts changed while the lookup was running, the result may already be stale
+        if (key == null || queryGeneration != generation) {
+            return;
+        }
+        cache.put(key, contact == null ? NOT_FOUND : contact);
+    }
+
+    private static String phoneKey(String address) {
+        return AddressKeys.key(address);
+    }
+
+    private static String emailKey(String email) {
+        if (email == null) {
+            return null;
+        }
+        return PREFIX_EMAIL + email.trim().toLowerCase();
+    }
+
+    /*
+     * Registers (once per process) the observer that clears this cache and ContactPhotoCache when
+     * contacts change
+     */
+    static synchronized void registerObserver(Context context) {
+        if (contactsObserver == null) {
+            contactsObserver = new ContactsObserver(context.getApplicationContext());
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactsContract.AUTHORITY_URI, true, contactsObserver);
+        }
+    }
+
+    private static class ContactsObserver extends ContentObserver {
+        private final Context mContext;
+
+        public ContactsObserver(Context context) {
+            super(null);
+            mContext = context;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate();
+            ContactPhotoCache.clear(mContext);
+        }
+    }
+}
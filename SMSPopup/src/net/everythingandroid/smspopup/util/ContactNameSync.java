@@ -0,0 +1,210 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+
+/*
+ * Works out how to bring the rows of our contacts table in line with the system contacts: rows
+ * whose contact was renamed get the new display name and rows whose contact was removed are
+ * deleted. Names are fetched in chunked "lookup IN (...)" queries rather than one query per row.
+ * A row is only deleted once the system contacts provider has answered that its contact no
+ * longer exists, never because a query failed (a null cursor or an exception), so a provider
+ * that is unavailable or crashing leaves our table alone.
+ */
+public class ContactNameSync {
+    public static final int LOOKUP_FOUND = 0;
+    public static final int LOOKUP_MISSING = 1;
+    public static final int LOOKUP_FAILED = 2;
+
+    // Lookup keys per system contacts query, well under SQLite's limit of 999 bound arguments
+    private static final int CHUNK_SIZE = 100;
+
+    private static final String[] SYSTEM_PROJECTION =
+            new String[] { Contacts.LOOKUP_KEY, Contacts.DISPLAY_NAME };
+
+    public interface ProgressListener {
+        /**
+         * Called after each chunk with the number of rows done so far.
+         */
+        public void onProgress(int rows);
+    }
+
+    private final ContentResolver mResolver;
+    private final HashMap<String, String> mSysNames = new HashMap<String, String>();
+
+    private final ArrayList<Long> mDeletes = new ArrayList<Long>();
+    private final ArrayList<Long> mRenameIds = new ArrayList<Long>();
+    private final ArrayList<String> mRenameNames = new ArrayList<String>();
+    private int mFailedCount = 0;
+    private int mQueryCount = 0;
+
+    public ContactNameSync(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Look up the rows of our contacts table (ids, lookup keys and stored names, all the same
+     * length) in the system contacts, the changes to make are then available from getDeletes(),
+     * getRenameIds() and getRenameNames(). Rows without a lookup key are left alone.
+     */
+    public void sync(long[] ids, String[] lookupKeys, String[] names,
+            ProgressListener listener) {
+        final int count = ids.length;
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int end = Math.min(start + CHUNK_SIZE, count);
+
+            // Fetch the system display names for this chunk of lookup keys
+            mSysNames.clear();
+            if (!queryDisplayNames(lookupKeys, start, end)) {
+                // Nothing is known about these contacts, leave the rows as they are
+                for (int i = start; i < end; i++) {
+                    if (lookupKeys[i] != null) {
+                        mFailedCount++;
+                    }
+                }
+            } else {
+                for (int i = start; i < end; i++) {
+                    if (lookupKeys[i] != null) {
+                        syncRow(ids[i], lookupKeys[i], names[i]);
+                    }
+                }
+            }
+
+            if (listener != null) {
+                listener.onProgress(end);
+            }
+        }
+    }
+
+    private void syncRow(long id, String lookupKey, String name) {
+        if (!mSysNames.containsKey(lookupKey)) {
+            // Lookup keys can change (eg. contacts joined), if not found fall back to resolving
+            // this one through the lookup uri which handles that
+            switch (queryDisplayName(lookupKey)) {
+            case LOOKUP_MISSING:
+                // The contact has been removed from the system db, delete it from ours
+                mDeletes.add(id);
+                return;
+            case LOOKUP_FAILED:
+                mFailedCount++;
+                return;
+            }
+        }
+
+        String sysName = mSysNames.get(lookupKey);
+        if (sysName != null) {
+            sysName = sysName.trim();
+            if (!sysName.equals(name)) {
+                mRenameIds.add(id);
+                mRenameNames.add(sysName);
+            }
+        }
+    }
+
+    /*
+     * Query the system contacts for lookupKeys[start, end) and add lookup key -> display name to
+     * mSysNames, returns false if the query failed.
+     */
+    private boolean queryDisplayNames(String[] lookupKeys, int start, int end) {
+        final StringBuilder selection = new StringBuilder(Contacts.LOOKUP_KEY + " IN (");
+        final ArrayList<String> args = new ArrayList<String>(end - start);
+        for (int i = start; i < end; i++) {
+            if (lookupKeys[i] != null) {
+                selection.append(args.isEmpty() ? "?" : ",?");
+                args.add(lookupKeys[i]);
+            }
+        }
+        selection.append(')');
+
+        if (args.isEmpty()) {
+            return true;
+        }
+
+        final Cursor c;
+        try {
+            mQueryCount++;
+            c = mResolver.query(Contacts.CONTENT_URI, SYSTEM_PROJECTION, selection.toString(),
+                    args.toArray(new String[args.size()]), null);
+        } catch (SQLiteException e) {
+            Log.w(Log.TAG_CONTACTS, "ContactNameSync: %s", e);
+            return false;
+        }
+        if (c == null) {
+            return false;
+        }
+        try {
+            while (c.moveToNext()) {
+                mSysNames.put(c.getString(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return true;
+    }
+
+    /*
+     * Resolve a single (possibly stale) lookup key, adding it to mSysNames if found. Returns one
+     * of LOOKUP_FOUND, LOOKUP_MISSING or LOOKUP_FAILED.
+     */
+    private int queryDisplayName(String lookupKey) {
+        final Cursor c;
+        try {
+            mQueryCount++;
+            c = mResolver.query(Uri.withAppendedPath(Contacts.CONTENT_LOOKUP_URI, lookupKey),
+                    new String[] { Contacts.DISPLAY_NAME }, null, null, null);
+        } catch (SQLiteException e) {
+            Log.w(Log.TAG_CONTACTS, "ContactNameSync: %s", e);
+            return LOOKUP_FAILED;
+        }
+        if (c == null) {
+            return LOOKUP_FAILED;
+        }
+        try {
+            if (c.moveToFirst()) {
+                mSysNames.put(lookupKey, c.getString(0));
+                return LOOKUP_FOUND;
+            }
+        } finally {
+            c.close();
+        }
+        return LOOKUP_MISSING;
+    }
+
+    /**
+     * _ids of the rows whose contact no longer exists.
+     */
+    public ArrayList<Long> getDeletes() {
+        return mDeletes;
+    }
+
+    /**
+     * _ids of the rows whose contact was renamed, the new names are in getRenameNames().
+     */
+    public ArrayList<Long> getRenameIds() {
+        return mRenameIds;
+    }
+
+    public ArrayList<String> getRenameNames() {
+        return mRenameNames;
+    }
+
+    /**
+     * Number of rows left alone because their lookup failed.
+     */
+    public int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * Number of system contacts queries made.
+     */
+    public int getQueryCount() {
+        return mQueryCount;
+    }
+}
@@ -0,0 +1,243 @@
+package net.everythingandroid.smspopup.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+
+/*
+ * Two level cache of scaled contact photo thumbnails. The memory level is an LruCache budgeted
+ * in bytes, the disk level stores the already scaled thumbnails as PNGs under the app cache dir
+ * so a repeated sender never needs the full size photo decoded again. Entries are keyed by
+ * contact uri and thumbnail size. Both levels are dropped when the system contacts database
+ * changes (see ContactIdentityCache, which owns the contacts observer).
+ */
+public class ContactPhotoCache {
+    private static final String DISK_CACHE_DIR = "contact_photos";
+
+    // Disk entries older than this are re-decoded from the contacts provider, this catches
+    // changes made while the app wasn't running to observe them
+    private static final long DISK_CACHE_MAX_AGE = 24 * 60 * 60 * 1000;
+
+    // Portion of the max heap to use for the memory cache
+    private static final int MEMORY_CACHE_DIVIDER = 32;
+
+    private static final LruCache<String, Bitmap> memoryCache =
+            new LruCache<String, Bitmap>(
+                    (int) (Runtime.getRuntime().maxMemory() / MEMORY_CACHE_DIVIDER)) {
+                @Override
+                protected int sizeOf(String key, Bitmap value) {
+                    // Bitmap.getByteCount() is API 12+
+                    return value.getRowBytes() * value.getHeight();
+                }
+            };
+
+    // Bumped on every clear() so photos decoded before a contacts change are not cached. Guarded
+    // by the class lock.
+    private static int generation = 0;
+
+    // Disk writes and deletes run in order on this thread, off the decoding thread
+    private static Handler diskHandler = null;
+
+    /**
+     * Fetch a photo from the memory cache only, this is cheap enough to call from the UI thread.
+     */
+    public static Bitmap getFromMemory(Uri contactUri, int thumbSize) {
+        if (contactUri == null) {
+            return null;
+        }
+        return memoryCache.get(buildKey(contactUri, thumbSize));
+    }
+
+    /**
+     * Fetch a photo from the memory cache, falling back to the disk cache. Should not be called
+     * from the UI thread.
+     */
+    public static Bitmap get(Context context, Uri contactUri, int thumbSize) {
+        if (contactUri == null) {
+            return null;
+        }
+        ContactIdentityCache.registerObserver(context);
+
+        final String key = buildKey(contactUri, thumbSize);
+        Bitmap bitmap = memoryCache.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        final File file = getDiskFile(context, key);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() - file.lastModified() > DISK_CACHE_MAX_AGE) {
+            file.delete();
+            return null;
+        }
+
+        final int readGeneration = getGeneration();
+        try {
+            bitmap = BitmapFactory.decodeFile(file.getPath());
+        } catch (OutOfMemoryError e) {
+            Log.e(Log.TAG_CONTACTS, "Out of memory when loading cached contact photo");
+        }
+
+        if (bitmap != null) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_CONTACTS, "ContactPhotoCache: disk hit for %s", contactUri);
+            putMemory(key, bitmap, readGeneration);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Current generation, fetch before decoding a photo and pass to put().
+     */
+    public static synchronized int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Add a scaled photo to the memory cache and (in the background) the disk cache,
+     * queryGeneration is the value of getGeneration() from before the photo was decoded.
+     */
+    public static void put(Context context, Uri contactUri, int thumbSize, final Bitmap bitmap,
+            final int queryGeneration) {
+        if (contactUri == null || bitmap == null) {
+            return;
+        }
+
+        final String key = buildKey(contactUri, thumbSize);
+        if (!putMemory(key, bitmap, queryGeneration)) {
+            return;
+        }
+
+        final Context appContext = context.getApplicationContext();
+        getDiskHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                writeDiskFile(appContext, key, bitmap, queryGeneration);
+            }
+        });
+    }
+
+    /**
+     * Drop all cached photos, called when the system contacts change.
+     */
+    public static void clear(Context context) {
+        synchronized (ContactPhotoCache.class) {
+            generation++;
+            memoryCache.evictAll();
+        }
+
+        // Queued behind any pending writes so none of them survive the clear
+        final Context appContext = context.getApplicationContext();
+        getDiskHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final File dir = new File(appContext.getCacheDir(), DISK_CACHE_DIR);
+                final File[] files = dir.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    private static synchronized boolean putMemory(String key, Bitmap bitmap,
+            int queryGeneration) {
+        // The contacts changed while the photo was being decoded, it may already be stale
+        if (queryGeneration != generation) {
+            return false;
+        }
+        memoryCache.put(key, bitmap);
+        return true;
+    }
+
+    private static synchronized Handler getDiskHandler() {
+        if (diskHandler == null) {
+            HandlerThread thread = new HandlerThread(Log.LOGTAG + "-photos",
+                    Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            diskHandler = new Handler(thread.getLooper());
+        }
+        return diskHandler;
+    }
+
+    /*
+     * Compress a photo to the disk cache, runs on the disk handler thread
+     */
+    private static void writeDiskFile(Context context, String key, Bitmap bitmap,
+            int queryGeneration) {
+        final File file = getDiskFile(context, key);
+        if (file == null) {
+            return;
+        }
+
+        // Write to a temp file first so a partial write is never read back
+        final File tempFile = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            if (bitmap.compress(Bitmap.CompressFormat.PNG, 100, out)) {
+                out.close();
+                out = null;
+                synchronized (ContactPhotoCache.class) {
+                    if (queryGeneration == generation) {
+                        tempFile.renameTo(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_CONTACTS, "ContactPhotoCache: error writing %s - %s", file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+            tempFile.delete();
+        }
+    }
+
+    private static String buildKey(Uri contactUri, int thumbSize) {
+        return contactUri.toString() + "@" + thumbSize;
+    }
+
+    private static File getDiskFile(Context context, String key) {
+        final File dir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            return null;
+        }
+        return new File(dir, hashKey(key) + ".png");
+    }
+
+    private static String hashKey(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes());
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Integer.toHexString((b & 0xf0) >> 4));
+                sb.append(Integer.toHexString(b & 0x0f));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return String.valueOf(key.hashCode());
+        }
+    }
+}
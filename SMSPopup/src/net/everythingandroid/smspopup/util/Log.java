@@ -1,15 +1,161 @@
 package net.everythingandroid.smspopup.util;
 
+import net.everythingandroid.smspopup.BuildConfig;
+
+/*
+ * Logging facade for the app. Messages are only formatted (and the underlying android.util.Log
+ * only called) if the current level allows it so disabled log calls don't build any strings,
+ * prefer the format overloads over string concatenation for this reason. There are long and
+ * boolean overloads for the common cases so primitive arguments aren't boxed either (int and
+ * short widen to long).
+ */
 public class Log {
     public final static String LOGTAG = "SMSPopup";
 
-    public static final boolean DEBUG = true;
+    // Per subsystem tags
+    public final static String TAG_RECEIVE = LOGTAG + "-Receive";
+    public final static String TAG_NOTIFY = LOGTAG + "-Notify";
+    public final static String TAG_PREFS = LOGTAG + "-Prefs";
+    public final static String TAG_CONTACTS = LOGTAG + "-Contacts";
+    public final static String TAG_MESSAGES = LOGTAG + "-Messages";
+
+    /*
+     * Whether this is a debug build, which logs everything from the start. Guard verbose log
+     * calls with isVerbose() rather than this so the verbose logging preference applies to
+     * release builds too.
+     */
+    public static final boolean DEBUG = BuildConfig.DEBUG;
+
+    // Log levels (same values as android.util.Log)
+    public static final int LEVEL_VERBOSE = android.util.Log.VERBOSE;
+    public static final int LEVEL_INFO = android.util.Log.INFO;
+    public static final int LEVEL_WARN = android.util.Log.WARN;
+    public static final int LEVEL_ERROR = android.util.Log.ERROR;
+    public static final int LEVEL_NONE = Integer.MAX_VALUE;
+
+    private static volatile int level = DEBUG ? LEVEL_VERBOSE : LEVEL_WARN;
+
+    /**
+     * Set the minimum level that will be logged (can be changed at runtime, see
+     * applyLevel()).
+     */
+    public static void setLevel(int newLevel) {
+        level = newLevel;
+    }
+
+    public static int getLevel() {
+        return level;
+    }
+
+    /**
+     * Set the level from the verbose logging preference (release builds log warnings and errors
+     * unless it is checked).
+     */
+    public static void applyLevel(boolean verbose) {
+        setLevel(verbose || DEBUG ? LEVEL_VERBOSE : LEVEL_WARN);
+    }
+
+    public static boolean isLoggable(int checkLevel) {
+        return checkLevel >= level;
+    }
+
+    /**
+     * Whether verbose messages are logged at the moment, guard log calls with this when building
+     * their arguments costs anything (e.g. "if (Log.isVerbose()) Log.v(...)").
+     */
+    public static boolean isVerbose() {
+        return LEVEL_VERBOSE >= level;
+    }
 
     public static void v(String msg) {
-        android.util.Log.v(LOGTAG, msg);
+        v(LOGTAG, msg);
+    }
+
+    public static void v(String tag, String msg) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, msg);
+        }
+    }
+
+    public static void v(String tag, String format, Object arg1) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1));
+        }
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public static void v(String tag, String format, Object arg1, Object arg2, Object arg3) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
+    public static void v(String tag, String format, long arg1) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1));
+        }
+    }
+
+    public static void v(String tag, String format, boolean arg1) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1));
+        }
+    }
+
+    public static void v(String tag, String format, long arg1, long arg2) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public static void v(String tag, String format, Object arg1, long arg2) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1, arg2));
+        }
+    }
+
+    public static void v(String tag, String format, long arg1, long arg2, long arg3) {
+        if (LEVEL_VERBOSE >= level) {
+            android.util.Log.v(tag, String.format(format, arg1, arg2, arg3));
+        }
+    }
+
+    public static void w(String tag, String msg) {
+        if (LEVEL_WARN >= level) {
+            android.util.Log.w(tag, msg);
+        }
+    }
+
+    public static void w(String tag, String format, Object arg1) {
+        if (LEVEL_WARN >= level) {
+            android.util.Log.w(tag, String.format(format, arg1));
+        }
+    }
+
+    public static void w(String tag, String format, long arg1) {
+        if (LEVEL_WARN >= level) {
+            android.util.Log.w(tag, String.format(format, arg1));
+        }
     }
 
     public static void e(String msg) {
-        android.util.Log.e(LOGTAG, msg);
+        e(LOGTAG, msg);
+    }
+
+    public static void e(String tag, String msg) {
+        if (LEVEL_ERROR >= level) {
+            android.util.Log.e(tag, msg);
+        }
+    }
+
+    public static void e(String tag, String format, Object arg1) {
+        if (LEVEL_ERROR >= level) {
+            android.util.Log.e(tag, String.format(format, arg1));
+        }
     }
 }
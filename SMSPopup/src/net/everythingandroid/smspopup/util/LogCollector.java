@@ -0,0 +1,221 @@
+package net.everythingandroid.smspopup.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import net.everythingandroid.smspopup.provider.SmsPopupContract.Logs;
+import android.content.Context;
+import android.net.Uri;
+
+/*
+ * Collects our logcat output into a gzipped file in the app cache dir so it can be attached to a
+ * support email. Only lines from our own tags (and crashes) are kept, the most recent MAX_LOG_SIZE
+ * bytes of those. The file is served to other apps through SmsPopupContentProvider
+ * (see Logs) rather than being world readable.
+ */
+public class LogCollector {
+    public static final String LOG_FILENAME = "log.txt.gz";
+
+    // Max size of (uncompressed) log output to keep, older lines are dropped
+    public static final int MAX_LOG_SIZE = 256 * 1024;
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final String TAG_CRASH = "AndroidRuntime";
+    private static final String[] TAGS = {
+            Log.LOGTAG, Log.TAG_RECEIVE, Log.TAG_NOTIFY, Log.TAG_PREFS, Log.TAG_CONTACTS,
+            Log.TAG_MESSAGES,
+    };
+
+    /**
+     * Fetch output from logcat, compress it to a file and return the content uri of the file (null
+     * if there was an error).
+     */
+    public static Uri collect(Context context) {
+        final String[] commandLine = new String[TAGS.length + 6];
+        commandLine[0] = "logcat";
+        commandLine[1] = "-d";
+        commandLine[2] = "-v";
+        commandLine[3] = "brief";
+        commandLine[4] = TAG_CRASH + ":E";
+        for (int i = 0; i < TAGS.length; i++) {
+            commandLine[i + 5] = TAGS[i] + ":V";
+        }
+        commandLine[commandLine.length - 1] = "*:S";
+
+        final File logFile = getLogFile(context);
+        InputStream in = null;
+        OutputStream out = null;
+        try {
+            in = Runtime.getRuntime().exec(commandLine).getInputStream();
+            out = new FileOutputStream(logFile);
+            collect(in, out, MAX_LOG_SIZE);
+        } catch (IOException e) {
+            Log.e(Log.LOGTAG, "collectLogs(): %s", e);
+            logFile.delete();
+            return null;
+        } catch (SecurityException e) {
+            Log.e(Log.LOGTAG, "collectLogs(): %s", e);
+            logFile.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+            closeQuietly(out);
+        }
+
+        return Logs.buildLogUri(LOG_FILENAME);
+    }
+
+    public static File getLogFile(Context context) {
+        return new File(context.getCacheDir(), LOG_FILENAME);
+    }
+
+    /**
+     * Copy the lines of in that belong to our tags to out, gzip compressed. Only the most recent
+     * maxSize bytes of matching lines are kept (whole lines), when something logs in a loop
+     * those are the lines that show what went wrong.
+     *
+     * @return the number of uncompressed bytes written
+     */
+    public static int collect(InputStream in, OutputStream out, int maxSize) throws IOException {
+        final BufferedReader reader =
+                new BufferedReader(new InputStreamReader(in), BUFFER_SIZE);
+        final RingBuffer ring = new RingBuffer(maxSize);
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (isOurs(line)) {
+                ring.write(line.getBytes());
+                ring.write('\n');
+            }
+        }
+
+        final GZIPOutputStream gzip = new GZIPOutputStream(out, BUFFER_SIZE);
+        final int size = ring.writeTo(gzip);
+        gzip.finish();
+        gzip.flush();
+        return size;
+    }
+
+    /*
+     * Whether the tag of a "-v brief" logcat line ("V/Tag( 1234): message") is one of ours, the
+     * message text isn't looked at.
+     */
+    static boolean isOurs(String line) {
+        final int open = line.indexOf('(');
+        if (open < 3 || line.charAt(1) != '/') {
+            return false;
+        }
+        int end = open;
+        while (end > 2 && line.charAt(end - 1) == ' ') {
+            end--;
+        }
+        if (isTag(line, end, TAG_CRASH)) {
+            return true;
+        }
+        for (int i = 0; i < TAGS.length; i++) {
+            if (isTag(line, end, TAGS[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isTag(String line, int end, String tag) {
+        return end - 2 == tag.length() && line.regionMatches(2, tag, 0, tag.length());
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /*
+     * Fixed size byte buffer that keeps the most recently written bytes.
+     */
+    private static class RingBuffer {
+        private final byte[] buffer;
+        private int position = 0;
+        private boolean wrapped = false;
+
+        public RingBuffer(int size) {
+            buffer = new byte[size];
+        }
+
+        public void write(int b) {
+            buffer[position++] = (byte) b;
+            if (position == buffer.length) {
+                position = 0;
+                wrapped = true;
+            }
+        }
+
+        public void write(byte[] b) {
+            int offset = 0;
+            int length = b.length;
+
+            // Only the tail can fit
+            if (length > buffer.length) {
+                offset = length - buffer.length;
+                length = buffer.length;
+            }
+
+            while (length > 0) {
+                final int count = Math.min(length, buffer.length - position);
+                System.arraycopy(b, offset, buffer, position, count);
+                offset += count;
+                length -= count;
+                position += count;
+                if (position == buffer.length) {
+                    position = 0;
+                    wrapped = true;
+                }
+            }
+        }
+
+        /*
+         * Write out the contents oldest first, skipping the first (partial) line if older data
+         * has been overwritten.
+         */
+        public int writeTo(OutputStream out) throws IOException {
+            if (!wrapped) {
+                out.write(buffer, 0, position);
+                return position;
+            }
+
+            int start = position;
+            while (start < buffer.length && buffer[start] != '\n') {
+                start++;
+            }
+            if (start < buffer.length) {
+                start++;
+                out.write(buffer, start, buffer.length - start);
+                out.write(buffer, 0, position);
+                return buffer.length - start + position;
+            }
+
+            // The partial line continues into the start of the buffer
+            start = 0;
+            while (start < position && buffer[start] != '\n') {
+                start++;
+            }
+            if (start < position) {
+                start++;
+            }
+            out.write(buffer, start, position - start);
+            return position - start;
+        }
+    }
+}
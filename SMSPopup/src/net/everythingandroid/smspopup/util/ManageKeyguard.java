@@ -23,7 +23,7 @@ public class ManageKeyguard {
         if (myKM.inKeyguardRestrictedInputMode()) {
             myKL = myKM.newKeyguardLock(Log.LOGTAG);
             myKL.disableKeyguard();
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("--Keyguard disabled");
         } else {
             myKL = null;
@@ -32,9 +32,10 @@ public class ManageKeyguard {
 
     public static synchronized boolean inKeyguardRestrictedInputMode() {
         if (myKM != null) {
-            if (Log.DEBUG)
-                Log.v("--inKeyguardRestrictedInputMode = " + myKM.inKeyguardRestrictedInputMode());
-            return myKM.inKeyguardRestrictedInputMode();
+            final boolean restricted = myKM.inKeyguardRestrictedInputMode();
+            if (Log.isVerbose())
+                Log.v(Log.TAG_NOTIFY, "--inKeyguardRestrictedInputMode = %s", restricted);
+            return restricted;
         }
         return false;
     }
@@ -44,7 +45,7 @@ public class ManageKeyguard {
             if (myKL != null) {
                 myKL.reenableKeyguard();
                 myKL = null;
-                if (Log.DEBUG)
+                if (Log.isVerbose())
                     Log.v("--Keyguard reenabled");
             }
         }
@@ -52,17 +53,17 @@ public class ManageKeyguard {
 
     public static synchronized void exitKeyguardSecurely(final LaunchOnKeyguardExit callback) {
         if (inKeyguardRestrictedInputMode()) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("--Trying to exit keyguard securely");
             myKM.exitKeyguardSecurely(new OnKeyguardExitResult() {
                 public void onKeyguardExitResult(boolean success) {
                     reenableKeyguard();
                     if (success) {
-                        if (Log.DEBUG)
+                        if (Log.isVerbose())
                             Log.v("--Keyguard exited securely");
                         callback.LaunchOnKeyguardExitSuccess();
                     } else {
-                        if (Log.DEBUG)
+                        if (Log.isVerbose())
                             Log.v("--Keyguard exit failed");
                     }
                 }
@@ -1,10 +1,7 @@
 package net.everythingandroid.smspopup.util;
 
-import java.util.ArrayList;
-
 import net.everythingandroid.smspopup.R;
 import net.everythingandroid.smspopup.provider.SmsMmsMessage;
-import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
 import net.everythingandroid.smspopup.receiver.ReminderReceiver;
 import net.everythingandroid.smspopup.service.SmsMonitorService;
 import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
@@ -15,7 +12,6 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
-import android.graphics.Color;
 import android.graphics.Typeface;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
@@ -40,8 +36,8 @@ public class ManageNotification {
 
     private static MediaPlayer mPlayer = null;
 
-    private static final int NOTIFY = 0;
-    private static final int FAILED = 1;
+    static final int NOTIFY = 0;
+    static final int FAILED = 1;
     public static final int[][] NOTIF_ICON_RES = {
             { R.drawable.stat_notify_sms, R.drawable.stat_notify_sms_failed },
             { R.drawable.stat_notify_sms_old, R.drawable.stat_notify_sms_failed },
@@ -117,7 +113,7 @@ public class ManageNotification {
             // Seems this is needed for the number value to take effect on the Notification
             myNM.cancel(notif);
 
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("*** Notify running ***");
             myNM.notify(notif, notification);
         }
@@ -273,101 +269,16 @@ public class ManageNotification {
     private static PopupNotification buildNotification(Context context, String contactLookupKey,
             boolean onlyUpdate, int notif) {
 
-        ManagePreferences mPrefs = new ManagePreferences(context, contactLookupKey);
+        final NotificationProfile profile = NotificationProfile.get(context, contactLookupKey);
         AudioManager mAM = (AudioManager) context.getSystemService(Context.AUDIO_SERVICE);
 
         // Check if notifications are enabled - if not, we're done :)
-        if (!mPrefs.getBoolean(
-                R.string.pref_notif_enabled_key,
-                Defaults.PREFS_NOTIF_ENABLED,
-                ContactNotifications.ENABLED)) {
-
+        if (!profile.enabled) {
             return null;
         }
 
-        // Get some preferences: vibrate and vibrate_pattern prefs
-        boolean vibrate =
-                mPrefs.getBoolean(
-                        R.string.pref_vibrate_key,
-                        Defaults.PREFS_VIBRATE_ENABLED,
-                        ContactNotifications.VIBRATE_ENABLED);
-
-        String vibrate_pattern_raw =
-                mPrefs.getString(
-                        R.string.pref_vibrate_pattern_key,
-                        Defaults.PREFS_VIBRATE_PATTERN,
-                        ContactNotifications.VIBRATE_PATTERN);
-
-        String vibrate_pattern_custom_raw =
-                mPrefs.getString(
-                        R.string.pref_vibrate_pattern_custom_key,
-                        Defaults.PREFS_VIBRATE_PATTERN,
-                        ContactNotifications.VIBRATE_PATTERN_CUSTOM);
-
-        // Get LED preferences
-        boolean flashLed =
-                mPrefs.getBoolean(
-                        R.string.pref_flashled_key,
-                        Defaults.PREFS_LED_ENABLED,
-                        ContactNotifications.LED_ENABLED);
-
-        String flashLedCol =
-                mPrefs.getString(
-                        R.string.pref_flashled_color_key,
-                        Defaults.PREFS_LED_COLOR,
-                        ContactNotifications.LED_COLOR);
-
-        String flashLedColCustom =
-                mPrefs.getString(
-                        R.string.pref_flashled_color_custom_key,
-                        Defaults.PREFS_LED_COLOR,
-                        ContactNotifications.LED_COLOR_CUSTOM);
-
-        String flashLedPattern =
-                mPrefs.getString(
-                        R.string.pref_flashled_pattern_key,
-                        Defaults.PREFS_LED_PATTERN,
-                        ContactNotifications.LED_PATTERN);
-
-        String flashLedPatternCustom =
-                mPrefs.getString(
-                        R.string.pref_flashled_pattern_custom_key,
-                        Defaults.PREFS_LED_PATTERN,
-                        ContactNotifications.LED_PATTERN_CUSTOM);
-
-        // Try and parse the user ringtone, use the default if it fails
-        Uri notifSoundUri =
-                Uri.parse(mPrefs.getString(
-                        R.string.pref_notif_sound_key,
-                        defaultRingtone,
-                        ContactNotifications.RINGTONE));
-
-        if (Log.DEBUG)
-            Log.v("Sounds URI = " + notifSoundUri.toString());
-
-        // Fetch privacy settings
-        boolean privacyMode =
-                mPrefs.getBoolean(R.string.pref_privacy_key, Defaults.PREFS_PRIVACY);
-
-        boolean privacySender =
-                mPrefs.getBoolean(R.string.pref_privacy_sender_key, Defaults.PREFS_PRIVACY_SENDER);
-
-        boolean privacyAlways =
-                mPrefs.getBoolean(R.string.pref_privacy_always_key, Defaults.PREFS_PRIVACY_ALWAYS);
-
-        // Fetch notification icon
-        int notifIcon =
-                Integer.valueOf(mPrefs.getString(R.string.pref_notif_icon_key,
-                        Defaults.PREFS_NOTIF_ICON));
-
-        boolean replyToThread =
-                mPrefs.getBoolean(R.string.pref_reply_to_thread_key, Defaults.PREFS_REPLY_TO_THREAD);
-
-        boolean notifyOnCall =
-                mPrefs.getBoolean(R.string.pref_notifyOnCall_key, Defaults.PREFS_NOTIFY_ON_CALL);
-
-        // All done with prefs, close it up
-        mPrefs.close();
+        if (Log.isVerbose())
+            Log.v(Log.TAG_NOTIFY, "Sounds URI = %s", profile.ringtone);
 
         /*
          * Ok, let's create our Notification object and set up all its parameters.
@@ -387,50 +298,11 @@ public class ManageNotification {
         if (!onlyUpdate) {
 
             // Set up LED pattern and color
-            if (flashLed) {
-
+            if (profile.flashLed) {
                 notification.flags |= Notification.FLAG_SHOW_LIGHTS;
-
-                /*
-                 * Set up LED blinking pattern
-                 */
-                int[] led_pattern = null;
-
-                if (context.getString(R.string.pref_custom_val).equals(flashLedPattern)) {
-                    led_pattern = parseLEDPattern(flashLedPatternCustom);
-                } else {
-                    led_pattern = parseLEDPattern(flashLedPattern);
-                }
-
-                // Set to default if there was a problem
-                if (led_pattern == null) {
-                    led_pattern = parseLEDPattern(Defaults.PREFS_LED_PATTERN);
-                }
-
-                notification.ledOnMS = led_pattern[0];
-                notification.ledOffMS = led_pattern[1];
-
-                /*
-                 * Set up LED color
-                 */
-                // Check if a custom color is set
-                if (context.getString(R.string.pref_custom_val).equals(flashLedCol)) {
-                    flashLedCol = flashLedColCustom;
-                }
-
-                // Default in case the parse fails
-                int col = Color.parseColor(Defaults.PREFS_LED_COLOR);
-
-                // Try and parse the color
-                if (flashLedCol != null) {
-                    try {
-                        col = Color.parseColor(flashLedCol);
-                    } catch (IllegalArgumentException e) {
-                        // No need to do anything here
-                    }
-                }
-
-                notification.ledARGB = col;
+                notification.ledOnMS = profile.ledOnMS;
+                notification.ledOffMS = profile.ledOffMS;
+                notification.ledARGB = profile.ledARGB;
             }
 
             // Get system telephony manager
@@ -444,18 +316,11 @@ public class ManageNotification {
                  * Set up vibrate pattern
                  */
                 // If vibrate is ON, or if phone is set to vibrate
-                if ((vibrate || AudioManager.RINGER_MODE_VIBRATE == mAM.getRingerMode())) {
+                if ((profile.vibrate
+                        || AudioManager.RINGER_MODE_VIBRATE == mAM.getRingerMode())) {
 
-                    long[] vibrate_pattern = null;
-
-                    if (context.getString(R.string.pref_custom_val).equals(vibrate_pattern_raw)) {
-                        vibrate_pattern = parseVibratePattern(vibrate_pattern_custom_raw);
-                    } else {
-                        vibrate_pattern = parseVibratePattern(vibrate_pattern_raw);
-                    }
-
-                    if (vibrate_pattern != null) {
-                        notification.vibrate = vibrate_pattern;
+                    if (profile.vibratePattern != null) {
+                        notification.vibrate = profile.vibratePattern;
                     } else {
                         notification.defaults = Notification.DEFAULT_VIBRATE;
                     }
@@ -464,14 +329,14 @@ public class ManageNotification {
                 /*
                  * Set up notification sound
                  */
-                notification.sound = notifSoundUri;
+                notification.sound = profile.ringtone;
 
-            } else if (notifyOnCall) { // On a call or making a call
+            } else if (profile.notifyOnCall) { // On a call or making a call
 
                 try {
                     // Use MediaPlayer to play so they can hear the notification over the ear piece
                     if (mPlayer == null) {
-                        mPlayer = MediaPlayer.create(context, notifSoundUri);
+                        mPlayer = MediaPlayer.create(context, profile.ringtone);
                     }
 
                     // Check null again in case mediaplayer couldn't be created
@@ -480,8 +345,8 @@ public class ManageNotification {
                     }
 
                 } catch (IllegalStateException e) {
-                    if (Log.DEBUG)
-                        Log.v("MediaPlayer, IllegalStateException - " + e);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_NOTIFY, "MediaPlayer, IllegalStateException - %s", e);
                 }
             }
         }
@@ -495,12 +360,12 @@ public class ManageNotification {
         notification.deleteIntent = pendingDeleteIntent;
 
         PopupNotification popupNotification = new PopupNotification(notification);
-        popupNotification.replyToThread = replyToThread;
-        popupNotification.privacyMode = privacyMode;
-        popupNotification.privacySender = privacySender;
-        popupNotification.privacyAlways = privacyAlways;
-        popupNotification.notifIcon = notifIcon == -1 ? 0 : NOTIF_ICON_RES[notifIcon][NOTIFY];
-        popupNotification.notifFailedIcon = notifIcon == -1 ? 0 : NOTIF_ICON_RES[notifIcon][FAILED];
+        popupNotification.replyToThread = profile.replyToThread;
+        popupNotification.privacyMode = profile.privacyMode;
+        popupNotification.privacySender = profile.privacySender;
+        popupNotification.privacyAlways = profile.privacyAlways;
+        popupNotification.notifIcon = profile.notifIcon;
+        popupNotification.notifFailedIcon = profile.notifFailedIcon;
 
         return popupNotification;
     }
@@ -544,84 +409,17 @@ public class ManageNotification {
     }
 
     /**
-     * Parse the user provided custom vibrate pattern into a long[]
-     * 
+     * Parse the user provided custom vibrate pattern, see PatternParser.parseVibratePattern().
      */
-    // TODO: tidy this up
-    public static long[] parseVibratePattern(String stringPattern) {
-        ArrayList<Long> arrayListPattern = new ArrayList<Long>();
-        Long l;
-
-        if (stringPattern == null)
-            return null;
-
-        String[] splitPattern = stringPattern.split(",");
-        int VIBRATE_PATTERN_MAX_SECONDS = 60000;
-        int VIBRATE_PATTERN_MAX_PATTERN = 100;
-
-        for (int i = 0; i < splitPattern.length; i++) {
-            try {
-                l = Long.parseLong(splitPattern[i].trim());
-            } catch (NumberFormatException e) {
-                return null;
-            }
-            if (l > VIBRATE_PATTERN_MAX_SECONDS) {
-                return null;
-            }
-            arrayListPattern.add(l);
-        }
-
-        // TODO: can i just cast the whole ArrayList into long[]?
-        int size = arrayListPattern.size();
-        if (size > 0 && size < VIBRATE_PATTERN_MAX_PATTERN) {
-            long[] pattern = new long[size];
-            for (int i = 0; i < pattern.length; i++) {
-                pattern[i] = arrayListPattern.get(i);
-            }
-            return pattern;
-        }
-
-        return null;
+    public static long[] parseVibratePattern(CharSequence stringPattern) {
+        return PatternParser.parseVibratePattern(stringPattern);
     }
 
     /**
-     * Parse LED pattern string into int[]
-     * 
-     * @param stringPattern
-     * @return
+     * Parse LED pattern string, see PatternParser.parseLEDPattern().
      */
-    public static int[] parseLEDPattern(String stringPattern) {
-        int on, off;
-
-        if (stringPattern == null)
-            return null;
-
-        String[] splitPattern = stringPattern.split(",");
-
-        if (splitPattern.length != 2)
-            return null;
-
-        final int LED_PATTERN_MIN_SECONDS = 0;
-        final int LED_PATTERN_MAX_SECONDS = 60000;
-
-        try {
-            on = Integer.parseInt(splitPattern[0]);
-        } catch (NumberFormatException e) {
-            return null;
-        }
-
-        try {
-            off = Integer.parseInt(splitPattern[1]);
-        } catch (NumberFormatException e) {
-            return null;
-        }
-
-        if (on >= LED_PATTERN_MIN_SECONDS && on <= LED_PATTERN_MAX_SECONDS
-                && off >= LED_PATTERN_MIN_SECONDS && off <= LED_PATTERN_MAX_SECONDS) {
-            return new int[] { on, off };
-        }
-
-        return null;
+    public static int[] parseLEDPattern(CharSequence stringPattern) {
+        return PatternParser.parseLEDPattern(stringPattern);
     }
 
     public static void notifySendFailed(Context context) {
@@ -1,21 +1,42 @@
 package net.everythingandroid.smspopup.util;
 
+import java.util.HashMap;
+
 import net.everythingandroid.smspopup.preferences.ButtonListPreference;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.database.ContentObserver;
 import android.database.Cursor;
+import android.net.Uri;
 import android.preference.PreferenceManager;
+import android.support.v4.util.LruCache;
+import android.util.SparseArray;
 
 public class ManagePreferences {
     private long mRowId = 0;
     private Context mContext;
-    private Cursor mCursor;
+    private ContactSettings mSettings;
     private boolean useDatabase;
     private SharedPreferences mPrefs;
     private static final String one = "1";
 
+    /*
+     * Per contact settings snapshots, keyed by contact lookup key. Contacts without custom
+     * settings are cached too (as NO_SETTINGS) as this is by far the most common case. The cache
+     * is dropped whenever the SmsPopup provider notifies of a change.
+     */
+    private static final int SETTINGS_CACHE_SIZE = 32;
+    private static final ContactSettings NO_SETTINGS = new ContactSettings(0, null);
+    private static final LruCache<String, ContactSettings> settingsCache =
+            new LruCache<String, ContactSettings>(SETTINGS_CACHE_SIZE);
+    private static int settingsGeneration = 0;
+    private static SettingsObserver settingsObserver = null;
+
+    // Preference keys by resource id, these never change at runtime
+    private static final SparseArray<String> prefKeys = new SparseArray<String>();
+
     /*
      * Define all default preferences in this static class. Unfortunately these are also stored in
      * the resource xml files for use by the preference xml so they should be updated in both places
@@ -37,6 +58,7 @@ public class ManagePreferences {
         public static final boolean PREFS_SHOW_POPUP = true;
         public static final boolean PREFS_ONLY_SHOW_ON_KEYGUARD = false;
         public static final boolean PREFS_MARK_READ = true;
+        public static final boolean PREFS_VERBOSE_LOGGING = false;
 
         public static final boolean PREFS_NOTIF_ENABLED = false;
         public static final String PREFS_NOTIF_ICON = "0";
@@ -64,20 +86,16 @@ public class ManagePreferences {
         mContext = context;
         useDatabase = false;
 
-        if (Log.DEBUG) Log.v("rowId = " + mRowId);
+        if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "rowId = %s", mRowId);
 
         if (mRowId > 0) {
-            mCursor = mContext.getContentResolver().query(
-                    ContactNotifications.buildContactUri(mRowId), null, null, null, null);
-            if (mCursor != null && mCursor.moveToFirst()) {
-                if (Log.DEBUG) Log.v("Contact found - using database");
+            mSettings = querySettings(mContext, ContactNotifications.buildContactUri(mRowId));
+            if (mSettings != NO_SETTINGS) {
+                if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "Contact found - using database");
                 useDatabase = true;
-            } else {
-                mCursor = null;
-                useDatabase = false;
             }
         } else {
-            if (Log.DEBUG) Log.v("Contact NOT found - using prefs");
+            if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "Contact NOT found - using prefs");
         }
 
         mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
@@ -92,21 +110,17 @@ public class ManagePreferences {
         mContext = context;
         useDatabase = false;
 
-        if (Log.DEBUG) Log.v("contactId = " + mRowId);
+        if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "contactLookupKey = %s", contactLookupKey);
 
         if (contactLookupKey != null) {
-            mCursor = mContext.getContentResolver().query(
-                    ContactNotifications.buildLookupUri(contactLookupKey), null, null, null, null);
-            if (mCursor != null && mCursor.moveToFirst()) {
-                if (Log.DEBUG) Log.v("Contact found - using database");
-                mRowId = mCursor.getLong(mCursor.getColumnIndexOrThrow(ContactNotifications._ID));
+            mSettings = getSettings(mContext, contactLookupKey);
+            if (mSettings != NO_SETTINGS) {
+                if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "Contact found - using database");
+                mRowId = mSettings.rowId;
                 useDatabase = true;
-            } else {
-                mCursor = null;
-                useDatabase = false;
             }
         } else {
-            if (Log.DEBUG) Log.v("Contact NOT found - using prefs");
+            if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "Contact NOT found - using prefs");
         }
 
         mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
@@ -114,7 +128,7 @@ public class ManagePreferences {
 
     public boolean getBoolean(int resPrefId, int resDefaultId, String dbColumnName) {
         if (useDatabase) {
-            return one.equals(mCursor.getString(mCursor.getColumnIndexOrThrow(dbColumnName)));
+            return one.equals(mSettings.getString(dbColumnName));
         } else {
             return getBoolean(resPrefId, resDefaultId);
         }
@@ -122,24 +136,24 @@ public class ManagePreferences {
 
     public boolean getBoolean(int resPrefId, boolean prefDefault, String dbColumnName) {
         if (useDatabase) {
-            return one.equals(mCursor.getString(mCursor.getColumnIndexOrThrow(dbColumnName)));
+            return one.equals(mSettings.getString(dbColumnName));
         } else {
             return getBoolean(resPrefId, prefDefault);
         }
     }
 
     public boolean getBoolean(int resPrefId, int resDefaultId) {
-        return mPrefs.getBoolean(mContext.getString(resPrefId),
+        return mPrefs.getBoolean(getPrefKey(resPrefId),
                 Boolean.parseBoolean(mContext.getString(resDefaultId)));
     }
 
     public boolean getBoolean(int resPrefId, boolean prefDefault) {
-        return mPrefs.getBoolean(mContext.getString(resPrefId), prefDefault);
+        return mPrefs.getBoolean(getPrefKey(resPrefId), prefDefault);
     }
 
     public String getString(int resPrefId, int resDefaultId, String dbColumnName) {
         if (useDatabase) {
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(dbColumnName));
+            return mSettings.getString(dbColumnName);
         } else {
             return getString(resPrefId, resDefaultId);
         }
@@ -147,18 +161,18 @@ public class ManagePreferences {
 
     public String getString(int resPrefId, String defaultVal, String dbColumnName) {
         if (useDatabase) {
-            return mCursor.getString(mCursor.getColumnIndexOrThrow(dbColumnName));
+            return mSettings.getString(dbColumnName);
         } else {
-            return mPrefs.getString(mContext.getString(resPrefId), defaultVal);
+            return mPrefs.getString(getPrefKey(resPrefId), defaultVal);
         }
     }
 
     public String getString(int resPrefId, int resDefaultId) {
-        return mPrefs.getString(mContext.getString(resPrefId), mContext.getString(resDefaultId));
+        return mPrefs.getString(getPrefKey(resPrefId), mContext.getString(resDefaultId));
     }
 
     public String getString(int resPrefId, String defaultVal) {
-        return mPrefs.getString(mContext.getString(resPrefId), defaultVal);
+        return mPrefs.getString(getPrefKey(resPrefId), defaultVal);
     }
 
     public void putString(int resPrefId, String newVal, String dbColumnName) {
@@ -169,7 +183,7 @@ public class ManagePreferences {
                     ContactNotifications.buildContactUri(mRowId), vals, null, null);
         } else {
             SharedPreferences.Editor settings = mPrefs.edit();
-            settings.putString(mContext.getString(resPrefId), newVal);
+            settings.putString(getPrefKey(resPrefId), newVal);
             settings.commit();
         }
     }
@@ -179,12 +193,127 @@ public class ManagePreferences {
     }
 
     public int getInt(int resPrefId, int defaultVal) {
-        return mPrefs.getInt(mContext.getString(resPrefId), defaultVal);
+        return mPrefs.getInt(getPrefKey(resPrefId), defaultVal);
     }
 
+    /**
+     * Settings are read into a snapshot up front so there is nothing left to close, this is kept
+     * so callers don't need to care.
+     */
     public void close() {
-        if (mCursor != null) {
-            mCursor.close();
+    }
+
+    private String getPrefKey(int resPrefId) {
+        synchronized (prefKeys) {
+            String key = prefKeys.get(resPrefId);
+            if (key == null) {
+                key = mContext.getString(resPrefId);
+                prefKeys.put(resPrefId, key);
+            }
+            return key;
+        }
+    }
+
+    /*
+     * Fetch the settings snapshot for a contact lookup key, from the cache if possible.
+     */
+    private static ContactSettings getSettings(Context context, String contactLookupKey) {
+        final int generation;
+        synchronized (settingsCache) {
+            registerObserver(context);
+            final ContactSettings settings = settingsCache.get(contactLookupKey);
+            if (settings != null) {
+                return settings;
+            }
+            generation = settingsGeneration;
+        }
+
+        final ContactSettings settings =
+                querySettings(context, ContactNotifications.buildLookupUri(contactLookupKey));
+
+        synchronized (settingsCache) {
+            // Don't cache if the provider changed while we were querying
+            if (generation == settingsGeneration) {
+                settingsCache.put(contactLookupKey, settings);
+            }
+        }
+        return settings;
+    }
+
+    private static ContactSettings querySettings(Context context, Uri uri) {
+        final Cursor c = context.getContentResolver().query(uri, null, null, null, null);
+        if (c == null) {
+            return NO_SETTINGS;
+        }
+        try {
+            if (!c.moveToFirst()) {
+                return NO_SETTINGS;
+            }
+            final int columnCount = c.getColumnCount();
+            final HashMap<String, String> values = new HashMap<String, String>(columnCount);
+            for (int i = 0; i < columnCount; i++) {
+                values.put(c.getColumnName(i), c.getString(i));
+            }
+            return new ContactSettings(
+                    c.getLong(c.getColumnIndexOrThrow(ContactNotifications._ID)), values);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Drop all cached contact settings.
+     */
+    public static void invalidateSettings() {
+        synchronized (settingsCache) {
+            if (Log.isVerbose()) Log.v(Log.TAG_PREFS, "ManagePreferences: invalidateSettings()");
+            settingsGeneration++;
+            settingsCache.evictAll();
+        }
+        NotificationProfile.invalidate();
+    }
+
+    /*
+     * Registers (once per process) the observer that clears the cache when the provider changes
+     */
+    private static void registerObserver(Context context) {
+        if (settingsObserver == null) {
+            settingsObserver = new SettingsObserver();
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactNotifications.CONTENT_URI, true, settingsObserver);
+            context.getApplicationContext().getContentResolver().registerContentObserver(
+                    ContactNotifications.CONTENT_LOOKUP_URI, true, settingsObserver);
+        }
+    }
+
+    private static class SettingsObserver extends ContentObserver {
+        public SettingsObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidateSettings();
+        }
+    }
+
+    /*
+     * Immutable copy of a contact's custom settings row.
+     */
+    private static class ContactSettings {
+        public final long rowId;
+        private final HashMap<String, String> values;
+
+        public ContactSettings(long rowId, HashMap<String, String> values) {
+            this.rowId = rowId;
+            this.values = values;
+        }
+
+        public String getString(String dbColumnName) {
+            if (!values.containsKey(dbColumnName)) {
+                throw new IllegalArgumentException("column '" + dbColumnName + "' does not exist");
+            }
+            return values.get(dbColumnName);
         }
     }
 }
@@ -16,7 +16,7 @@ public class ManageWakeLock {
 
     public static synchronized void acquireFull(Context mContext) {
         if (mWakeLock != null) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("**Wakelock already held");
             return;
         }
@@ -45,7 +45,7 @@ public class ManageWakeLock {
         mWakeLock = mPm.newWakeLock(flags, Log.LOGTAG + ".full");
         mWakeLock.setReferenceCounted(false);
         mWakeLock.acquire();
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("**Wakelock acquired");
 
         // Fetch wakelock/screen timeout from preferences
@@ -65,7 +65,7 @@ public class ManageWakeLock {
 
         mPartialWakeLock =
                 mPm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, Log.LOGTAG + ".partial");
-        if (Log.DEBUG)
+        if (Log.isVerbose())
             Log.v("**Wakelock (partial) acquired");
         mPartialWakeLock.setReferenceCounted(false);
         mPartialWakeLock.acquire();
@@ -73,7 +73,7 @@ public class ManageWakeLock {
 
     public static synchronized void releaseFull() {
         if (mWakeLock != null) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("**Wakelock released");
             mWakeLock.release();
             mWakeLock = null;
@@ -82,7 +82,7 @@ public class ManageWakeLock {
 
     public static synchronized void releasePartial() {
         if (mPartialWakeLock != null) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("**Wakelock (partial) released");
             mPartialWakeLock.release();
             mPartialWakeLock = null;
@@ -0,0 +1,226 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+
+/*
+ * Collects mark read and delete actions on messages in the system database so they can be written
+ * with one ContentResolver.applyBatch() per provider authority (sms, mms) rather than one round
+ * trip per message. The outcome of each action is reported separately by apply().
+ */
+public class MessageActionBatch {
+    public static final int ACTION_MARK_READ = 1;
+    public static final int ACTION_DELETE = 2;
+
+    /**
+     * Outcome of one action in the batch.
+     */
+    public static class Result {
+        public final long messageId;
+        public final int messageType;
+        public final int action;
+        public final boolean success;
+
+        Result(Item item, boolean success) {
+            messageId = item.messageId;
+            messageType = item.messageType;
+            action = item.action;
+            this.success = success;
+        }
+    }
+
+    private static class Item {
+        final long messageId;
+        final int messageType;
+        final int action;
+
+        Item(long messageId, int messageType, int action) {
+            this.messageId = messageId;
+            this.messageType = messageType;
+            this.action = action;
+        }
+    }
+
+    private final ArrayList<Item> items = new ArrayList<Item>();
+
+    public void markRead(long messageId, int messageType) {
+        add(messageId, messageType, ACTION_MARK_READ);
+    }
+
+    public void delete(long messageId, int messageType) {
+        add(messageId, messageType, ACTION_DELETE);
+    }
+
+    public void add(long messageId, int messageType, int action) {
+        items.add(new Item(messageId, messageType, action));
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    public boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    /**
+     * Write all the actions to the system database and clear the batch. Mark read actions are
+     * skipped (and reported as successful) if the user has turned marking messages read off.
+     *
+     * @return the result of each action, in the order they were added
+     */
+    public List<Result> apply(Context context) {
+        final boolean markRead =
+                PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                        context.getString(R.string.pref_markread_key), Defaults.PREFS_MARK_READ);
+
+        final ContentValues readValues = new ContentValues(1);
+        readValues.put("read", SmsPopupUtils.READ_THREAD);
+
+        final int count = items.size();
+        final boolean[] success = new boolean[count];
+
+        // Operations grouped by authority, opItems maps each operation back to its item (or -1 if
+        // the operation result doesn't decide the outcome of the item)
+        final Map<String, ArrayList<ContentProviderOperation>> ops =
+                new LinkedHashMap<String, ArrayList<ContentProviderOperation>>();
+        final Map<String, ArrayList<Integer>> opItems =
+                new LinkedHashMap<String, ArrayList<Integer>>();
+
+        for (int i = 0; i < count; i++) {
+            final Item item = items.get(i);
+            final Uri readUri = getMessageUri(item, false);
+            if (readUri == null) {
+                continue;
+            }
+
+            final String authority = readUri.getAuthority();
+            ArrayList<ContentProviderOperation> authorityOps = ops.get(authority);
+            ArrayList<Integer> authorityItems = opItems.get(authority);
+            if (authorityOps == null) {
+                authorityOps = new ArrayList<ContentProviderOperation>();
+                authorityItems = new ArrayList<Integer>();
+                ops.put(authority, authorityOps);
+                opItems.put(authority, authorityItems);
+            }
+
+            if (item.action == ACTION_DELETE) {
+                // Mark read first to ensure the entire thread is marked as read
+                if (markRead) {
+                    authorityOps.add(ContentProviderOperation.newUpdate(readUri)
+                            .withValues(readValues).build());
+                    authorityItems.add(-1);
+                }
+                authorityOps.add(
+                        ContentProviderOperation.newDelete(getMessageUri(item, true)).build());
+                authorityItems.add(i);
+            } else if (markRead) {
+                authorityOps.add(ContentProviderOperation.newUpdate(readUri)
+                        .withValues(readValues).build());
+                authorityItems.add(i);
+            } else {
+                success[i] = true;
+            }
+        }
+
+        final ContentResolver cr = context.getContentResolver();
+        for (Map.Entry<String, ArrayList<ContentProviderOperation>> entry : ops.entrySet()) {
+            applyAuthority(cr, entry.getKey(), entry.getValue(), opItems.get(entry.getKey()),
+                    items, success);
+        }
+
+        final ArrayList<Result> results = new ArrayList<Result>(count);
+        for (int i = 0; i < count; i++) {
+            final Result result = new Result(items.get(i), success[i]);
+            if (result.success && result.action == ACTION_DELETE) {
+                SmsPopupUtils.removeMessageId(result.messageId, result.messageType);
+            }
+            if (Log.isVerbose() && !result.success) {
+                Log.v(Log.TAG_MESSAGES, "MessageActionBatch: action %s failed for message id %s",
+                        result.action, result.messageId);
+            }
+            results.add(result);
+        }
+        items.clear();
+        return results;
+    }
+
+    /*
+     * Apply the operations for one authority in a single batch. If the batch fails part way the
+     * operations are retried one at a time so each item still gets its own outcome. The system
+     * providers don't apply a batch in a transaction, so the operations before the one that
+     * failed have already been made and a retried delete that finds nothing has succeeded.
+     */
+    private static void applyAuthority(ContentResolver cr, String authority,
+            ArrayList<ContentProviderOperation> operations, ArrayList<Integer> opItems,
+            ArrayList<Item> items, boolean[] success) {
+
+        try {
+            final ContentProviderResult[] results = cr.applyBatch(authority, operations);
+            for (int i = 0; i < results.length; i++) {
+                setSuccess(opItems.get(i), results[i], success);
+            }
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "MessageActionBatch: %s operations applied to %s",
+                        operations.size(), authority);
+            return;
+        } catch (Exception e) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "MessageActionBatch: batch failed on %s - %s",
+                        authority, e);
+        }
+
+        for (int i = 0; i < operations.size(); i++) {
+            final ArrayList<ContentProviderOperation> single =
+                    new ArrayList<ContentProviderOperation>(1);
+            single.add(operations.get(i));
+            try {
+                final int item = opItems.get(i);
+                final ContentProviderResult result = cr.applyBatch(authority, single)[0];
+                if (item >= 0 && items.get(item).action == ACTION_DELETE) {
+                    success[item] = true;
+                } else {
+                    setSuccess(item, result, success);
+                }
+            } catch (Exception e) {
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_MESSAGES, "MessageActionBatch: operation failed - %s", e);
+            }
+        }
+    }
+
+    private static void setSuccess(int item, ContentProviderResult result, boolean[] success) {
+        if (item >= 0) {
+            success[item] = result.count != null && result.count > 0;
+        }
+    }
+
+    private static Uri getMessageUri(Item item, boolean forDelete) {
+        if (item.messageId <= 0) {
+            return null;
+        }
+        if (SmsMmsMessage.MESSAGE_TYPE_MMS == item.messageType) {
+            // Same uris as SmsPopupUtils.setMessageRead() and deleteMessage()
+            return Uri.withAppendedPath(forDelete
+                    ? SmsPopupUtils.MMS_CONTENT_URI : SmsPopupUtils.MMS_INBOX_CONTENT_URI,
+                    String.valueOf(item.messageId));
+        } else if (SmsMmsMessage.MESSAGE_TYPE_SMS == item.messageType) {
+            return Uri.withAppendedPath(SmsPopupUtils.SMS_CONTENT_URI,
+                    String.valueOf(item.messageId));
+        }
+        return null;
+    }
+}
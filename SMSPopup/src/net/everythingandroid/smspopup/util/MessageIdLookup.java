@@ -0,0 +1,66 @@
+package net.everythingandroid.smspopup.util;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+
+/*
+ * Finds a message id in a conversation by body and date, see SmsPopupUtils.findMessageId(). The
+ * conversation uri is a UNION of the sms and mms tables, which won't take an expression such as
+ * abs(date - x) as its sort order, so the rows in the date window are fetched newest first and
+ * the one closest to the middle of the window is picked here. The provider also ignores
+ * selectionArgs on conversation uris (every ? would be bound as NULL) so the body and dates are
+ * inlined into the selection.
+ */
+public class MessageIdLookup {
+    private static final String[] PROJECTION = new String[] { "_id", "date" };
+
+    private MessageIdLookup() {
+    }
+
+    /**
+     * Find the id of the message in the conversation with the given body dated between fromDate
+     * and toDate (no date restriction if both are 0, then the newest wins), returns 0 if there
+     * is none.
+     */
+    public static long query(ContentResolver resolver, Uri conversationUri, String body,
+            long fromDate, long toDate) {
+
+        String selection = body == null
+                ? "body is null" : "body = " + DatabaseUtils.sqlEscapeString(body);
+        final boolean windowed = fromDate != 0 || toDate != 0;
+
+        if (windowed) {
+            selection = "date >= " + fromDate + " and date <= " + toDate + " and " + selection;
+        }
+
+        final Cursor cursor =
+                resolver.query(conversationUri, PROJECTION, selection, null, "date DESC");
+
+        long id = 0;
+        if (cursor != null) {
+            try {
+                if (!windowed) {
+                    if (cursor.moveToFirst()) {
+                        id = cursor.getLong(0);
+                    }
+                } else {
+                    // Only the (few) messages with this body in the window, closest wins
+                    final long middle = (fromDate + toDate) / 2;
+                    long closest = Long.MAX_VALUE;
+                    while (cursor.moveToNext()) {
+                        final long distance = Math.abs(cursor.getLong(1) - middle);
+                        if (distance < closest) {
+                            closest = distance;
+                            id = cursor.getLong(0);
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return id;
+    }
+}
@@ -0,0 +1,240 @@
+package net.everythingandroid.smspopup.util;
+
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.util.ManagePreferences.Defaults;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.graphics.Color;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.support.v4.util.LruCache;
+
+/*
+ * Notification settings for a contact (or the defaults) with all the string preferences already
+ * parsed. Profiles are cached and only rebuilt after the ContactNotifications table or the shared
+ * preferences change, so building a notification needs no preference reads or parsing.
+ */
+public class NotificationProfile {
+    private static final int CACHE_SIZE = 32;
+
+    private static final LruCache<String, NotificationProfile> profileCache =
+            new LruCache<String, NotificationProfile>(CACHE_SIZE);
+    private static NotificationProfile defaultProfile = null;
+    private static int profileGeneration = 0;
+
+    // SharedPreferences only keeps a weak reference to listeners so hold on to it here
+    private static PrefsListener prefsListener = null;
+
+    public final boolean enabled;
+
+    public final boolean vibrate;
+    // null means use the system default vibrate pattern
+    public final long[] vibratePattern;
+
+    public final boolean flashLed;
+    public final int ledOnMS;
+    public final int ledOffMS;
+    public final int ledARGB;
+
+    public final Uri ringtone;
+
+    public final boolean privacyMode;
+    public final boolean privacySender;
+    public final boolean privacyAlways;
+    public final boolean replyToThread;
+    public final boolean notifyOnCall;
+
+    // Resource ids, 0 if no icon should be shown
+    public final int notifIcon;
+    public final int notifFailedIcon;
+
+    /**
+     * Fetch the profile for a contact, contactLookupKey can be null to fetch the default profile.
+     */
+    public static NotificationProfile get(Context context, String contactLookupKey) {
+        final int generation;
+        synchronized (profileCache) {
+            registerListener(context);
+            final NotificationProfile profile =
+                    contactLookupKey == null ? defaultProfile : profileCache.get(contactLookupKey);
+            if (profile != null) {
+                return profile;
+            }
+            generation = profileGeneration;
+        }
+
+        final NotificationProfile profile = new NotificationProfile(context, contactLookupKey);
+
+        synchronized (profileCache) {
+            // Don't cache if the settings changed while we were building
+            if (generation == profileGeneration) {
+                if (contactLookupKey == null) {
+                    defaultProfile = profile;
+                } else {
+                    profileCache.put(contactLookupKey, profile);
+                }
+            }
+        }
+        return profile;
+    }
+
+    /**
+     * Drop all cached profiles.
+     */
+    public static void invalidate() {
+        synchronized (profileCache) {
+            if (Log.isVerbose()) Log.v(Log.TAG_NOTIFY, "NotificationProfile: invalidate()");
+            profileGeneration++;
+            defaultProfile = null;
+            profileCache.evictAll();
+        }
+    }
+
+    private NotificationProfile(Context context, String contactLookupKey) {
+        final ManagePreferences mPrefs = new ManagePreferences(context, contactLookupKey);
+        final String customVal = context.getString(R.string.pref_custom_val);
+
+        enabled =
+                mPrefs.getBoolean(
+                        R.string.pref_notif_enabled_key,
+                        Defaults.PREFS_NOTIF_ENABLED,
+                        ContactNotifications.ENABLED);
+
+        vibrate =
+                mPrefs.getBoolean(
+                        R.string.pref_vibrate_key,
+                        Defaults.PREFS_VIBRATE_ENABLED,
+                        ContactNotifications.VIBRATE_ENABLED);
+
+        String vibratePatternRaw =
+                mPrefs.getString(
+                        R.string.pref_vibrate_pattern_key,
+                        Defaults.PREFS_VIBRATE_PATTERN,
+                        ContactNotifications.VIBRATE_PATTERN);
+
+        if (customVal.equals(vibratePatternRaw)) {
+            vibratePatternRaw =
+                    mPrefs.getString(
+                            R.string.pref_vibrate_pattern_custom_key,
+                            Defaults.PREFS_VIBRATE_PATTERN,
+                            ContactNotifications.VIBRATE_PATTERN_CUSTOM);
+        }
+        vibratePattern = ManageNotification.parseVibratePattern(vibratePatternRaw);
+
+        flashLed =
+                mPrefs.getBoolean(
+                        R.string.pref_flashled_key,
+                        Defaults.PREFS_LED_ENABLED,
+                        ContactNotifications.LED_ENABLED);
+
+        String ledPatternRaw =
+                mPrefs.getString(
+                        R.string.pref_flashled_pattern_key,
+                        Defaults.PREFS_LED_PATTERN,
+                        ContactNotifications.LED_PATTERN);
+
+        if (customVal.equals(ledPatternRaw)) {
+            ledPatternRaw =
+                    mPrefs.getString(
+                            R.string.pref_flashled_pattern_custom_key,
+                            Defaults.PREFS_LED_PATTERN,
+                            ContactNotifications.LED_PATTERN_CUSTOM);
+        }
+
+        int[] ledPattern = ManageNotification.parseLEDPattern(ledPatternRaw);
+
+        // Set to default if there was a problem
+        if (ledPattern == null) {
+            ledPattern = ManageNotification.parseLEDPattern(Defaults.PREFS_LED_PATTERN);
+        }
+        ledOnMS = ledPattern[0];
+        ledOffMS = ledPattern[1];
+
+        String ledColor =
+                mPrefs.getString(
+                        R.string.pref_flashled_color_key,
+                        Defaults.PREFS_LED_COLOR,
+                        ContactNotifications.LED_COLOR);
+
+        if (customVal.equals(ledColor)) {
+            ledColor =
+                    mPrefs.getString(
+                            R.string.pref_flashled_color_custom_key,
+                            Defaults.PREFS_LED_COLOR,
+                            ContactNotifications.LED_COLOR_CUSTOM);
+        }
+        ledARGB = parseColor(ledColor);
+
+        // Try and parse the user ringtone, use the default if it fails
+        ringtone =
+                Uri.parse(mPrefs.getString(
+                        R.string.pref_notif_sound_key,
+                        ManageNotification.defaultRingtone,
+                        ContactNotifications.RINGTONE));
+
+        privacyMode =
+                mPrefs.getBoolean(R.string.pref_privacy_key, Defaults.PREFS_PRIVACY);
+
+        privacySender =
+                mPrefs.getBoolean(R.string.pref_privacy_sender_key, Defaults.PREFS_PRIVACY_SENDER);
+
+        privacyAlways =
+                mPrefs.getBoolean(R.string.pref_privacy_always_key, Defaults.PREFS_PRIVACY_ALWAYS);
+
+        replyToThread =
+                mPrefs.getBoolean(R.string.pref_reply_to_thread_key,
+                        Defaults.PREFS_REPLY_TO_THREAD);
+
+        notifyOnCall =
+                mPrefs.getBoolean(R.string.pref_notifyOnCall_key, Defaults.PREFS_NOTIFY_ON_CALL);
+
+        final int icon =
+                Integer.valueOf(mPrefs.getString(R.string.pref_notif_icon_key,
+                        Defaults.PREFS_NOTIF_ICON));
+
+        if (icon == -1) {
+            notifIcon = 0;
+            notifFailedIcon = 0;
+        } else {
+            notifIcon = ManageNotification.NOTIF_ICON_RES[icon][ManageNotification.NOTIFY];
+            notifFailedIcon = ManageNotification.NOTIF_ICON_RES[icon][ManageNotification.FAILED];
+        }
+
+        mPrefs.close();
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_NOTIFY, "NotificationProfile: built for %s", contactLookupKey);
+    }
+
+    private static int parseColor(String color) {
+        if (color != null) {
+            try {
+                return Color.parseColor(color);
+            } catch (IllegalArgumentException e) {
+                // Fall through to the default
+            }
+        }
+        return Color.parseColor(Defaults.PREFS_LED_COLOR);
+    }
+
+    /*
+     * Registers (once per process) the listener that clears the cache when preferences change.
+     * Contact rows are covered by ManagePreferences which calls invalidate() from its observer.
+     */
+    private static void registerListener(Context context) {
+        if (prefsListener == null) {
+            prefsListener = new PrefsListener();
+            PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext())
+                    .registerOnSharedPreferenceChangeListener(prefsListener);
+        }
+    }
+
+    private static class PrefsListener implements OnSharedPreferenceChangeListener {
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            invalidate();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package net.everythingandroid.smspopup.util;
+
+/*
+ * Parsers for the vibrate and LED pattern preference strings. These have no dependency on the
+ * Android framework so they can be exercised off device.
+ */
+public class PatternParser {
+    private static final int VIBRATE_PATTERN_MAX_SECONDS = 60000;
+    private static final int VIBRATE_PATTERN_MAX_PATTERN = 100;
+    private static final int LED_PATTERN_MIN_SECONDS = 0;
+    private static final int LED_PATTERN_MAX_SECONDS = 60000;
+
+    /**
+     * Parse the user provided custom vibrate pattern (comma separated millisecond values) into a
+     * long[]. Values may be padded with whitespace, trailing commas are ignored. Returns null if
+     * the pattern is invalid. The input is scanned in place, the only allocation is the result.
+     */
+    public static long[] parseVibratePattern(CharSequence stringPattern) {
+        if (stringPattern == null)
+            return null;
+
+        // Trailing empty values are dropped (as String.split() would)
+        int end = stringPattern.length();
+        while (end > 0 && stringPattern.charAt(end - 1) == ',') {
+            end--;
+        }
+        if (end == 0) {
+            return null;
+        }
+
+        int size = 1;
+        for (int i = 0; i < end; i++) {
+            if (stringPattern.charAt(i) == ',') {
+                size++;
+            }
+        }
+        if (size >= VIBRATE_PATTERN_MAX_PATTERN) {
+            return null;
+        }
+
+        final long[] pattern = new long[size];
+        int pos = 0;
+        for (int n = 0; n < size; n++) {
+            int tokenEnd = pos;
+            while (tokenEnd < end && stringPattern.charAt(tokenEnd) != ',') {
+                tokenEnd++;
+            }
+
+            // Trim whitespace (same rule as String.trim())
+            int start = pos;
+            int stop = tokenEnd;
+            while (start < stop && stringPattern.charAt(start) <= ' ') {
+                start++;
+            }
+            while (stop > start && stringPattern.charAt(stop - 1) <= ' ') {
+                stop--;
+            }
+
+            if (!parseLong(stringPattern, start, stop, pattern, n)
+                    || pattern[n] > VIBRATE_PATTERN_MAX_SECONDS) {
+                return null;
+            }
+            pos = tokenEnd + 1;
+        }
+
+        return pattern;
+    }
+
+    /**
+     * Parse LED pattern string ("on,off" in milliseconds) into int[]. Returns null if the pattern
+     * is invalid.
+     */
+    public static int[] parseLEDPattern(CharSequence stringPattern) {
+        if (stringPattern == null)
+            return null;
+
+        // Trailing empty values are dropped (as String.split() would)
+        int end = stringPattern.length();
+        while (end > 0 && stringPattern.charAt(end - 1) == ',') {
+            end--;
+        }
+
+        int comma = -1;
+        for (int i = 0; i < end; i++) {
+            if (stringPattern.charAt(i) == ',') {
+                if (comma != -1) {
+                    return null;
+                }
+                comma = i;
+            }
+        }
+        if (comma == -1) {
+            return null;
+        }
+
+        final int on = parseLEDValue(stringPattern, 0, comma);
+        final int off = parseLEDValue(stringPattern, comma + 1, end);
+        if (on == -1 || off == -1) {
+            return null;
+        }
+        return new int[] { on, off };
+    }
+
+    /*
+     * Parse a decimal long from s[start, end) into result[index], returns false if it is not a
+     * valid number (empty, stray characters or overflow). Digits are read with Character.digit()
+     * so any Unicode decimal digit is accepted, as with Long.parseLong().
+     */
+    private static boolean parseLong(CharSequence s, int start, int end, long[] result,
+            int index) {
+        if (start == end) {
+            return false;
+        }
+
+        final char sign = s.charAt(start);
+        final boolean negative = sign == '-';
+        if ((negative || sign == '+') && ++start == end) {
+            return false;
+        }
+
+        // Accumulate negatively so Long.MIN_VALUE can be represented
+        final long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        final long multmin = limit / 10;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0 || value < multmin) {
+                return false;
+            }
+            value *= 10;
+            if (value < limit + digit) {
+                return false;
+            }
+            value -= digit;
+        }
+
+        result[index] = negative ? value : -value;
+        return true;
+    }
+
+    /*
+     * Parse a LED on/off value from s[start, end), returns -1 if it is not a number or is out of
+     * range.
+     */
+    private static int parseLEDValue(CharSequence s, int start, int end) {
+        if (start == end) {
+            return -1;
+        }
+
+        final char sign = s.charAt(start);
+        final boolean negative = sign == '-';
+        if ((negative || sign == '+') && ++start == end) {
+            return -1;
+        }
+
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            final int digit = Character.digit(s.charAt(i), 10);
+            if (digit < 0) {
+                return -1;
+            }
+            value = value * 10 + digit;
+            if (value > LED_PATTERN_MAX_SECONDS) {
+                return -1;
+            }
+        }
+
+        // Only -0 is in range when negative
+        if (negative && value != 0) {
+            return -1;
+        }
+        return value < LED_PATTERN_MIN_SECONDS ? -1 : value;
+    }
+}
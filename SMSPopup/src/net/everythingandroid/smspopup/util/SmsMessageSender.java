@@ -286,8 +286,8 @@ public class SmsMessageSender {
                             // SmsReceiver.class
                             0));
                 }
-                if (Log.DEBUG)
-                    Log.v("Sending message in " + messageCount + " parts");
+                if (Log.isVerbose())
+                    Log.v(Log.TAG_MESSAGES, "Sending message in %s parts", messageCount);
                 smsManager.sendMultipartTextMessage(
                         mDests[i], mServiceCenter, messages, sentIntents, deliveryIntents);
             }
@@ -1,10 +1,9 @@
 package net.everythingandroid.smspopup.util;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -12,6 +11,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.provider.MessageRecord;
 import net.everythingandroid.smspopup.provider.SmsMmsMessage;
 import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
 import net.everythingandroid.smspopup.receiver.ExternalEventReceiver;
@@ -29,7 +29,6 @@ import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.DatabaseUtils;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.net.Uri;
@@ -51,7 +50,7 @@ public class SmsPopupUtils {
     public static final Uri CONVERSATION_CONTENT_URI =
             Uri.withAppendedPath(MMS_SMS_CONTENT_URI, "conversations");
     public static final String SMSTO_URI = "smsto:";
-    private static final String UNREAD_CONDITION = "read=0";
+    static final String UNREAD_CONDITION = "read=0";
 
     public static final Uri SMS_CONTENT_URI = Uri.parse("content://sms");
     public static final Uri SMS_INBOX_CONTENT_URI = Uri.withAppendedPath(SMS_CONTENT_URI, "inbox");
@@ -70,9 +69,18 @@ public class SmsPopupUtils {
     // The max size of either the width or height of the contact photo
     public static final int CONTACT_PHOTO_MAXSIZE = 1024;
 
-    // Bitmap cache
-    private static final int bitmapCacheSize = 5;
-    private static LruCache<Uri, Bitmap> bitmapCache = null;
+    // Contact photos are decoded under one of these (picked by contact uri) so concurrent
+    // requests for the same sender are served from ContactPhotoCache rather than decoded twice,
+    // photos of different senders are decoded in parallel
+    private static final StripedLocks photoDecodeLocks = new StripedLocks(16);
+
+    // Writes to the same thread (mark read, delete) are serialized on one of these, there is no
+    // lock around reads
+    private static final StripedLocks threadWriteLocks = new StripedLocks(16);
+
+    // Message ids already found by findMessageId(), entries are dropped when the message is
+    // deleted by deleteMessage()
+    private static final LruCache<String, Long> messageIdCache = new LruCache<String, Long>(32);
 
     private static final String[] AUTHOR_CONTACT_INFO =
             { "Adam K <smspopup@everythingandroid.net>" };
@@ -121,8 +129,8 @@ public class SmsPopupUtils {
                 if (cursor.getCount() > 0) {
                     cursor.moveToFirst();
                     String name = cursor.getString(0);
-                    if (Log.DEBUG)
-                        Log.v("Contact Display Name: " + name);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Contact Display Name: %s", name);
                     return name;
                 }
             } finally {
@@ -161,8 +169,8 @@ public class SmsPopupUtils {
             try {
                 if (cursor.moveToFirst()) {
                     String name = cursor.getString(0);
-                    if (Log.DEBUG)
-                        Log.v("Contact Display Name: " + name);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Contact Display Name: %s", name);
                     return name;
                 }
             } finally {
@@ -200,6 +208,13 @@ public class SmsPopupUtils {
         if (address == null)
             return null;
 
+        final ContactIdentityCache.Entry cached = ContactIdentityCache.getPhone(context, address);
+        if (cached.found) {
+            return cached.contact;
+        }
+        final int cacheGeneration = ContactIdentityCache.getGeneration();
+
+        ContactIdentification contact = null;
         Cursor cursor = null;
         try {
             cursor = context.getContentResolver().query(
@@ -207,10 +222,10 @@ public class SmsPopupUtils {
                     new String[] { PhoneLookup._ID, PhoneLookup.DISPLAY_NAME, PhoneLookup.LOOKUP_KEY },
                     null, null, null);
         } catch (IllegalArgumentException e) {
-            Log.e("getPersonIdFromPhoneNumber(): " + e.toString());
+            Log.e(Log.TAG_CONTACTS, "getPersonIdFromPhoneNumber(): %s", e);
             return null;
         } catch (Exception e) {
-            Log.e("getPersonIdFromPhoneNumber(): " + e.toString());
+            Log.e(Log.TAG_CONTACTS, "getPersonIdFromPhoneNumber(): %s", e);
             return null;
         }
 
@@ -222,17 +237,19 @@ public class SmsPopupUtils {
                     String contactName = cursor.getString(1);
                     String contactLookup = cursor.getString(2);
 
-                    if (Log.DEBUG)
-                        Log.v("Found person: " + contactId + ", " + contactName + ", "
-                                + contactLookup);
-                    return new ContactIdentification(contactId, contactLookup, contactName);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Found person: %s, %s, %s",
+                                contactId, contactName, contactLookup);
+                    contact = new ContactIdentification(contactId, contactLookup, contactName);
                 }
             } finally {
                 cursor.close();
             }
-        }
 
-        return null;
+            // Only cache completed lookups, a failed one (null cursor) is not "no contact"
+            ContactIdentityCache.putPhone(address, contact, cacheGeneration);
+        }
+        return contact;
     }
 
     /**
@@ -242,6 +259,13 @@ public class SmsPopupUtils {
         if (email == null)
             return null;
 
+        final ContactIdentityCache.Entry cached = ContactIdentityCache.getEmail(context, email);
+        if (cached.found) {
+            return cached.contact;
+        }
+        final int cacheGeneration = ContactIdentityCache.getGeneration();
+
+        ContactIdentification contact = null;
         Cursor cursor = null;
         try {
             cursor = context.getContentResolver().query(
@@ -251,10 +275,10 @@ public class SmsPopupUtils {
                     new String[] { Email.CONTACT_ID, Email.DISPLAY_NAME_PRIMARY, Email.LOOKUP_KEY },
                     null, null, null);
         } catch (IllegalArgumentException e) {
-            Log.e("getPersonIdFromEmail(): " + e.toString());
+            Log.e(Log.TAG_CONTACTS, "getPersonIdFromEmail(): %s", e);
             return null;
         } catch (Exception e) {
-            Log.e("getPersonIdFromEmail(): " + e.toString());
+            Log.e(Log.TAG_CONTACTS, "getPersonIdFromEmail(): %s", e);
             return null;
         }
 
@@ -266,16 +290,60 @@ public class SmsPopupUtils {
                     String contactName = cursor.getString(1);
                     String contactLookup = cursor.getString(2);
 
-                    if (Log.DEBUG)
-                        Log.v("Found person: " + contactId + ", " + contactName + ", "
-                                + contactLookup);
-                    return new ContactIdentification(contactId, contactLookup, contactName);
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_CONTACTS, "Found person: %s, %s, %s",
+                                contactId, contactName, contactLookup);
+                    contact = new ContactIdentification(contactId, contactLookup, contactName);
                 }
             } finally {
                 cursor.close();
             }
+
+            // Only cache completed lookups, a failed one (null cursor) is not "no contact"
+            ContactIdentityCache.putEmail(email, contact, cacheGeneration);
         }
-        return null;
+        return contact;
+    }
+
+    /**
+     * Looks up a contacts id given an address from the SMS database, this will be treated as a
+     * phone number if it's a well formed SMS address and an email address otherwise. Returns null
+     * if not found.
+     */
+    public static ContactIdentification getPersonIdFromAddress(Context context, String address) {
+        if (PhoneNumberUtils.isWellFormedSmsAddress(address)) {
+            return getPersonIdFromPhoneNumber(context, address);
+        }
+        return getPersonIdFromEmail(context, address);
+    }
+
+    /**
+     * Resolves a group of addresses to contacts in one pass, each distinct address is only looked
+     * up once no matter how many times it appears.
+     * 
+     * @param context
+     *            the context
+     * @param addresses
+     *            the addresses to resolve (may contain duplicates and nulls)
+     * @return map of address to ContactIdentification (the value is null if no contact matched)
+     */
+    public static HashMap<String, ContactIdentification> resolveContacts(Context context,
+            Collection<String> addresses) {
+
+        final HashMap<String, ContactIdentification> contacts =
+                new HashMap<String, ContactIdentification>();
+
+        for (String address : addresses) {
+            if (address != null && !contacts.containsKey(address)) {
+                contacts.put(address, getPersonIdFromAddress(context, address));
+            }
+        }
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_CONTACTS, "resolveContacts(): %s addresses, %s distinct",
+                    addresses.size(), contacts.size());
+
+        return contacts;
     }
 
     /**
@@ -300,22 +368,40 @@ public class SmsPopupUtils {
         if (contactUri == null)
             return null;
 
-        // Init cache
-        if (bitmapCache == null) {
-            final int cacheSize = bitmapCacheSize * thumbSize * thumbSize;
-            bitmapCache = new LruCache<Uri, Bitmap>(cacheSize) {
-                protected int sizeOf(Uri key, Bitmap value) {
-                    return thumbSize * thumbSize;
-                }
-            };
+        // Check photo cache (memory then disk)
+        Bitmap cachedBitmap = ContactPhotoCache.get(context, contactUri, thumbSize);
+        if (cachedBitmap != null) {
+            return cachedBitmap;
         }
 
-        // Check bitmap cache
-        synchronized (bitmapCache) {
-            if (bitmapCache.get(contactUri) != null) {
-                return bitmapCache.get(contactUri);
+        synchronized (getPhotoDecodeLock(contactUri)) {
+            // Another thread may have decoded this photo while we were waiting
+            cachedBitmap = ContactPhotoCache.getFromMemory(contactUri, thumbSize);
+            if (cachedBitmap != null) {
+                return cachedBitmap;
             }
+
+            final int cacheGeneration = ContactPhotoCache.getGeneration();
+            final Bitmap bitmap = decodePersonPhoto(context, contactUri, thumbSize);
+
+            // Add to photo cache (the disk copy is written in the background)
+            ContactPhotoCache.put(context, contactUri, thumbSize, bitmap, cacheGeneration);
+
+            return bitmap;
         }
+    }
+
+    /*
+     * Lock held while decoding a contact photo, contacts that share a lock just wait on each other
+     */
+    private static Object getPhotoDecodeLock(Uri contactUri) {
+        return photoDecodeLocks.get(contactUri.hashCode());
+    }
+
+    /*
+     * Decode and scale a contact photo, see getPersonPhoto()
+     */
+    private static Bitmap decodePersonPhoto(Context context, Uri contactUri, int thumbSize) {
 
         // First let's just check the dimensions of the contact photo
         BitmapFactory.Options options = new BitmapFactory.Options();
@@ -328,8 +414,8 @@ public class SmsPopupUtils {
         final int height = options.outHeight;
         final int width = options.outWidth;
 
-        if (Log.DEBUG)
-            Log.v("Contact photo size = " + height + "x" + width);
+        if (Log.isVerbose())
+            Log.v(Log.TAG_CONTACTS, "Contact photo size = %sx%s", height, width);
 
         // If photo is too large or not found get out
         if (height > CONTACT_PHOTO_MAXSIZE || width > CONTACT_PHOTO_MAXSIZE ||
@@ -375,24 +461,26 @@ public class SmsPopupUtils {
             return null;
 
         // Bitmap scaled to new height and width
-        final Bitmap finalBitmap =
-                Bitmap.createScaledBitmap(contactBitmap, newWidth, newHeight, true);
+        return Bitmap.createScaledBitmap(contactBitmap, newWidth, newHeight, true);
+    }
 
-        // Add to bitmap cache
-        synchronized (bitmapCache) {
-            if (bitmapCache.get(contactUri) == null) {
-                bitmapCache.put(contactUri, finalBitmap);
-            }
-        }
+    public static Bitmap getPersonPhoto(Context context, Uri contactUri) {
+        return getPersonPhoto(context, contactUri, getPersonPhotoSize(context));
+    }
 
-        return finalBitmap;
+    /**
+     * Fetch a contact photo only if it is already in the memory cache (safe to call from the UI
+     * thread).
+     */
+    public static Bitmap getCachedPersonPhoto(Context context, Uri contactUri) {
+        return ContactPhotoCache.getFromMemory(contactUri, getPersonPhotoSize(context));
     }
 
-    public static Bitmap getPersonPhoto(Context context, Uri contactUri) {
+    private static int getPersonPhotoSize(Context context) {
         final Resources res = context.getResources();
         final int thumbSize = (int) res.getDimension(R.dimen.contact_thumbnail_size);
         final int thumbBorder = (int) res.getDimension(R.dimen.contact_thumbnail_border);
-        return getPersonPhoto(context, contactUri, thumbSize - thumbBorder);
+        return thumbSize - thumbBorder;
     }
 
     /**
@@ -452,41 +540,24 @@ public class SmsPopupUtils {
      *            phone number or email address of sender
      * @return the thread id (or 0 if there was a problem)
      */
-    synchronized public static long findThreadIdFromAddress(Context context, String address) {
+    public static long findThreadIdFromAddress(Context context, String address) {
         if (address == null)
             return 0;
 
-        String THREAD_RECIPIENT_QUERY = "recipient";
-
-        Uri.Builder uriBuilder = THREAD_ID_CONTENT_URI.buildUpon();
-        uriBuilder.appendQueryParameter(THREAD_RECIPIENT_QUERY, address);
-
-        long threadId = 0;
-
-        Cursor cursor = null;
-        try {
-
-            cursor = context.getContentResolver().query(
-                    uriBuilder.build(),
-                    new String[] { Contacts._ID },
-                    null, null, null);
+        return ThreadIdCache.lookup(context, address);
+    }
 
-            if (cursor != null && cursor.moveToFirst()) {
-                threadId = cursor.getLong(0);
-            }
-        } finally {
-            if (cursor != null) {
-                cursor.close();
-            }
-        }
-        return threadId;
+    /*
+     * Lock used to order writes to a thread, threads that share a lock just wait on each other
+     */
+    private static Object getThreadWriteLock(long threadId) {
+        return threadWriteLocks.get(threadId);
     }
 
     /**
      * Marks a specific message as read
      */
-    synchronized public static void
-            setMessageRead(Context context, long messageId, int messageType) {
+    public static void setMessageRead(Context context, long messageId, int messageType) {
 
         SharedPreferences myPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         boolean markRead = myPrefs.getBoolean(
@@ -520,16 +591,16 @@ public class SmsPopupUtils {
             } catch (Exception e) {
                 result = 0;
             }
-            if (Log.DEBUG)
-                Log.v(String.format("message id = %s marked as read, result = %s", messageId,
-                        result));
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "message id = %s marked as read, result = %s",
+                        messageId, result);
         }
     }
 
     /**
      * Marks a specific message thread as read - all messages in the thread will be marked read
      */
-    synchronized public static void setThreadRead(Context context, long threadId) {
+    public static void setThreadRead(Context context, long threadId) {
         SharedPreferences myPrefs = PreferenceManager.getDefaultSharedPreferences(context);
         boolean markRead = myPrefs.getBoolean(
                 context.getString(R.string.pref_markread_key),
@@ -544,64 +615,93 @@ public class SmsPopupUtils {
 
             ContentResolver cr = context.getContentResolver();
             int result = 0;
-            try {
-                result = cr.update(
-                        ContentUris.withAppendedId(CONVERSATION_CONTENT_URI, threadId),
-                        values, null, null);
-            } catch (Exception e) {
-                if (Log.DEBUG)
-                    Log.v("error marking thread read");
+            synchronized (getThreadWriteLock(threadId)) {
+                try {
+                    result = cr.update(
+                            ContentUris.withAppendedId(CONVERSATION_CONTENT_URI, threadId),
+                            values, null, null);
+                } catch (Exception e) {
+                    if (Log.isVerbose())
+                        Log.v("error marking thread read");
+                }
             }
-            if (Log.DEBUG)
-                Log.v("thread id " + threadId + " marked as read, result = " + result);
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "thread id %s marked as read, result = %s",
+                        threadId, result);
         }
     }
 
     /**
      * Tries to locate the message id (from the system database), given the message thread id, the
-     * timestamp of the message and the type of message (sms/mms)
+     * timestamp of the message and the type of message (sms/mms). The search is narrowed to the
+     * messages in the thread dated within SmsMmsMessage.MESSAGE_COMPARE_TIME_BUFFER of the
+     * timestamp before bodies are compared, only falling back to comparing every message in the
+     * thread if that finds nothing. Ids found are remembered for the next lookup of the same
+     * message.
      */
-    synchronized public static long findMessageId(Context context, long threadId, long timestamp,
+    public static long findMessageId(Context context, long threadId, long timestamp,
             String body, int messageType) {
 
-        long id = 0;
-        String selection = "body = " + DatabaseUtils.sqlEscapeString(body);
-        final String sortOrder = "date DESC";
-        final String[] projection = new String[] { "_id", "date", "thread_id", "body" };
+        if (threadId <= 0) {
+            return 0;
+        }
 
-        if (threadId > 0) {
-            if (Log.DEBUG)
-                Log.v("Trying to find message ID");
-            if (SmsMmsMessage.MESSAGE_TYPE_MMS == messageType) {
-                // It seems MMS timestamps are stored in a seconds, whereas SMS timestamps are in
-                // millis
-                selection += " and date = " + (timestamp / 1000);
+        final String key = messageIdKey(threadId, timestamp, body, messageType);
+        final Long cachedId = messageIdCache.get(key);
+        if (cachedId != null) {
+            return cachedId;
+        }
+
+        if (Log.isVerbose())
+            Log.v("Trying to find message ID");
+
+        long id;
+        if (SmsMmsMessage.MESSAGE_TYPE_MMS == messageType) {
+            // It seems MMS timestamps are stored in a seconds, whereas SMS timestamps are in
+            // millis
+            id = queryMessageId(context, threadId, body, timestamp / 1000, timestamp / 1000);
+        } else {
+            id = queryMessageId(context, threadId, body,
+                    timestamp - SmsMmsMessage.MESSAGE_COMPARE_TIME_BUFFER,
+                    timestamp + SmsMmsMessage.MESSAGE_COMPARE_TIME_BUFFER);
+            if (id == 0) {
+                // Not within the window (clock change?), compare against the whole thread
+                id = queryMessageId(context, threadId, body, 0, 0);
             }
+        }
 
-            // Log.v("Where is: " + where);
-            // Log.v("ThreadId is: " + threadId);
+        if (id > 0) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Message id found = %s", id);
+            messageIdCache.put(key, id);
+        }
+        return id;
+    }
 
-            Cursor cursor = context.getContentResolver().query(
-                    ContentUris.withAppendedId(CONVERSATION_CONTENT_URI, threadId),
-                    projection,
-                    selection,
-                    null,
-                    sortOrder);
+    private static long queryMessageId(Context context, long threadId, String body,
+            long fromDate, long toDate) {
+        return MessageIdLookup.query(context.getContentResolver(),
+                ContentUris.withAppendedId(CONVERSATION_CONTENT_URI, threadId), body, fromDate,
+                toDate);
+    }
 
-            if (cursor != null) {
-                try {
-                    if (cursor.moveToFirst()) {
-                        id = cursor.getLong(0);
-                        if (Log.DEBUG)
-                            Log.v("Message id found = " + id);
-                        // Log.v("Timestamp = " + cursor.getLong(1));
-                    }
-                } finally {
-                    cursor.close();
-                }
+    private static String messageIdKey(long threadId, long timestamp, String body,
+            int messageType) {
+        // The whole body, different messages in a thread can have the same body hash and time
+        return messageType + ":" + threadId + ":" + timestamp
+                + (body == null ? ":" : "=" + body);
+    }
+
+    /*
+     * Drop the cached findMessageId() results for a deleted message
+     */
+    static void removeMessageId(long messageId, int messageType) {
+        final String prefix = messageType + ":";
+        for (Map.Entry<String, Long> entry : messageIdCache.snapshot().entrySet()) {
+            if (entry.getValue() == messageId && entry.getKey().startsWith(prefix)) {
+                messageIdCache.remove(entry.getKey());
             }
         }
-        return id;
     }
 
     /**
@@ -612,11 +712,8 @@ public class SmsPopupUtils {
             long threadId, int messageType) {
 
         if (messageId > 0) {
-            if (Log.DEBUG)
-                Log.v("id of message to delete is " + messageId);
-
-            // We need to mark this message read first to ensure the entire thread is marked as read
-            setMessageRead(context, messageId, messageType);
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "id of message to delete is %s", messageId);
 
             // Construct delete message uri
             Uri deleteUri;
@@ -630,15 +727,24 @@ public class SmsPopupUtils {
             }
 
             int count = 0;
-            try {
-                count = context.getContentResolver().delete(deleteUri, null, null);
-            } catch (Exception e) {
-                if (Log.DEBUG)
-                    Log.v("deleteMessage(): Problem deleting message - " + e.toString());
+            synchronized (getThreadWriteLock(threadId)) {
+                // We need to mark this message read first to ensure the entire thread is marked as
+                // read
+                setMessageRead(context, messageId, messageType);
+
+                try {
+                    count = context.getContentResolver().delete(deleteUri, null, null);
+                    ThreadIdCache.removeThread(threadId);
+                    removeMessageId(messageId, messageType);
+                } catch (Exception e) {
+                    if (Log.isVerbose())
+                        Log.v(Log.TAG_MESSAGES,
+                                "deleteMessage(): Problem deleting message - %s", e);
+                }
             }
 
-            if (Log.DEBUG)
-                Log.v("Messages deleted: " + count);
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "Messages deleted: %s", count);
             if (count == 1) {
                 // TODO: should only set the thread read if there are no more unread messages
                 // setThreadRead(context, threadId);
@@ -659,63 +765,159 @@ public class SmsPopupUtils {
      */
 
     public static ArrayList<SmsMmsMessage> getUnreadMessages(Context context, long ignoreMessageId) {
+        return getUnreadMessages(context, ignoreMessageId, 0, 0, 0, -1);
+    }
 
-        if (Log.DEBUG)
-            Log.v("getUnreadMessages(), ignore id: " + ignoreMessageId);
+    /**
+     * Fetches one page of unread messages from the system database, newest first. Pages are keyed
+     * on (date, _id) of the oldest message already loaded so they stay stable while new messages
+     * arrive.
+     * 
+     * @param context
+     *            app context
+     * @param ignoreMessageId
+     *            message id to ignore (the one being displayed), 0 to ignore none
+     * @param beforeDate
+     *            only return messages older than this date (and beforeId), 0 for the newest page
+     * @param beforeId
+     *            message id of the oldest message already loaded
+     * @param pageSize
+     *            max number of messages to return, 0 for no limit
+     * @param unreadCount
+     *            unread count to set on the messages, -1 to use the number fetched
+     * 
+     * @return ArrayList of SmsMmsMessage, null if there were none
+     */
+    public static ArrayList<SmsMmsMessage> getUnreadMessages(Context context, long ignoreMessageId,
+            long beforeDate, long beforeId, int pageSize, int unreadCount) {
 
-        ArrayList<SmsMmsMessage> messages = null;
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "getUnreadMessages(), ignore id: %s, before: %s, page: %s",
+                    ignoreMessageId, beforeDate, pageSize);
 
         final String[] projection =
                 new String[] { "_id", "thread_id", "address", "date", "body" };
         String selection = UNREAD_CONDITION;
-        String[] selectionArgs = null;
-        final String sortOrder = "date DESC";
+        final ArrayList<String> args = new ArrayList<String>(4);
+        final String sortOrder = "date DESC, _id DESC";
 
         // Ignore message id if set
         if (ignoreMessageId > 0) {
             selection += " and _id != ?";
-            selectionArgs = new String[] { String.valueOf(ignoreMessageId) };
+            args.add(String.valueOf(ignoreMessageId));
         }
 
+        // Only messages older than the last page
+        if (beforeDate > 0) {
+            selection += " and (date < ? or (date = ? and _id < ?))";
+            args.add(String.valueOf(beforeDate));
+            args.add(String.valueOf(beforeDate));
+            args.add(String.valueOf(beforeId));
+        }
+
+        final String[] selectionArgs =
+                args.size() > 0 ? args.toArray(new String[args.size()]) : null;
+
         // Create cursor
-        Cursor cursor = context.getContentResolver().query(
+        Cursor cursor = null;
+        if (pageSize > 0) {
+            try {
+                cursor = context.getContentResolver().query(
+                        SMS_INBOX_CONTENT_URI,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        sortOrder + " LIMIT " + pageSize);
+            } catch (Exception e) {
+                // Provider doesn't accept a limit, only the first pageSize rows are read below
+                cursor = null;
+            }
+        }
+        if (cursor == null) {
+            cursor = context.getContentResolver().query(
+                    SMS_INBOX_CONTENT_URI,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    sortOrder);
+        }
+
+        return readSmsMessages(context, cursor, pageSize, unreadCount);
+    }
+
+    /**
+     * Fetches sms messages by id, newest first, for the popup to read back messages it dropped
+     * from memory. Messages that no longer exist are left out.
+     * 
+     * @param context
+     *            app context
+     * @param messageIds
+     *            the message ids to fetch
+     * @param unreadCount
+     *            unread count to set on the messages
+     * 
+     * @return ArrayList of SmsMmsMessage, null if there were none
+     */
+    public static ArrayList<SmsMmsMessage> getSmsMessages(Context context, long[] messageIds,
+            int unreadCount) {
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "getSmsMessages(), %s ids", messageIds.length);
+
+        if (messageIds.length == 0) {
+            return null;
+        }
+
+        final StringBuilder selection = new StringBuilder("_id in (");
+        for (int i = 0; i < messageIds.length; i++) {
+            if (i > 0) {
+                selection.append(',');
+            }
+            selection.append(messageIds[i]);
+        }
+        selection.append(')');
+
+        final Cursor cursor = context.getContentResolver().query(
                 SMS_INBOX_CONTENT_URI,
-                projection,
-                selection,
-                selectionArgs,
-                sortOrder);
+                new String[] { "_id", "thread_id", "address", "date", "body" },
+                selection.toString(),
+                null,
+                "date DESC, _id DESC");
+
+        return readSmsMessages(context, cursor, 0, unreadCount);
+    }
+
+    /*
+     * Read up to pageSize (0 for all) messages from a cursor over (_id, thread_id, address, date,
+     * body) and close it.
+     */
+    private static ArrayList<SmsMmsMessage> readSmsMessages(Context context, Cursor cursor,
+            int pageSize, int unreadCount) {
 
-        long messageId;
-        long threadId;
-        String address;
-        long timestamp;
-        String body;
-        SmsMmsMessage message;
+        ArrayList<SmsMmsMessage> messages = null;
+        ArrayList<MessageRecord> records = null;
 
         if (cursor != null) {
 
             try {
 
                 int count = cursor.getCount();
+                if (pageSize > 0 && count > pageSize) {
+                    count = pageSize;
+                }
 
                 if (count > 0) {
 
-                    messages = new ArrayList<SmsMmsMessage>(count);
-
-                    while (cursor.moveToNext()) {
+                    records = new ArrayList<MessageRecord>(count);
 
-                        messageId = cursor.getLong(0);
-                        threadId = cursor.getLong(1);
+                    String address;
+                    while (records.size() < count && cursor.moveToNext()) {
                         address = cursor.getString(2);
-                        timestamp = cursor.getLong(3);
-                        body = cursor.getString(4);
-                        
-                        message = new SmsMmsMessage(
-                                context, address, body, timestamp, threadId,
-                                count, messageId, SmsMmsMessage.MESSAGE_TYPE_SMS);
-                        message.setNotify(false);
-
-                        messages.add(message);
+                        records.add(new MessageRecord(
+                                address, cursor.getString(4), cursor.getLong(3),
+                                SmsMmsMessage.MESSAGE_TYPE_SMS,
+                                !PhoneNumberUtils.isWellFormedSmsAddress(address),
+                                cursor.getLong(1), cursor.getLong(0)));
                     }
                 }
 
@@ -725,6 +927,17 @@ public class SmsPopupUtils {
             }
         }
 
+        if (records != null && records.size() > 0) {
+
+            // Resolve all the senders up front so each distinct address is only looked up once
+            messages = SmsMmsMessage.enrich(context, records,
+                    unreadCount < 0 ? records.size() : unreadCount);
+
+            for (int i = 0; i < messages.size(); i++) {
+                messages.get(i).setNotify(false);
+            }
+        }
+
         return messages;
     }
 
@@ -811,9 +1024,11 @@ public class SmsPopupUtils {
     }
 
     /**
-   *
-   */
-    public static void launchEmailToIntent(Context context, String subject, boolean includeDebug) {
+     * Launch an email to the developer, with debug info and the collected log (from
+     * collectLogs(), may be null) attached if includeDebug is set.
+     */
+    public static void launchEmailToIntent(Context context, String subject, boolean includeDebug,
+            Uri log) {
         Intent msg = new Intent(Intent.ACTION_SEND);
 
         SharedPreferences myPrefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -879,14 +1094,12 @@ public class SmsPopupUtils {
             body.append(String.format("locale: %s\n",
                     context.getResources().getConfiguration().locale.getDisplayName()));
 
-            // TODO: fix this up so users can attach system logs to the email
-            // this almost works but for some reason the attachment never sends (while it still
-            // appears in the draft email that is created) :(
-            // Attach the log file if it exists
-            // Uri log = collectLogs(context);
-            // if (log != null) {
-            // msg.putExtra(Intent.EXTRA_STREAM, log);
-            // }
+            // Attach the log file if it was collected, the file is served by our provider so the
+            // receiving app needs to be granted read access
+            if (log != null) {
+                msg.putExtra(Intent.EXTRA_STREAM, log);
+                msg.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
         }
 
         msg.putExtra(Intent.EXTRA_EMAIL, donated ? AUTHOR_CONTACT_INFO_DONATE : AUTHOR_CONTACT_INFO);
@@ -899,40 +1112,11 @@ public class SmsPopupUtils {
     }
 
     /**
-     * Fetch output from logcat, dump it in a file and return the URI to the file
+     * Fetch output from logcat, dump it in a (compressed) file and return the URI to the file.
+     * This runs logcat and waits for its output so don't call it on the UI thread.
      */
     public static Uri collectLogs(Context context) {
-        final String logfile = "log.txt";
-
-        try {
-            ArrayList<String> commandLine = new ArrayList<String>();
-            commandLine.add("logcat");
-            commandLine.add("-d");
-            commandLine.add("AndroidRuntime:E");
-            commandLine.add(Log.LOGTAG + ":V");
-            commandLine.add("*:S");
-
-            BufferedInputStream fin = new BufferedInputStream(
-                    Runtime.getRuntime().exec(commandLine.toArray(new String[0])).getInputStream());
-            BufferedOutputStream fout = new BufferedOutputStream(
-                    context.openFileOutput(logfile, Context.MODE_WORLD_READABLE));
-
-            // Copy output to a log file
-            int i;
-            do {
-                i = fin.read();
-                if (i != -1)
-                    fout.write(i);
-            } while (i != -1);
-            fin.close();
-            fout.close();
-        } catch (IOException e) {
-            return null;
-        } catch (SecurityException e) {
-            return null;
-        }
-
-        return Uri.fromFile(context.getFileStreamPath(logfile));
+        return LogCollector.collect(context);
     }
 
     /**
@@ -953,9 +1137,9 @@ public class SmsPopupUtils {
      *            only messages before this timestamp will be counted
      * @return unread sms+mms message count
      */
-    synchronized public static int getUnreadMessagesCount(Context context, long timestamp,
+    public static int getUnreadMessagesCount(Context context, long timestamp,
             String messageBody) {
-        return getUnreadSmsCount(context, timestamp, messageBody) + getUnreadMmsCount(context);
+        return UnreadMessageCounter.getUnreadMessagesCount(context, timestamp, messageBody);
     }
 
     /**
@@ -964,111 +1148,14 @@ public class SmsPopupUtils {
      * @param context
      * @return unread sms message count
      */
-    private static int getUnreadSmsCount(Context context) {
-        return getUnreadSmsCount(context, 0, null);
-    }
-
-    /**
-     * Return current unread message count from system db (sms only)
-     * 
-     * @param context
-     * @param timestamp
-     *            only messages before this timestamp will be counted
-     * @return unread sms message count
-     */
-    private static int getUnreadSmsCount(Context context, long timestamp, String messageBody) {
-
-        if (Log.DEBUG)
-            Log.v("getUnreadSmsCount()");
-
-        final String[] projection = new String[] { SMSMMS_ID, "body" };
-        final String selection = UNREAD_CONDITION;
-        final String[] selectionArgs = null;
-        final String sortOrder = "date DESC";
-
-        int count = 0;
-
-        Cursor cursor = context.getContentResolver().query(
-                SMS_INBOX_CONTENT_URI,
-                projection,
-                selection,
-                selectionArgs,
-                sortOrder);
-
-        if (cursor != null) {
-            try {
-                count = cursor.getCount();
-
-                /*
-                 * We need to check if the message received matches the most recent one in the db or
-                 * not (to find out if our code ran before the system code or vice-versa)
-                 */
-                if (messageBody != null && count > 0) {
-                    if (cursor.moveToFirst()) {
-                        /*
-                         * Check the most recent message, if the body does not match then it hasn't
-                         * yet been inserted into the system database, therefore we need to add one
-                         * to our total count
-                         */
-                        if (!messageBody.equals(cursor.getString(1))) {
-                            if (Log.DEBUG)
-                                Log.v("getUnreadSmsCount(): most recent message did not match body, adding 1 to count");
-                            count++;
-                        }
-                    }
-                }
-            } finally {
-                cursor.close();
-            }
-        }
-
-        /*
-         * If count is still 0 and timestamp is set then its likely the system db had not updated
-         * when this code ran, therefore let's add 1 so the notify will run correctly.
-         */
-        if (count == 0 && timestamp > 0) {
-            count = 1;
-        }
-
-        if (Log.DEBUG)
-            Log.v("getUnreadSmsCount(): unread count = " + count);
-        return count;
-    }
-
-    /**
-     * Return current unread message count from system db (mms only)
-     * 
-     * @param context
-     * @return unread mms message count
-     */
-    private static int getUnreadMmsCount(Context context) {
-
-        final String selection = UNREAD_CONDITION;
-        final String[] projection = new String[] { SMSMMS_ID };
-
-        int count = 0;
-
-        Cursor cursor = context.getContentResolver().query(
-                MMS_INBOX_CONTENT_URI,
-                projection,
-                selection, null, null);
-
-        if (cursor != null) {
-            try {
-                count = cursor.getCount();
-            } finally {
-                cursor.close();
-            }
-        }
-        if (Log.DEBUG)
-            Log.v("mms unread count = " + count);
-        return count;
+    public static int getUnreadSmsCount(Context context) {
+        return UnreadMessageCounter.getUnreadSmsCount(context, 0, null);
     }
 
     /*
    *
    */
-    synchronized public static SmsMmsMessage getSmsDetails(Context context,
+    public static SmsMmsMessage getSmsDetails(Context context,
             long ignoreThreadId, boolean unreadOnly) {
 
         final String[] projection =
@@ -1143,7 +1230,28 @@ public class SmsPopupUtils {
     /*
    *
    */
-    synchronized public static SmsMmsMessage getMmsDetails(Context context, long ignoreThreadId) {
+    public static SmsMmsMessage getMmsDetails(Context context, long ignoreThreadId) {
+        return getMmsDetails(context, ignoreThreadId, 0, null);
+    }
+
+    /**
+     * Fetch the newest unread MMS for a WAP push, skipping messages that another push has already
+     * claimed.
+     * 
+     * @param context
+     *            app context
+     * @param ignoreThreadId
+     *            thread id to ignore, 0 to ignore none
+     * @param afterMessageId
+     *            only return a message with an id above this (the newest MMS when the push came
+     *            in), 0 for any
+     * @param claimedIds
+     *            ids of messages already matched to a push, null for none
+     * 
+     * @return the message or null if there is none
+     */
+    public static SmsMmsMessage getMmsDetails(Context context, long ignoreThreadId,
+            long afterMessageId, Collection<Long> claimedIds) {
 
         final String[] projection = new String[] { "_id", "thread_id", "date", "sub", "sub_cs" };
         String selection = UNREAD_CONDITION;
@@ -1166,14 +1274,17 @@ public class SmsPopupUtils {
         if (cursor != null) {
             try {
                 count = cursor.getCount();
-                if (count > 0) {
-                    cursor.moveToFirst();
+                while (cursor.moveToNext()) {
                     // String[] columns = cursor.getColumnNames();
                     // for (int i=0; i<columns.length; i++) {
                     // Log.v("columns " + i + ": " + columns[i] + ": "
                     // + cursor.getString(i));
                     // }
                     long messageId = cursor.getLong(0);
+                    if (messageId <= afterMessageId
+                            || (claimedIds != null && claimedIds.contains(messageId))) {
+                        continue;
+                    }
                     long threadId = cursor.getLong(1);
                     long timestamp = cursor.getLong(2) * 1000;
                     String subject = cursor.getString(3);
@@ -1193,6 +1304,24 @@ public class SmsPopupUtils {
         return getMmsDetails(context, 0);
     }
 
+    /**
+     * The id of the newest MMS in the inbox, 0 if there is none.
+     */
+    public static long getNewestMmsId(Context context) {
+        final Cursor cursor = context.getContentResolver().query(
+                MMS_INBOX_CONTENT_URI, new String[] { "_id" }, null, null, "_id DESC");
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return cursor.getLong(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
     public static String getMmsAddress(Context context, long messageId) {
         final String[] projection = new String[] { "address", "contact_id", "charset", "type" };
         final String selection = "type=137"; // "type="+ PduHeaders.FROM,
@@ -1395,7 +1524,7 @@ public class SmsPopupUtils {
                         ||
                         SmsMessageSender.MESSAGING_COMPOSE_CLASS_NAME.equals(runningTaskComponent
                                 .getClassName())) {
-                    if (Log.DEBUG)
+                    if (Log.isVerbose())
                         Log.v("User in messaging app - from running task");
                     return true;
                 }
@@ -1419,7 +1548,7 @@ public class SmsPopupUtils {
         settings.commit();
 
         if (enable) {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("SMSPopup receiver is enabled");
             pm.setComponentEnabledSetting(cn,
                     PackageManager.COMPONENT_ENABLED_STATE_DEFAULT,
@@ -1429,7 +1558,7 @@ public class SmsPopupUtils {
             disableOtherSMSPopup(context);
 
         } else {
-            if (Log.DEBUG)
+            if (Log.isVerbose())
                 Log.v("SMSPopup receiver is disabled");
             pm.setComponentEnabledSetting(cn,
                     PackageManager.COMPONENT_ENABLED_STATE_DISABLED,
@@ -1458,4 +1587,4 @@ public class SmsPopupUtils {
         final float scale = res.getDisplayMetrics().density;
         return (int) (pixels * scale + 0.5f);
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,20 @@
+package net.everythingandroid.smspopup.util;
+
+/*
+ * A fixed set of monitors picked by key, so work on the same key is serialized while work on
+ * different keys (mostly) runs in parallel. Keys that share a monitor just wait on each other.
+ */
+public class StripedLocks {
+    private final Object[] mLocks;
+
+    public StripedLocks(int count) {
+        mLocks = new Object[count];
+        for (int i = 0; i < count; i++) {
+            mLocks[i] = new Object();
+        }
+    }
+
+    public Object get(long key) {
+        return mLocks[(int) ((key & Long.MAX_VALUE) % mLocks.length)];
+    }
+}
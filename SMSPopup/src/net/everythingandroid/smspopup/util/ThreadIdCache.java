@@ -0,0 +1,195 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+/*
+ * Process wide cache of address -> thread id lookups for SmsPopupUtils.findThreadIdFromAddress().
+ * Lookups for different addresses don't block each other. A thread id only goes stale when its
+ * thread is deleted, so rather than dropping everything on each change to the system sms/mms
+ * database (every message received or marked read) the cached thread ids are checked against the
+ * threads that still exist and only those that are gone are dropped. Deletes made by the app
+ * drop the thread straight away, see removeThread().
+ */
+public class ThreadIdCache {
+    private static final int MAX_ENTRIES = 64;
+
+    private static final String THREAD_RECIPIENT_QUERY = "recipient";
+
+    // Lists just the threads table, without joining in the latest message of each
+    private static final Uri SIMPLE_CONVERSATIONS_URI = SmsPopupUtils.CONVERSATION_CONTENT_URI
+            .buildUpon().appendQueryParameter("simple", "true").build();
+
+    private static final ConcurrentHashMap<String, Long> cache =
+            new ConcurrentHashMap<String, Long>();
+
+    // Bumped whenever entries are dropped so lookups that raced with it are not cached
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private static volatile ThreadsObserver threadsObserver = null;
+
+    /**
+     * The thread id for address from the cache or, if not cached, the system database (which
+     * creates the thread if there isn't one yet). Returns 0 if there was a problem.
+     */
+    public static long lookup(Context context, String address) {
+        final long cachedThreadId = get(context, address);
+        if (cachedThreadId > 0) {
+            return cachedThreadId;
+        }
+        final int queryGeneration = generation.get();
+
+        Uri.Builder uriBuilder = SmsPopupUtils.THREAD_ID_CONTENT_URI.buildUpon();
+        uriBuilder.appendQueryParameter(THREAD_RECIPIENT_QUERY, address);
+
+        long threadId = 0;
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    uriBuilder.build(), new String[] { "_id" }, null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                threadId = cursor.getLong(0);
+            }
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        put(address, threadId, queryGeneration);
+        return threadId;
+    }
+
+    /**
+     * Return the cached thread id for address, or 0 if it is not cached.
+     */
+    public static long get(Context context, String address) {
+        if (threadsObserver == null) {
+            registerObserver(context);
+        }
+        final String key = AddressKeys.key(address);
+        if (key == null) {
+            return 0;
+        }
+        final Long threadId = cache.get(key);
+        return threadId == null ? 0 : threadId;
+    }
+
+    private static void put(String address, long threadId, int queryGeneration) {
+        final String key = AddressKeys.key(address);
+        if (key == null || threadId <= 0) {
+            return;
+        }
+        if (cache.size() >= MAX_ENTRIES) {
+            cache.clear();
+        }
+        cache.put(key, threadId);
+
+        // Entries may have been dropped while the thread id was being queried
+        if (queryGeneration != generation.get()) {
+            cache.remove(key);
+        }
+    }
+
+    /**
+     * Drop all cached thread ids.
+     */
+    public static void invalidate() {
+        if (Log.isVerbose()) Log.v(Log.TAG_MESSAGES, "ThreadIdCache: invalidate()");
+        generation.incrementAndGet();
+        cache.clear();
+    }
+
+    /**
+     * Drop the addresses cached for threadId, called when the app deletes from a thread (which
+     * deletes the thread along with its last message).
+     */
+    public static void removeThread(long threadId) {
+        generation.incrementAndGet();
+        for (Iterator<Map.Entry<String, Long>> i = cache.entrySet().iterator(); i.hasNext();) {
+            if (i.next().getValue() == threadId) {
+                i.remove();
+            }
+        }
+    }
+
+    /*
+     * Drop the cached thread ids whose thread no longer exists, with one query for all of them.
+     * If the threads can't be queried nothing can be trusted so the whole cache is dropped.
+     */
+    static void removeDeletedThreads(ContentResolver resolver) {
+        final HashSet<Long> threadIds = new HashSet<Long>(cache.values());
+        if (threadIds.isEmpty()) {
+            return;
+        }
+        final StringBuilder selection = new StringBuilder("_id IN (");
+        for (Long threadId : threadIds) {
+            if (selection.length() > 8) {
+                selection.append(',');
+            }
+            selection.append(threadId.longValue());
+        }
+        selection.append(')');
+
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(SIMPLE_CONVERSATIONS_URI, new String[] { "_id" },
+                    selection.toString(), null, null);
+            if (cursor == null) {
+                invalidate();
+                return;
+            }
+            while (cursor.moveToNext()) {
+                threadIds.remove(cursor.getLong(0));
+            }
+        } catch (RuntimeException e) {
+            Log.w(Log.TAG_MESSAGES, "ThreadIdCache: %s", e);
+            invalidate();
+            return;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        for (Long threadId : threadIds) {
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "ThreadIdCache: thread %s deleted", threadId.longValue());
+            removeThread(threadId);
+        }
+    }
+
+    /*
+     * Registers (once per process) the observer that drops deleted threads from the cache
+     */
+    private static synchronized void registerObserver(Context context) {
+        if (threadsObserver == null) {
+            final ContentResolver resolver = context.getApplicationContext().getContentResolver();
+            threadsObserver = new ThreadsObserver(resolver);
+            resolver.registerContentObserver(
+                    SmsPopupUtils.MMS_SMS_CONTENT_URI, true, threadsObserver);
+        }
+    }
+
+    private static class ThreadsObserver extends ContentObserver {
+        private final ContentResolver mResolver;
+
+        public ThreadsObserver(ContentResolver resolver) {
+            super(null);
+            mResolver = resolver;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            removeDeletedThreads(mResolver);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+
+/*
+ * Unread message counts from the system sms/mms database, used by
+ * SmsPopupUtils.getUnreadMessagesCount(). Counts are fetched with a COUNT(*) projection where the
+ * provider supports it, otherwise every unread row is fetched and counted.
+ */
+public class UnreadMessageCounter {
+    private static final Uri SMS_INBOX_CONTENT_URI = SmsPopupUtils.SMS_INBOX_CONTENT_URI;
+    private static final Uri MMS_INBOX_CONTENT_URI = SmsPopupUtils.MMS_INBOX_CONTENT_URI;
+    private static final String SMSMMS_ID = SmsPopupUtils.SMSMMS_ID;
+    private static final String UNREAD_CONDITION = SmsPopupUtils.UNREAD_CONDITION;
+    private static final String[] COUNT_PROJECTION = new String[] { "count(*)" };
+
+    /*
+     * Cleared (separately for sms and mms, they may be served by different providers) the first
+     * time the provider rejects a COUNT(*) projection. A query that fails for any other reason
+     * falls back to fetching the rows that one time only.
+     */
+    private static final AtomicBoolean smsCountSupported = new AtomicBoolean(true);
+    private static final AtomicBoolean mmsCountSupported = new AtomicBoolean(true);
+
+    /*
+     * Forget any rejected count projections (for tests)
+     */
+    static void resetCountSupport() {
+        smsCountSupported.set(true);
+        mmsCountSupported.set(true);
+    }
+
+    /**
+     * Return current unread message count from system db (sms and mms)
+     * 
+     * @param context
+     * @param timestamp
+     *            only messages before this timestamp will be counted
+     * @return unread sms+mms message count
+     */
+    public static int getUnreadMessagesCount(Context context, long timestamp,
+            String messageBody) {
+        return getUnreadSmsCount(context, timestamp, messageBody) + getUnreadMmsCount(context);
+    }
+
+    /**
+     * Return current unread message count from system db (sms only)
+     * 
+     * @param context
+     * @param timestamp
+     *            only messages before this timestamp will be counted
+     * @return unread sms message count
+     */
+    public static int getUnreadSmsCount(Context context, long timestamp, String messageBody) {
+
+        if (Log.isVerbose())
+            Log.v("getUnreadSmsCount()");
+
+        int count = queryCount(context, SMS_INBOX_CONTENT_URI, UNREAD_CONDITION,
+                smsCountSupported);
+
+        if (count == -1) {
+            // No count from the provider, fall back to fetching all the unread rows
+            count = getUnreadSmsCountFromCursor(context, messageBody);
+        } else if (messageBody != null && count > 0) {
+            /*
+             * We need to check if the message received matches the most recent one in the db or
+             * not (to find out if our code ran before the system code or vice-versa). If the body
+             * does not match then it hasn't yet been inserted into the system database, therefore
+             * we need to add one to our total count
+             */
+            if (!messageBody.equals(getNewestUnreadSmsBody(context))) {
+                if (Log.isVerbose())
+                    Log.v("getUnreadSmsCount(): most recent message did not match body, adding 1 to count");
+                count++;
+            }
+        }
+
+        /*
+         * If count is still 0 and timestamp is set then its likely the system db had not updated
+         * when this code ran, therefore let's add 1 so the notify will run correctly.
+         */
+        if (count == 0 && timestamp > 0) {
+            count = 1;
+        }
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "getUnreadSmsCount(): unread count = %s", count);
+        return count;
+    }
+
+    /**
+     * Return current unread message count from system db (mms only)
+     * 
+     * @param context
+     * @return unread mms message count
+     */
+    public static int getUnreadMmsCount(Context context) {
+
+        int count = queryCount(context, MMS_INBOX_CONTENT_URI, UNREAD_CONDITION,
+                mmsCountSupported);
+
+        if (count == -1) {
+            // No count from the provider, fall back to fetching all the unread rows
+            final String[] projection = new String[] { SMSMMS_ID };
+
+            count = 0;
+
+            Cursor cursor = context.getContentResolver().query(
+                    MMS_INBOX_CONTENT_URI,
+                    projection,
+                    UNREAD_CONDITION, null, null);
+
+            if (cursor != null) {
+                try {
+                    count = cursor.getCount();
+                } finally {
+                    cursor.close();
+                }
+            }
+        }
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "mms unread count = %s", count);
+        return count;
+    }
+
+    /**
+     * Count the rows matching selection using a COUNT(*) projection so the provider doesn't need
+     * to build a cursor with every row.
+     * 
+     * @param supported
+     *            whether the provider for uri supports the count projection, cleared here if the
+     *            provider rejects it
+     * @return the count or -1 if it could not be counted this way (in which case the caller
+     *         should fall back to counting the rows of a regular cursor)
+     */
+    private static int queryCount(Context context, Uri uri, String selection,
+            AtomicBoolean supported) {
+        if (!supported.get()) {
+            return -1;
+        }
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    uri, COUNT_PROJECTION, selection, null, null);
+        } catch (IllegalArgumentException e) {
+            // Thrown by providers that check the projection against their columns
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "queryCount(): count projection not supported - %s", e);
+            supported.set(false);
+            return -1;
+        } catch (SQLiteException e) {
+            // Thrown by providers that pass the projection straight to sqlite
+            if (Log.isVerbose())
+                Log.v(Log.TAG_MESSAGES, "queryCount(): count projection not supported - %s", e);
+            supported.set(false);
+            return -1;
+        } catch (Exception e) {
+            Log.e(Log.TAG_MESSAGES, "queryCount(): count query failed - %s", e);
+            return -1;
+        }
+
+        if (cursor == null) {
+            // Provider not available right now, not a verdict on the projection
+            return -1;
+        }
+
+        int count = -1;
+        try {
+            // Make sure the provider actually honoured the projection
+            if (cursor.getCount() == 1 && cursor.getColumnCount() == 1
+                    && COUNT_PROJECTION[0].equalsIgnoreCase(cursor.getColumnName(0))
+                    && cursor.moveToFirst()) {
+                count = cursor.getInt(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (count == -1) {
+            if (Log.isVerbose())
+                Log.v("queryCount(): unexpected result from count projection");
+            supported.set(false);
+        }
+
+        return count;
+    }
+
+    /**
+     * Fetch the body of the most recent unread SMS (or null if there isn't one).
+     */
+    private static String getNewestUnreadSmsBody(Context context) {
+        final String[] projection = new String[] { "body" };
+
+        Cursor cursor = null;
+        try {
+            cursor = context.getContentResolver().query(
+                    SMS_INBOX_CONTENT_URI, projection, UNREAD_CONDITION, null,
+                    "date DESC LIMIT 1");
+        } catch (Exception e) {
+            // Provider doesn't accept a limit, just take the first row of the full query
+            cursor = context.getContentResolver().query(
+                    SMS_INBOX_CONTENT_URI, projection, UNREAD_CONDITION, null, "date DESC");
+        }
+
+        if (cursor != null) {
+            try {
+                if (cursor.moveToFirst()) {
+                    return cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return unread SMS count by fetching all unread rows, this is only used when the provider
+     * doesn't support a count projection.
+     */
+    private static int getUnreadSmsCountFromCursor(Context context, String messageBody) {
+
+        final String[] projection = new String[] { SMSMMS_ID, "body" };
+        final String selection = UNREAD_CONDITION;
+        final String[] selectionArgs = null;
+        final String sortOrder = "date DESC";
+
+        int count = 0;
+
+        Cursor cursor = context.getContentResolver().query(
+                SMS_INBOX_CONTENT_URI,
+                projection,
+                selection,
+                selectionArgs,
+                sortOrder);
+
+        if (cursor != null) {
+            try {
+                count = cursor.getCount();
+
+                // Check the most recent message (see getUnreadSmsCount())
+                if (messageBody != null && count > 0) {
+                    if (cursor.moveToFirst()) {
+                        if (!messageBody.equals(cursor.getString(1))) {
+                            if (Log.isVerbose())
+                                Log.v("getUnreadSmsCount(): most recent message did not match body, adding 1 to count");
+                            count++;
+                        }
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,183 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.HashSet;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+/*
+ * Incremental view of the unread messages in the system sms and mms inboxes, used by
+ * SmsMonitorService to follow messages being read, deleted or marked unread again outside of SMS
+ * Popup. The first refresh loads the ids of the unread messages, after that each refresh fetches
+ * only the rows added since the last one (a higher _id or date) and the rows that are unread now,
+ * rather than every message in both inboxes.
+ */
+public class UnreadStateTracker {
+    private static final String SMSMMS_ID = SmsPopupUtils.SMSMMS_ID;
+    private static final String UNREAD_CONDITION = SmsPopupUtils.UNREAD_CONDITION;
+
+    private static final String[] DELTA_PROJECTION = new String[] { SMSMMS_ID, "date", "read" };
+    private static final String[] ID_PROJECTION = new String[] { SMSMMS_ID };
+    private static final String[] NEWEST_PROJECTION = new String[] { SMSMMS_ID, "date" };
+
+    /**
+     * What changed between two refreshes.
+     */
+    public static class Change {
+        // Unread messages now
+        public final int unreadCount;
+        // Unread messages that have arrived
+        public final int arrived;
+        // Previously unread messages that have since been read or deleted
+        public final int read;
+        // Messages that were read and have been marked unread again
+        public final int markedUnread;
+
+        Change(int unreadCount, int arrived, int read, int markedUnread) {
+            this.unreadCount = unreadCount;
+            this.arrived = arrived;
+            this.read = read;
+            this.markedUnread = markedUnread;
+        }
+    }
+
+    private final Context mContext;
+    private final Inbox mSms = new Inbox(SmsPopupUtils.SMS_INBOX_CONTENT_URI);
+    private final Inbox mMms = new Inbox(SmsPopupUtils.MMS_INBOX_CONTENT_URI);
+
+    public UnreadStateTracker(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Bring the unread state up to date, the first call just loads it (and reports nothing as
+     * arrived, read or marked unread).
+     */
+    public Change refresh() {
+        final int[] counts = new int[3];
+        mSms.refresh(mContext, counts);
+        mMms.refresh(mContext, counts);
+
+        if (Log.isVerbose())
+            Log.v(Log.TAG_MESSAGES, "UnreadStateTracker: arrived = %s, read = %s, unread = %s",
+                    counts[0], counts[1], counts[2]);
+        return new Change(mSms.unread.size() + mMms.unread.size(), counts[0], counts[1],
+                counts[2]);
+    }
+
+    private static class Inbox {
+        final Uri uri;
+        final HashSet<Long> unread = new HashSet<Long>();
+        boolean loaded = false;
+        long maxId = 0;
+        long maxDate = 0;
+
+        Inbox(Uri uri) {
+            this.uri = uri;
+        }
+
+        /*
+         * Refresh this inbox, adding the arrived, read and marked unread counts to counts[0],
+         * counts[1] and counts[2]. A failed query leaves the state as it was to be picked up on
+         * the next refresh.
+         */
+        void refresh(Context context, int[] counts) {
+            if (!loaded) {
+                loaded = load(context);
+                return;
+            }
+
+            // Rows added since the last refresh and every row that is unread now, in one query as
+            // the date condition needs a scan of the inbox anyway. The date is checked as well as
+            // the _id as the provider may reuse the _id of the newest message if it was deleted.
+            final Cursor c = context.getContentResolver().query(uri, DELTA_PROJECTION,
+                    SMSMMS_ID + " > " + maxId + " or date > " + maxDate + " or "
+                            + UNREAD_CONDITION, null, null);
+            if (c == null) {
+                return;
+            }
+            final long lastId = maxId;
+            final long lastDate = maxDate;
+            final HashSet<Long> nowUnread = new HashSet<Long>(unread.size() + 4);
+            try {
+                while (c.moveToNext()) {
+                    final long id = c.getLong(0);
+                    final long date = c.getLong(1);
+                    maxId = Math.max(maxId, id);
+                    maxDate = Math.max(maxDate, date);
+                    if (c.getInt(2) == 0) {
+                        nowUnread.add(id);
+                        if (!unread.contains(id)) {
+                            if (id > lastId || date > lastDate) {
+                                counts[0]++;
+                            } else {
+                                counts[2]++;
+                            }
+                        }
+                    }
+                }
+            } finally {
+                c.close();
+            }
+
+            // Known unread messages missing from the query have been read or deleted
+            for (Long id : unread) {
+                if (!nowUnread.contains(id)) {
+                    counts[1]++;
+                }
+            }
+            unread.clear();
+            unread.addAll(nowUnread);
+        }
+
+        private boolean load(Context context) {
+            final HashSet<Long> ids = queryIds(context, UNREAD_CONDITION);
+            if (ids == null) {
+                return false;
+            }
+
+            Cursor c = null;
+            try {
+                c = context.getContentResolver().query(
+                        uri, NEWEST_PROJECTION, null, null, SMSMMS_ID + " DESC LIMIT 1");
+            } catch (Exception e) {
+                // Provider doesn't accept a limit, just take the first row of the full query
+                c = context.getContentResolver().query(
+                        uri, NEWEST_PROJECTION, null, null, SMSMMS_ID + " DESC");
+            }
+            if (c == null) {
+                return false;
+            }
+            try {
+                if (c.moveToFirst()) {
+                    maxId = c.getLong(0);
+                    maxDate = c.getLong(1);
+                }
+            } finally {
+                c.close();
+            }
+
+            unread.clear();
+            unread.addAll(ids);
+            return true;
+        }
+
+        private HashSet<Long> queryIds(Context context, String selection) {
+            final Cursor c = context.getContentResolver().query(
+                    uri, ID_PROJECTION, selection, null, null);
+            if (c == null) {
+                return null;
+            }
+            final HashSet<Long> ids = new HashSet<Long>(c.getCount());
+            try {
+                while (c.moveToNext()) {
+                    ids.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            return ids;
+        }
+    }
+}
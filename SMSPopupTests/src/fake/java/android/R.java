@@ -0,0 +1,10 @@
+package android;
+
+/*
+ * Fake android.R, only the framework resources the app references.
+ */
+public final class R {
+    public static final class string {
+        public static final int unknownName = 0x01040004;
+    }
+}
@@ -0,0 +1,37 @@
+package android.app;
+
+/*
+ * Fake android.app.KeyguardManager, whether the keyguard is showing is set by the test.
+ */
+public class KeyguardManager {
+    private volatile boolean restricted = false;
+
+    public boolean inKeyguardRestrictedInputMode() {
+        return restricted;
+    }
+
+    public void setRestrictedInputMode(boolean restricted) {
+        this.restricted = restricted;
+    }
+
+    public KeyguardLock newKeyguardLock(String tag) {
+        return new KeyguardLock();
+    }
+
+    public void exitKeyguardSecurely(OnKeyguardExitResult callback) {
+        restricted = false;
+        callback.onKeyguardExitResult(true);
+    }
+
+    public class KeyguardLock {
+        public void disableKeyguard() {
+        }
+
+        public void reenableKeyguard() {
+        }
+    }
+
+    public interface OnKeyguardExitResult {
+        void onKeyguardExitResult(boolean success);
+    }
+}
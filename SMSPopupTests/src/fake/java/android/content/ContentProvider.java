@@ -0,0 +1,37 @@
+package android.content;
+
+import java.util.ArrayList;
+
+import android.database.Cursor;
+import android.net.Uri;
+
+/*
+ * Fake android.content.ContentProvider, register instances with
+ * ContentResolver.addProvider(). applyBatch() is the platform default: each operation is applied
+ * in turn with no transaction, so the operations before one that throws stay applied.
+ */
+public abstract class ContentProvider {
+    public abstract Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder);
+
+    public Uri insert(Uri uri, ContentValues values) {
+        throw new UnsupportedOperationException("insert " + uri);
+    }
+
+    public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("update " + uri);
+    }
+
+    public int delete(Uri uri, String selection, String[] selectionArgs) {
+        throw new UnsupportedOperationException("delete " + uri);
+    }
+
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            results[i] = operations.get(i).apply(this, results, i);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,81 @@
+package android.content;
+
+import android.net.Uri;
+
+/*
+ * Fake android.content.ContentProviderOperation, only updates and deletes with values and a
+ * selection. apply() makes the call on the provider like the platform does.
+ */
+public class ContentProviderOperation {
+    private static final int TYPE_UPDATE = 2;
+    private static final int TYPE_DELETE = 3;
+
+    private final int type;
+    private final Uri uri;
+    private final ContentValues values;
+    private final String selection;
+    private final String[] selectionArgs;
+
+    private ContentProviderOperation(Builder builder) {
+        type = builder.type;
+        uri = builder.uri;
+        values = builder.values;
+        selection = builder.selection;
+        selectionArgs = builder.selectionArgs;
+    }
+
+    public static Builder newUpdate(Uri uri) {
+        return new Builder(TYPE_UPDATE, uri);
+    }
+
+    public static Builder newDelete(Uri uri) {
+        return new Builder(TYPE_DELETE, uri);
+    }
+
+    public Uri getUri() {
+        return uri;
+    }
+
+    public ContentProviderResult apply(ContentProvider provider,
+            ContentProviderResult[] backRefs, int numBackRefs)
+            throws OperationApplicationException {
+        if (type == TYPE_DELETE) {
+            return new ContentProviderResult(provider.delete(uri, selection, selectionArgs));
+        }
+        return new ContentProviderResult(provider.update(uri, values, selection, selectionArgs));
+    }
+
+    public static class Builder {
+        private final int type;
+        private final Uri uri;
+        private ContentValues values;
+        private String selection;
+        private String[] selectionArgs;
+
+        private Builder(int type, Uri uri) {
+            this.type = type;
+            this.uri = uri;
+        }
+
+        public Builder withValues(ContentValues values) {
+            if (type != TYPE_UPDATE) {
+                throw new IllegalArgumentException("only updates can have values");
+            }
+            this.values = new ContentValues(values);
+            return this;
+        }
+
+        public Builder withSelection(String selection, String[] selectionArgs) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            return this;
+        }
+
+        public ContentProviderOperation build() {
+            if (type == TYPE_UPDATE && values == null) {
+                throw new IllegalArgumentException("Empty values");
+            }
+            return new ContentProviderOperation(this);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package android.content;
+
+import android.net.Uri;
+
+/*
+ * Fake android.content.ContentProviderResult.
+ */
+public class ContentProviderResult {
+    public final Uri uri;
+    public final Integer count;
+
+    public ContentProviderResult(Uri uri) {
+        this.uri = uri;
+        this.count = null;
+    }
+
+    public ContentProviderResult(int count) {
+        this.uri = null;
+        this.count = count;
+    }
+}
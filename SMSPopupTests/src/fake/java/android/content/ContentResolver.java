@@ -0,0 +1,168 @@
+package android.content;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.os.Parcel;
+import android.os.RemoteException;
+
+/*
+ * Fake android.content.ContentResolver, calls are routed to the ContentProvider registered for the
+ * uri authority. A uri with no provider behaves like an unknown authority on a device: queries
+ * return null and writes throw. Query results are copied row by row through a Parcel, standing in
+ * for the copy into a CursorWindow that a query on another process' provider makes.
+ */
+public class ContentResolver {
+    private final HashMap<String, ContentProvider> providers =
+            new HashMap<String, ContentProvider>();
+
+    private final List<Registration> observers = new ArrayList<Registration>();
+
+    private static class Registration {
+        final String uri;
+        final boolean descendants;
+        final ContentObserver observer;
+
+        Registration(Uri uri, boolean descendants, ContentObserver observer) {
+            this.uri = uri.toString();
+            this.descendants = descendants;
+            this.observer = observer;
+        }
+    }
+
+    public void addProvider(String authority, ContentProvider provider) {
+        providers.put(authority, provider);
+    }
+
+    private ContentProvider provider(Uri uri) {
+        return providers.get(uri.getAuthority());
+    }
+
+    public final Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        final ContentProvider provider = provider(uri);
+        if (provider == null) {
+            return null;
+        }
+        final Cursor c = provider.query(uri, projection, selection, selectionArgs, sortOrder);
+        return c == null ? null : copyAcrossProcess(c);
+    }
+
+    private static Cursor copyAcrossProcess(Cursor c) {
+        final String[] columns = c.getColumnNames();
+        final Parcel window = Parcel.obtain();
+        try {
+            final int count = c.getCount();
+            c.moveToPosition(-1);
+            while (c.moveToNext()) {
+                for (int i = 0; i < columns.length; i++) {
+                    final int type = c.getType(i);
+                    window.writeInt(type);
+                    if (type == Cursor.FIELD_TYPE_INTEGER) {
+                        window.writeLong(c.getLong(i));
+                    } else if (type != Cursor.FIELD_TYPE_NULL) {
+                        window.writeString(c.getString(i));
+                    }
+                }
+            }
+            c.close();
+
+            window.setDataPosition(0);
+            final MatrixCursor copy = new MatrixCursor(columns, count);
+            for (int row = 0; row < count; row++) {
+                final Object[] values = new Object[columns.length];
+                for (int i = 0; i < columns.length; i++) {
+                    final int type = window.readInt();
+                    if (type == Cursor.FIELD_TYPE_INTEGER) {
+                        values[i] = window.readLong();
+                    } else if (type != Cursor.FIELD_TYPE_NULL) {
+                        values[i] = window.readString();
+                    }
+                }
+                copy.addRow(values);
+            }
+            return copy;
+        } finally {
+            window.recycle();
+        }
+    }
+
+    public final Uri insert(Uri url, ContentValues values) {
+        final ContentProvider provider = provider(url);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URL " + url);
+        }
+        return provider.insert(url, values);
+    }
+
+    public final int update(Uri uri, ContentValues values, String where, String[] selectionArgs) {
+        final ContentProvider provider = provider(uri);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+        return provider.update(uri, values, where, selectionArgs);
+    }
+
+    public final int delete(Uri url, String where, String[] selectionArgs) {
+        final ContentProvider provider = provider(url);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown URL " + url);
+        }
+        return provider.delete(url, where, selectionArgs);
+    }
+
+    public ContentProviderResult[] applyBatch(String authority,
+            ArrayList<ContentProviderOperation> operations)
+            throws RemoteException, OperationApplicationException {
+        final ContentProvider provider = providers.get(authority);
+        if (provider == null) {
+            throw new IllegalArgumentException("Unknown authority " + authority);
+        }
+        return provider.applyBatch(operations);
+    }
+
+    public final synchronized void registerContentObserver(Uri uri, boolean notifyForDescendents,
+            ContentObserver observer) {
+        observers.add(new Registration(uri, notifyForDescendents, observer));
+    }
+
+    public final synchronized void unregisterContentObserver(ContentObserver observer) {
+        for (int i = observers.size() - 1; i >= 0; i--) {
+            if (observers.get(i).observer == observer) {
+                observers.remove(i);
+            }
+        }
+    }
+
+    /*
+     * Same matching as the platform: observers on the uri itself, on an ancestor that asked for
+     * descendants, and on any descendant of the uri are notified.
+     */
+    public void notifyChange(Uri uri, ContentObserver observer) {
+        final String changed = uri.toString();
+        final ArrayList<ContentObserver> matched = new ArrayList<ContentObserver>();
+        synchronized (this) {
+            for (Registration r : observers) {
+                if (r.uri.equals(changed) || isDescendant(r.uri, changed)
+                        || (r.descendants && isDescendant(changed, r.uri))) {
+                    matched.add(r.observer);
+                }
+            }
+        }
+        for (ContentObserver o : matched) {
+            if (o != observer || o.deliverSelfNotifications()) {
+                o.dispatchChange(o == observer);
+            }
+        }
+    }
+
+    private static boolean isDescendant(String uri, String ancestor) {
+        final String prefix = ancestor.endsWith("/") ? ancestor : ancestor + "/";
+        return uri.startsWith(prefix);
+    }
+}
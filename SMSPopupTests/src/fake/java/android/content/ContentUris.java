@@ -0,0 +1,17 @@
+package android.content;
+
+import android.net.Uri;
+
+/*
+ * Fake android.content.ContentUris.
+ */
+public class ContentUris {
+    public static Uri withAppendedId(Uri contentUri, long id) {
+        return contentUri.buildUpon().appendPath(String.valueOf(id)).build();
+    }
+
+    public static long parseId(Uri contentUri) {
+        final String last = contentUri.getLastPathSegment();
+        return last == null ? -1 : Long.parseLong(last);
+    }
+}
@@ -0,0 +1,84 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Fake android.content.ContentValues backed by a HashMap.
+ */
+public final class ContentValues {
+    private final HashMap<String, Object> values;
+
+    public ContentValues() {
+        values = new HashMap<String, Object>();
+    }
+
+    public ContentValues(int size) {
+        values = new HashMap<String, Object>(size * 2);
+    }
+
+    public ContentValues(ContentValues from) {
+        values = new HashMap<String, Object>(from.values);
+    }
+
+    public void put(String key, String value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Integer value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Long value) {
+        values.put(key, value);
+    }
+
+    public void put(String key, Boolean value) {
+        values.put(key, value);
+    }
+
+    public void putNull(String key) {
+        values.put(key, null);
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public String getAsString(String key) {
+        final Object value = values.get(key);
+        return value == null ? null : value.toString();
+    }
+
+    public Long getAsLong(String key) {
+        final Object value = values.get(key);
+        if (value == null) {
+            return null;
+        }
+        return value instanceof Number
+                ? ((Number) value).longValue() : Long.valueOf(value.toString());
+    }
+
+    public Integer getAsInteger(String key) {
+        final Long value = getAsLong(key);
+        return value == null ? null : value.intValue();
+    }
+
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public Set<Map.Entry<String, Object>> valueSet() {
+        return values.entrySet();
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+}
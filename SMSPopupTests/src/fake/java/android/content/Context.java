@@ -0,0 +1,27 @@
+package android.content;
+
+import java.io.File;
+
+/*
+ * Fake android.content.Context, the subset the app uses. Tests and benchmarks use FakeContext.
+ */
+public abstract class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    public static final String KEYGUARD_SERVICE = "keyguard";
+    public static final String TELEPHONY_SERVICE = "phone";
+
+    public abstract Context getApplicationContext();
+
+    public abstract String getPackageName();
+
+    public abstract File getCacheDir();
+
+    public abstract ContentResolver getContentResolver();
+
+    public abstract String getString(int resId);
+
+    public abstract SharedPreferences getSharedPreferences(String name, int mode);
+
+    public abstract Object getSystemService(String name);
+}
@@ -0,0 +1,138 @@
+package android.content;
+
+import android.os.Bundle;
+import android.os.Parcelable;
+
+/*
+ * Fake android.content.Intent, extras are kept in a Bundle.
+ */
+public class Intent {
+    public static final String ACTION_VIEW = "android.intent.action.VIEW";
+    public static final String ACTION_SENDTO = "android.intent.action.SENDTO";
+
+    public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+    public static final int FLAG_ACTIVITY_EXCLUDE_FROM_RECENTS = 0x00800000;
+
+    private String action;
+    private String type;
+    private Class<?> component;
+    private int flags;
+    private Bundle extras;
+
+    public Intent() {
+    }
+
+    public Intent(String action) {
+        this.action = action;
+    }
+
+    public Intent(Context packageContext, Class<?> cls) {
+        component = cls;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public Intent setAction(String action) {
+        this.action = action;
+        return this;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Intent setType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public Class<?> getComponentClass() {
+        return component;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public Intent setFlags(int flags) {
+        this.flags = flags;
+        return this;
+    }
+
+    public Intent addFlags(int flags) {
+        this.flags |= flags;
+        return this;
+    }
+
+    private Bundle extras() {
+        if (extras == null) {
+            extras = new Bundle();
+        }
+        return extras;
+    }
+
+    public Bundle getExtras() {
+        return extras == null ? null : new Bundle(extras);
+    }
+
+    public Intent putExtras(Bundle extras) {
+        extras().putAll(extras);
+        return this;
+    }
+
+    public Intent putExtra(String name, String value) {
+        extras().putString(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int value) {
+        extras().putInt(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, long value) {
+        extras().putLong(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, boolean value) {
+        extras().putBoolean(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, int[] value) {
+        extras().putIntArray(name, value);
+        return this;
+    }
+
+    public Intent putExtra(String name, Parcelable value) {
+        extras().putParcelable(name, value);
+        return this;
+    }
+
+    public String getStringExtra(String name) {
+        return extras == null ? null : extras.getString(name);
+    }
+
+    public int getIntExtra(String name, int defaultValue) {
+        return extras == null ? defaultValue : extras.getInt(name, defaultValue);
+    }
+
+    public long getLongExtra(String name, long defaultValue) {
+        return extras == null ? defaultValue : extras.getLong(name, defaultValue);
+    }
+
+    public boolean getBooleanExtra(String name, boolean defaultValue) {
+        return extras == null ? defaultValue : extras.getBoolean(name, defaultValue);
+    }
+
+    public int[] getIntArrayExtra(String name) {
+        return extras == null ? null : extras.getIntArray(name);
+    }
+
+    public <T extends Parcelable> T getParcelableExtra(String name) {
+        return extras == null ? null : extras.<T>getParcelable(name);
+    }
+}
@@ -0,0 +1,15 @@
+package android.content;
+
+/*
+ * Fake android.content.OperationApplicationException.
+ */
+public class OperationApplicationException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public OperationApplicationException() {
+    }
+
+    public OperationApplicationException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,35 @@
+package android.database;
+
+import android.os.Handler;
+
+/*
+ * Fake android.database.ContentObserver, changes are posted to the handler given to the
+ * constructor or, without one, dispatched on the notifying thread.
+ */
+public abstract class ContentObserver {
+    private final Handler mHandler;
+
+    public ContentObserver(Handler handler) {
+        mHandler = handler;
+    }
+
+    public boolean deliverSelfNotifications() {
+        return false;
+    }
+
+    public void onChange(boolean selfChange) {
+    }
+
+    public final void dispatchChange(final boolean selfChange) {
+        if (mHandler == null) {
+            onChange(selfChange);
+        } else {
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    onChange(selfChange);
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package android.database;
+
+/*
+ * Fake android.database.Cursor, the subset of the interface the app uses.
+ */
+public interface Cursor {
+    int FIELD_TYPE_NULL = 0;
+    int FIELD_TYPE_INTEGER = 1;
+    int FIELD_TYPE_FLOAT = 2;
+    int FIELD_TYPE_STRING = 3;
+    int FIELD_TYPE_BLOB = 4;
+
+    int getCount();
+
+    int getPosition();
+
+    boolean moveToPosition(int position);
+
+    boolean moveToFirst();
+
+    boolean moveToLast();
+
+    boolean moveToNext();
+
+    boolean isAfterLast();
+
+    int getColumnCount();
+
+    String getColumnName(int columnIndex);
+
+    String[] getColumnNames();
+
+    int getColumnIndex(String columnName);
+
+    int getColumnIndexOrThrow(String columnName) throws IllegalArgumentException;
+
+    String getString(int columnIndex);
+
+    int getInt(int columnIndex);
+
+    long getLong(int columnIndex);
+
+    boolean isNull(int columnIndex);
+
+    int getType(int columnIndex);
+
+    void close();
+
+    boolean isClosed();
+}
@@ -0,0 +1,20 @@
+package android.database;
+
+/*
+ * Fake android.database.DatabaseUtils.
+ */
+public class DatabaseUtils {
+    public static String sqlEscapeString(String value) {
+        final StringBuilder sb = new StringBuilder(value.length() + 2);
+        sb.append('\'');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '\'') {
+                sb.append('\'');
+            }
+            sb.append(c);
+        }
+        sb.append('\'');
+        return sb.toString();
+    }
+}
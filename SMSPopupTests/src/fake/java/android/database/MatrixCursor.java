@@ -0,0 +1,168 @@
+package android.database;
+
+import java.util.ArrayList;
+
+/*
+ * Fake android.database.MatrixCursor, rows are held in memory.
+ */
+public class MatrixCursor implements Cursor {
+    private final String[] columnNames;
+    private final ArrayList<Object[]> rows = new ArrayList<Object[]>();
+    private int position = -1;
+    private boolean closed = false;
+
+    public MatrixCursor(String[] columnNames) {
+        this.columnNames = columnNames;
+    }
+
+    public MatrixCursor(String[] columnNames, int initialCapacity) {
+        this(columnNames);
+        rows.ensureCapacity(initialCapacity);
+    }
+
+    public void addRow(Object[] columnValues) {
+        if (columnValues.length != columnNames.length) {
+            throw new IllegalArgumentException("columnNames.length = " + columnNames.length
+                    + ", columnValues.length = " + columnValues.length);
+        }
+        rows.add(columnValues.clone());
+    }
+
+    @Override
+    public int getCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean moveToPosition(int newPosition) {
+        if (newPosition >= rows.size()) {
+            position = rows.size();
+            return false;
+        }
+        if (newPosition < 0) {
+            position = -1;
+            return false;
+        }
+        position = newPosition;
+        return true;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        return moveToPosition(0);
+    }
+
+    @Override
+    public boolean moveToLast() {
+        return moveToPosition(rows.size() - 1);
+    }
+
+    @Override
+    public boolean moveToNext() {
+        return moveToPosition(position + 1);
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return rows.isEmpty() || position == rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columnNames.length;
+    }
+
+    @Override
+    public String getColumnName(int columnIndex) {
+        return columnNames[columnIndex];
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    @Override
+    public int getColumnIndex(String columnName) {
+        for (int i = 0; i < columnNames.length; i++) {
+            if (columnNames[i].equalsIgnoreCase(columnName)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int getColumnIndexOrThrow(String columnName) {
+        final int index = getColumnIndex(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("column '" + columnName + "' does not exist");
+        }
+        return index;
+    }
+
+    private Object get(int columnIndex) {
+        if (closed) {
+            throw new IllegalStateException("cursor is closed");
+        }
+        if (position < 0 || position >= rows.size()) {
+            throw new IllegalStateException("cursor is not on a row");
+        }
+        return rows.get(position)[columnIndex];
+    }
+
+    @Override
+    public String getString(int columnIndex) {
+        final Object value = get(columnIndex);
+        return value == null ? null : value.toString();
+    }
+
+    @Override
+    public int getInt(int columnIndex) {
+        return (int) getLong(columnIndex);
+    }
+
+    @Override
+    public long getLong(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString());
+    }
+
+    @Override
+    public boolean isNull(int columnIndex) {
+        return get(columnIndex) == null;
+    }
+
+    @Override
+    public int getType(int columnIndex) {
+        final Object value = get(columnIndex);
+        if (value == null) {
+            return FIELD_TYPE_NULL;
+        }
+        if (value instanceof Integer || value instanceof Long) {
+            return FIELD_TYPE_INTEGER;
+        }
+        return FIELD_TYPE_STRING;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,15 @@
+package android.database;
+
+/*
+ * Fake android.database.SQLException.
+ */
+public class SQLException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLException() {
+    }
+
+    public SQLException(String error) {
+        super(error);
+    }
+}
@@ -0,0 +1,17 @@
+package android.database.sqlite;
+
+import android.database.SQLException;
+
+/*
+ * Fake android.database.sqlite.SQLiteException.
+ */
+public class SQLiteException extends SQLException {
+    private static final long serialVersionUID = 1L;
+
+    public SQLiteException() {
+    }
+
+    public SQLiteException(String error) {
+        super(error);
+    }
+}
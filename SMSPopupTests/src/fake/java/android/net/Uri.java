@@ -0,0 +1,194 @@
+package android.net;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+ * Fake android.net.Uri for hierarchical "scheme://authority/path?query" uris.
+ */
+public final class Uri {
+    private final String scheme;
+    private final String authority;
+    private final List<String> pathSegments;
+    private final String query;
+
+    private Uri(String scheme, String authority, List<String> pathSegments, String query) {
+        this.scheme = scheme;
+        this.authority = authority;
+        this.pathSegments = Collections.unmodifiableList(pathSegments);
+        this.query = query;
+    }
+
+    public static Uri parse(String uriString) {
+        String rest = uriString;
+        String scheme = null;
+        final int colon = rest.indexOf(':');
+        if (colon != -1) {
+            scheme = rest.substring(0, colon);
+            rest = rest.substring(colon + 1);
+        }
+
+        String query = null;
+        final int question = rest.indexOf('?');
+        if (question != -1) {
+            query = rest.substring(question + 1);
+            rest = rest.substring(0, question);
+        }
+
+        String authority = null;
+        if (rest.startsWith("//")) {
+            rest = rest.substring(2);
+            final int slash = rest.indexOf('/');
+            authority = slash == -1 ? rest : rest.substring(0, slash);
+            rest = slash == -1 ? "" : rest.substring(slash);
+        }
+
+        final ArrayList<String> segments = new ArrayList<String>();
+        for (String segment : rest.split("/")) {
+            if (segment.length() > 0) {
+                segments.add(segment);
+            }
+        }
+        return new Uri(scheme, authority, segments, query);
+    }
+
+    public static Uri withAppendedPath(Uri baseUri, String pathSegment) {
+        return baseUri.buildUpon().appendEncodedPath(pathSegment).build();
+    }
+
+    public static String encode(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return URLEncoder.encode(s, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public static String decode(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            return URLDecoder.decode(s.replace("+", "%2B"), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    public String getScheme() {
+        return scheme;
+    }
+
+    public String getAuthority() {
+        return authority;
+    }
+
+    public List<String> getPathSegments() {
+        return pathSegments;
+    }
+
+    public String getLastPathSegment() {
+        return pathSegments.isEmpty() ? null : pathSegments.get(pathSegments.size() - 1);
+    }
+
+    public String getPath() {
+        final StringBuilder path = new StringBuilder();
+        for (String segment : pathSegments) {
+            path.append('/').append(segment);
+        }
+        return path.toString();
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public String getQueryParameter(String key) {
+        if (query == null) {
+            return null;
+        }
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name = equals == -1 ? parameter : parameter.substring(0, equals);
+            if (decode(name).equals(key)) {
+                return equals == -1 ? "" : decode(parameter.substring(equals + 1));
+            }
+        }
+        return null;
+    }
+
+    public Builder buildUpon() {
+        return new Builder(this);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder uri = new StringBuilder();
+        if (scheme != null) {
+            uri.append(scheme).append(':');
+        }
+        if (authority != null) {
+            uri.append("//").append(authority);
+        }
+        uri.append(getPath());
+        if (query != null) {
+            uri.append('?').append(query);
+        }
+        return uri.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Uri && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    public static final class Builder {
+        private final String scheme;
+        private final String authority;
+        private final ArrayList<String> pathSegments;
+        private String query;
+
+        Builder(Uri uri) {
+            scheme = uri.scheme;
+            authority = uri.authority;
+            pathSegments = new ArrayList<String>(uri.pathSegments);
+            query = uri.query;
+        }
+
+        public Builder appendPath(String segment) {
+            pathSegments.add(encode(segment));
+            return this;
+        }
+
+        public Builder appendEncodedPath(String path) {
+            for (String segment : path.split("/")) {
+                if (segment.length() > 0) {
+                    pathSegments.add(segment);
+                }
+            }
+            return this;
+        }
+
+        public Builder appendQueryParameter(String key, String value) {
+            final String parameter = encode(key) + "=" + encode(value);
+            query = query == null ? parameter : query + "&" + parameter;
+            return this;
+        }
+
+        public Uri build() {
+            return new Uri(scheme, authority, pathSegments, query);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/*
+ * Fake android.os.BadParcelableException.
+ */
+public class BadParcelableException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public BadParcelableException(String msg) {
+        super(msg);
+    }
+
+    public BadParcelableException(Exception cause) {
+        super(cause);
+    }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/*
+ * Fake android.os.Build.
+ */
+public class Build {
+    public static final String BRAND = "generic";
+
+    public static class VERSION {
+        public static final int SDK_INT = 15;
+    }
+}
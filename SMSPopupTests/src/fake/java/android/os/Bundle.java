@@ -0,0 +1,184 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Fake android.os.Bundle backed by a map. writeToParcel() uses the platform layout (length,
+ * magic, then each key and typed value) so parcelled sizes are comparable with a device.
+ */
+public final class Bundle {
+    private static final int BUNDLE_MAGIC = 0x4C444E42; // 'B' 'N' 'D' 'L'
+
+    private final LinkedHashMap<String, Object> map = new LinkedHashMap<String, Object>();
+
+    public Bundle() {
+    }
+
+    public Bundle(Bundle b) {
+        map.putAll(b.map);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean containsKey(String key) {
+        return map.containsKey(key);
+    }
+
+    public Object get(String key) {
+        return map.get(key);
+    }
+
+    public void remove(String key) {
+        map.remove(key);
+    }
+
+    public Set<String> keySet() {
+        return map.keySet();
+    }
+
+    public void putAll(Bundle bundle) {
+        map.putAll(bundle.map);
+    }
+
+    public void putString(String key, String value) {
+        map.put(key, value);
+    }
+
+    public String getString(String key) {
+        final Object o = map.get(key);
+        return o instanceof String ? (String) o : null;
+    }
+
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    public int getInt(String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        final Object o = map.get(key);
+        return o instanceof Integer ? (Integer) o : defaultValue;
+    }
+
+    public void putLong(String key, long value) {
+        map.put(key, value);
+    }
+
+    public long getLong(String key) {
+        return getLong(key, 0L);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        final Object o = map.get(key);
+        return o instanceof Long ? (Long) o : defaultValue;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        map.put(key, value);
+    }
+
+    public boolean getBoolean(String key) {
+        return getBoolean(key, false);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final Object o = map.get(key);
+        return o instanceof Boolean ? (Boolean) o : defaultValue;
+    }
+
+    public void putByteArray(String key, byte[] value) {
+        map.put(key, value);
+    }
+
+    public byte[] getByteArray(String key) {
+        final Object o = map.get(key);
+        return o instanceof byte[] ? (byte[]) o : null;
+    }
+
+    public void putIntArray(String key, int[] value) {
+        map.put(key, value);
+    }
+
+    public int[] getIntArray(String key) {
+        final Object o = map.get(key);
+        return o instanceof int[] ? (int[]) o : null;
+    }
+
+    public void putBundle(String key, Bundle value) {
+        map.put(key, value);
+    }
+
+    public Bundle getBundle(String key) {
+        final Object o = map.get(key);
+        return o instanceof Bundle ? (Bundle) o : null;
+    }
+
+    public void putParcelable(String key, Parcelable value) {
+        map.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelable(String key) {
+        final Object o = map.get(key);
+        return o instanceof Parcelable ? (T) o : null;
+    }
+
+    public void putParcelableArrayList(String key, ArrayList<? extends Parcelable> value) {
+        map.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> ArrayList<T> getParcelableArrayList(String key) {
+        final Object o = map.get(key);
+        return o instanceof ArrayList ? (ArrayList<T>) o : null;
+    }
+
+    public void writeToParcel(Parcel parcel, int flags) {
+        final int lengthPos = parcel.dataPosition();
+        parcel.writeInt(-1); // placeholder, patched below
+        parcel.writeInt(BUNDLE_MAGIC);
+        final int startPos = parcel.dataPosition();
+        parcel.writeInt(map.size());
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            parcel.writeString(entry.getKey());
+            parcel.writeValue(entry.getValue());
+        }
+        final int endPos = parcel.dataPosition();
+        parcel.setDataPosition(lengthPos);
+        parcel.writeInt(endPos - startPos);
+        parcel.setDataPosition(endPos);
+    }
+
+    static Bundle readFromParcel(Parcel parcel) {
+        final int length = parcel.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (parcel.readInt() != BUNDLE_MAGIC) {
+            throw new BadParcelableException("Bad magic number for Bundle");
+        }
+        final Bundle b = new Bundle();
+        final int n = parcel.readInt();
+        for (int i = 0; i < n; i++) {
+            final String key = parcel.readString();
+            b.map.put(key, parcel.readValue(Bundle.class.getClassLoader()));
+        }
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle" + map;
+    }
+}
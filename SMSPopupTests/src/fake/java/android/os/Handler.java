@@ -0,0 +1,90 @@
+package android.os;
+
+/*
+ * Fake android.os.Handler, sends to the fake Looper queue.
+ */
+public class Handler {
+    private final Looper mLooper;
+
+    public Handler() {
+        mLooper = Looper.myLooper();
+        if (mLooper == null) {
+            throw new RuntimeException(
+                    "Can't create handler inside thread that has not called Looper.prepare()");
+        }
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public void handleMessage(Message msg) {
+    }
+
+    public void dispatchMessage(Message msg) {
+        if (msg.callback != null) {
+            msg.callback.run();
+        } else {
+            handleMessage(msg);
+        }
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this, 0, 0, 0, null);
+    }
+
+    public final Message obtainMessage(int what) {
+        return Message.obtain(this, what, 0, 0, null);
+    }
+
+    public final Message obtainMessage(int what, Object obj) {
+        return Message.obtain(this, what, 0, 0, obj);
+    }
+
+    public final Message obtainMessage(int what, int arg1, int arg2, Object obj) {
+        return Message.obtain(this, what, arg1, arg2, obj);
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        final Message m = Message.obtain(this, 0, 0, 0, null);
+        m.callback = r;
+        return sendMessageDelayed(m, delayMillis);
+    }
+
+    public final boolean sendMessage(Message msg) {
+        return sendMessageDelayed(msg, 0);
+    }
+
+    public final boolean sendEmptyMessage(int what) {
+        return sendMessage(obtainMessage(what));
+    }
+
+    public final boolean sendEmptyMessageDelayed(int what, long delayMillis) {
+        return sendMessageDelayed(obtainMessage(what), delayMillis);
+    }
+
+    public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+        msg.target = this;
+        return mLooper.enqueue(msg, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        mLooper.remove(this, r, null);
+    }
+
+    public final void removeMessages(int what) {
+        mLooper.remove(this, null, what);
+    }
+
+    public final boolean hasMessages(int what) {
+        return mLooper.has(this, null, what);
+    }
+}
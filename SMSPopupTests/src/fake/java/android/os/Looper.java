@@ -0,0 +1,154 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/*
+ * Fake android.os.Looper. Messages are ordered by due time (SystemClock.uptimeMillis()) then by
+ * the order they were sent, like the platform queue. A looper either runs loop() on its own
+ * thread (see HandlerThread) or, for tests on fake time, is driven by calling runDue().
+ */
+public final class Looper {
+    private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+
+    private final Thread mThread;
+    private final PriorityQueue<Message> mQueue = new PriorityQueue<Message>(16,
+            new Comparator<Message>() {
+                @Override
+                public int compare(Message a, Message b) {
+                    if (a.when != b.when) {
+                        return a.when < b.when ? -1 : 1;
+                    }
+                    return a.seq < b.seq ? -1 : (a.seq == b.seq ? 0 : 1);
+                }
+            });
+    private long mSeq = 0;
+    private boolean mQuit = false;
+
+    private Looper() {
+        mThread = Thread.currentThread();
+    }
+
+    public static void prepare() {
+        if (sThreadLocal.get() != null) {
+            throw new RuntimeException("Only one Looper may be created per thread");
+        }
+        sThreadLocal.set(new Looper());
+    }
+
+    public static Looper myLooper() {
+        return sThreadLocal.get();
+    }
+
+    public static void loop() {
+        final Looper me = myLooper();
+        if (me == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        while (true) {
+            final Message msg = me.next();
+            if (msg == null) {
+                return;
+            }
+            msg.target.dispatchMessage(msg);
+        }
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    public synchronized void quit() {
+        mQuit = true;
+        mQueue.clear();
+        notifyAll();
+    }
+
+    /**
+     * Fake only: dispatch, on the calling thread, every message due by the current uptime
+     * (including ones sent while doing so). Returns the number dispatched.
+     */
+    public int runDue() {
+        int count = 0;
+        while (true) {
+            final Message msg;
+            synchronized (this) {
+                msg = mQueue.peek();
+                if (msg == null || msg.when > SystemClock.uptimeMillis()) {
+                    return count;
+                }
+                mQueue.poll();
+            }
+            msg.target.dispatchMessage(msg);
+            count++;
+        }
+    }
+
+    /**
+     * Fake only: number of messages waiting, due or not.
+     */
+    public synchronized int size() {
+        return mQueue.size();
+    }
+
+    private synchronized Message next() {
+        while (!mQuit) {
+            final Message msg = mQueue.peek();
+            if (msg == null) {
+                waitQuietly(0);
+                continue;
+            }
+            final long delay = msg.when - SystemClock.uptimeMillis();
+            if (delay > 0) {
+                waitQuietly(delay);
+                continue;
+            }
+            return mQueue.poll();
+        }
+        return null;
+    }
+
+    private void waitQuietly(long millis) {
+        try {
+            wait(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            mQuit = true;
+        }
+    }
+
+    synchronized boolean enqueue(Message msg, long when) {
+        if (mQuit) {
+            return false;
+        }
+        msg.when = when;
+        msg.seq = mSeq++;
+        mQueue.add(msg);
+        notifyAll();
+        return true;
+    }
+
+    synchronized void remove(Handler h, Runnable r, Integer what) {
+        final ArrayList<Message> removed = new ArrayList<Message>();
+        for (Iterator<Message> i = mQueue.iterator(); i.hasNext();) {
+            final Message m = i.next();
+            if (m.target == h && (r == null || m.callback == r)
+                    && (what == null || (m.callback == null && m.what == what))) {
+                removed.add(m);
+            }
+        }
+        mQueue.removeAll(removed);
+    }
+
+    synchronized boolean has(Handler h, Runnable r, Integer what) {
+        for (Message m : mQueue) {
+            if (m.target == h && (r == null || m.callback == r)
+                    && (what == null || (m.callback == null && m.what == what))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
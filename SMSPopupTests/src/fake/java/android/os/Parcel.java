@@ -0,0 +1,291 @@
+package android.os;
+
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/*
+ * Fake android.os.Parcel. Values are laid out the same way as the platform parcel (4 byte
+ * aligned, strings as UTF-16 with a length prefix and terminator) so marshalled sizes are
+ * comparable with a device.
+ */
+public final class Parcel {
+    private static final int VAL_NULL = -1;
+    private static final int VAL_STRING = 0;
+    private static final int VAL_INTEGER = 1;
+    private static final int VAL_BUNDLE = 3;
+    private static final int VAL_PARCELABLE = 4;
+    private static final int VAL_LONG = 6;
+    private static final int VAL_BOOLEAN = 9;
+    private static final int VAL_BYTEARRAY = 13;
+    private static final int VAL_INTARRAY = 18;
+
+    private ByteBuffer buffer = newBuffer(256);
+    private int dataSize = 0;
+
+    private Parcel() {
+    }
+
+    public static Parcel obtain() {
+        return new Parcel();
+    }
+
+    public void recycle() {
+        buffer = newBuffer(256);
+        dataSize = 0;
+    }
+
+    private static ByteBuffer newBuffer(int capacity) {
+        return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public int dataSize() {
+        return dataSize;
+    }
+
+    public int dataPosition() {
+        return buffer.position();
+    }
+
+    public void setDataPosition(int pos) {
+        buffer.position(pos);
+    }
+
+    public byte[] marshall() {
+        return Arrays.copyOf(buffer.array(), dataSize);
+    }
+
+    public void unmarshall(byte[] data, int offset, int length) {
+        buffer = newBuffer(Math.max(length, 256));
+        buffer.put(data, offset, length);
+        dataSize = length;
+    }
+
+    private void ensure(int bytes) {
+        if (buffer.remaining() < bytes) {
+            final ByteBuffer grown = newBuffer(Math.max(buffer.capacity() * 2,
+                    buffer.position() + bytes));
+            final int position = buffer.position();
+            buffer.position(0);
+            buffer.limit(dataSize);
+            grown.put(buffer);
+            grown.position(position);
+            buffer = grown;
+        }
+    }
+
+    private void wrote() {
+        dataSize = Math.max(dataSize, buffer.position());
+    }
+
+    private void pad() {
+        while ((buffer.position() & 3) != 0) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    private void skipPad() {
+        buffer.position((buffer.position() + 3) & ~3);
+    }
+
+    private void checkRead(int bytes) {
+        if (buffer.position() + bytes > dataSize) {
+            throw new BadParcelableException("read past end of parcel");
+        }
+    }
+
+    public void writeInt(int val) {
+        ensure(4);
+        buffer.putInt(val);
+        wrote();
+    }
+
+    public int readInt() {
+        checkRead(4);
+        return buffer.getInt();
+    }
+
+    public void writeLong(long val) {
+        ensure(8);
+        buffer.putLong(val);
+        wrote();
+    }
+
+    public long readLong() {
+        checkRead(8);
+        return buffer.getLong();
+    }
+
+    public void writeString(String val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        final int length = val.length();
+        ensure(4 + (length + 1) * 2 + 3);
+        buffer.putInt(length);
+        for (int i = 0; i < length; i++) {
+            buffer.putChar(val.charAt(i));
+        }
+        buffer.putChar((char) 0);
+        pad();
+        wrote();
+    }
+
+    public String readString() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        checkRead((length + 1) * 2);
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar();
+        }
+        buffer.getChar();
+        skipPad();
+        return new String(chars);
+    }
+
+    public void writeByteArray(byte[] b) {
+        if (b == null) {
+            writeInt(-1);
+            return;
+        }
+        ensure(4 + b.length + 3);
+        buffer.putInt(b.length);
+        buffer.put(b);
+        pad();
+        wrote();
+    }
+
+    public byte[] createByteArray() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        checkRead(length);
+        final byte[] b = new byte[length];
+        buffer.get(b);
+        skipPad();
+        return b;
+    }
+
+    public void writeIntArray(int[] val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(val.length);
+        for (int v : val) {
+            writeInt(v);
+        }
+    }
+
+    public int[] createIntArray() {
+        final int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        final int[] val = new int[length];
+        for (int i = 0; i < length; i++) {
+            val[i] = readInt();
+        }
+        return val;
+    }
+
+    public void writeBundle(Bundle val) {
+        if (val == null) {
+            writeInt(-1);
+            return;
+        }
+        val.writeToParcel(this, 0);
+    }
+
+    public Bundle readBundle() {
+        return Bundle.readFromParcel(this);
+    }
+
+    public void writeParcelable(Parcelable p, int parcelableFlags) {
+        if (p == null) {
+            writeString(null);
+            return;
+        }
+        writeString(p.getClass().getName());
+        p.writeToParcel(this, parcelableFlags);
+    }
+
+    public <T extends Parcelable> T readParcelable(ClassLoader loader) {
+        final String name = readString();
+        if (name == null) {
+            return null;
+        }
+        try {
+            final Field field = Class.forName(name, true, loader).getField("CREATOR");
+            @SuppressWarnings("unchecked")
+            final Parcelable.Creator<T> creator = (Parcelable.Creator<T>) field.get(null);
+            return creator.createFromParcel(this);
+        } catch (Exception e) {
+            throw new BadParcelableException(e);
+        }
+    }
+
+    public void writeValue(Object v) {
+        if (v == null) {
+            writeInt(VAL_NULL);
+        } else if (v instanceof String) {
+            writeInt(VAL_STRING);
+            writeString((String) v);
+        } else if (v instanceof Integer) {
+            writeInt(VAL_INTEGER);
+            writeInt((Integer) v);
+        } else if (v instanceof Bundle) {
+            writeInt(VAL_BUNDLE);
+            writeBundle((Bundle) v);
+        } else if (v instanceof Parcelable) {
+            writeInt(VAL_PARCELABLE);
+            writeParcelable((Parcelable) v, 0);
+        } else if (v instanceof Long) {
+            writeInt(VAL_LONG);
+            writeLong((Long) v);
+        } else if (v instanceof Boolean) {
+            writeInt(VAL_BOOLEAN);
+            writeInt((Boolean) v ? 1 : 0);
+        } else if (v instanceof byte[]) {
+            writeInt(VAL_BYTEARRAY);
+            writeByteArray((byte[]) v);
+        } else if (v instanceof int[]) {
+            writeInt(VAL_INTARRAY);
+            writeIntArray((int[]) v);
+        } else {
+            throw new IllegalArgumentException("Parcel: unable to marshal value " + v);
+        }
+    }
+
+    public Object readValue(ClassLoader loader) {
+        final int type = readInt();
+        switch (type) {
+            case VAL_NULL:
+                return null;
+            case VAL_STRING:
+                return readString();
+            case VAL_INTEGER:
+                return readInt();
+            case VAL_BUNDLE:
+                return readBundle();
+            case VAL_PARCELABLE:
+                return readParcelable(loader);
+            case VAL_LONG:
+                return readLong();
+            case VAL_BOOLEAN:
+                return readInt() == 1;
+            case VAL_BYTEARRAY:
+                return createByteArray();
+            case VAL_INTARRAY:
+                return createIntArray();
+            default:
+                throw new BadParcelableException("Parcel: unknown type code " + type);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/*
+ * Fake android.os.Process, priorities are accepted and ignored.
+ */
+public class Process {
+    public static final int THREAD_PRIORITY_DEFAULT = 0;
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    public static void setThreadPriority(int priority) {
+    }
+}
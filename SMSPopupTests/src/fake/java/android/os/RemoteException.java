@@ -0,0 +1,15 @@
+package android.os;
+
+/*
+ * Fake android.os.RemoteException.
+ */
+public class RemoteException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    public RemoteException() {
+    }
+
+    public RemoteException(String message) {
+        super(message);
+    }
+}
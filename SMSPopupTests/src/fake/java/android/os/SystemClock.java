@@ -0,0 +1,36 @@
+package android.os;
+
+/*
+ * Fake android.os.SystemClock. Uptime follows System.nanoTime() unless a test switches to fake
+ * time with setUptimeMillis(), after which it only moves when the test moves it.
+ */
+public final class SystemClock {
+    private static volatile boolean fakeTime = false;
+    private static volatile long fakeUptime = 0;
+
+    private SystemClock() {
+    }
+
+    public static long uptimeMillis() {
+        return fakeTime ? fakeUptime : System.nanoTime() / 1000000L;
+    }
+
+    public static long elapsedRealtime() {
+        return uptimeMillis();
+    }
+
+    /**
+     * Fake only: stop the clock at uptime.
+     */
+    public static void setUptimeMillis(long uptime) {
+        fakeUptime = uptime;
+        fakeTime = true;
+    }
+
+    /**
+     * Fake only: go back to real time.
+     */
+    public static void useRealTime() {
+        fakeTime = false;
+    }
+}
@@ -0,0 +1,9 @@
+package android.provider;
+
+/*
+ * Fake android.provider.BaseColumns.
+ */
+public interface BaseColumns {
+    String _ID = "_id";
+    String _COUNT = "_count";
+}
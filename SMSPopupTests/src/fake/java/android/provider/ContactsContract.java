@@ -0,0 +1,19 @@
+package android.provider;
+
+import android.net.Uri;
+
+/*
+ * Fake android.provider.ContactsContract, only the uris used by the app.
+ */
+public final class ContactsContract {
+    public static final String AUTHORITY = "com.android.contacts";
+    public static final Uri AUTHORITY_URI = Uri.parse("content://" + AUTHORITY);
+
+    public static class Contacts implements BaseColumns {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(AUTHORITY_URI, "contacts");
+        public static final Uri CONTENT_LOOKUP_URI = Uri.withAppendedPath(CONTENT_URI, "lookup");
+
+        public static final String DISPLAY_NAME = "display_name";
+        public static final String LOOKUP_KEY = "lookup";
+    }
+}
@@ -0,0 +1,50 @@
+package android.telephony;
+
+/*
+ * Fake android.telephony.PhoneNumberUtils, simplified versions of the platform rules.
+ */
+public class PhoneNumberUtils {
+    public static boolean isISODigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    public static boolean isNonSeparator(char c) {
+        return isISODigit(c) || c == '*' || c == '#' || c == '+' || c == 'N' || c == ';'
+                || c == ',';
+    }
+
+    public static String stripSeparators(String phoneNumber) {
+        if (phoneNumber == null) {
+            return null;
+        }
+        final StringBuilder ret = new StringBuilder(phoneNumber.length());
+        for (int i = 0; i < phoneNumber.length(); i++) {
+            final char c = phoneNumber.charAt(i);
+            if (isNonSeparator(c)) {
+                ret.append(c);
+            }
+        }
+        return ret.toString();
+    }
+
+    public static boolean isWellFormedSmsAddress(String address) {
+        if (address == null) {
+            return false;
+        }
+        final String networkPortion = stripSeparators(address);
+        if (networkPortion.length() == 0 || networkPortion.equals("+")) {
+            return false;
+        }
+        for (int i = 0; i < networkPortion.length(); i++) {
+            final char c = networkPortion.charAt(i);
+            if (!isISODigit(c) && c != '+' && c != '*' && c != '#') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static String formatNumber(String source) {
+        return source;
+    }
+}
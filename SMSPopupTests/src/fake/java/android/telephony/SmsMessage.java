@@ -0,0 +1,164 @@
+package android.telephony;
+
+/*
+ * Fake android.telephony.SmsMessage that decodes GSM SMS-DELIVER pdus (as delivered with the
+ * SMS_RECEIVED broadcast, SMSC address first). Supports the GSM 7 bit default alphabet (without
+ * the extension table), 8 bit data and UCS-2 bodies, numeric and alphanumeric originating
+ * addresses and the concatenated message user data header.
+ */
+public class SmsMessage {
+    public enum MessageClass {
+        UNKNOWN, CLASS_0, CLASS_1, CLASS_2, CLASS_3;
+    }
+
+    // Not part of the platform api, shared with the pdu builder used by the tests
+    public static final String GSM_7BIT_ALPHABET =
+            "@£$¥èéùìòÇ\nØø\rÅå"
+            + "Δ_ΦΓΛΩΠΨΣΘΞ Ææ"
+            + "ßÉ !\"#¤%&'()*+,-./0123456789:;<=>?¡ABCDEFGHIJKLMNOPQRSTUVWXYZ"
+            + "ÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñ"
+            + "üà";
+
+    private String originatingAddress;
+    private String messageBody;
+    private MessageClass messageClass = MessageClass.UNKNOWN;
+    private int protocolIdentifier;
+    private long timestampMillis;
+
+    public static SmsMessage createFromPdu(byte[] pdu) {
+        try {
+            final SmsMessage msg = new SmsMessage();
+            msg.parse(pdu);
+            return msg;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private void parse(byte[] pdu) {
+        int p = (pdu[0] & 0xff) + 1; // skip the SMSC address
+        final int firstOctet = pdu[p++] & 0xff;
+        final boolean hasUserDataHeader = (firstOctet & 0x40) != 0;
+
+        final int addressDigits = pdu[p++] & 0xff;
+        final int addressType = pdu[p++] & 0xff;
+        final int addressOctets = (addressDigits + 1) / 2;
+        if ((addressType & 0x70) == 0x50) {
+            originatingAddress = unpack7bit(pdu, p, addressDigits * 4 / 7, 0);
+        } else {
+            final StringBuilder address = new StringBuilder(addressDigits + 1);
+            if (addressType == 0x91) {
+                address.append('+');
+            }
+            for (int i = 0; i < addressDigits; i++) {
+                final int b = pdu[p + i / 2] & 0xff;
+                final int digit = (i & 1) == 0 ? b & 0x0f : b >> 4;
+                address.append("0123456789*#abc".charAt(digit));
+            }
+            originatingAddress = address.toString();
+        }
+        p += addressOctets;
+
+        protocolIdentifier = pdu[p++] & 0xff;
+        final int dataCoding = pdu[p++] & 0xff;
+        if ((dataCoding & 0xc0) == 0 && (dataCoding & 0x10) != 0) {
+            messageClass = MessageClass.values()[(dataCoding & 0x03) + 1];
+        }
+
+        timestampMillis = parseTimestamp(pdu, p);
+        p += 7;
+
+        final int userDataLength = pdu[p++] & 0xff;
+        int headerOctets = 0;
+        if (hasUserDataHeader) {
+            headerOctets = (pdu[p] & 0xff) + 1;
+        }
+
+        final int encoding = (dataCoding & 0xc0) == 0 ? (dataCoding >> 2) & 0x03 : 0;
+        if (encoding == 2) {
+            final int length = userDataLength - headerOctets;
+            final char[] chars = new char[length / 2];
+            for (int i = 0; i < chars.length; i++) {
+                final int o = p + headerOctets + i * 2;
+                chars[i] = (char) (((pdu[o] & 0xff) << 8) | (pdu[o + 1] & 0xff));
+            }
+            messageBody = new String(chars);
+        } else if (encoding == 1) {
+            final int length = userDataLength - headerOctets;
+            final char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (pdu[p + headerOctets + i] & 0xff);
+            }
+            messageBody = new String(chars);
+        } else {
+            final int headerSeptets = (headerOctets * 8 + 6) / 7;
+            messageBody = unpack7bit(pdu, p, userDataLength - headerSeptets, headerSeptets);
+        }
+    }
+
+    private static String unpack7bit(byte[] pdu, int offset, int septets, int skipSeptets) {
+        final StringBuilder s = new StringBuilder(septets);
+        for (int i = skipSeptets; i < skipSeptets + septets; i++) {
+            final int bit = i * 7;
+            final int o = offset + bit / 8;
+            final int shift = bit % 8;
+            int value = (pdu[o] & 0xff) >> shift;
+            if (shift > 1) {
+                value |= (pdu[o + 1] & 0xff) << (8 - shift);
+            }
+            s.append(GSM_7BIT_ALPHABET.charAt(value & 0x7f));
+        }
+        return s.toString();
+    }
+
+    private static long parseTimestamp(byte[] pdu, int p) {
+        final int[] v = new int[7];
+        for (int i = 0; i < 7; i++) {
+            final int b = pdu[p + i] & 0xff;
+            v[i] = (b & 0x0f) * 10 + ((b >> 4) & 0x07);
+        }
+        final java.util.Calendar c =
+                java.util.Calendar.getInstance(java.util.TimeZone.getTimeZone("UTC"));
+        c.clear();
+        c.set(2000 + v[0], v[1] - 1, v[2], v[3], v[4], v[5]);
+        return c.getTimeInMillis();
+    }
+
+    public String getOriginatingAddress() {
+        return originatingAddress;
+    }
+
+    public String getDisplayOriginatingAddress() {
+        return originatingAddress;
+    }
+
+    public String getMessageBody() {
+        return messageBody;
+    }
+
+    public String getDisplayMessageBody() {
+        return messageBody;
+    }
+
+    public MessageClass getMessageClass() {
+        return messageClass;
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public int getProtocolIdentifier() {
+        return protocolIdentifier;
+    }
+
+    public boolean isReplace() {
+        return (protocolIdentifier & 0xc0) == 0x40
+                && (((protocolIdentifier & 0x3f) > 0 && (protocolIdentifier & 0x3f) < 8)
+                        || (protocolIdentifier & 0x3f) == 0x3f);
+    }
+
+    public boolean isEmail() {
+        return false;
+    }
+}
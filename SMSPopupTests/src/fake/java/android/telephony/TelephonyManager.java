@@ -0,0 +1,20 @@
+package android.telephony;
+
+/*
+ * Fake android.telephony.TelephonyManager, the call state is set by the test.
+ */
+public class TelephonyManager {
+    public static final int CALL_STATE_IDLE = 0;
+    public static final int CALL_STATE_RINGING = 1;
+    public static final int CALL_STATE_OFFHOOK = 2;
+
+    private volatile int callState = CALL_STATE_IDLE;
+
+    public int getCallState() {
+        return callState;
+    }
+
+    public void setCallState(int state) {
+        callState = state;
+    }
+}
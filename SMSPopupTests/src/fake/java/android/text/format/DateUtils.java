@@ -0,0 +1,17 @@
+package android.text.format;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import android.content.Context;
+
+/*
+ * Fake android.text.format.DateUtils.
+ */
+public class DateUtils {
+    public static final int FORMAT_SHOW_TIME = 0x00001;
+
+    public static String formatDateTime(Context context, long millis, int flags) {
+        return new SimpleDateFormat("HH:mm").format(new Date(millis));
+    }
+}
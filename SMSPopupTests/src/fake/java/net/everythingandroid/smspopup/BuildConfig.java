@@ -0,0 +1,11 @@
+package net.everythingandroid.smspopup;
+
+/*
+ * Stand in for the BuildConfig ADT generates. DEBUG is read from the smspopup.debug system
+ * property (default true, like a development build) rather than being a constant, so tests can
+ * load the app classes as either a debug or a release build.
+ */
+public final class BuildConfig {
+    public static final boolean DEBUG =
+            Boolean.parseBoolean(System.getProperty("smspopup.debug", "true"));
+}
@@ -0,0 +1,15 @@
+package net.everythingandroid.smspopup;
+
+/*
+ * Stand in for the app's generated R, only the resources the classes under test reference. The
+ * values are arbitrary, tests register the strings they need with FakeContext.putString().
+ */
+public final class R {
+    public static final class string {
+        public static final int pref_onlyShowOnKeyguard_key = 0x7f0a0001;
+        public static final int pref_popup_enabled_key = 0x7f0a0002;
+        public static final int pref_notif_enabled_key = 0x7f0a0003;
+        public static final int pref_docked_key = 0x7f0a0004;
+        public static final int pref_markread_key = 0x7f0a0005;
+    }
+}
@@ -0,0 +1,105 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.provider.ContactsContract.Contacts;
+
+/*
+ * In memory stand in for the system contacts provider, only what ContactNameSync asks of it:
+ * Contacts.CONTENT_URI queried with "lookup IN (?,...)" and Contacts.CONTENT_LOOKUP_URI/<key>,
+ * which also resolves stale lookup keys added with addStaleKey(). setFailing() makes every query
+ * return null, as the platform does when the provider can't be reached.
+ */
+public class FakeContactsProvider extends ContentProvider {
+    private final LinkedHashMap<String, String> names = new LinkedHashMap<String, String>();
+    private final HashMap<String, String> staleKeys = new HashMap<String, String>();
+    private volatile boolean failing = false;
+    private volatile boolean lookupFailing = false;
+    private int queryCount = 0;
+
+    public synchronized void addContact(String lookupKey, String displayName) {
+        names.put(lookupKey, displayName);
+    }
+
+    /**
+     * staleKey now resolves (through the lookup uri only) to the contact at lookupKey.
+     */
+    public synchronized void addStaleKey(String staleKey, String lookupKey) {
+        staleKeys.put(staleKey, lookupKey);
+    }
+
+    public synchronized void removeContact(String lookupKey) {
+        names.remove(lookupKey);
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    /**
+     * Only the single contact lookup uri queries fail.
+     */
+    public void setLookupFailing(boolean failing) {
+        lookupFailing = failing;
+    }
+
+    public synchronized int getQueryCount() {
+        return queryCount;
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        queryCount++;
+        if (failing) {
+            return null;
+        }
+
+        final List<String> path = uri.getPathSegments();
+        final MatrixCursor c = new MatrixCursor(projection);
+        if (path.size() == 3 && "lookup".equals(path.get(1))) {
+            if (lookupFailing) {
+                return null;
+            }
+            String key = path.get(2);
+            if (!names.containsKey(key)) {
+                key = staleKeys.get(key);
+            }
+            if (key != null && names.containsKey(key)) {
+                c.addRow(row(projection, key));
+            }
+            return c;
+        }
+
+        if (path.size() != 1 || selection == null
+                || !selection.startsWith(Contacts.LOOKUP_KEY + " IN (")) {
+            throw new UnsupportedOperationException("query " + uri + " " + selection);
+        }
+        for (int i = 0; i < selectionArgs.length; i++) {
+            if (names.containsKey(selectionArgs[i])) {
+                c.addRow(row(projection, selectionArgs[i]));
+            }
+        }
+        return c;
+    }
+
+    private Object[] row(String[] projection, String lookupKey) {
+        final Object[] values = new Object[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            if (Contacts.LOOKUP_KEY.equals(projection[i])) {
+                values[i] = lookupKey;
+            } else if (Contacts.DISPLAY_NAME.equals(projection[i])) {
+                values[i] = names.get(lookupKey);
+            } else {
+                throw new UnsupportedOperationException("column " + projection[i]);
+            }
+        }
+        return values;
+    }
+}
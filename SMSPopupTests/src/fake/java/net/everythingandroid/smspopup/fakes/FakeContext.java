@@ -0,0 +1,76 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.io.File;
+import java.util.HashMap;
+
+import android.app.KeyguardManager;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.telephony.TelephonyManager;
+
+/*
+ * Context for tests and benchmarks: one ContentResolver, in memory shared preferences, string
+ * resources registered with putString() and a fake keyguard and telephony service.
+ */
+public class FakeContext extends Context {
+    private final ContentResolver resolver = new ContentResolver();
+    private final HashMap<String, FakeSharedPreferences> prefs =
+            new HashMap<String, FakeSharedPreferences>();
+    private final HashMap<Integer, String> strings = new HashMap<Integer, String>();
+    private final KeyguardManager keyguard = new KeyguardManager();
+    private final TelephonyManager telephony = new TelephonyManager();
+
+    @Override
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    @Override
+    public String getPackageName() {
+        return "net.everythingandroid.smspopup";
+    }
+
+    @Override
+    public File getCacheDir() {
+        return new File(System.getProperty("java.io.tmpdir"));
+    }
+
+    @Override
+    public ContentResolver getContentResolver() {
+        return resolver;
+    }
+
+    public void putString(int resId, String value) {
+        strings.put(resId, value);
+    }
+
+    @Override
+    public String getString(int resId) {
+        final String value = strings.get(resId);
+        if (value == null) {
+            throw new IllegalArgumentException("No string resource 0x" + Integer.toHexString(resId));
+        }
+        return value;
+    }
+
+    @Override
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        FakeSharedPreferences p = prefs.get(name);
+        if (p == null) {
+            p = new FakeSharedPreferences();
+            prefs.put(name, p);
+        }
+        return p;
+    }
+
+    @Override
+    public Object getSystemService(String name) {
+        if (KEYGUARD_SERVICE.equals(name)) {
+            return keyguard;
+        } else if (TELEPHONY_SERVICE.equals(name)) {
+            return telephony;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,418 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+
+/*
+ * In memory stand in for the system sms or mms provider. Holds one table of messages, a trailing
+ * numeric path segment selects a single row ("content://sms/12"), "conversations/12" the rows of
+ * thread 12 and any other path ("inbox") the whole table. Selections are simple "column op value"
+ * terms joined with "and" and "or" (op one of =, !=, <, <=, >, >=, is null, in (list), values
+ * may be numbers, ? or 'quoted' strings, "and" binds tighter, no other parentheses). Like the
+ * system mms-sms provider, selectionArgs are dropped on conversation uris so each ? is NULL. Sort
+ * orders are a column, an optional direction and an optional LIMIT.
+ * The projection may be "count(*)" unless setCountSupported(false) is called, in which case
+ * count queries are rejected like providers that don't allow expressions in projections.
+ * Each applyBatch() is counted as one write round trip, writes touching a row passed to
+ * setWriteFailing() throw like a database error would.
+ */
+public class FakeMessageProvider extends ContentProvider {
+    public static final String[] COLUMNS =
+            new String[] { "_id", "thread_id", "address", "date", "body", "read" };
+
+    private static final Pattern TERM = Pattern.compile(
+            "\\s*(\\w+)\\s*(!=|<=|>=|=|<|>|is null|in)\\s*"
+            + "(\\?|-?\\d+|'(?:[^']|'')*'|\\([^)]*\\))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+    private static final Pattern SORT = Pattern.compile(
+            "\\s*(\\w+)(?:\\s+(asc|desc))?(?:\\s+limit\\s+(\\d+))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    private final ArrayList<LinkedHashMap<String, Object>> rows =
+            new ArrayList<LinkedHashMap<String, Object>>();
+    private long nextId = 1;
+    private volatile boolean countSupported = true;
+    private final HashSet<Long> failingIds = new HashSet<Long>();
+
+    private int queryCount = 0;
+    private int rowsReturned = 0;
+    private int writeCount = 0;
+    private int writeRoundTrips = 0;
+    private boolean inBatch = false;
+
+    public void setCountSupported(boolean supported) {
+        countSupported = supported;
+    }
+
+    /**
+     * Add a message, returns its _id.
+     */
+    public synchronized long addMessage(long threadId, String address, long date, String body,
+            boolean read) {
+        final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+        final long id = nextId++;
+        row.put("_id", id);
+        row.put("thread_id", threadId);
+        row.put("address", address);
+        row.put("date", date);
+        row.put("body", body);
+        row.put("read", read ? 1 : 0);
+        rows.add(row);
+        return id;
+    }
+
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    public synchronized Object get(long id, String column) {
+        final LinkedHashMap<String, Object> row = find(id);
+        return row == null ? null : row.get(column);
+    }
+
+    public synchronized int getQueryCount() {
+        return queryCount;
+    }
+
+    /**
+     * Total rows returned by all queries so far.
+     */
+    public synchronized int getRowsReturned() {
+        return rowsReturned;
+    }
+
+    public synchronized int getWriteCount() {
+        return writeCount;
+    }
+
+    /**
+     * Calls that wrote: each update or delete made on its own plus each whole batch.
+     */
+    public synchronized int getWriteRoundTrips() {
+        return writeRoundTrips;
+    }
+
+    public synchronized void setWriteFailing(long id) {
+        failingIds.add(id);
+    }
+
+    @Override
+    public synchronized Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        queryCount++;
+        final List<LinkedHashMap<String, Object>> matched = select(uri, selection, selectionArgs);
+
+        if (projection != null && projection.length == 1
+                && projection[0].equalsIgnoreCase("count(*)")) {
+            if (!countSupported) {
+                throw new IllegalArgumentException("Invalid column count(*)");
+            }
+            final MatrixCursor c = new MatrixCursor(projection, 1);
+            c.addRow(new Object[] { matched.size() });
+            rowsReturned++;
+            return c;
+        }
+
+        int limit = Integer.MAX_VALUE;
+        if (sortOrder != null) {
+            final Matcher m = SORT.matcher(sortOrder);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Unsupported sort order: " + sortOrder);
+            }
+            final String column = m.group(1);
+            final boolean descending = "desc".equalsIgnoreCase(m.group(2));
+            if (m.group(3) != null) {
+                limit = Integer.parseInt(m.group(3));
+            }
+            final Comparator<LinkedHashMap<String, Object>> order =
+                    new Comparator<LinkedHashMap<String, Object>>() {
+                        @Override
+                        public int compare(LinkedHashMap<String, Object> a,
+                                LinkedHashMap<String, Object> b) {
+                            final int c = compareValues(a.get(column), b.get(column));
+                            return descending ? -c : c;
+                        }
+                    };
+            if (limit == 1 && !matched.isEmpty()) {
+                // Single pass like sqlite's top-1 scan rather than a full sort
+                final LinkedHashMap<String, Object> first = Collections.min(matched, order);
+                matched.clear();
+                matched.add(first);
+            } else {
+                Collections.sort(matched, order);
+            }
+        }
+
+        final String[] columns = projection == null ? COLUMNS : projection;
+        final MatrixCursor c = new MatrixCursor(columns, Math.min(limit, matched.size()));
+        for (int i = 0; i < matched.size() && i < limit; i++) {
+            final Object[] values = new Object[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                if (!matched.get(i).containsKey(columns[j])) {
+                    throw new IllegalArgumentException("no such column: " + columns[j]);
+                }
+                values[j] = matched.get(i).get(columns[j]);
+            }
+            c.addRow(values);
+        }
+        rowsReturned += c.getCount();
+        return c;
+    }
+
+    @Override
+    public synchronized int update(Uri uri, ContentValues values, String selection,
+            String[] selectionArgs) {
+        writeCount++;
+        if (!inBatch) {
+            writeRoundTrips++;
+        }
+        final List<LinkedHashMap<String, Object>> matched = select(uri, selection, selectionArgs);
+        checkWritable(matched);
+        for (LinkedHashMap<String, Object> row : matched) {
+            for (String key : row.keySet()) {
+                if (values.containsKey(key)) {
+                    row.put(key, values.get(key));
+                }
+            }
+        }
+        return matched.size();
+    }
+
+    @Override
+    public synchronized int delete(Uri uri, String selection, String[] selectionArgs) {
+        writeCount++;
+        if (!inBatch) {
+            writeRoundTrips++;
+        }
+        final List<LinkedHashMap<String, Object>> matched = select(uri, selection, selectionArgs);
+        checkWritable(matched);
+        rows.removeAll(matched);
+        return matched.size();
+    }
+
+    @Override
+    public synchronized ContentProviderResult[] applyBatch(
+            ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        writeRoundTrips++;
+        inBatch = true;
+        try {
+            return super.applyBatch(operations);
+        } finally {
+            inBatch = false;
+        }
+    }
+
+    private void checkWritable(List<LinkedHashMap<String, Object>> matched) {
+        for (LinkedHashMap<String, Object> row : matched) {
+            if (failingIds.contains(row.get("_id"))) {
+                throw new SQLiteException("disk I/O error writing row " + row.get("_id"));
+            }
+        }
+    }
+
+    private LinkedHashMap<String, Object> find(long id) {
+        for (LinkedHashMap<String, Object> row : rows) {
+            if (((Long) row.get("_id")) == id) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private List<LinkedHashMap<String, Object>> select(Uri uri, String selection,
+            String[] selectionArgs) {
+        final ArrayList<LinkedHashMap<String, Object>> matched =
+                new ArrayList<LinkedHashMap<String, Object>>();
+        final List<String> path = uri.getPathSegments();
+        final boolean conversation = path.size() > 0 && "conversations".equals(path.get(0));
+        final List<List<Term>> terms = parse(selection, conversation ? null : selectionArgs);
+
+        if (conversation && path.size() == 2) {
+            final long threadId = Long.parseLong(path.get(1));
+            for (LinkedHashMap<String, Object> row : rows) {
+                if (((Long) row.get("thread_id")) == threadId && matches(row, terms)) {
+                    matched.add(row);
+                }
+            }
+            return matched;
+        }
+
+        final String last = uri.getLastPathSegment();
+        if (last != null && last.matches("\\d+")) {
+            final LinkedHashMap<String, Object> row = find(Long.parseLong(last));
+            if (row != null && matches(row, terms)) {
+                matched.add(row);
+            }
+            return matched;
+        }
+
+        for (LinkedHashMap<String, Object> row : rows) {
+            if (matches(row, terms)) {
+                matched.add(row);
+            }
+        }
+        return matched;
+    }
+
+    private static class Term {
+        final String column;
+        final String op;
+        final String operand;
+
+        Term(String column, String op, String operand) {
+            this.column = column;
+            this.op = op;
+            this.operand = operand;
+        }
+    }
+
+    /*
+     * Parse a selection into "or" groups of "and" terms
+     */
+    private static List<List<Term>> parse(String selection, String[] selectionArgs) {
+        final ArrayList<List<Term>> groups = new ArrayList<List<Term>>();
+        if (selection == null || selection.trim().length() == 0) {
+            return groups;
+        }
+        int arg = 0;
+        for (String group : split(selection, "or")) {
+            final ArrayList<Term> terms = new ArrayList<Term>();
+            for (String term : split(group, "and")) {
+                final Matcher m = TERM.matcher(term);
+                if (!m.matches()) {
+                    throw new IllegalArgumentException("Unsupported selection: " + selection);
+                }
+                String op = m.group(2).toLowerCase(Locale.US);
+                String operand = m.group(3);
+                if ("?".equals(operand)) {
+                    // Unbound (dropped) args are NULL, which nothing compares equal to
+                    operand = selectionArgs == null ? null : selectionArgs[arg++];
+                    if (operand == null) {
+                        op = "null";
+                    }
+                } else if (operand != null && operand.startsWith("'")) {
+                    operand = operand.substring(1, operand.length() - 1).replace("''", "'");
+                }
+                terms.add(new Term(m.group(1), op, operand));
+            }
+            groups.add(terms);
+        }
+        return groups;
+    }
+
+    /*
+     * Split on the keyword where it isn't inside a quoted string
+     */
+    private static List<String> split(String selection, String keyword) {
+        final ArrayList<String> parts = new ArrayList<String>();
+        final String separator = " " + keyword + " ";
+        final String lower = selection.toLowerCase(Locale.US);
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < selection.length(); i++) {
+            if (selection.charAt(i) == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && lower.startsWith(separator, i)) {
+                parts.add(selection.substring(start, i));
+                start = i + separator.length();
+                i = start - 1;
+            }
+        }
+        parts.add(selection.substring(start));
+        return parts;
+    }
+
+    private static boolean matches(LinkedHashMap<String, Object> row, List<List<Term>> groups) {
+        if (groups.isEmpty()) {
+            return true;
+        }
+        for (int i = 0; i < groups.size(); i++) {
+            if (matchesAll(row, groups.get(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesAll(LinkedHashMap<String, Object> row, List<Term> terms) {
+        for (int i = 0; i < terms.size(); i++) {
+            final Term term = terms.get(i);
+            if (!row.containsKey(term.column)) {
+                throw new IllegalArgumentException("no such column: " + term.column);
+            }
+            final Object value = row.get(term.column);
+            if (term.op.equals("null")) {
+                return false;
+            }
+            if (term.op.equals("is null")) {
+                if (value != null) {
+                    return false;
+                }
+                continue;
+            }
+            if (term.op.equals("in")) {
+                boolean found = false;
+                final String list = term.operand.substring(1, term.operand.length() - 1);
+                for (String item : list.split(",")) {
+                    if (item.trim().length() > 0 && compareValues(value, item.trim()) == 0) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    return false;
+                }
+                continue;
+            }
+            final int c = compareValues(value, term.operand);
+            final boolean match;
+            if (term.op.equals("=")) {
+                match = c == 0;
+            } else if (term.op.equals("!=")) {
+                match = c != 0;
+            } else if (term.op.equals("<")) {
+                match = c < 0;
+            } else if (term.op.equals("<=")) {
+                match = c <= 0;
+            } else if (term.op.equals(">")) {
+                match = c > 0;
+            } else {
+                match = c >= 0;
+            }
+            if (!match) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b ? 0 : (a == null ? -1 : 1);
+        }
+        if (a instanceof Number) {
+            final long other = b instanceof Number
+                    ? ((Number) b).longValue() : Long.parseLong(b.toString());
+            final long value = ((Number) a).longValue();
+            return value < other ? -1 : (value == other ? 0 : 1);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+}
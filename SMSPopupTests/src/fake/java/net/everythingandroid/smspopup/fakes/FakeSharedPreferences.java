@@ -0,0 +1,130 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.SharedPreferences;
+
+/*
+ * In memory SharedPreferences, edits are applied on commit().
+ */
+public class FakeSharedPreferences implements SharedPreferences {
+    private final HashMap<String, Object> values = new HashMap<String, Object>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> listeners =
+            new CopyOnWriteArrayList<OnSharedPreferenceChangeListener>();
+
+    @Override
+    public synchronized Map<String, ?> getAll() {
+        return new HashMap<String, Object>(values);
+    }
+
+    @Override
+    public synchronized String getString(String key, String defValue) {
+        final Object v = values.get(key);
+        return v == null ? defValue : (String) v;
+    }
+
+    @Override
+    public synchronized int getInt(String key, int defValue) {
+        final Object v = values.get(key);
+        return v == null ? defValue : (Integer) v;
+    }
+
+    @Override
+    public synchronized long getLong(String key, long defValue) {
+        final Object v = values.get(key);
+        return v == null ? defValue : (Long) v;
+    }
+
+    @Override
+    public synchronized boolean getBoolean(String key, boolean defValue) {
+        final Object v = values.get(key);
+        return v == null ? defValue : (Boolean) v;
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new FakeEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(
+            OnSharedPreferenceChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    private class FakeEditor implements Editor {
+        private final HashMap<String, Object> changes = new HashMap<String, Object>();
+        private boolean clear = false;
+
+        @Override
+        public Editor putString(String key, String value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            changes.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            changes.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (FakeSharedPreferences.this) {
+                if (clear) {
+                    values.clear();
+                }
+                for (Map.Entry<String, Object> change : changes.entrySet()) {
+                    if (change.getValue() == null) {
+                        values.remove(change.getKey());
+                    } else {
+                        values.put(change.getKey(), change.getValue());
+                    }
+                }
+            }
+            for (String key : changes.keySet()) {
+                for (OnSharedPreferenceChangeListener listener : listeners) {
+                    listener.onSharedPreferenceChanged(FakeSharedPreferences.this, key);
+                }
+            }
+            return true;
+        }
+    }
+}
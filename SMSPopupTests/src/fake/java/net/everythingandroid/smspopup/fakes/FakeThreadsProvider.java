@@ -0,0 +1,130 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/*
+ * In memory stand in for the thread side of the system mms-sms provider: "threadID?recipient="
+ * returns the thread for an address (creating it if needed) and "conversations?simple=true"
+ * lists the threads, with a selection of "_id IN (1,2,...)" or none. Queries aren't serialized
+ * here so lookups from several threads can be in the provider at once, setBarrier() holds each
+ * threadID query until the given number of them are running together.
+ */
+public class FakeThreadsProvider extends ContentProvider {
+    private final HashMap<String, Long> threads = new HashMap<String, Long>();
+    private long nextThreadId = 1;
+    private volatile boolean conversationsFailing = false;
+    private volatile CountDownLatch barrier = null;
+
+    private final AtomicInteger threadIdQueries = new AtomicInteger();
+    private final AtomicInteger conversationQueries = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    public synchronized void deleteThread(long threadId) {
+        threads.values().remove(threadId);
+    }
+
+    public void setConversationsFailing(boolean failing) {
+        conversationsFailing = failing;
+    }
+
+    public void setBarrier(int parties) {
+        barrier = parties > 0 ? new CountDownLatch(parties) : null;
+    }
+
+    public int getThreadIdQueries() {
+        return threadIdQueries.get();
+    }
+
+    public int getConversationQueries() {
+        return conversationQueries.get();
+    }
+
+    /**
+     * Most threadID queries that were running at the same time.
+     */
+    public int getMaxConcurrent() {
+        return maxRunning.get();
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection,
+            String[] selectionArgs, String sortOrder) {
+        final List<String> path = uri.getPathSegments();
+        if (path.size() == 1 && "threadID".equals(path.get(0))) {
+            return queryThreadId(uri.getQueryParameter("recipient"));
+        }
+        if (path.size() == 1 && "conversations".equals(path.get(0))
+                && "true".equals(uri.getQueryParameter("simple"))) {
+            return queryConversations(selection);
+        }
+        throw new UnsupportedOperationException("query " + uri);
+    }
+
+    private Cursor queryThreadId(String recipient) {
+        threadIdQueries.incrementAndGet();
+        final int now = running.incrementAndGet();
+        int max;
+        while (now > (max = maxRunning.get()) && !maxRunning.compareAndSet(max, now)) {
+            // retry
+        }
+        try {
+            final CountDownLatch wait = barrier;
+            if (wait != null) {
+                wait.countDown();
+                wait.await(5, TimeUnit.SECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            running.decrementAndGet();
+        }
+
+        final long threadId;
+        synchronized (this) {
+            Long existing = threads.get(recipient);
+            if (existing == null) {
+                existing = nextThreadId++;
+                threads.put(recipient, existing);
+            }
+            threadId = existing;
+        }
+        final MatrixCursor c = new MatrixCursor(new String[] { "_id" });
+        c.addRow(new Object[] { threadId });
+        return c;
+    }
+
+    private synchronized Cursor queryConversations(String selection) {
+        conversationQueries.incrementAndGet();
+        if (conversationsFailing) {
+            return null;
+        }
+        HashSet<Long> wanted = null;
+        if (selection != null) {
+            if (!selection.startsWith("_id IN (") || !selection.endsWith(")")) {
+                throw new UnsupportedOperationException("selection " + selection);
+            }
+            wanted = new HashSet<Long>();
+            for (String id : selection.substring(8, selection.length() - 1).split(",")) {
+                wanted.add(Long.parseLong(id.trim()));
+            }
+        }
+        final MatrixCursor c = new MatrixCursor(new String[] { "_id" });
+        for (Long threadId : new HashSet<Long>(threads.values())) {
+            if (wanted == null || wanted.contains(threadId)) {
+                c.addRow(new Object[] { threadId });
+            }
+        }
+        return c;
+    }
+}
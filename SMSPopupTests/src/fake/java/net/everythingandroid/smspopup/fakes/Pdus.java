@@ -0,0 +1,97 @@
+package net.everythingandroid.smspopup.fakes;
+
+import java.io.ByteArrayOutputStream;
+
+import android.telephony.SmsMessage;
+
+/*
+ * Builds GSM SMS-DELIVER pdus (7 bit default alphabet) the way they arrive in the SMS_RECEIVED
+ * broadcast, for feeding SmsMessage.createFromPdu().
+ */
+public class Pdus {
+    private static final String ALPHABET = SmsMessage.GSM_7BIT_ALPHABET;
+
+    // Max septets in one part of a concatenated message (153 = 160 less the 7 septet header)
+    private static final int PART_SEPTETS = 153;
+
+    /**
+     * Pdus for a message from a numeric address, split into concatenated parts if it doesn't fit
+     * one pdu. Characters outside the GSM default alphabet are sent as '?'.
+     */
+    public static byte[][] build(String from, String body, int reference) {
+        if (body.length() <= 160) {
+            return new byte[][] { pdu(from, body, false, reference, 1, 1) };
+        }
+        final int parts = (body.length() + PART_SEPTETS - 1) / PART_SEPTETS;
+        final byte[][] pdus = new byte[parts][];
+        for (int i = 0; i < parts; i++) {
+            final String part = body.substring(i * PART_SEPTETS,
+                    Math.min(body.length(), (i + 1) * PART_SEPTETS));
+            pdus[i] = pdu(from, part, true, reference, parts, i + 1);
+        }
+        return pdus;
+    }
+
+    /**
+     * Decode pdus into SmsMessage objects, as SmsPopupUtils.getMessagesFromIntent() does.
+     */
+    public static SmsMessage[] decode(byte[][] pdus) {
+        final SmsMessage[] messages = new SmsMessage[pdus.length];
+        for (int i = 0; i < pdus.length; i++) {
+            messages[i] = SmsMessage.createFromPdu(pdus[i]);
+        }
+        return messages;
+    }
+
+    private static byte[] pdu(String from, String text, boolean concatenated, int reference,
+            int parts, int part) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x00); // no SMSC address
+        out.write(concatenated ? 0x44 : 0x04); // SMS-DELIVER, more messages to send = false
+
+        final boolean international = from.startsWith("+");
+        final String digits = international ? from.substring(1) : from;
+        out.write(digits.length());
+        out.write(international ? 0x91 : 0x81);
+        for (int i = 0; i < digits.length(); i += 2) {
+            final int low = digits.charAt(i) - '0';
+            final int high = i + 1 < digits.length() ? digits.charAt(i + 1) - '0' : 0x0f;
+            out.write((high << 4) | low);
+        }
+
+        out.write(0x00); // PID
+        out.write(0x00); // DCS, 7 bit default alphabet
+        final int[] timestamp = new int[] { 12, 6, 1, 12, 30, 0, 0 };
+        for (int v : timestamp) {
+            out.write(((v % 10) << 4) | (v / 10));
+        }
+
+        final int headerSeptets = concatenated ? 7 : 0;
+        out.write(headerSeptets + text.length());
+
+        final int[] septets = new int[headerSeptets + text.length()];
+        for (int i = 0; i < text.length(); i++) {
+            final int index = ALPHABET.indexOf(text.charAt(i));
+            septets[headerSeptets + i] = index == -1 ? ALPHABET.indexOf('?') : index;
+        }
+        final byte[] packed = new byte[(septets.length * 7 + 7) / 8];
+        for (int i = headerSeptets; i < septets.length; i++) {
+            final int bit = i * 7;
+            packed[bit / 8] |= (byte) (septets[i] << (bit % 8));
+            if (bit % 8 > 1) {
+                packed[bit / 8 + 1] |= (byte) (septets[i] >> (8 - bit % 8));
+            }
+        }
+        if (concatenated) {
+            // UDHL, concatenated 8 bit reference IE, then one fill bit before the text
+            packed[0] = 0x05;
+            packed[1] = 0x00;
+            packed[2] = 0x03;
+            packed[3] = (byte) reference;
+            packed[4] = (byte) parts;
+            packed[5] = (byte) part;
+        }
+        out.write(packed, 0, packed.length);
+        return out.toByteArray();
+    }
+}
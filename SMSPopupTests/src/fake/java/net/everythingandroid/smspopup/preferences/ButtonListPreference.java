@@ -0,0 +1,12 @@
+package net.everythingandroid.smspopup.preferences;
+
+/*
+ * Stand in for the app's ButtonListPreference, only the button constants.
+ */
+public class ButtonListPreference {
+    public static final int BUTTON_DISABLED = 0;
+    public static final int BUTTON_CLOSE = 1;
+    public static final int BUTTON_DELETE = 2;
+    public static final int BUTTON_DELETE_NO_CONFIRM = 3;
+    public static final int BUTTON_REPLY = 4;
+}
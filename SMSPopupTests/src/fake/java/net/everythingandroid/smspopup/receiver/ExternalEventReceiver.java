@@ -0,0 +1,10 @@
+package net.everythingandroid.smspopup.receiver;
+
+/*
+ * Stand in for the app's ExternalEventReceiver (a BroadcastReceiver), just the dock states.
+ */
+public class ExternalEventReceiver {
+    public static final int EXTRA_DOCK_STATE_UNDOCKED = 0;
+    public static final int EXTRA_DOCK_STATE_DESK = 1;
+    public static final int EXTRA_DOCK_STATE_CAR = 2;
+}
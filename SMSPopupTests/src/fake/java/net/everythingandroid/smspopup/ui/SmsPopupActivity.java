@@ -0,0 +1,7 @@
+package net.everythingandroid.smspopup.ui;
+
+/*
+ * Stand in for the popup activity, only used as an intent target.
+ */
+public class SmsPopupActivity {
+}
@@ -0,0 +1,9 @@
+package net.everythingandroid.smspopup.util;
+
+/*
+ * Stand in for the app's NotificationProfile, only the cache hook ManagePreferences calls.
+ */
+public class NotificationProfile {
+    public static void invalidate() {
+    }
+}
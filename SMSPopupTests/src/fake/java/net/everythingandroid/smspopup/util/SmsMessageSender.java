@@ -0,0 +1,15 @@
+package net.everythingandroid.smspopup.util;
+
+import android.content.Context;
+
+/*
+ * Stand in for the app's SmsMessageSender, nothing is sent.
+ */
+public class SmsMessageSender {
+    public SmsMessageSender(Context context, String[] dests, String msgText, long threadId) {
+    }
+
+    public boolean sendMessage() {
+        return false;
+    }
+}
@@ -0,0 +1,106 @@
+package net.everythingandroid.smspopup.util;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+/*
+ * Stand in for the app's SmsPopupUtils (which needs most of the Android framework). Only what the
+ * classes under test call is here: the content uris, no contact ever matches, unread counts come
+ * from the real UnreadMessageCounter, message ids are never found and the messaging app is never
+ * in the foreground.
+ */
+public class SmsPopupUtils {
+    public static final Uri MMS_SMS_CONTENT_URI = Uri.parse("content://mms-sms/");
+    public static final Uri THREAD_ID_CONTENT_URI =
+            Uri.withAppendedPath(MMS_SMS_CONTENT_URI, "threadID");
+    public static final Uri CONVERSATION_CONTENT_URI =
+            Uri.withAppendedPath(MMS_SMS_CONTENT_URI, "conversations");
+    static final String UNREAD_CONDITION = "read=0";
+
+    public static final Uri SMS_CONTENT_URI = Uri.parse("content://sms");
+    public static final Uri SMS_INBOX_CONTENT_URI = Uri.withAppendedPath(SMS_CONTENT_URI, "inbox");
+
+    public static final Uri MMS_CONTENT_URI = Uri.parse("content://mms");
+    public static final Uri MMS_INBOX_CONTENT_URI = Uri.withAppendedPath(MMS_CONTENT_URI, "inbox");
+
+    public static final String SMSMMS_ID = "_id";
+    public static final int READ_THREAD = 1;
+
+    public static class ContactIdentification {
+        public String contactId = null;
+        public String contactLookup = null;
+        public String contactName = null;
+
+        public ContactIdentification(String _contactId, String _contactLookup,
+                String _contactName) {
+            contactId = _contactId;
+            contactLookup = _contactLookup;
+            contactName = _contactName;
+        }
+    }
+
+    public static ContactIdentification getPersonIdFromPhoneNumber(Context context,
+            String address) {
+        return null;
+    }
+
+    public static ContactIdentification getPersonIdFromEmail(Context context, String email) {
+        return null;
+    }
+
+    public static ContactIdentification getPersonIdFromAddress(Context context, String address) {
+        return null;
+    }
+
+    public static HashMap<String, ContactIdentification> resolveContacts(Context context,
+            Collection<String> addresses) {
+        return new HashMap<String, ContactIdentification>();
+    }
+
+    public static int getUnreadMessagesCount(Context context, long timestamp,
+            String messageBody) {
+        return UnreadMessageCounter.getUnreadMessagesCount(context, timestamp, messageBody);
+    }
+
+    public static String getMmsAddress(Context context, long messageId) {
+        return null;
+    }
+
+    public static Intent getSmsToIntent(Context context, long threadId) {
+        return new Intent(Intent.ACTION_VIEW);
+    }
+
+    public static Intent getSmsToIntent(Context context, String phoneNumber) {
+        return new Intent(Intent.ACTION_SENDTO);
+    }
+
+    public static long findThreadIdFromAddress(Context context, String address) {
+        return 0;
+    }
+
+    public static long findMessageId(Context context, long threadId, long timestamp,
+            String body, int messageType) {
+        return 0;
+    }
+
+    public static boolean inMessagingApp(Context context) {
+        return false;
+    }
+
+    public static void setThreadRead(Context context, long threadId) {
+    }
+
+    public static void setMessageRead(Context context, long messageId, int messageType) {
+    }
+
+    public static void deleteMessage(Context context, long messageId, long threadId,
+            int messageType) {
+    }
+
+    static void removeMessageId(long messageId, int messageType) {
+    }
+}
@@ -0,0 +1,79 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.ArrayList;
+
+/*
+ * The pattern parsers as they were in ManageNotification before PatternParser (String.split()
+ * and Long/Integer.parseLong()), kept as the reference PatternParser is compared against.
+ */
+public class LegacyPatternParser {
+
+    public static long[] parseVibratePattern(String stringPattern) {
+        ArrayList<Long> arrayListPattern = new ArrayList<Long>();
+        Long l;
+
+        if (stringPattern == null)
+            return null;
+
+        String[] splitPattern = stringPattern.split(",");
+        int VIBRATE_PATTERN_MAX_SECONDS = 60000;
+        int VIBRATE_PATTERN_MAX_PATTERN = 100;
+
+        for (int i = 0; i < splitPattern.length; i++) {
+            try {
+                l = Long.parseLong(splitPattern[i].trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (l > VIBRATE_PATTERN_MAX_SECONDS) {
+                return null;
+            }
+            arrayListPattern.add(l);
+        }
+
+        int size = arrayListPattern.size();
+        if (size > 0 && size < VIBRATE_PATTERN_MAX_PATTERN) {
+            long[] pattern = new long[size];
+            for (int i = 0; i < pattern.length; i++) {
+                pattern[i] = arrayListPattern.get(i);
+            }
+            return pattern;
+        }
+
+        return null;
+    }
+
+    public static int[] parseLEDPattern(String stringPattern) {
+        int on, off;
+
+        if (stringPattern == null)
+            return null;
+
+        String[] splitPattern = stringPattern.split(",");
+
+        if (splitPattern.length != 2)
+            return null;
+
+        final int LED_PATTERN_MIN_SECONDS = 0;
+        final int LED_PATTERN_MAX_SECONDS = 60000;
+
+        try {
+            on = Integer.parseInt(splitPattern[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        try {
+            off = Integer.parseInt(splitPattern[1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (on >= LED_PATTERN_MIN_SECONDS && on <= LED_PATTERN_MAX_SECONDS
+                && off >= LED_PATTERN_MIN_SECONDS && off <= LED_PATTERN_MAX_SECONDS) {
+            return new int[] { on, off };
+        }
+
+        return null;
+    }
+}
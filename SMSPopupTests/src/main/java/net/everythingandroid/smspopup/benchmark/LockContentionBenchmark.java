@@ -0,0 +1,85 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import net.everythingandroid.smspopup.util.StripedLocks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Callers of SmsPopupUtils (the popup's AsyncTask, SmsMonitorService's observer and
+ * SmsReceiverService's lane) each making a provider call for their own message thread. classLock
+ * holds one monitor around the call, as the synchronized static methods did, threadLocks holds
+ * the per thread id stripe SmsPopupUtils now takes for writes (reads take no lock at all). The
+ * provider round trip is a park, like a blocking binder call it leaves the cpu to the other
+ * callers. waitNanos is the time callers spent waiting for the lock, divide by calls for the wait
+ * per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class LockContentionBenchmark {
+    @Param({ "200" })
+    public long providerMicros;
+
+    private static final Object CLASS_LOCK = new Object();
+    private final StripedLocks threadLocks = new StripedLocks(16);
+    private final AtomicInteger nextThreadId = new AtomicInteger(1);
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Caller {
+        public long waitNanos;
+        public long calls;
+        long threadId;
+
+        @Setup(Level.Trial)
+        public void setUp(LockContentionBenchmark benchmark) {
+            threadId = benchmark.nextThreadId.getAndIncrement();
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            waitNanos = 0;
+            calls = 0;
+        }
+    }
+
+    @Benchmark
+    public void classLock(Caller caller) {
+        call(caller, CLASS_LOCK);
+    }
+
+    @Benchmark
+    public void threadLocks(Caller caller) {
+        call(caller, threadLocks.get(caller.threadId));
+    }
+
+    private void call(Caller caller, Object lock) {
+        final long start = System.nanoTime();
+        synchronized (lock) {
+            caller.waitNanos += System.nanoTime() - start;
+            caller.calls++;
+            LockSupport.parkNanos(providerMicros * 1000);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.provider.SmsPopupContract;
+import net.everythingandroid.smspopup.provider.SmsPopupContract.ContactNotifications;
+import net.everythingandroid.smspopup.util.ManagePreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/*
+ * The preference reads made for each notification: a ManagePreferences for the sender (with and
+ * without per contact settings) followed by the getters the notification code calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManagePreferencesBenchmark {
+    // Stand in resource ids for the preference keys and defaults
+    private static final int PREF_ENABLED = 1;
+    private static final int PREF_ENABLED_DEFAULT = 2;
+    private static final int PREF_VIBRATE = 3;
+    private static final int PREF_VIBRATE_PATTERN = 4;
+    private static final int PREF_LED_PATTERN = 5;
+    private static final int PREF_LED_COLOR = 6;
+
+    private static final String CONTACT_LOOKUP = "0r12-2C3A";
+
+    private FakeContext context;
+
+    @Setup
+    public void setUp() {
+        context = new FakeContext();
+        context.putString(PREF_ENABLED, "notifications_enabled");
+        context.putString(PREF_ENABLED_DEFAULT, "true");
+        context.putString(PREF_VIBRATE, "vibrate_enabled");
+        context.putString(PREF_VIBRATE_PATTERN, "vibrate_pattern");
+        context.putString(PREF_LED_PATTERN, "led_pattern");
+        context.putString(PREF_LED_COLOR, "led_color");
+
+        context.getContentResolver().addProvider(SmsPopupContract.CONTENT_AUTHORITY,
+                new ContentProvider() {
+                    @Override
+                    public Cursor query(Uri uri, String[] projection, String selection,
+                            String[] selectionArgs, String sortOrder) {
+                        if (!CONTACT_LOOKUP.equals(uri.getLastPathSegment())) {
+                            return new MatrixCursor(new String[] { ContactNotifications._ID });
+                        }
+                        final MatrixCursor c = new MatrixCursor(new String[] {
+                                ContactNotifications._ID,
+                                ContactNotifications.CONTACT_LOOKUPKEY,
+                                ContactNotifications.ENABLED,
+                                ContactNotifications.VIBRATE_ENABLED,
+                                ContactNotifications.VIBRATE_PATTERN,
+                                ContactNotifications.LED_PATTERN,
+                                ContactNotifications.LED_COLOR });
+                        c.addRow(new Object[] { 7L, CONTACT_LOOKUP, "1", "1", "0,1200",
+                                "1000,1000", "Blue" });
+                        return c;
+                    }
+                });
+    }
+
+    private static int read(ManagePreferences prefs) {
+        int hash = 0;
+        hash += prefs.getBoolean(PREF_ENABLED, PREF_ENABLED_DEFAULT,
+                ContactNotifications.ENABLED) ? 1 : 0;
+        hash += prefs.getBoolean(PREF_VIBRATE, true,
+                ContactNotifications.VIBRATE_ENABLED) ? 1 : 0;
+        hash += prefs.getString(PREF_VIBRATE_PATTERN, "0,1200",
+                ContactNotifications.VIBRATE_PATTERN).length();
+        hash += prefs.getString(PREF_LED_PATTERN, "1000,1000",
+                ContactNotifications.LED_PATTERN).length();
+        hash += prefs.getString(PREF_LED_COLOR, "Yellow",
+                ContactNotifications.LED_COLOR).length();
+        return hash;
+    }
+
+    @Benchmark
+    public int defaultSettings() {
+        return read(new ManagePreferences(context, (String) null));
+    }
+
+    @Benchmark
+    public int contactSettings() {
+        return read(new ManagePreferences(context, CONTACT_LOOKUP));
+    }
+}
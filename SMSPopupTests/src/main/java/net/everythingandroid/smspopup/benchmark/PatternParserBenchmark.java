@@ -0,0 +1,54 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.everythingandroid.smspopup.util.PatternParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Parsing the vibrate and LED pattern preferences, done for every notification, against the
+ * String.split() parsers PatternParser replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternParserBenchmark {
+    @Param({ "0,1200", "0, 250, 200, 250, 200, 250, 200, 250, 200, 1000" })
+    public String vibratePattern;
+
+    @Param({ "1000,1000" })
+    public String ledPattern;
+
+    @Benchmark
+    public long[] parseVibratePattern() {
+        return PatternParser.parseVibratePattern(vibratePattern);
+    }
+
+    @Benchmark
+    public int[] parseLEDPattern() {
+        return PatternParser.parseLEDPattern(ledPattern);
+    }
+
+    @Benchmark
+    public long[] legacyParseVibratePattern() {
+        return LegacyPatternParser.parseVibratePattern(vibratePattern);
+    }
+
+    @Benchmark
+    public int[] legacyParseLEDPattern() {
+        return LegacyPatternParser.parseLEDPattern(ledPattern);
+    }
+}
@@ -0,0 +1,143 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.Pdus;
+import net.everythingandroid.smspopup.provider.MessageRecord;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+/*
+ * Message construction on receive: decoding the broadcast pdus into a MessageRecord, and the
+ * extras Bundle round trip every message makes between the receiver, the service and the popup.
+ * The marshalled round trips compare the single parcel extra toBundle() writes (which reminder
+ * PendingIntents need), the one extra per field bundles older versions wrote and the Parcelable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SmsMmsMessageBenchmark {
+    private static final String FROM = "+15555550123";
+    private static final String SHORT_BODY = "Running 10 minutes late, see you at the station";
+    private static final long TIMESTAMP = 1338553800000L;
+
+    private byte[][] singlePartPdus;
+    private byte[][] threePartPdus;
+    private SmsMmsMessage message;
+    private Bundle bundle;
+    private Bundle legacyBundle;
+    private FakeContext context;
+
+    @Setup
+    public void setUp() {
+        final StringBuilder longBody = new StringBuilder();
+        while (longBody.length() < 400) {
+            longBody.append(SHORT_BODY).append(". ");
+        }
+        singlePartPdus = Pdus.build(FROM, SHORT_BODY, 1);
+        threePartPdus = Pdus.build(FROM, longBody.substring(0, 400), 2);
+
+        context = new FakeContext();
+        context.putString(android.R.string.unknownName, "Unknown");
+        message = new SmsMmsMessage(context, FROM, SHORT_BODY, TIMESTAMP, "12", "lookup-12",
+                "Jane Smith", 3, 42, SmsMmsMessage.MESSAGE_TYPE_SMS);
+        bundle = message.toBundle();
+
+        final String prefix = "net.everythingandroid.smspopup.";
+        legacyBundle = new Bundle();
+        legacyBundle.putString(prefix + "EXTRAS_FROM_ADDRESS", FROM);
+        legacyBundle.putString(prefix + "EXTRAS_MESSAGE_BODY", SHORT_BODY);
+        legacyBundle.putLong(prefix + "EXTRAS_TIMESTAMP", TIMESTAMP);
+        legacyBundle.putString(prefix + "EXTRAS_CONTACT_ID", "12");
+        legacyBundle.putString(prefix + "EXTRAS_CONTACT_LOOKUP", "lookup-12");
+        legacyBundle.putString(prefix + "EXTRAS_CONTACT_NAME", "Jane Smith");
+        legacyBundle.putInt(prefix + "EXTRAS_UNREAD_COUNT", 3);
+        legacyBundle.putLong(prefix + "EXTRAS_THREAD_ID", 42);
+        legacyBundle.putInt(prefix + "EXTRAS_MESSAGE_TYPE", SmsMmsMessage.MESSAGE_TYPE_SMS);
+        legacyBundle.putBoolean(prefix + "EXTRAS_NOTIFY", true);
+        legacyBundle.putInt(prefix + "EXTRAS_REMINDER_COUNT", 0);
+        legacyBundle.putLong(prefix + "EXTRAS_MESSAGE_ID", 0);
+        legacyBundle.putBoolean(prefix + "EXTRAS_EMAIL_GATEWAY", false);
+    }
+
+    @Benchmark
+    public MessageRecord createRecordSinglePart() {
+        return SmsMmsMessage.createRecord(Pdus.decode(singlePartPdus), TIMESTAMP);
+    }
+
+    @Benchmark
+    public MessageRecord createRecordThreeParts() {
+        return SmsMmsMessage.createRecord(Pdus.decode(threePartPdus), TIMESTAMP);
+    }
+
+    @Benchmark
+    public Bundle toBundle() {
+        return message.toBundle();
+    }
+
+    @Benchmark
+    public SmsMmsMessage fromBundle() {
+        return new SmsMmsMessage(context, bundle);
+    }
+
+    @Benchmark
+    public SmsMmsMessage bundleRoundTrip() {
+        return new SmsMmsMessage(context, message.toBundle());
+    }
+
+    @Benchmark
+    public SmsMmsMessage bundleMarshalledRoundTrip() {
+        return marshalledRoundTrip(message.toBundle());
+    }
+
+    @Benchmark
+    public SmsMmsMessage legacyBundleMarshalledRoundTrip() {
+        return marshalledRoundTrip(new Bundle(legacyBundle));
+    }
+
+    private SmsMmsMessage marshalledRoundTrip(Bundle b) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(b);
+            final byte[] data = parcel.marshall();
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return new SmsMmsMessage(context, parcel.readBundle());
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Benchmark
+    public SmsMmsMessage parcelableMarshalledRoundTrip() {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeParcelable(message, 0);
+            final byte[] data = parcel.marshall();
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            final SmsMmsMessage copy =
+                    parcel.readParcelable(SmsMmsMessage.class.getClassLoader());
+            return new SmsMmsMessage(context, copy);
+        } finally {
+            parcel.recycle();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package net.everythingandroid.smspopup.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+import net.everythingandroid.smspopup.util.UnreadMessageCounter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The unread count worked out for each received message, against fake sms and mms providers
+ * holding the given number of unread messages. With countSupported false the providers reject
+ * the COUNT(*) projection and every unread row is fetched instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UnreadCountBenchmark {
+    @Param({ "10", "1000", "50000" })
+    public int unread;
+
+    @Param({ "true", "false" })
+    public boolean countSupported;
+
+    private FakeContext context;
+    private String newestBody;
+    private long newestDate;
+
+    @Setup
+    public void setUp() {
+        context = new FakeContext();
+        final FakeMessageProvider sms = new FakeMessageProvider();
+        final FakeMessageProvider mms = new FakeMessageProvider();
+        sms.setCountSupported(countSupported);
+        mms.setCountSupported(countSupported);
+
+        long date = 1338553800000L;
+        for (int i = 0; i < unread; i++) {
+            sms.addMessage(1 + i % 20, "+1555555" + (1000 + i % 20), date, "Message " + i, false);
+            date += 1000;
+        }
+        for (int i = 0; i < 10; i++) {
+            mms.addMessage(1 + i, "+15555551000", date - i, null, i % 2 == 0);
+        }
+        newestBody = "Message " + (unread - 1);
+        newestDate = date;
+
+        context.getContentResolver().addProvider("sms", sms);
+        context.getContentResolver().addProvider("mms", mms);
+    }
+
+    @Benchmark
+    public int getUnreadMessagesCount() {
+        return UnreadMessageCounter.getUnreadMessagesCount(context, newestDate, newestBody);
+    }
+}
@@ -0,0 +1,140 @@
+package net.everythingandroid.smspopup.controls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.provider.MessageRecord;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * MessageWindow driven the way SmsPopupPager drives it: older pages are inserted at the start as
+ * the user pages back from the message that opened the popup, and each page change trims the
+ * window and reloads dropped messages near the current page (straight away here, the pager does
+ * it in the background).
+ */
+public class MessageWindowTest {
+    private static final int MESSAGES = 500;
+    private static final int PAGE_SIZE = 20;
+    private static final int RADIUS = 30;
+    private static final int RELOAD_DISTANCE = 10;
+
+    private FakeContext context;
+    private HashMap<Long, SmsMmsMessage> database;
+    private MessageWindow window;
+
+    @Before
+    public void setUp() {
+        context = new FakeContext();
+        database = new HashMap<Long, SmsMmsMessage>();
+        window = new MessageWindow(RADIUS);
+        window.add(message(MESSAGES + 1));
+    }
+
+    @Test
+    public void memoryBoundedByWindow() {
+        int position = window.size() - 1;
+        int nextId = MESSAGES;
+        while (position > 0 || nextId > 0) {
+            if (position < 2 && nextId > 0) {
+                final ArrayList<SmsMmsMessage> page = new ArrayList<SmsMmsMessage>(PAGE_SIZE);
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    page.add(0, message(nextId--));
+                }
+                window.addAll(0, page, true);
+                position += PAGE_SIZE;
+            }
+            position--;
+            select(position);
+            // The reloadable messages either side of the current one and the opening message
+            assertTrue(window.getLoadedCount() <= 2 * RADIUS + 2);
+        }
+        assertEquals(MESSAGES + 1, window.size());
+
+        // Paging forward again every message is back before it is shown
+        for (; position < window.size(); position++) {
+            select(position);
+            assertEquals(position + 1, window.get(position).getMessageId());
+            assertTrue(window.getLoadedCount() <= 2 * RADIUS + 2);
+        }
+    }
+
+    @Test
+    public void keptMessagesNeverDropped() {
+        final ArrayList<SmsMmsMessage> page = new ArrayList<SmsMmsMessage>();
+        for (int i = 1; i <= 100; i++) {
+            page.add(message(i));
+        }
+        window.addAll(0, page, true);
+        window.add(message(0));
+
+        assertEquals(100 - RADIUS - 1, window.trim(0));
+        assertNotNull(window.get(100));
+        assertNotNull(window.get(101));
+        assertNull(window.get(99));
+        assertEquals(RADIUS + 1 + 2, window.getLoadedCount());
+        assertEquals(RADIUS + 1 + 2, window.getLoaded().size());
+    }
+
+    @Test
+    public void deletedMessagesFoundMissing() {
+        final ArrayList<SmsMmsMessage> page = new ArrayList<SmsMmsMessage>();
+        for (int i = 1; i <= 50; i++) {
+            page.add(message(i));
+        }
+        window.addAll(0, page, true);
+        window.trim(0);
+        database.remove(45L);
+
+        final long[] missing = window.getMissing(45, 5);
+        assertEquals(10, missing.length);
+        for (long id : missing) {
+            if (database.containsKey(id)) {
+                assertEquals(id - 1, window.fill(database.get(id)));
+            }
+        }
+        assertEquals(44, window.indexOfMissing(45));
+        assertEquals(-1, window.indexOfMissing(46));
+        window.remove(44);
+        assertEquals(50, window.size());
+        assertEquals(46, window.get(44).getMessageId());
+        assertEquals(window.getLoaded().size(), window.getLoadedCount());
+    }
+
+    @Test
+    public void nearestStandsIn() {
+        final ArrayList<SmsMmsMessage> page = new ArrayList<SmsMmsMessage>();
+        for (int i = 1; i <= 100; i++) {
+            page.add(message(i));
+        }
+        window.addAll(0, page, true);
+        window.trim(0);
+
+        assertEquals(RADIUS + 1, window.getNearest(60).getMessageId());
+        assertEquals(MESSAGES + 1, window.getNearest(95).getMessageId());
+    }
+
+    private void select(int position) {
+        window.trim(position);
+        for (long id : window.getMissing(position, RELOAD_DISTANCE)) {
+            window.fill(database.get(id));
+        }
+        assertNotNull(window.get(position));
+    }
+
+    private SmsMmsMessage message(long id) {
+        final SmsMmsMessage message = new SmsMmsMessage(context, new MessageRecord(
+                "+15555550123", "Message " + id, 1338553800000L + id,
+                SmsMmsMessage.MESSAGE_TYPE_SMS, false, 12, id), null, 1);
+        database.put(id, message);
+        return message;
+    }
+}
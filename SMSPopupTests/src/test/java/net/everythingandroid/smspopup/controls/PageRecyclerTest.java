@@ -0,0 +1,178 @@
+package net.everythingandroid.smspopup.controls;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/*
+ * PageRecycler behind a model of ViewPager.populate() with the default offscreen page limit of
+ * one: the current page and its neighbours are attached, pages that fall out of that range are
+ * destroyed and missing ones instantiated. The views are plain objects recording the message
+ * they are bound to, so each inflation SmsPopupPager would do is one create() here.
+ */
+public class PageRecyclerTest {
+    private static final int MESSAGES = 500;
+    private static final int MAX_RECYCLED = 3;
+
+    private List<String> messages;
+    private PageRecycler<PageView> recycler;
+    private Pager pager;
+
+    @Before
+    public void setUp() {
+        messages = new ArrayList<String>();
+        for (int i = 0; i < MESSAGES; i++) {
+            messages.add("message " + i);
+        }
+        recycler = new PageRecycler<PageView>(new PageRecycler.Binder<PageView>() {
+            @Override
+            public PageView create(int position) {
+                final PageView view = new PageView();
+                view.message = messages.get(position);
+                return view;
+            }
+
+            @Override
+            public void bind(PageView view, int position) {
+                view.message = messages.get(position);
+            }
+        }, MAX_RECYCLED);
+    }
+
+    @Test
+    public void pagingThroughMessagesInflatesBoundedViews() {
+        pager = new Pager(false);
+        pager.setCurrentItem(0);
+        for (int i = 1; i < MESSAGES; i++) {
+            pager.setCurrentItem(i);
+        }
+        for (int i = MESSAGES - 2; i >= 0; i--) {
+            pager.setCurrentItem(i);
+        }
+
+        // One view per attached page, the rest are rebinds
+        assertEquals(3, recycler.getCreatedCount());
+    }
+
+    @Test
+    public void instantiateBeforeDestroyStillBounded() {
+        pager = new Pager(true);
+        for (int i = 0; i < MESSAGES; i++) {
+            pager.setCurrentItem(i);
+        }
+        // Jumps (showLast(), notifications while paging) swap the whole window
+        for (int i = 0; i < 50; i++) {
+            pager.setCurrentItem((i * 137) % MESSAGES);
+        }
+        assertTrue("inflated " + recycler.getCreatedCount(),
+                recycler.getCreatedCount() <= 3 + MAX_RECYCLED);
+    }
+
+    @Test
+    public void positionsFollowInsertsAndRemovals() {
+        pager = new Pager(false);
+        pager.setCurrentItem(250);
+        final int created = recycler.getCreatedCount();
+
+        // Older messages loaded in at the start, the current message stays in view
+        final List<String> older = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            older.add("older " + i);
+        }
+        messages.addAll(0, older);
+        recycler.shift(0, older.size());
+        pager.notifyDataSetChanged(270);
+        assertEquals("message 250", pager.attached.get(1).view.message);
+
+        // Remove the current message, its neighbour moves into view
+        messages.remove(270);
+        recycler.remove(270);
+        pager.notifyDataSetChanged(270);
+        assertEquals("message 251", pager.attached.get(1).view.message);
+
+        messages.remove(0);
+        recycler.remove(0);
+        pager.notifyDataSetChanged(269);
+        assertEquals("message 251", pager.attached.get(1).view.message);
+
+        assertEquals(created, recycler.getCreatedCount());
+    }
+
+    private static class PageView {
+        String message;
+    }
+
+    /*
+     * The parts of ViewPager that drive the adapter. attached is kept in position order, like
+     * ViewPager's item list.
+     */
+    private class Pager {
+        final boolean instantiateFirst;
+        final List<PageRecycler.Page<PageView>> attached =
+                new ArrayList<PageRecycler.Page<PageView>>();
+
+        Pager(boolean instantiateFirst) {
+            this.instantiateFirst = instantiateFirst;
+        }
+
+        void setCurrentItem(int current) {
+            if (instantiateFirst) {
+                instantiate(current);
+                destroy(current);
+            } else {
+                destroy(current);
+                instantiate(current);
+            }
+            checkBindings();
+        }
+
+        /*
+         * getItemPosition() for each page, as after PagerAdapter.notifyDataSetChanged()
+         */
+        void notifyDataSetChanged(int current) {
+            for (Iterator<PageRecycler.Page<PageView>> i = attached.iterator(); i.hasNext();) {
+                final PageRecycler.Page<PageView> page = i.next();
+                if (page.getPosition() < 0) {
+                    i.remove();
+                    recycler.recycle(page);
+                }
+            }
+            setCurrentItem(current);
+        }
+
+        private void destroy(int current) {
+            for (Iterator<PageRecycler.Page<PageView>> i = attached.iterator(); i.hasNext();) {
+                final PageRecycler.Page<PageView> page = i.next();
+                if (Math.abs(page.getPosition() - current) > 1) {
+                    i.remove();
+                    recycler.recycle(page);
+                }
+            }
+        }
+
+        private void instantiate(int current) {
+            for (int position = Math.max(0, current - 1);
+                    position <= Math.min(messages.size() - 1, current + 1); position++) {
+                int index = 0;
+                while (index < attached.size() && attached.get(index).getPosition() < position) {
+                    index++;
+                }
+                if (index == attached.size() || attached.get(index).getPosition() != position) {
+                    attached.add(index, recycler.obtain(position));
+                }
+            }
+        }
+
+        private void checkBindings() {
+            for (PageRecycler.Page<PageView> page : attached) {
+                assertEquals(messages.get(page.getPosition()), page.view.message);
+            }
+        }
+    }
+}
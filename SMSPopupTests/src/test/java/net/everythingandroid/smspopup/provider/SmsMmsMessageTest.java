@@ -0,0 +1,187 @@
+package net.everythingandroid.smspopup.provider;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.Pdus;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.BadParcelableException;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.telephony.SmsMessage.MessageClass;
+
+public class SmsMmsMessageTest {
+    private FakeContext context;
+    private SmsMmsMessage message;
+
+    @Before
+    public void setUp() {
+        context = new FakeContext();
+        context.putString(android.R.string.unknownName, "Unknown");
+        message = new SmsMmsMessage(context, "+15555550123",
+                "Running 10 minutes late, see you at the station", 1338553800000L, "12",
+                "0r1-2C3A4E", "Jane Smith", 3, 42, SmsMmsMessage.MESSAGE_TYPE_SMS);
+        message.setNotify(false);
+    }
+
+    @Test
+    public void bundleHoldsOneByteArray() {
+        final Bundle b = message.toBundle();
+        assertEquals(1, b.size());
+        final String key = b.keySet().iterator().next();
+        assertTrue(key, b.get(key) instanceof byte[]);
+
+        final SmsMmsMessage copy = new SmsMmsMessage(context, unparcel(b));
+        assertSameBundle(b, copy.toBundle());
+    }
+
+    @Test
+    public void bundleSmallerThanLegacyExtras() {
+        assertTrue(marshall(message.toBundle()).length < marshall(legacyBundle()).length);
+    }
+
+    @Test
+    public void legacyBundleIsRead() {
+        final SmsMmsMessage copy = new SmsMmsMessage(context, unparcel(legacyBundle()));
+        assertSameBundle(message.toBundle(), copy.toBundle());
+    }
+
+    @Test
+    public void messageClassRoundTrip() {
+        final SmsMmsMessage received =
+                new SmsMmsMessage(context, Pdus.decode(Pdus.build("+15555550123", "Hi", 1)), 0);
+        assertEquals(MessageClass.UNKNOWN, received.getMessageClass());
+        assertEquals(MessageClass.UNKNOWN,
+                new SmsMmsMessage(context, received.toBundle()).getMessageClass());
+        assertNull(new SmsMmsMessage(context, message.toBundle()).getMessageClass());
+    }
+
+    @Test
+    public void parcelRoundTrip() {
+        final Parcel parcel = Parcel.obtain();
+        message.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        final SmsMmsMessage copy = SmsMmsMessage.CREATOR.createFromParcel(parcel);
+        assertSameBundle(message.toBundle(), copy.toBundle());
+    }
+
+    @Test
+    public void newerParcelFieldsAreSkipped() {
+        // A later version of the app with two more fields, followed by something else
+        final Parcel parcel = Parcel.obtain();
+        message.writeToParcel(parcel, 0);
+        parcel.writeString("a field from the future");
+        parcel.writeLong(7);
+        final int end = parcel.dataPosition();
+        parcel.writeInt(0xcafe);
+        // Version 3, length of everything after the version and length
+        parcel.setDataPosition(0);
+        parcel.writeInt(3);
+        parcel.writeInt(end - 8);
+        parcel.setDataPosition(0);
+
+        final SmsMmsMessage copy = SmsMmsMessage.CREATOR.createFromParcel(parcel);
+        assertSameBundle(message.toBundle(), copy.toBundle());
+        assertEquals(0xcafe, parcel.readInt());
+    }
+
+    @Test
+    public void version1ParcelIsRead() {
+        final Parcel parcel = Parcel.obtain();
+        parcel.writeInt(1);
+        parcel.writeString("+15555550123");
+        parcel.writeString("Running 10 minutes late, see you at the station");
+        parcel.writeLong(1338553800000L);
+        parcel.writeString("12");
+        parcel.writeString("0r1-2C3A4E");
+        parcel.writeString("Jane Smith");
+        parcel.writeInt(3);
+        parcel.writeLong(42);
+        parcel.writeInt(SmsMmsMessage.MESSAGE_TYPE_SMS);
+        parcel.writeInt(0);
+        parcel.writeLong(0);
+        parcel.writeInt(0);
+        parcel.setDataPosition(0);
+
+        final SmsMmsMessage copy = SmsMmsMessage.CREATOR.createFromParcel(parcel);
+        assertSameBundle(message.toBundle(), copy.toBundle());
+    }
+
+    @Test
+    public void badParcelIsRejected() {
+        final Parcel parcel = Parcel.obtain();
+        message.writeToParcel(parcel, 0);
+        parcel.setDataPosition(0);
+        parcel.writeInt(0);
+        parcel.setDataPosition(0);
+        try {
+            SmsMmsMessage.CREATOR.createFromParcel(parcel);
+            fail("read a version 0 parcel");
+        } catch (BadParcelableException e) {
+            // expected
+        }
+    }
+
+    /*
+     * The extras older versions of the app wrote for the message
+     */
+    private static Bundle legacyBundle() {
+        final String prefix = "net.everythingandroid.smspopup.";
+        final Bundle b = new Bundle();
+        b.putString(prefix + "EXTRAS_FROM_ADDRESS", "+15555550123");
+        b.putString(prefix + "EXTRAS_MESSAGE_BODY",
+                "Running 10 minutes late, see you at the station");
+        b.putLong(prefix + "EXTRAS_TIMESTAMP", 1338553800000L);
+        b.putString(prefix + "EXTRAS_CONTACT_ID", "12");
+        b.putString(prefix + "EXTRAS_CONTACT_LOOKUP", "0r1-2C3A4E");
+        b.putString(prefix + "EXTRAS_CONTACT_NAME", "Jane Smith");
+        b.putInt(prefix + "EXTRAS_UNREAD_COUNT", 3);
+        b.putLong(prefix + "EXTRAS_THREAD_ID", 42);
+        b.putInt(prefix + "EXTRAS_MESSAGE_TYPE", SmsMmsMessage.MESSAGE_TYPE_SMS);
+        b.putBoolean(prefix + "EXTRAS_NOTIFY", false);
+        b.putInt(prefix + "EXTRAS_REMINDER_COUNT", 0);
+        b.putLong(prefix + "EXTRAS_MESSAGE_ID", 0);
+        b.putBoolean(prefix + "EXTRAS_EMAIL_GATEWAY", false);
+        return b;
+    }
+
+    private static byte[] marshall(Bundle b) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(b);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Bundle unparcel(Bundle b) {
+        final byte[] data = marshall(b);
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            return parcel.readBundle();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static void assertSameBundle(Bundle expected, Bundle actual) {
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            if (expected.get(key) instanceof byte[]) {
+                assertArrayEquals(key, (byte[]) expected.get(key), (byte[]) actual.get(key));
+            } else {
+                assertEquals(key, expected.get(key), actual.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package net.everythingandroid.smspopup.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.function.LongSupplier;
+
+import net.everythingandroid.smspopup.util.Log;
+
+import org.junit.Test;
+
+import android.support.v4.util.LruCache;
+
+/*
+ * Allocation cost of logging on the receive path. The app classes are loaded three times, as a
+ * release build at its default level (warnings and errors, so the calls guarded by
+ * Log.isVerbose() are skipped), as a debug build with the level set to LEVEL_NONE and as a debug
+ * build logging everything. With logging disabled the debug build must allocate exactly what the
+ * release build does per message: no strings built and no primitives boxed for log calls that
+ * are then dropped. Surefire runs without escape analysis so
+ * the JIT can't hide (or vary) any of this.
+ */
+public class MessageNotifierAllocationTest {
+    private static final int WARMUP = 30;
+    private static final int ROUNDS = 10;
+
+    @Test
+    public void disabledLoggingDoesNotAllocate() throws Exception {
+        final Build release = new Build(false, Log.LEVEL_WARN);
+        final Build disabled = new Build(true, Log.LEVEL_NONE);
+        final Build verbose = new Build(true, Log.LEVEL_VERBOSE);
+
+        for (int i = 0; i < WARMUP; i++) {
+            release.workload.getAsLong();
+            disabled.workload.getAsLong();
+            verbose.workload.getAsLong();
+        }
+        final long releaseBytes = release.measure();
+        final long disabledBytes = disabled.measure();
+        final long verboseBytes = verbose.measure();
+
+        assertEquals("bytes per message with logging disabled", releaseBytes, disabledBytes);
+        assertEquals(0, release.logCount());
+        assertEquals(0, disabled.logCount());
+
+        // And the workload does log when enabled, so the comparison means something
+        assertTrue(verbose.logCount() > 0);
+        assertTrue(verboseBytes > releaseBytes + 100);
+    }
+
+    /*
+     * The app, fake and test classes loaded in their own class loader (not delegating to the
+     * application class loader) so each instance has its own Log and BuildConfig.
+     */
+    private static class Build {
+        final ClassLoader loader;
+        final LongSupplier workload;
+
+        Build(boolean debug, int level) throws Exception {
+            final URL[] urls = new URL[] {
+                    Log.class.getProtectionDomain().getCodeSource().getLocation(),
+                    MessageNotifierWorkload.class.getProtectionDomain().getCodeSource()
+                            .getLocation(),
+                    LruCache.class.getProtectionDomain().getCodeSource().getLocation() };
+            loader = new URLClassLoader(urls, ClassLoader.getPlatformClassLoader());
+
+            final String previous = System.setProperty("smspopup.debug", String.valueOf(debug));
+            try {
+                final Class<?> log =
+                        Class.forName("net.everythingandroid.smspopup.util.Log", true, loader);
+                assertEquals(debug, log.getField("DEBUG").getBoolean(null));
+                log.getMethod("setLevel", int.class).invoke(null, level);
+            } finally {
+                if (previous == null) {
+                    System.clearProperty("smspopup.debug");
+                } else {
+                    System.setProperty("smspopup.debug", previous);
+                }
+            }
+            workload = (LongSupplier) loader.loadClass(MessageNotifierWorkload.class.getName())
+                    .getConstructor().newInstance();
+        }
+
+        long measure() {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < ROUNDS; i++) {
+                min = Math.min(min, workload.getAsLong());
+            }
+            return min;
+        }
+
+        int logCount() throws Exception {
+            return (Integer) loader.loadClass("android.util.Log").getMethod("getCount")
+                    .invoke(null);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package net.everythingandroid.smspopup.service;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.LongSupplier;
+
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+import net.everythingandroid.smspopup.fakes.Pdus;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+import com.sun.management.ThreadMXBean;
+
+/*
+ * What SmsReceiverService does for a received SMS up to the point it shows the popup: build the
+ * SmsMmsMessage from the broadcast pdus and run MessageNotifier.decide(). Loaded by
+ * MessageNotifierAllocationTest in its own class loader, getAsLong() runs a batch and returns the
+ * bytes allocated per message.
+ */
+public class MessageNotifierWorkload implements LongSupplier {
+    private static final int BATCH = 2000;
+    private static final long TIMESTAMP = 1338553800000L;
+
+    private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final FakeContext context = new FakeContext();
+    private final byte[][] pdus = Pdus.build("+15555550123", "Running 10 minutes late", 1);
+    private int decisions = 0;
+
+    public MessageNotifierWorkload() {
+        context.putString(android.R.string.unknownName, "Unknown");
+        context.putString(R.string.pref_onlyShowOnKeyguard_key, "showonkeyguard");
+        context.putString(R.string.pref_popup_enabled_key, "popup");
+        context.putString(R.string.pref_notif_enabled_key, "notification");
+        context.putString(R.string.pref_docked_key, "docked");
+
+        final FakeMessageProvider sms = new FakeMessageProvider();
+        for (int i = 0; i < 3; i++) {
+            sms.addMessage(1, "+15555550123", TIMESTAMP - i * 1000, "Message " + i, false);
+        }
+        context.getContentResolver().addProvider("sms", sms);
+        context.getContentResolver().addProvider("mms", new FakeMessageProvider());
+    }
+
+    @Override
+    public long getAsLong() {
+        final long threadId = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < BATCH; i++) {
+            final SmsMmsMessage message =
+                    new SmsMmsMessage(context, Pdus.decode(pdus), TIMESTAMP);
+            decisions += MessageNotifier.decide(context, message);
+        }
+        return (threads.getThreadAllocatedBytes(threadId) - before) / BATCH;
+    }
+
+    public int getDecisions() {
+        return decisions;
+    }
+}
@@ -0,0 +1,186 @@
+package net.everythingandroid.smspopup.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+/*
+ * NotificationCoalescer on fake time: the coalescer's handler is on a looper driven from the test
+ * thread with runDue(), so nothing runs until the test moves the clock.
+ */
+public class NotificationCoalescerTest {
+    private static final int WINDOW = 1000;
+    private static final long START = 100000;
+
+    private FakeContext context;
+    private Looper looper;
+    private WorkLanes lanes;
+    private RecordingTarget target;
+    private NotificationCoalescer coalescer;
+    private int idle;
+
+    @Before
+    public void setUp() {
+        context = new FakeContext();
+        context.putString(android.R.string.unknownName, "Unknown");
+        SystemClock.setUptimeMillis(START);
+        if (Looper.myLooper() == null) {
+            Looper.prepare();
+        }
+        looper = Looper.myLooper();
+
+        idle = 0;
+        lanes = new WorkLanes("test", 1, new WorkLanes.Callback() {
+            @Override
+            public void onWork(Message msg) {
+            }
+
+            @Override
+            public void onIdle(int lastStartId) {
+                idle++;
+            }
+        });
+        target = new RecordingTarget();
+        coalescer = new NotificationCoalescer(new Handler(looper), WINDOW, lanes, target);
+    }
+
+    @After
+    public void tearDown() {
+        lanes.quit();
+        SystemClock.useRealTime();
+    }
+
+    @Test
+    public void singleMessageAlertsOnce() {
+        final SmsMmsMessage message = message(1);
+        post(0, message);
+        assertEquals("A1", target.calls());
+
+        advanceTo(WINDOW - 1);
+        assertEquals("A1", target.calls());
+        assertEquals(0, idle);
+
+        advanceTo(WINDOW);
+        assertEquals("A1 S1", target.calls());
+        assertSame(message, target.reminded.get(0));
+        assertEquals(1, idle);
+    }
+
+    @Test
+    public void burstAlertsOnceWithLatestCount() {
+        // A ten part multipart message, one part every 50ms
+        for (int i = 1; i <= 10; i++) {
+            post((i - 1) * 50, message(i));
+        }
+        assertEquals("A1", target.calls());
+
+        advanceTo(WINDOW - 1);
+        assertEquals("A1", target.calls());
+
+        // The window is counted from the first message, not extended by the rest
+        advanceTo(WINDOW);
+        assertEquals("A1 R10 S10", target.calls());
+        assertEquals(10, target.refreshed.get(0).getUnreadCount());
+        assertEquals(1, idle);
+
+        advanceTo(10 * WINDOW);
+        assertEquals("A1 R10 S10", target.calls());
+        assertEquals(0, looper.size());
+    }
+
+    @Test
+    public void separateBurstsAlertSeparately() {
+        post(0, message(1));
+        post(200, message(2));
+        advanceTo(WINDOW);
+
+        // Arrives as the first window closes: a new burst
+        post(WINDOW, message(3));
+        post(WINDOW + 999, message(4));
+        advanceTo(2 * WINDOW - 1);
+        assertEquals("A1 R2 S2 A3", target.calls());
+
+        advanceTo(2 * WINDOW);
+        assertEquals("A1 R2 S2 A3 R4 S4", target.calls());
+        assertEquals(2, idle);
+    }
+
+    @Test
+    public void messageOnWindowCloseStartsNewBurst() {
+        post(0, message(1));
+        // Due, but the queue hasn't been run yet: still part of the first burst
+        SystemClock.setUptimeMillis(START + WINDOW);
+        coalescer.post(message(2));
+        looper.runDue();
+        assertEquals("A1 R2 S2", target.calls());
+
+        post(WINDOW, message(3));
+        assertEquals("A1 R2 S2 A3", target.calls());
+    }
+
+    private void post(long at, SmsMmsMessage message) {
+        advanceTo(at);
+        coalescer.post(message);
+    }
+
+    private void advanceTo(long at) {
+        SystemClock.setUptimeMillis(START + at);
+        looper.runDue();
+    }
+
+    private SmsMmsMessage message(int unread) {
+        return new SmsMmsMessage(context, "+15555550123", "Part " + unread, START, "12",
+                "0r1-2C3A4E", "Jane Smith", unread, 42, SmsMmsMessage.MESSAGE_TYPE_SMS);
+    }
+
+    /*
+     * Records the calls as "A<count>" (alert), "R<count>" (refresh) and "S<count>" (reminder).
+     */
+    private static class RecordingTarget implements NotificationCoalescer.Target {
+        final StringBuilder calls = new StringBuilder();
+        final List<SmsMmsMessage> refreshed = new ArrayList<SmsMmsMessage>();
+        final List<SmsMmsMessage> reminded = new ArrayList<SmsMmsMessage>();
+
+        @Override
+        public void alert(SmsMmsMessage message) {
+            record('A', message);
+        }
+
+        @Override
+        public void refresh(SmsMmsMessage message) {
+            refreshed.add(message);
+            record('R', message);
+        }
+
+        @Override
+        public void scheduleReminder(SmsMmsMessage message) {
+            reminded.add(message);
+            record('S', message);
+        }
+
+        String calls() {
+            return calls.toString();
+        }
+
+        private void record(char call, SmsMmsMessage message) {
+            if (calls.length() > 0) {
+                calls.append(' ');
+            }
+            calls.append(call).append(message.getUnreadCount());
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package net.everythingandroid.smspopup.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import android.os.Message;
+
+/*
+ * Floods WorkLanes the way SmsReceiverService does, with the wake lock and start id handling of
+ * beginStartingService() / finishStartingService() modelled by StartedService.
+ */
+public class WorkLanesTest {
+    private static final int LANE_RECEIVE = 0;
+    private static final int LANE_SENT = 1;
+
+    private WorkLanes lanes;
+
+    @After
+    public void tearDown() {
+        if (lanes != null) {
+            lanes.quit();
+        }
+    }
+
+    @Test
+    public void floodKeepsOrderAndBalancesWakeLock() throws Exception {
+        final StartedService service = new StartedService();
+        lanes = new WorkLanes("test", 2, service);
+        service.lanes = lanes;
+
+        final Random random = new Random(42);
+        final int count = 5000;
+        for (int i = 0; i < count; i++) {
+            final Work work;
+            if (random.nextInt(4) == 0) {
+                work = new Work(LANE_SENT, 0, i, false);
+            } else {
+                // Some receives start an MMS style wait that finishes later on the lane
+                work = new Work(LANE_RECEIVE, 1 + random.nextInt(10), i, random.nextInt(50) == 0);
+            }
+            service.start(work);
+            if (random.nextInt(100) == 0) {
+                // Give the lanes a chance to drain so the service goes idle mid flood
+                Thread.sleep(1);
+            }
+        }
+
+        assertTrue("lanes never went idle", service.awaitStopped(10, TimeUnit.SECONDS));
+
+        assertEquals(count, service.handled.size());
+        assertFalse("wake lock still held", service.held);
+        assertTrue(service.acquires >= service.releases);
+        assertTrue(service.releases >= 1);
+        assertEquals("released with work outstanding", 0, service.earlyReleases);
+
+        // Per thread (and sent-status) order is the order the work was started in
+        final int[] last = new int[11];
+        int lastSent = -1;
+        Arrays.fill(last, -1);
+        for (Work work : service.handledCopy()) {
+            if (work.lane == LANE_SENT) {
+                assertTrue(work.seq > lastSent);
+                lastSent = work.seq;
+            } else {
+                assertTrue("thread " + work.threadId + " out of order",
+                        work.seq > last[work.threadId]);
+                last[work.threadId] = work.seq;
+            }
+        }
+    }
+
+    @Test
+    public void slowReceiveDoesNotBlockSent() throws Exception {
+        final StartedService service = new StartedService();
+        lanes = new WorkLanes("test", 2, service);
+        service.lanes = lanes;
+
+        final Work slow = new Work(LANE_RECEIVE, 1, 0, false);
+        slow.block = new CountDownLatch(1);
+        service.start(slow);
+        final Work sent = new Work(LANE_SENT, 0, 1, false);
+        service.start(sent);
+
+        assertTrue(sent.done.await(5, TimeUnit.SECONDS));
+        assertTrue(service.held);
+
+        slow.block.countDown();
+        assertTrue(service.awaitStopped(5, TimeUnit.SECONDS));
+        assertFalse(service.held);
+    }
+
+    private static class Work {
+        final int lane;
+        final int threadId;
+        final int seq;
+        final boolean waits;
+        final CountDownLatch done = new CountDownLatch(1);
+        CountDownLatch block;
+
+        Work(int lane, int threadId, int seq, boolean waits) {
+            this.lane = lane;
+            this.threadId = threadId;
+            this.seq = seq;
+            this.waits = waits;
+        }
+    }
+
+    /*
+     * Stands in for SmsReceiverService plus the platform: start() is beginStartingService()
+     * (acquire the non reference counted wake lock, start the service) followed by onStart(),
+     * onIdle() is finishStartingService(), where stopSelfResult() only succeeds for the latest
+     * start id.
+     */
+    private static class StartedService implements WorkLanes.Callback {
+        WorkLanes lanes;
+        final List<Work> handled = new ArrayList<Work>();
+
+        // Guarded by this
+        int latestStartId = 0;
+        int started = 0;
+        int pendingWaits = 0;
+        boolean held = false;
+        int acquires = 0;
+        int releases = 0;
+        int earlyReleases = 0;
+
+        void start(Work work) {
+            final int startId;
+            synchronized (this) {
+                held = true;
+                acquires++;
+                startId = ++latestStartId;
+                started++;
+            }
+            lanes.dispatch(work.lane, startId, 0, work);
+        }
+
+        @Override
+        public void onWork(Message msg) {
+            final Work work = (Work) msg.obj;
+            if (work.block != null) {
+                try {
+                    work.block.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (work.waits) {
+                synchronized (this) {
+                    pendingWaits++;
+                }
+                lanes.begin();
+                lanes.getLane(LANE_RECEIVE).postDelayed(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (StartedService.this) {
+                            pendingWaits--;
+                        }
+                        lanes.finish();
+                    }
+                }, 2);
+            }
+            synchronized (this) {
+                handled.add(work);
+            }
+            work.done.countDown();
+        }
+
+        @Override
+        public synchronized void onIdle(int lastStartId) {
+            if (lastStartId == latestStartId) {
+                if (handled.size() != started || pendingWaits != 0) {
+                    earlyReleases++;
+                }
+                held = false;
+                releases++;
+                notifyAll();
+            }
+        }
+
+        synchronized List<Work> handledCopy() {
+            return new ArrayList<Work>(handled);
+        }
+
+        synchronized boolean awaitStopped(long timeout, TimeUnit unit)
+                throws InterruptedException {
+            final long end = System.nanoTime() + unit.toNanos(timeout);
+            while (held || handled.size() != started) {
+                final long left = TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime());
+                if (left <= 0) {
+                    return false;
+                }
+                wait(left);
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.everythingandroid.smspopup.fakes.FakeContactsProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ContentResolver;
+import android.provider.ContactsContract;
+
+public class ContactNameSyncTest {
+    private ContentResolver resolver;
+    private FakeContactsProvider contacts;
+
+    // Our contacts table
+    private final long[] ids = { 1, 2, 3, 4, 5 };
+    private final String[] lookupKeys = { "k1", "k2", "k3", "stale", null };
+    private final String[] names = { "Jane Smith", "Bob", "Gone", "Old Name", "No Key" };
+
+    @Before
+    public void setUp() {
+        resolver = new ContentResolver();
+        contacts = new FakeContactsProvider();
+        resolver.addProvider(ContactsContract.AUTHORITY, contacts);
+
+        contacts.addContact("k1", "Jane Smith");
+        contacts.addContact("k2", " Robert Jones ");
+        // k3 was removed from the system contacts
+        contacts.addContact("k4-joined", "New Name");
+        contacts.addStaleKey("stale", "k4-joined");
+    }
+
+    @Test
+    public void renamesAndDeletesRemovedContacts() {
+        final ContactNameSync sync = sync();
+        assertEquals(Arrays.asList(3L), sync.getDeletes());
+        assertEquals(Arrays.asList(2L, 4L), sync.getRenameIds());
+        assertEquals(Arrays.asList("Robert Jones", "New Name"), sync.getRenameNames());
+        assertEquals(0, sync.getFailedCount());
+    }
+
+    @Test
+    public void failedProviderDeletesNothing() {
+        contacts.setFailing(true);
+        final ContactNameSync sync = sync();
+        assertEquals(0, sync.getDeletes().size());
+        assertEquals(0, sync.getRenameIds().size());
+        assertEquals(4, sync.getFailedCount());
+    }
+
+    @Test
+    public void missingProviderDeletesNothing() {
+        resolver = new ContentResolver();
+        final ContactNameSync sync = sync();
+        assertEquals(0, sync.getDeletes().size());
+        assertEquals(4, sync.getFailedCount());
+    }
+
+    @Test
+    public void failedLookupDeletesNothing() {
+        // The chunk query answers but the single lookups for keys it didn't find fail
+        contacts.setLookupFailing(true);
+        final ContactNameSync sync = sync();
+        assertEquals(0, sync.getDeletes().size());
+        assertEquals(Arrays.asList(2L), sync.getRenameIds());
+        assertEquals(2, sync.getFailedCount());
+    }
+
+    @Test
+    public void thousandRowsInChunks() {
+        final int rows = 1000;
+        contacts = new FakeContactsProvider();
+        resolver.addProvider(ContactsContract.AUTHORITY, contacts);
+        final long[] manyIds = new long[rows];
+        final String[] manyKeys = new String[rows];
+        final String[] manyNames = new String[rows];
+        for (int i = 0; i < rows; i++) {
+            manyIds[i] = i + 1;
+            manyKeys[i] = "key" + i;
+            manyNames[i] = "Contact " + i;
+            if (i % 100 != 7) {
+                contacts.addContact(manyKeys[i], i % 10 == 0 ? "Renamed " + i : manyNames[i]);
+            }
+        }
+
+        final List<Integer> progress = new ArrayList<Integer>();
+        final ContactNameSync sync = new ContactNameSync(resolver);
+        sync.sync(manyIds, manyKeys, manyNames, new ContactNameSync.ProgressListener() {
+            @Override
+            public void onProgress(int done) {
+                progress.add(done);
+            }
+        });
+
+        // One query per chunk of 100 plus one lookup per key not found in its chunk
+        assertEquals(10 + 10, sync.getQueryCount());
+        assertEquals(10, sync.getDeletes().size());
+        assertEquals(100, sync.getRenameIds().size());
+        assertEquals(10, progress.size());
+        assertEquals(Integer.valueOf(rows), progress.get(progress.size() - 1));
+        for (int i = 1; i < progress.size(); i++) {
+            assertTrue(progress.get(i) > progress.get(i - 1));
+        }
+    }
+
+    private ContactNameSync sync() {
+        final ContactNameSync sync = new ContactNameSync(resolver);
+        sync.sync(ids, lookupKeys, names, null);
+        return sync;
+    }
+}
@@ -0,0 +1,148 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class LogCollectorTest {
+    private static final String[] LINES = {
+            "I/SMSPopup-Receive( 1234): SMS received",
+            "D/dalvikvm( 1234): GC_CONCURRENT freed 512K, 48% free 3046K/5767K, paused 2ms+3ms",
+            "V/SMSPopup-Notify( 1234): ^^^^^^Not showing SMS Popup, using notifications",
+            "W/ActivityManager(  150): Activity pause timeout for HistoryRecord{41234567}",
+            "V/SMSPopup-Prefs( 1234): contactLookupKey = 0r1-2C3A",
+            "E/AndroidRuntime( 1234): FATAL EXCEPTION: main",
+            "I/OtherApp( 4321): forwarded to SMSPopup-Receive and SMSPopup",
+    };
+
+    // The LINES from our tags (and crashes)
+    private static final int[] OURS = { 0, 2, 4, 5 };
+
+    @Test
+    public void keepsOnlyOurLines() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        for (String line : LINES) {
+            input.append(line).append('\n');
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int size = LogCollector.collect(
+                new ByteArrayInputStream(input.toString().getBytes()), out, 1024);
+
+        final String expected = LINES[0] + "\n" + LINES[2] + "\n" + LINES[4] + "\n" + LINES[5]
+                + "\n";
+        assertEquals(expected, gunzip(out.toByteArray()));
+        assertEquals(expected.length(), size);
+    }
+
+    @Test
+    public void matchesTheTagNotTheMessage() {
+        assertTrue(LogCollector.isOurs("V/SMSPopup( 1234): message"));
+        assertTrue(LogCollector.isOurs("W/SMSPopup-Messages   ( 1234): message"));
+        assertFalse(LogCollector.isOurs("V/SMSPopup-Other( 1234): message"));
+        assertFalse(LogCollector.isOurs("V/XSMSPopup( 1234): message"));
+        assertFalse(LogCollector.isOurs("I/OtherApp( 4321): SMSPopup( 1234)"));
+        assertFalse(LogCollector.isOurs("--------- beginning of /dev/log/main"));
+        assertFalse(LogCollector.isOurs(""));
+    }
+
+    @Test
+    public void capHoldsForLargeInput() throws IOException {
+        final long inputSize = 50L * 1024 * 1024;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        final int size = LogCollector.collect(
+                new SyntheticLog(inputSize), out, LogCollector.MAX_LOG_SIZE);
+
+        final String log = gunzip(out.toByteArray());
+        assertEquals(size, log.length());
+        assertTrue(size <= LogCollector.MAX_LOG_SIZE);
+        assertTrue(size > LogCollector.MAX_LOG_SIZE - 100);
+        // Repetitive logging compresses well
+        assertTrue(out.size() < size / 20);
+
+        // Whole lines, ours, in the order they were read
+        final String[] lines = log.split("\n");
+        int next = 0;
+        while (!LINES[OURS[next]].equals(lines[0])) {
+            next++;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals(LINES[OURS[(next + i) % OURS.length]], lines[i]);
+        }
+    }
+
+    @Test
+    public void runawayLoggingKeepsNewestLines() throws IOException {
+        final StringBuilder input = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            input.append("V/SMSPopup-Messages( 1234): line ").append(i).append('\n');
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogCollector.collect(new ByteArrayInputStream(input.toString().getBytes()), out, 4096);
+
+        final String[] lines = gunzip(out.toByteArray()).split("\n");
+        assertEquals("V/SMSPopup-Messages( 1234): line 9999", lines[lines.length - 1]);
+        final int first = 10000 - lines.length;
+        assertTrue(first > 0);
+        for (int i = 0; i < lines.length; i++) {
+            assertEquals("V/SMSPopup-Messages( 1234): line " + (first + i), lines[i]);
+        }
+    }
+
+    private static String gunzip(byte[] gzipped) throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(gzipped))));
+        final StringBuilder result = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            result.append(line).append('\n');
+        }
+        return result.toString();
+    }
+
+    /*
+     * logcat style output cycling through LINES, generated as it is read.
+     */
+    private static class SyntheticLog extends InputStream {
+        private final byte[] cycle;
+        private long remaining;
+        private int position = 0;
+
+        SyntheticLog(long size) {
+            final StringBuilder lines = new StringBuilder();
+            for (String line : LINES) {
+                lines.append(line).append('\n');
+            }
+            cycle = lines.toString().getBytes();
+            remaining = size;
+        }
+
+        @Override
+        public int read() {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0];
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            final int count = (int) Math.min(Math.min(len, remaining), cycle.length - position);
+            System.arraycopy(cycle, position, b, off, count);
+            position = (position + count) % cycle.length;
+            remaining -= count;
+            return count;
+        }
+    }
+}
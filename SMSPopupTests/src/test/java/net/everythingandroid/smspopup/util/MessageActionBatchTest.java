@@ -0,0 +1,149 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import net.everythingandroid.smspopup.R;
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+import net.everythingandroid.smspopup.provider.SmsMmsMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.preference.PreferenceManager;
+
+/*
+ * Round trips are counted on the fake sms and mms providers, which like the system ones apply a
+ * batch without a transaction.
+ */
+public class MessageActionBatchTest {
+    private static final int SMS = SmsMmsMessage.MESSAGE_TYPE_SMS;
+    private static final int MMS = SmsMmsMessage.MESSAGE_TYPE_MMS;
+
+    private FakeContext context;
+    private FakeMessageProvider sms;
+    private FakeMessageProvider mms;
+
+    @Before
+    public void setUp() {
+        context = new FakeContext();
+        context.putString(R.string.pref_markread_key, "markread");
+        setMarkRead(true);
+        sms = new FakeMessageProvider();
+        mms = new FakeMessageProvider();
+        context.getContentResolver().addProvider("sms", sms);
+        context.getContentResolver().addProvider("mms", mms);
+    }
+
+    @Test
+    public void oneRoundTripPerAuthority() {
+        final MessageActionBatch batch = new MessageActionBatch();
+        final long[] smsIds = new long[20];
+        for (int i = 0; i < smsIds.length; i++) {
+            smsIds[i] = sms.addMessage(1, "+15555550101", i, "Message " + i, false);
+            if (i % 2 == 0) {
+                batch.markRead(smsIds[i], SMS);
+            } else {
+                batch.delete(smsIds[i], SMS);
+            }
+        }
+        final long[] mmsIds = new long[10];
+        for (int i = 0; i < mmsIds.length; i++) {
+            mmsIds[i] = mms.addMessage(2, "+15555550102", i, "Picture " + i, false);
+            if (i % 2 == 0) {
+                batch.markRead(mmsIds[i], MMS);
+            } else {
+                batch.delete(mmsIds[i], MMS);
+            }
+        }
+
+        final List<MessageActionBatch.Result> results = batch.apply(context);
+
+        assertEquals(1, sms.getWriteRoundTrips());
+        assertEquals(1, mms.getWriteRoundTrips());
+        assertEquals(30, results.size());
+        for (MessageActionBatch.Result result : results) {
+            assertTrue(result.success);
+        }
+        for (int i = 0; i < smsIds.length; i++) {
+            assertEquals(i % 2 == 0 ? Integer.valueOf(1) : null, sms.get(smsIds[i], "read"));
+        }
+        for (int i = 0; i < mmsIds.length; i++) {
+            assertEquals(i % 2 == 0 ? Integer.valueOf(1) : null, mms.get(mmsIds[i], "read"));
+        }
+        assertTrue(batch.isEmpty());
+    }
+
+    @Test
+    public void failuresReportedPerItem() {
+        final long deleted = sms.addMessage(1, "+15555550201", 1, "One", false);
+        final long failing = sms.addMessage(1, "+15555550201", 2, "Two", false);
+        final long read = sms.addMessage(1, "+15555550201", 3, "Three", false);
+        sms.setWriteFailing(failing);
+
+        final MessageActionBatch batch = new MessageActionBatch();
+        batch.delete(deleted, SMS);
+        batch.markRead(failing, SMS);
+        batch.markRead(read, SMS);
+        final List<MessageActionBatch.Result> results = batch.apply(context);
+
+        // The batch stops at the failing row with the delete already made, then each of the four
+        // operations (the delete is a mark read then a delete) is retried on its own
+        assertEquals(1 + 4, sms.getWriteRoundTrips());
+        assertTrue(results.get(0).success);
+        assertFalse(results.get(1).success);
+        assertEquals(failing, results.get(1).messageId);
+        assertEquals(MessageActionBatch.ACTION_MARK_READ, results.get(1).action);
+        assertTrue(results.get(2).success);
+
+        assertNull(sms.get(deleted, "_id"));
+        assertEquals(0, sms.get(failing, "read"));
+        assertEquals(1, sms.get(read, "read"));
+    }
+
+    @Test
+    public void markReadOffOnlyDeletes() {
+        setMarkRead(false);
+        final long unread = sms.addMessage(1, "+15555550301", 1, "One", false);
+        final long deleted = sms.addMessage(1, "+15555550301", 2, "Two", false);
+
+        final MessageActionBatch batch = new MessageActionBatch();
+        batch.markRead(unread, SMS);
+        batch.delete(deleted, SMS);
+        final List<MessageActionBatch.Result> results = batch.apply(context);
+
+        assertEquals(1, sms.getWriteRoundTrips());
+        assertEquals(1, sms.getWriteCount());
+        assertTrue(results.get(0).success);
+        assertTrue(results.get(1).success);
+        assertEquals(0, sms.get(unread, "read"));
+        assertNull(sms.get(deleted, "_id"));
+    }
+
+    @Test
+    public void unknownMessagesFail() {
+        final long missing = sms.addMessage(1, "+15555550401", 1, "One", false) + 100;
+
+        final MessageActionBatch batch = new MessageActionBatch();
+        batch.markRead(0, SMS);
+        batch.delete(12, SmsMmsMessage.MESSAGE_TYPE_MESSAGE);
+        batch.markRead(missing, SMS);
+        final List<MessageActionBatch.Result> results = batch.apply(context);
+
+        assertFalse(results.get(0).success);
+        assertFalse(results.get(1).success);
+        assertFalse(results.get(2).success);
+        assertEquals(1, sms.getWriteRoundTrips());
+        assertEquals(0, mms.getWriteRoundTrips());
+    }
+
+    private void setMarkRead(boolean markRead) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putBoolean("markread", markRead).commit();
+    }
+}
@@ -0,0 +1,91 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+
+/*
+ * The fake provider, like the conversation UNION on a device, only sorts by plain columns and
+ * drops selectionArgs.
+ */
+public class MessageIdLookupTest {
+    private static final Uri THREAD = Uri.parse("content://mms-sms/conversations/12");
+    private static final long TIMESTAMP = 1338553800000L;
+    private static final int BUFFER = 5000;
+
+    private ContentResolver resolver;
+    private FakeMessageProvider provider;
+
+    @Before
+    public void setUp() {
+        resolver = new ContentResolver();
+        provider = new FakeMessageProvider();
+        resolver.addProvider("mms-sms", provider);
+    }
+
+    @Test
+    public void closestInWindowWins() {
+        provider.addMessage(12, "+15555550123", TIMESTAMP - 4000, "On my way", false);
+        final long closest =
+                provider.addMessage(12, "+15555550123", TIMESTAMP + 500, "On my way", false);
+        provider.addMessage(12, "+15555550123", TIMESTAMP + 3000, "On my way", false);
+        provider.addMessage(12, "+15555550123", TIMESTAMP + 100, "Something else", false);
+        provider.addMessage(12, "+15555550123", TIMESTAMP + 60000, "On my way", false);
+
+        assertEquals(closest, window("On my way"));
+        assertEquals(1, provider.getQueryCount());
+    }
+
+    @Test
+    public void nothingInWindow() {
+        provider.addMessage(12, "+15555550123", TIMESTAMP - 60000, "On my way", false);
+        assertEquals(0, window("On my way"));
+    }
+
+    @Test
+    public void unrestrictedTakesNewest() {
+        provider.addMessage(12, "+15555550123", TIMESTAMP - 60000, "On my way", false);
+        final long newest =
+                provider.addMessage(12, "+15555550123", TIMESTAMP + 60000, "On my way", false);
+        provider.addMessage(12, "+15555550123", TIMESTAMP, "On my way", false);
+        assertEquals(newest, MessageIdLookup.query(resolver, THREAD, "On my way", 0, 0));
+    }
+
+    @Test
+    public void nullBody() {
+        final long id = provider.addMessage(12, "+15555550123", TIMESTAMP, null, false);
+        provider.addMessage(12, "+15555550123", TIMESTAMP, "On my way", false);
+        assertEquals(id, window(null));
+    }
+
+    @Test
+    public void bodyIsQuoted() {
+        provider.addMessage(12, "+15555550123", TIMESTAMP, "Don't", false);
+        final long id = provider.addMessage(12, "+15555550123", TIMESTAMP + 10,
+                "Don't forget milk and eggs or bread", false);
+        provider.addMessage(13, "+15555550124", TIMESTAMP, "Don't forget milk and eggs or bread",
+                false);
+        assertEquals(id, window("Don't forget milk and eggs or bread"));
+    }
+
+    @Test
+    public void boundArgsMatchNothing() {
+        provider.addMessage(12, "+15555550123", TIMESTAMP, "On my way", false);
+        final Cursor c = resolver.query(THREAD, new String[] { "_id" }, "body = ?",
+                new String[] { "On my way" }, null);
+        assertEquals(0, c.getCount());
+        c.close();
+    }
+
+    private long window(String body) {
+        return MessageIdLookup.query(resolver, THREAD, body, TIMESTAMP - BUFFER,
+                TIMESTAMP + BUFFER);
+    }
+}
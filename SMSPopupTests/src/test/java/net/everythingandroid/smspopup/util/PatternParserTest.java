@@ -0,0 +1,78 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Random;
+
+import net.everythingandroid.smspopup.benchmark.LegacyPatternParser;
+
+import org.junit.Test;
+
+/*
+ * PatternParser must accept and reject exactly what the old String.split() / parseLong() parsers
+ * did. Besides the hand picked cases, patterns are generated from fragments that hit the edges:
+ * signs, whitespace, empty and trailing values, non ASCII digits, range limits and overflow.
+ */
+public class PatternParserTest {
+    private static final int GENERATED = 200000;
+
+    private static final String[] FRAGMENTS = {
+            "0", "1", "9", "10", "250", "1200", "60000", "60001", "99999",
+            "9223372036854775807", "9223372036854775808", "-9223372036854775808",
+            "2147483647", "2147483648", "-", "+", "-0", "+0", "-5", "+5", " ", "\t", "\n",
+            ",", ",,", "a", "x1", "1x", ".", "1.5", "1e3", "١٢", "５",
+            "०", "²", "Ⅷ", "\u0000",
+    };
+
+    private static final String[] CASES = {
+            null, "", ",", ",,", "0", "0,1200", "0, 250, 200, 250", " 0 ,1200 ", "0,1200,",
+            "0,1200,,", ",0,1200", "0,,1200", "0,60000", "0,60001", "-1,5", "+1,5", "-0",
+            "0,-", "0,+", "1000,1000", "1000, 1000", "1000,1000,", "1000,1000,1000",
+            "-0,-0", "60000,60000", "60001,0", "١٢,٣", "５,０",
+            "9223372036854775807", "9223372036854775808", "-9223372036854775808",
+            "2147483648,0", "1²,0", "Ⅷ,0",
+    };
+
+    @Test
+    public void knownCasesMatchLegacy() {
+        for (String pattern : CASES) {
+            assertSameAsLegacy(pattern);
+        }
+    }
+
+    @Test
+    public void generatedPatternsMatchLegacy() {
+        final Random random = new Random(15);
+        final StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < GENERATED; i++) {
+            pattern.setLength(0);
+            final int fragments = random.nextInt(8);
+            for (int j = 0; j < fragments; j++) {
+                if (j > 0 && random.nextInt(3) != 0) {
+                    pattern.append(',');
+                }
+                pattern.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+            }
+            assertSameAsLegacy(pattern.toString());
+        }
+    }
+
+    @Test
+    public void longPatternsMatchLegacy() {
+        final StringBuilder pattern = new StringBuilder("0");
+        for (int i = 1; i < 120; i++) {
+            assertSameAsLegacy(pattern.toString());
+            pattern.append(',').append(i);
+        }
+        assertNull(PatternParser.parseVibratePattern(pattern));
+    }
+
+    private static void assertSameAsLegacy(String pattern) {
+        final String message = pattern == null ? "null" : "\"" + pattern + "\"";
+        assertArrayEquals(message, LegacyPatternParser.parseVibratePattern(pattern),
+                PatternParser.parseVibratePattern(pattern));
+        assertArrayEquals(message, LegacyPatternParser.parseLEDPattern(pattern),
+                PatternParser.parseLEDPattern(pattern));
+    }
+}
@@ -0,0 +1,141 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeThreadsProvider;
+
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import android.net.Uri;
+
+/*
+ * ThreadIdCache's observer is registered once per process, so the context and provider are shared
+ * by the tests and each test uses its own addresses.
+ */
+public class ThreadIdCacheTest {
+    private static final Uri CONVERSATIONS = Uri.parse("content://mms-sms/conversations/");
+
+    private static FakeContext context;
+    private static FakeThreadsProvider threads;
+
+    @BeforeClass
+    public static void setUpClass() {
+        context = new FakeContext();
+        threads = new FakeThreadsProvider();
+        context.getContentResolver().addProvider("mms-sms", threads);
+    }
+
+    @Before
+    public void setUp() {
+        ThreadIdCache.invalidate();
+        threads.setBarrier(0);
+        threads.setConversationsFailing(false);
+    }
+
+    @Test
+    public void lookupsForDifferentAddressesRunInParallel() throws Exception {
+        final int lookups = 8;
+        threads.setBarrier(lookups);
+
+        // Each lookup is held in the provider until all of them are in it, serialized lookups
+        // would each time out waiting for the rest
+        final AtomicLongArray results = new AtomicLongArray(lookups);
+        final Thread[] callers = new Thread[lookups];
+        final long start = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            final int n = i;
+            callers[i] = new Thread() {
+                @Override
+                public void run() {
+                    results.set(n, ThreadIdCache.lookup(context, address("+1555555010", n)));
+                }
+            };
+            callers[i].start();
+        }
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000;
+
+        assertEquals(lookups, threads.getMaxConcurrent());
+        assertTrue(elapsed < 5000);
+        for (int i = 0; i < lookups; i++) {
+            assertTrue(results.get(i) > 0);
+        }
+
+        // And they are cached
+        final int queries = threads.getThreadIdQueries();
+        for (int i = 0; i < lookups; i++) {
+            assertEquals(results.get(i), ThreadIdCache.lookup(context, address("+1555555010", i)));
+        }
+        assertEquals(queries, threads.getThreadIdQueries());
+    }
+
+    @Test
+    public void changesKeepThreadsThatStillExist() {
+        final long a = ThreadIdCache.lookup(context, "+15555550201");
+        final long b = ThreadIdCache.lookup(context, "+15555550202");
+        final int queries = threads.getThreadIdQueries();
+        final int checks = threads.getConversationQueries();
+
+        // A message received, one query to check the cached threads
+        context.getContentResolver().notifyChange(CONVERSATIONS, null);
+        assertEquals(checks + 1, threads.getConversationQueries());
+
+        assertEquals(a, ThreadIdCache.lookup(context, "+15555550201"));
+        assertEquals(b, ThreadIdCache.lookup(context, "+15555550202"));
+        assertEquals(queries, threads.getThreadIdQueries());
+    }
+
+    @Test
+    public void deletedThreadIsDropped() {
+        final long a = ThreadIdCache.lookup(context, "+15555550301");
+        final long b = ThreadIdCache.lookup(context, "+15555550302");
+        final int queries = threads.getThreadIdQueries();
+
+        threads.deleteThread(a);
+        context.getContentResolver().notifyChange(CONVERSATIONS, null);
+
+        assertEquals(b, ThreadIdCache.lookup(context, "+15555550302"));
+        assertEquals(queries, threads.getThreadIdQueries());
+
+        final long newA = ThreadIdCache.lookup(context, "+15555550301");
+        assertFalse(newA == a);
+        assertEquals(queries + 1, threads.getThreadIdQueries());
+    }
+
+    @Test
+    public void failedCheckDropsEverything() {
+        ThreadIdCache.lookup(context, "+15555550401");
+        final int queries = threads.getThreadIdQueries();
+
+        threads.setConversationsFailing(true);
+        context.getContentResolver().notifyChange(CONVERSATIONS, null);
+
+        ThreadIdCache.lookup(context, "+15555550401");
+        assertEquals(queries + 1, threads.getThreadIdQueries());
+    }
+
+    @Test
+    public void removeThreadDropsOnlyThatThread() {
+        final long a = ThreadIdCache.lookup(context, "+15555550501");
+        ThreadIdCache.lookup(context, "+15555550502");
+        final int queries = threads.getThreadIdQueries();
+
+        ThreadIdCache.removeThread(a);
+        assertEquals(0, ThreadIdCache.get(context, "+15555550501"));
+        assertTrue(ThreadIdCache.get(context, "+15555550502") > 0);
+        assertEquals(queries, threads.getThreadIdQueries());
+    }
+
+    private static String address(String prefix, int n) {
+        return prefix + n;
+    }
+}
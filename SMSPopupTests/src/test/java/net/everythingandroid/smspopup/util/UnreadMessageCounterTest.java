@@ -0,0 +1,131 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+
+public class UnreadMessageCounterTest {
+    private static final long DATE = 1338553800000L;
+
+    private FakeContext context;
+    private FakeMessageProvider sms;
+    private FakeMessageProvider mms;
+
+    @Before
+    public void setUp() {
+        UnreadMessageCounter.resetCountSupport();
+        context = new FakeContext();
+        sms = new FakeMessageProvider();
+        mms = new FakeMessageProvider();
+        for (int i = 0; i < 5; i++) {
+            sms.addMessage(1, "5551234", DATE + i, "Message " + i, i == 0);
+        }
+        mms.addMessage(2, "5555678", DATE, null, false);
+        mms.addMessage(2, "5555678", DATE + 1, null, true);
+        context.getContentResolver().addProvider("sms", sms);
+        context.getContentResolver().addProvider("mms", mms);
+    }
+
+    @Test
+    public void countsUnreadSmsAndMms() {
+        assertEquals(5, UnreadMessageCounter.getUnreadMessagesCount(context, DATE, "Message 4"));
+        // Body not in the provider yet, the arriving message is added on
+        assertEquals(6, UnreadMessageCounter.getUnreadMessagesCount(context, DATE, "Message 5"));
+    }
+
+    @Test
+    public void fallsBackWhenCountRejected() {
+        sms.setCountSupported(false);
+        mms.setCountSupported(false);
+        assertEquals(5, UnreadMessageCounter.getUnreadMessagesCount(context, DATE, "Message 4"));
+
+        // Rejection is remembered, no more count queries are sent
+        final int queries = sms.getQueryCount();
+        sms.setCountSupported(true);
+        assertEquals(5, UnreadMessageCounter.getUnreadMessagesCount(context, DATE, "Message 4"));
+        assertEquals(queries + 1, sms.getQueryCount());
+    }
+
+    @Test
+    public void mmsRejectionKeepsSmsCount() {
+        mms.setCountSupported(false);
+        assertEquals(5, UnreadMessageCounter.getUnreadMessagesCount(context, DATE, "Message 4"));
+
+        // sms still counted with COUNT(*) plus the newest body check
+        final int queries = sms.getQueryCount();
+        assertEquals(4, UnreadMessageCounter.getUnreadSmsCount(context, 0, null));
+        assertEquals(queries + 1, sms.getQueryCount());
+    }
+
+    @Test
+    public void sqliteErrorDisablesCount() {
+        context.getContentResolver().addProvider("sms", new FailingProvider(sms,
+                new SQLiteException("no such column: count(*)")));
+        assertEquals(4, UnreadMessageCounter.getUnreadSmsCount(context, 0, null));
+
+        final int queries = sms.getQueryCount();
+        assertEquals(4, UnreadMessageCounter.getUnreadSmsCount(context, 0, null));
+        assertEquals(queries + 1, sms.getQueryCount());
+    }
+
+    @Test
+    public void transientFailureKeepsCount() {
+        context.getContentResolver().addProvider("sms",
+                new FailingProvider(sms, new IllegalStateException("database is locked")));
+        assertEquals(4, UnreadMessageCounter.getUnreadSmsCount(context, 0, null));
+
+        // Next call counts with COUNT(*) again
+        context.getContentResolver().addProvider("sms", sms);
+        final int queries = sms.getQueryCount();
+        assertEquals(4, UnreadMessageCounter.getUnreadSmsCount(context, 0, null));
+        assertEquals(queries + 1, sms.getQueryCount());
+    }
+
+    @Test
+    public void missingProviderKeepsCount() {
+        context.getContentResolver().addProvider("mms", new FailingProvider(mms, null));
+        // Counted from the rows this time
+        assertEquals(1, UnreadMessageCounter.getUnreadMmsCount(context));
+
+        context.getContentResolver().addProvider("mms", mms);
+        final int queries = mms.getQueryCount();
+        assertEquals(1, UnreadMessageCounter.getUnreadMmsCount(context));
+        assertEquals(queries + 1, mms.getQueryCount());
+    }
+
+    /*
+     * Fails the first count query with the given exception (or returns a null cursor when it is
+     * null), everything else goes to the wrapped provider.
+     */
+    private static class FailingProvider extends android.content.ContentProvider {
+        private final FakeMessageProvider provider;
+        private final RuntimeException error;
+        private boolean failed = false;
+
+        FailingProvider(FakeMessageProvider provider, RuntimeException error) {
+            this.provider = provider;
+            this.error = error;
+        }
+
+        @Override
+        public Cursor query(Uri uri, String[] projection, String selection,
+                String[] selectionArgs, String sortOrder) {
+            if (!failed && projection != null && "count(*)".equals(projection[0])) {
+                failed = true;
+                if (error != null) {
+                    throw error;
+                }
+                return null;
+            }
+            return provider.query(uri, projection, selection, selectionArgs, sortOrder);
+        }
+    }
+}
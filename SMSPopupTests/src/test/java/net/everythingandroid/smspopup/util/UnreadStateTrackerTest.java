@@ -0,0 +1,157 @@
+package net.everythingandroid.smspopup.util;
+
+import static org.junit.Assert.assertEquals;
+
+import net.everythingandroid.smspopup.fakes.FakeContext;
+import net.everythingandroid.smspopup.fakes.FakeMessageProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+public class UnreadStateTrackerTest {
+    private static final long DATE = 1338553800000L;
+
+    private FakeContext context;
+    private FakeMessageProvider sms;
+    private FakeMessageProvider mms;
+    private UnreadStateTracker tracker;
+    private long date = DATE;
+
+    @Before
+    public void setUp() {
+        context = new FakeContext();
+        sms = new FakeMessageProvider();
+        mms = new FakeMessageProvider();
+        context.getContentResolver().addProvider("sms", sms);
+        context.getContentResolver().addProvider("mms", mms);
+        tracker = new UnreadStateTracker(context);
+    }
+
+    @Test
+    public void firstRefreshLoadsState() {
+        addSms(true);
+        addSms(false);
+        addSms(false);
+        mms.addMessage(1, "5551234", DATE / 1000, null, false);
+
+        assertChange(tracker.refresh(), 3, 0, 0);
+        assertChange(tracker.refresh(), 3, 0, 0);
+    }
+
+    @Test
+    public void readAndArrivalInSameWindow() {
+        final long first = addSms(false);
+        addSms(false);
+        assertChange(tracker.refresh(), 2, 0, 0);
+
+        // Count is unchanged, but one was read and one arrived
+        markRead(sms, "sms", first);
+        addSms(false);
+        assertChange(tracker.refresh(), 2, 1, 1);
+    }
+
+    @Test
+    public void deletedUnreadCountsAsRead() {
+        final long first = addSms(false);
+        addSms(false);
+        assertChange(tracker.refresh(), 2, 0, 0);
+
+        sms.delete(Uri.parse("content://sms/" + first), null, null);
+        assertChange(tracker.refresh(), 1, 0, 1);
+    }
+
+    @Test
+    public void arrivalAlreadyReadIsNotCounted() {
+        addSms(false);
+        assertChange(tracker.refresh(), 1, 0, 0);
+
+        addSms(true);
+        mms.addMessage(1, "5551234", DATE / 1000, null, false);
+        assertChange(tracker.refresh(), 2, 1, 0);
+    }
+
+    @Test
+    public void manyUnread() {
+        final long[] ids = new long[150];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = addSms(false);
+        }
+        assertChange(tracker.refresh(), 150, 0, 0);
+
+        for (int i = 0; i < 10; i++) {
+            markRead(sms, "sms", ids[i * 7]);
+        }
+        addSms(false);
+        assertChange(tracker.refresh(), 141, 1, 10);
+    }
+
+    @Test
+    public void refreshOnlyFetchesNewRows() {
+        for (int i = 0; i < 50; i++) {
+            addSms(true);
+        }
+        addSms(false);
+        tracker.refresh();
+
+        // One query returning the new message and the known unread one
+        final int queries = sms.getQueryCount();
+        final int rows = sms.getRowsReturned();
+        addSms(false);
+        assertChange(tracker.refresh(), 2, 1, 0);
+        assertEquals(queries + 1, sms.getQueryCount());
+        assertEquals(rows + 2, sms.getRowsReturned());
+    }
+
+    @Test
+    public void markedUnreadAgain() {
+        final long first = addSms(true);
+        addSms(false);
+        assertChange(tracker.refresh(), 1, 0, 0);
+
+        setRead(sms, "sms", first, 0);
+        final UnreadStateTracker.Change change = tracker.refresh();
+        assertChange(change, 2, 0, 0);
+        assertEquals(1, change.markedUnread);
+
+        assertEquals(0, tracker.refresh().markedUnread);
+    }
+
+    @Test
+    public void failedQueryKeepsState() {
+        addSms(false);
+        tracker.refresh();
+
+        context.getContentResolver().addProvider("sms", null);
+        assertChange(tracker.refresh(), 1, 0, 0);
+
+        context.getContentResolver().addProvider("sms", sms);
+        addSms(false);
+        assertChange(tracker.refresh(), 2, 1, 0);
+    }
+
+    private long addSms(boolean read) {
+        date += 1000;
+        return sms.addMessage(1, "5551234", date, "Message " + date, read);
+    }
+
+    private static void markRead(FakeMessageProvider provider, String authority, long id) {
+        setRead(provider, authority, id, 1);
+    }
+
+    private static void setRead(FakeMessageProvider provider, String authority, long id,
+            int read) {
+        final ContentValues values = new ContentValues(1);
+        values.put("read", read);
+        provider.update(Uri.parse("content://" + authority + "/" + id), values, null, null);
+    }
+
+    private static void assertChange(UnreadStateTracker.Change change, int unread, int arrived,
+            int read) {
+        assertEquals("unread", unread, change.unreadCount);
+        assertEquals("arrived", arrived, change.arrived);
+        assertEquals("read", read, change.read);
+    }
+}